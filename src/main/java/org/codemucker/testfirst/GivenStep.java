@@ -5,6 +5,9 @@ import java.util.concurrent.Callable;
 import org.codemucker.testfirst.Scenario.Deleter;
 import org.codemucker.testfirst.Scenario.Inserter;
 import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.Scenario.Updater;
+import org.codemucker.testfirst.metrics.Counter;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
 
 public class GivenStep extends ThenStep {
 	
@@ -17,6 +20,11 @@ public class GivenStep extends ThenStep {
 		return "given";
 	}
 	
+	@Override
+	Counter getExecutedCounter() {
+		return FrameworkMetrics.STEPS_GIVEN;
+	}
+	
 	public GivenStep given(Invoker invoker) {
 		GivenStep step = new GivenStep(scenario, invoker);
 		step.run(invoker);
@@ -35,6 +43,12 @@ public class GivenStep extends ThenStep {
 		return step;
 	}
 	
+	public GivenStep given(Updater updater) {
+		GivenStep step = new GivenStep(scenario, updater);
+		step.run(updater);
+		return step;
+	}
+	
 	public GivenStep given(Runnable runnable) {
 		GivenStep step = new GivenStep(scenario, runnable);
 		step.run(runnable);
@@ -49,6 +63,7 @@ public class GivenStep extends ThenStep {
 	
 	public <T> GivenStep given(Object instance) {
 		GivenStep step = new GivenStep(scenario, instance);
+		step.runNothing();
 		return step;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package org.codemucker.testfirst;
+
+/**
+ * Invoked before the first step of a scenario is run. If registered after the scenario has started it is invoked immediately
+ */
+public interface IRunOnScenarioStart {
+	public void onScenarioStart();
+}
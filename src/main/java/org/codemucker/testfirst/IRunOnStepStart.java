@@ -0,0 +1,11 @@
+package org.codemucker.testfirst;
+
+/**
+ * Invoked as each step of a scenario is added, before it is run
+ */
+public interface IRunOnStepStart {
+	/**
+	 * @param kind the kind of step, such as 'given', 'when' or 'then'
+	 */
+	public void onStepStart(String kind);
+}
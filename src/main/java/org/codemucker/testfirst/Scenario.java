@@ -1,11 +1,25 @@
 package org.codemucker.testfirst;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 import org.codemucker.jmatch.*;
+import org.codemucker.testfirst.contention.ContentionMonitor;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.journal.ScenarioJournal;
+import org.codemucker.testfirst.report.ScenarioReport;
+import org.codemucker.testfirst.report.ScenarioReporter;
+import org.codemucker.testfirst.report.ScenarioReporters;
+import org.codemucker.testfirst.report.StepReport;
+import org.codemucker.testfirst.resource.ResourceTracker;
+import org.codemucker.testfirst.sample.StackSampler;
+import org.codemucker.testfirst.tx.TransactionalResource;
+import org.codemucker.testfirst.tx.UnitOfWork;
 
 import com.google.common.base.Preconditions;
 
@@ -13,12 +27,33 @@ public class Scenario {
 
 	private Injector injector = NullInjector.Instance;
 	
+	private List<IRunOnScenarioStart> onScenarioStartListeners = new ArrayList<IRunOnScenarioStart>();
 	private List<IRunOnScenarioEnd> onScenearioEndListeners = new ArrayList<IRunOnScenarioEnd>();
+	private List<IRunOnScenarioEnd> afterEndChecks = new ArrayList<IRunOnScenarioEnd>();
+	private List<IRunOnStepStart> onStepStartListeners = new ArrayList<IRunOnStepStart>();
 	private String name;
+	private boolean started = false;
+	private UnitOfWork unitOfWork;
+	private long startMillis;
+	private long startNanos;
 	
 	private List<Step> steps = new ArrayList<Step>();
 	
-	enum State {
+	/**
+	 * Reporters for this scenario only, in addition to those in {@link ScenarioReporters}
+	 */
+	private List<ScenarioReporter> reporters;
+	private boolean reported = false;
+	
+	private ScenarioJournal journal = ScenarioJournal.getDefault();
+	private long journalId;
+	private int journalNameId;
+	
+	private StackSampler sampler = StackSampler.getDefault();
+	
+	private static final int MAX_ARG_SUMMARY_LENGTH = 200;
+	
+	public enum State {
 		NotRun, Passed,Failed
 	}
 	
@@ -30,35 +65,188 @@ public class Scenario {
 		Preconditions.checkNotNull(injector,"expect injector");
 		this.name = name;
 		this.injector = injector;
+		if(injector instanceof IRunOnScenarioStart){
+			registerOnStartListener((IRunOnScenarioStart)injector);		
+		}
 		if(injector instanceof IRunOnScenarioEnd){
 			registerOnEndListener((IRunOnScenarioEnd)injector);		
 		}
+		if(injector instanceof IRunOnStepStart){
+			registerOnStepStartListener((IRunOnStepStart)injector);		
+		}
 	}
 	
 	public String getName(){
 		return name;
 	}
 	
+	Injector getInjector(){
+		return injector;
+	}
+	
 	public <T> T inject(T instance){
 		if( instance == null || instance.getClass().isPrimitive()){
 			return instance;
 		}
 		T injected = injector.inject(instance);
+		if(instance instanceof IRunOnScenarioStart){
+			registerOnStartListener((IRunOnScenarioStart)instance);
+		}
 		if(instance instanceof IRunOnScenarioEnd){
 			registerOnEndListener((IRunOnScenarioEnd)instance);
 		}
+		if(instance instanceof IRunOnStepStart){
+			registerOnStepStartListener((IRunOnStepStart)instance);
+		}
 		return injected;
 	}
 	
+	/**
+	 * Create a runner for repeating when/then steps in a tight loop without per iteration garbage. See {@link SteadyState}
+	 */
+	public SteadyState steadyState(){
+		return new SteadyState(this);
+	}
+	
+	/**
+	 * Register a resource to be rolled back in a single operation on scenario end. The unit of work is opened before the first step, or
+	 * immediately if the scenario has already started. Rollback happens before any other scenario end listeners are run
+	 * 
+	 * @param resource
+	 * @return this
+	 */
+	public Scenario transactional(TransactionalResource resource){
+		Preconditions.checkNotNull(resource,"expect resource");
+		if(unitOfWork == null){
+			unitOfWork = new UnitOfWork();
+			if(started){
+				unitOfWork.onScenarioStart();
+			}
+		}
+		unitOfWork.add(resource);
+		return this;
+	}
+	
+	private void registerOnStartListener(IRunOnScenarioStart listener){
+		if( !onScenarioStartListeners.contains(listener)){
+			onScenarioStartListeners.add(listener);
+			if(started){
+				runOnStartListener(listener);
+			}
+		}
+	}
+	
 	private void registerOnEndListener(IRunOnScenarioEnd listener){
 		if( !onScenearioEndListeners.contains(listener)){
 			onScenearioEndListeners.add(listener);
 		}
 	}
 	
+	private void registerOnStepStartListener(IRunOnStepStart listener){
+		if( !onStepStartListeners.contains(listener)){
+			onStepStartListeners.add(listener);
+		}
+	}
+	
 	public void assertHasRunAndPassed(){
-		runOnEndListeners();
-		
+		List<StepReport> stepReports = null;
+		try {
+			cancelOpenSampling();
+			runOnEndListeners();
+			assertEndsWithThen();
+			if(isReporting()){
+				//snapshot before the after end checks release the steps
+				stepReports = reportSteps();
+			}
+			runAfterEndChecks();
+		} catch(RuntimeException | Error e){
+			if(isReporting()){
+				publish(State.Failed, e.getMessage(), stepReports == null ? reportSteps() : stepReports);
+			}
+			throw e;
+		}
+		if(isReporting()){
+			publish(State.Passed, null, stepReports);
+		}
+	}
+	
+	/**
+	 * Sample the stacks of this scenario's steps with the given sampler instead of {@link StackSampler#getDefault()}, keeping the samples of
+	 * slow steps
+	 * 
+	 * @param sampler the sampler, or null to not sample
+	 * @return this
+	 */
+	public Scenario sampleWith(StackSampler sampler){
+		this.sampler = sampler;
+		return this;
+	}
+	
+	/**
+	 * @return a sampling of the current thread, or null if not sampling
+	 */
+	StackSampler.Session startSampling(){
+		return sampler == null ? null : sampler.start();
+	}
+	
+	/**
+	 * Journal this scenario's steps to the given journal instead of {@link ScenarioJournal#getDefault()}
+	 * 
+	 * @param journal
+	 * @return this
+	 */
+	public Scenario journalTo(ScenarioJournal journal){
+		Preconditions.checkNotNull(journal,"expect journal");
+		this.journal = journal;
+		this.journalId = 0;
+		return this;
+	}
+	
+	ScenarioJournal getJournal(){
+		return journal;
+	}
+	
+	long getJournalId(){
+		if(journalId == 0){
+			journalId = journal.newScenarioId();
+			journalNameId = journal.intern(name);
+		}
+		return journalId;
+	}
+	
+	int getJournalNameId(){
+		getJournalId();
+		return journalNameId;
+	}
+	
+	/**
+	 * Also send this scenario's report to the given reporter, in addition to those registered in {@link ScenarioReporters}
+	 * 
+	 * @param reporter
+	 * @return this
+	 */
+	public Scenario reportTo(ScenarioReporter reporter){
+		Preconditions.checkNotNull(reporter,"expect reporter");
+		if(reporters == null){
+			reporters = new ArrayList<ScenarioReporter>();
+		}
+		reporters.add(reporter);
+		return this;
+	}
+	
+	/**
+	 * Steps that threw outside of their own failure handling never stopped sampling
+	 */
+	private void cancelOpenSampling(){
+		for(int i = 0; i < steps.size(); i++){
+			steps.get(i).cancelSampling();
+		}
+	}
+	
+	/**
+	 * Separate method so the step iteration doesn't keep the steps reachable from this frame while the after end checks run
+	 */
+	private void assertEndsWithThen(){
 		//TODO. check all steps have run
 		boolean requiresAssert = false;
 		for(Step step : steps){
@@ -77,14 +265,178 @@ public class Scenario {
 		}
 	}
 	
+	/**
+	 * Register a check to be run once the scenario has ended and everything has been torn down, such as checking for leaks. By this point the
+	 * scenario no longer references its steps or listeners. Checks are run in the order registered
+	 * 
+	 * @param check
+	 * @return this
+	 */
+	public Scenario afterEnd(IRunOnScenarioEnd check){
+		Preconditions.checkNotNull(check,"expect check");
+		afterEndChecks.add(check);
+		return this;
+	}
+	
+	/**
+	 * Snapshot process resources (threads, file descriptors, buffer memory, classes) on scenario start, and fail if they have grown beyond the
+	 * tracker's thresholds once the scenario has been torn down
+	 * 
+	 * @param tracker
+	 * @return this
+	 */
+	public Scenario trackResources(ResourceTracker tracker){
+		Preconditions.checkNotNull(tracker,"expect tracker");
+		registerOnStartListener(tracker);
+		afterEnd(tracker);
+		return this;
+	}
+	
+	/**
+	 * Measure lock contention over this scenario's when steps, for checking in then steps
+	 * 
+	 * @param monitor
+	 * @return this
+	 */
+	public Scenario monitorContention(ContentionMonitor monitor){
+		Preconditions.checkNotNull(monitor,"expect monitor");
+		registerOnStepStartListener(monitor);
+		registerOnEndListener(monitor);
+		return this;
+	}
+	
+	private void runAfterEndChecks(){
+		if(afterEndChecks.isEmpty()){
+			return;
+		}
+		List<IRunOnScenarioEnd> checks = afterEndChecks;
+		afterEndChecks = new ArrayList<IRunOnScenarioEnd>();
+		//release everything the scenario holds so it can't keep objects alive
+		steps = new ArrayList<Step>();
+		onScenarioStartListeners = new ArrayList<IRunOnScenarioStart>();
+		onStepStartListeners = new ArrayList<IRunOnStepStart>();
+		unitOfWork = null;
+		for(IRunOnScenarioEnd check : checks){
+			check.onScenarioEnd();
+		}
+	}
+	
 	TestFirstRuntimeException stepFailed(Step step, Exception e){
 		String msg = stepsToString(step, "failed  <-- " + e.getMessage());
-		return new TestFirstRuntimeException(msg, e);
+		TestFirstRuntimeException failure = new TestFirstRuntimeException(msg, e);
+		reportFailed(failure);
+		return failure;
+	}
+	
+	/**
+	 * Report the scenario as failed at the point a step failed, as the scenario won't get as far as being asserted
+	 */
+	void reportFailed(Throwable failure){
+		if(isReporting()){
+			publish(State.Failed, failure.getMessage(), reportSteps());
+		}
+	}
+	
+	private boolean isReporting(){
+		return !reported && (reporters != null || ScenarioReporters.hasAny());
+	}
+	
+	private void publish(State state, String failure, List<StepReport> stepReports){
+		reported = true;
+		long durationNanos = started ? System.nanoTime() - startNanos : 0;
+		ScenarioReport report = new ScenarioReport(name, state, Thread.currentThread().getName(), startMillis, durationNanos, failure, stepReports);
+		for(ScenarioReporter reporter : ScenarioReporters.getAll()){
+			reporter.report(report);
+		}
+		if(reporters != null){
+			for(ScenarioReporter reporter : reporters){
+				reporter.report(report);
+			}
+		}
+	}
+	
+	private List<StepReport> reportSteps(){
+		List<StepReport> reports = new ArrayList<StepReport>(steps.size());
+		int count = 0;
+		for(Step step : steps){
+			count++;
+			reports.add(new StepReport(count, step.getShortName(), summariseArgs(step.args), step.getState(), Math.max(0, step.getStartNanos() - startNanos), step.getDurationNanos(), step.getDiagnostics(), step.getStackSamples()));
+		}
+		return reports;
+	}
+	
+	private static String summariseArgs(Object[] args){
+		if(args == null){
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < args.length; i++){
+			if( i > 0){
+				sb.append(",");
+			}
+			summariseArg(sb, args[i]);
+			if(sb.length() > MAX_ARG_SUMMARY_LENGTH){
+				sb.setLength(MAX_ARG_SUMMARY_LENGTH);
+				sb.append("...");
+				break;
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Only values whose string form is known to be small are shown in full, anything else by its type, so large step args such as caches
+	 * or collections cost nothing to report
+	 */
+	private static void summariseArg(StringBuilder sb, Object arg){
+		if(arg == null || arg instanceof Number || arg instanceof Boolean || arg instanceof Character || arg instanceof Enum || arg instanceof Class){
+			sb.append(arg);
+		} else if(arg instanceof CharSequence){
+			CharSequence chars = (CharSequence)arg;
+			sb.append(chars, 0, Math.min(chars.length(), MAX_ARG_SUMMARY_LENGTH + 1));
+		} else if(arg instanceof Collection){
+			sb.append(arg.getClass().getName()).append("[size=").append(((Collection<?>)arg).size()).append("]");
+		} else if(arg instanceof Map){
+			sb.append(arg.getClass().getName()).append("[size=").append(((Map<?,?>)arg).size()).append("]");
+		} else if(arg.getClass().isArray()){
+			sb.append(arg.getClass().getComponentType().getName()).append("[").append(Array.getLength(arg)).append("]");
+		} else {
+			sb.append(arg.getClass().getName());
+		}
+	}
+	
+	private void runOnStartListeners(){
+		started = true;
+		startMillis = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+		if(unitOfWork != null){
+			unitOfWork.onScenarioStart();
+		}
+		for(IRunOnScenarioStart listener : new ArrayList<IRunOnScenarioStart>(onScenarioStartListeners)){
+			runOnStartListener(listener);
+		}
+	}
+	
+	private void runOnStartListener(IRunOnScenarioStart listener){
+		try{
+			listener.onScenarioStart();
+		} catch(Exception e){
+			throw new TestFirstRuntimeException("Listener " + listener.getClass().getName() + " threw exception on scenario start", e);
+		}
 	}
 	
 	private void runOnEndListeners(){
 		List<IRunOnScenarioEnd> listeners = new ArrayList<IRunOnScenarioEnd>(onScenearioEndListeners);
 		Collections.reverse(listeners);
+		//roll back before anything else is torn down, as teardown may close the underlying resources
+		if(unitOfWork != null){
+			listeners.add(0, unitOfWork);
+		}
+		
+		//likewise anything the injector will roll back, as other listeners run before the injector tears down
+		if(injector instanceof TestInjector){
+			listeners.add(unitOfWork == null ? 0 : 1, ((TestInjector)injector).getUnitOfWork());
+		}
 		
 		onScenearioEndListeners = null;
 		for(IRunOnScenarioEnd listener : listeners){
@@ -114,6 +466,12 @@ public class Scenario {
 		return step;
 	}
 	
+	public GivenStep given(Updater updater) {
+		GivenStep step = new GivenStep(this, updater);
+		step.run(updater);
+		return step;
+	}
+	
 	public GivenStep given(Runnable runnable) {
 		GivenStep step = new GivenStep(this, runnable);
 		step.run(runnable);
@@ -128,14 +486,31 @@ public class Scenario {
 	
 	public <T> GivenStep given(Object instance) {
 		GivenStep step = new GivenStep(this, instance);
+		step.runNothing();
 		return step;
 	}
 	
 	<T extends Step> T addStep(T step){
+		if(!started){
+			runOnStartListeners();
+		}
 		steps.add(step);
+		step.setIndex(steps.size());
+		//repeated steps only know their kind once constructed, so start each run themselves
+		if(step.getKind() != null){
+			stepStarted(step.getKind());
+		}
 		return step;
 	}
 	
+	void stepStarted(String kind){
+		//indexed rather than an iterator, as steady state runs call this every iteration
+		List<IRunOnStepStart> listeners = onStepStartListeners;
+		for(int i = 0; i < listeners.size(); i++){
+			listeners.get(i).onStepStart(kind);
+		}
+	}
+	
 	String stepsToString(){
 		return stepsToString(null, null);
 	}
@@ -167,6 +542,9 @@ public class Scenario {
 			}
 			sb.append(step.args);
 			sb.append(")");
+			if(step.getStackSamples() != null){
+				sb.append(" [stack samples: ").append(step.getStackSamples()).append("]");
+			}
 			//if required, show which step failed
 			if(uptoStep == step){
 				sb.append(" <-- ").append(msg);
@@ -0,0 +1,202 @@
+package org.codemucker.testfirst;
+
+import java.util.Arrays;
+
+import org.codemucker.jmatch.MatchDiagnostics;
+import org.codemucker.jmatch.Matcher;
+import org.codemucker.testfirst.Scenario.Deleter;
+import org.codemucker.testfirst.Scenario.Fetcher;
+import org.codemucker.testfirst.Scenario.Inserter;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.Scenario.Updater;
+import org.codemucker.testfirst.metrics.Counter;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+
+/**
+ * Runs repeated when/then steps in a tight loop, such as in a soak scenario, without producing garbage per iteration on the success path.
+ * 
+ * <p>The first time a step object (and matcher) is seen a single step record is created, injected and added to the scenario. Subsequent runs of
+ * the same instances reuse that record via an identity check, so there is no step allocation, varargs array, injection lookup or match diagnostics.
+ * Diagnostics are only gathered once a match has failed. The scenario steps show each distinct step once, with how many times it ran</p>
+ * 
+ * <pre>
+ * SteadyState loop = scenario.steadyState();
+ * for(int i = 0; i &lt; 1000000; i++){
+ *     loop.when(sendMessage).then(fetchLastReply, isOk);
+ * }
+ * </pre>
+ * 
+ * <p>Not thread safe, use one per thread</p>
+ */
+public class SteadyState {
+
+	/**
+	 * The kinds of step a record can be for
+	 */
+	private static final boolean WHEN = true;
+	private static final boolean THEN = false;
+
+	private final Scenario scenario;
+	
+	private RepeatedStep[] records = new RepeatedStep[8];
+	private int size = 0;
+	/**
+	 * Where the last record was found. Loops normally repeat the same steps in the same order, so the next record is checked first
+	 */
+	private int last = -1;
+
+	SteadyState(Scenario scenario) {
+		this.scenario = scenario;
+	}
+
+	public SteadyState when(Invoker invoker) {
+		RepeatedStep step = record(WHEN, invoker, null);
+		try {
+			invoker.invoke();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.ran();
+		return this;
+	}
+
+	public SteadyState when(Inserter inserter) {
+		RepeatedStep step = record(WHEN, inserter, null);
+		try {
+			inserter.insert();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.ran();
+		return this;
+	}
+
+	public SteadyState when(Deleter deleter) {
+		RepeatedStep step = record(WHEN, deleter, null);
+		try {
+			deleter.delete();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.ran();
+		return this;
+	}
+
+	public SteadyState when(Updater updater) {
+		RepeatedStep step = record(WHEN, updater, null);
+		try {
+			updater.update();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.ran();
+		return this;
+	}
+
+	public SteadyState when(Runnable runnable) {
+		RepeatedStep step = record(WHEN, runnable, null);
+		try {
+			runnable.run();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.ran();
+		return this;
+	}
+
+	public <T> SteadyState then(Fetcher<T> fetcher, Matcher<? super T> matcher) {
+		RepeatedStep step = record(THEN, fetcher, matcher);
+		T actual;
+		try {
+			actual = fetcher.fetch();
+		} catch (Exception e) {
+			throw step.failed(e);
+		}
+		step.checkMatches(actual, matcher);
+		step.ran();
+		return this;
+	}
+
+	public <T> SteadyState then(T actual, Matcher<? super T> matcher) {
+		//there's no step object to inject, only the matcher to key the record by
+		RepeatedStep step = record(THEN, null, matcher);
+		step.checkMatches(actual, matcher);
+		step.ran();
+		return this;
+	}
+
+	private RepeatedStep record(boolean when, Object stepObject, Object matcher) {
+		int next = last + 1 < size ? last + 1 : 0;
+		if (size > 0 && records[next].isFor(when, stepObject, matcher)) {
+			last = next;
+			records[next].startRun();
+			return records[next];
+		}
+		for (int i = 0; i < size; i++) {
+			if (records[i].isFor(when, stepObject, matcher)) {
+				last = i;
+				records[i].startRun();
+				return records[i];
+			}
+		}
+		return newRecord(when, stepObject, matcher);
+	}
+
+	private RepeatedStep newRecord(boolean when, Object stepObject, Object matcher) {
+		scenario.inject(stepObject);
+		RepeatedStep step = matcher == null ? new RepeatedStep(scenario, when, stepObject) : new RepeatedStep(scenario, when, stepObject, matcher);
+		if (size == records.length) {
+			records = Arrays.copyOf(records, size * 2);
+		}
+		last = size;
+		records[size++] = step;
+		step.startRun();
+		return step;
+	}
+
+	/**
+	 * A flyweight record of a step run many times
+	 */
+	static class RepeatedStep extends Step {
+		private final boolean when;
+		private long count;
+
+		RepeatedStep(Scenario scenario, boolean when, Object... args) {
+			super(scenario, args);
+			this.when = when;
+		}
+
+		boolean isFor(boolean when, Object stepObject, Object matcher) {
+			return this.when == when && args[0] == stepObject && (args.length == 1 ? matcher == null : args[1] == matcher);
+		}
+
+		void ran() {
+			count++;
+			passed();
+		}
+
+		@Override
+		protected <T> void checkMatches(T actual, Matcher<? super T> matcher) {
+			if (!matcher.matches(actual)) {
+				MatchDiagnostics diag = scenario.newDiagnostics();
+				matcher.matches(actual, diag);
+				throw assertFailed(scenario.stepsToString(this, "failed on run " + (count + 1) + ", expected " + matcher + " but was " + actual) + "\n==== Diagnostics ====\n" + diag);
+			}
+		}
+
+		@Override
+		String getShortName() {
+			return getKind() + " x" + count;
+		}
+
+		@Override
+		String getKind() {
+			return when ? "when" : "then";
+		}
+
+		@Override
+		Counter getExecutedCounter() {
+			return when ? FrameworkMetrics.STEPS_WHEN : FrameworkMetrics.STEPS_THEN;
+		}
+	}
+}
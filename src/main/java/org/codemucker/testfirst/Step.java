@@ -10,6 +10,11 @@ import org.codemucker.testfirst.Scenario.Deleter;
 import org.codemucker.testfirst.Scenario.Fetcher;
 import org.codemucker.testfirst.Scenario.Inserter;
 import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.Scenario.Updater;
+import org.codemucker.testfirst.journal.ScenarioJournal;
+import org.codemucker.testfirst.metrics.Counter;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+import org.codemucker.testfirst.sample.StackSampler;
 
 public abstract class Step {
 	
@@ -18,14 +23,46 @@ public abstract class Step {
 	
 	protected boolean passed;
 	
+	private final long startNanos = System.nanoTime();
+	private long runStartNanos = startNanos;
+	private long durationNanos;
+	private Scenario.State state = Scenario.State.NotRun;
+	private String diagnostics;
+	private int index;
+	private StackSampler.Session sampling;
+	/**
+	 * Path of the folded stacks sampled while this step ran, if slow
+	 */
+	private String stackSamples;
+	
+	private static final int NOT_INTERNED = -2;
+	/**
+	 * Journal string ids, interned on first use so journaling repeated runs doesn't allocate
+	 */
+	private int journalKindId = NOT_INTERNED;
+	private int journalArgTypeId = NOT_INTERNED;
+	
 	protected Step(Scenario scenario, Object... args){
 		this.args = args;
 		this.scenario = scenario;
 		scenario.addStep(this);
+		this.sampling = scenario.startSampling();
 	}
 	
 	abstract String getShortName();
 	
+	/**
+	 * @return the kind of step, without any per run detail
+	 */
+	String getKind(){
+		return getShortName();
+	}
+	
+	/**
+	 * @return the counter to record each execution of this kind of step to
+	 */
+	abstract Counter getExecutedCounter();
+	
 	protected void runNothing(){
 		passed();
 	}
@@ -60,6 +97,16 @@ public abstract class Step {
 		}
 	}
 	
+	protected void run(Updater updater){
+		try {
+			inject(updater);
+			updater.update();
+			passed();
+		} catch(Exception e){
+			throw failed(e);
+		}
+	}
+	
 	protected void run(Runnable runnable){
 		try {
 			inject(runnable);
@@ -94,24 +141,24 @@ public abstract class Step {
 		try {
 			inject(fetcher);
 			actual = fetcher.fetch();
-			passed();
 		} catch(Exception e){
 			throw failed(e);
 		}
 		checkMatches(actual, matcher);
+		passed();
 	}
 	
 	protected <T> void checkMatches(T actual, Matcher<? super T> matcher){
 		MatchDiagnostics diag = this.scenario.newDiagnostics();
 		
 		if( !matcher.matches(actual, diag)){
-
             Description desc = new DefaultDescription();
             desc.child("Steps were",  scenario.stepsToString());
             desc.child("expected", matcher);
             desc.child("but was", actual);
             desc.text("==== Diagnostics ====");
             desc.child(diag);
+            throw assertFailed(desc.toString());
 		}
 	}
 	
@@ -121,6 +168,11 @@ public abstract class Step {
 
 	protected void passed(){
 		passed = true;
+		state = Scenario.State.Passed;
+		durationNanos = System.nanoTime() - startNanos;
+		stopSampling();
+		getExecutedCounter().inc();
+		journal();
 	}
 	
 	protected boolean hasPassed(){
@@ -128,7 +180,123 @@ public abstract class Step {
 	}
 	
 	protected TestFirstRuntimeException failed(Exception e){
+		getExecutedCounter().inc();
+		markFailed(String.valueOf(e));
 		return this.scenario.stepFailed(this, e);
 	}
 	
+	/**
+	 * Record this step as failing its check with the given message
+	 * 
+	 * @return the error to throw
+	 */
+	protected TestFirstAssertionFailedException assertFailed(String msg){
+		FrameworkMetrics.MATCHER_FAILURES.inc();
+		markFailed(msg);
+		if(stackSamples != null){
+			msg = msg + "\nStack samples of the slow step: " + stackSamples;
+		}
+		TestFirstAssertionFailedException error = new TestFirstAssertionFailedException(msg);
+		scenario.reportFailed(error);
+		return error;
+	}
+	
+	private void markFailed(String diagnostics){
+		this.state = Scenario.State.Failed;
+		this.durationNanos = System.nanoTime() - startNanos;
+		this.diagnostics = diagnostics;
+		stopSampling();
+		journal();
+	}
+	
+	/**
+	 * Stop any sampling of the first run, keeping the samples if slow
+	 */
+	private void stopSampling(){
+		if(sampling != null){
+			stackSamples = sampling.stop(durationNanos, scenario.getName() + "-" + index + "-" + getKind());
+			sampling = null;
+		}
+	}
+	
+	/**
+	 * Discard any sampling still open, as the step never finished
+	 */
+	void cancelSampling(){
+		if(sampling != null){
+			sampling.cancel();
+			sampling = null;
+		}
+	}
+	
+	/**
+	 * Mark the start of another run of this step
+	 */
+	void startRun(){
+		runStartNanos = System.nanoTime();
+		scenario.stepStarted(getKind());
+	}
+	
+	private void journal(){
+		ScenarioJournal journal = scenario.getJournal();
+		if(journal == null){
+			return;
+		}
+		long runNanos = System.nanoTime() - runStartNanos;
+		if(journalKindId == NOT_INTERNED){
+			journalKindId = journal.intern(getKind());
+			journalArgTypeId = journal.intern(args == null || args.length == 0 || args[0] == null ? null : args[0].getClass().getName());
+		}
+		int diagnosticsId = diagnostics == null ? -1 : journal.intern(firstLine(diagnostics));
+		journal.append(scenario.getJournalId(), scenario.getJournalNameId(), index, journalKindId, journalArgTypeId, state, runStartNanos, runNanos, diagnosticsId);
+	}
+	
+	/**
+	 * Diagnostics often end with per run detail, so only the first line is journaled to allow failures to be clustered
+	 */
+	private static String firstLine(String s){
+		int eol = s.indexOf('\n');
+		return eol < 0 ? s : s.substring(0, eol);
+	}
+	
+	void setIndex(int index){
+		this.index = index;
+	}
+	
+	/**
+	 * @return 1 based position in the scenario
+	 */
+	int getIndex(){
+		return index;
+	}
+	
+	Scenario.State getState(){
+		return state;
+	}
+	
+	long getStartNanos(){
+		return startNanos;
+	}
+	
+	/**
+	 * @return nanos from creation until the step last passed or failed
+	 */
+	long getDurationNanos(){
+		return durationNanos;
+	}
+	
+	/**
+	 * @return the path of the folded stacks sampled while the step ran, or null if it wasn't slow or sampled
+	 */
+	String getStackSamples(){
+		return stackSamples;
+	}
+	
+	/**
+	 * @return why the step failed, or null
+	 */
+	String getDiagnostics(){
+		return diagnostics;
+	}
+	
 }
\ No newline at end of file
@@ -1,13 +1,38 @@
 package org.codemucker.testfirst;
 
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.jmatch.MatchDiagnostics;
 import org.codemucker.jmatch.Matcher;
 import org.codemucker.testfirst.Scenario.Deleter;
 import org.codemucker.testfirst.Scenario.Fetcher;
 import org.codemucker.testfirst.Scenario.Inserter;
 import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.Scenario.Updater;
+import org.codemucker.testfirst.calls.CallRecorder;
+import org.codemucker.testfirst.contention.ContentionMonitor;
+import org.codemucker.testfirst.contention.ContentionReport;
+import org.codemucker.testfirst.contention.MonitorContention;
+import org.codemucker.testfirst.heap.Footprint;
+import org.codemucker.testfirst.heap.FootprintWalker;
+import org.codemucker.testfirst.heap.LeakDetector;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.metrics.Counter;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+import org.codemucker.testfirst.snapshot.SnapshotDiff;
+import org.codemucker.testfirst.snapshot.Snapshots;
+import org.codemucker.testfirst.vthread.PinningMonitor;
+import org.codemucker.testfirst.vthread.PinningReport;
+import org.codemucker.testfirst.vthread.PinningSite;
 
 public class ThenStep extends Step {
 	
+	private static final long LEAK_CHECK_TIMEOUT_SECONDS = 5;
+	private static final int FOOTPRINT_TOP_CLASSES = 10;
+	
 	public ThenStep(Scenario scenario, Object... objs) {
 		super(scenario,objs);
 	}
@@ -17,6 +42,11 @@ public class ThenStep extends Step {
 		return "then";
 	}
 	
+	@Override
+	Counter getExecutedCounter() {
+		return FrameworkMetrics.STEPS_THEN;
+	}
+	
 	public WhenStep whenNothing() {
 		WhenStep step = new WhenStep(scenario);
 		step.runNothing();
@@ -41,6 +71,12 @@ public class ThenStep extends Step {
 		return step;
 	}
 	
+	public WhenStep when(Updater updater) {
+		WhenStep step = new WhenStep(scenario, updater);
+		step.run(updater);
+		return step;
+	}
+	
 	public WhenStep when(Runnable runnable) {
 		WhenStep step = new WhenStep(scenario, runnable);
 		step.run(runnable);
@@ -56,6 +92,256 @@ public class ThenStep extends Step {
 	public <T> ThenStep then(T actual, Matcher<? super T> matcher) {
 		ThenStep step = new ThenStep(scenario, actual, matcher);
 		step.checkMatches(actual,matcher);
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the heap retained by the object graph under the given root, in bytes. See {@link FootprintWalker} for what is counted. On failure
+	 * the largest contributing classes are reported
+	 */
+	public ThenStep thenRetainedSize(Object root, Matcher<? super Long> matcher) {
+		ThenStep step = new ThenStep(scenario, root, matcher);
+		Footprint footprint = step.measureFootprint(root);
+		MatchDiagnostics diag = scenario.newDiagnostics();
+		if (!matcher.matches(footprint.getTotalBytes(), diag)) {
+			throw step.footprintFailed("expected retained size " + matcher, footprint, diag);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the heap retained by the object graph under the given root is no more than the given number of bytes. See {@link FootprintWalker}
+	 * for what is counted. On failure the largest contributing classes are reported
+	 */
+	public ThenStep thenRetainedSizeAtMost(Object root, long maxBytes) {
+		ThenStep step = new ThenStep(scenario, root, maxBytes);
+		Footprint footprint = step.measureFootprint(root);
+		if (footprint.getTotalBytes() > maxBytes) {
+			throw step.footprintFailed("expected retained size at most " + maxBytes + " bytes", footprint, null);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the named method of the given interface was called no more than the given number of times during the when steps, such as to
+	 * catch N+1 queries. All overloads are counted. On failure all recorded calls are reported
+	 */
+	public ThenStep thenCallsAtMost(CallRecorder recorder, Class<?> iface, String methodName, long maxCalls) {
+		ThenStep step = new ThenStep(scenario, recorder, iface, methodName, maxCalls);
+		long calls = recorder.getCalls(iface, methodName);
+		if (calls > maxCalls) {
+			throw step.callsFailed("expected at most " + maxCalls + " calls to " + iface.getSimpleName() + "." + methodName, calls, recorder);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the methods of the given interface were called no more than the given number of times in total during the when steps
+	 */
+	public ThenStep thenCallsAtMost(CallRecorder recorder, Class<?> iface, long maxCalls) {
+		ThenStep step = new ThenStep(scenario, recorder, iface, maxCalls);
+		long calls = recorder.getCalls(iface);
+		if (calls > maxCalls) {
+			throw step.callsFailed("expected at most " + maxCalls + " calls to " + iface.getSimpleName(), calls, recorder);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the cumulative latency of calls to the given interface during the when steps, in nanos
+	 */
+	public ThenStep thenCallLatency(CallRecorder recorder, Class<?> iface, Matcher<? super Long> matcher) {
+		ThenStep step = new ThenStep(scenario, recorder, iface, matcher);
+		long nanos = recorder.getTotalNanos(iface, null);
+		if (!matcher.matches(nanos, scenario.newDiagnostics())) {
+			throw step.callsFailed("expected " + iface.getSimpleName() + " latency nanos " + matcher, nanos, recorder);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check the time all threads spent blocked entering monitors during the preceding when steps was no more than the given fraction of
+	 * their wall time, such as 0.05 for 5%. See {@link ContentionMonitor}
+	 */
+	public ThenStep thenBlockedAtMost(ContentionMonitor monitor, double fractionOfStepTime) {
+		ThenStep step = new ThenStep(scenario, monitor, fractionOfStepTime);
+		ContentionReport report = step.contentionReport(monitor);
+		if (report.getBlockedFraction() > fractionOfStepTime) {
+			throw step.contentionFailed("expected blocked time at most " + fractionOfStepTime + " of the when steps but was " + String.format(Locale.ROOT, "%.4f", report.getBlockedFraction()), report);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check no thread had to wait to enter a monitor of the given class during the preceding when steps. Requires the flight recorder
+	 */
+	public ThenStep thenNoContentionOn(ContentionMonitor monitor, Class<?> monitorClass) {
+		ThenStep step = new ThenStep(scenario, monitor, monitorClass);
+		ContentionReport report = step.contentionReport(monitor);
+		if (!report.isMonitorsRecorded()) {
+			throw step.contentionFailed("can't check contention on " + monitorClass.getName() + " as the flight recorder is not available", report);
+		}
+		MonitorContention contention = report.getMonitor(monitorClass);
+		if (contention != null) {
+			throw step.contentionFailed("expected no contention on " + monitorClass.getName() + " but was " + contention, report);
+		}
+		step.passed();
+		return step;
+	}
+	
+	private ContentionReport contentionReport(ContentionMonitor monitor) {
+		try {
+			return monitor.getReport();
+		} catch(Exception e){
+			throw failed(e);
+		}
+	}
+	
+	/**
+	 * Check no virtual thread was pinned to its carrier for longer than the given time while the preceding when step ran its workload via
+	 * {@link PinningMonitor#onVirtualThreads(int, Invoker)}. On failure the longest pinned stacks are reported
+	 */
+	public ThenStep thenNoPinningLongerThan(PinningMonitor monitor, long time, TimeUnit unit) {
+		ThenStep step = new ThenStep(scenario, monitor, time, unit);
+		PinningReport report = step.pinningReport(monitor);
+		List<PinningSite> pinned = report.getSitesPinnedLongerThan(time, unit);
+		if (!pinned.isEmpty()) {
+			throw step.pinningFailed("expected no virtual thread pinned longer than " + time + " " + unit + " but " + pinned.size() + " sites were", report);
+		}
+		step.passed();
+		return step;
+	}
+	
+	/**
+	 * Check virtual threads never waited longer than the given time for a carrier, and none failed to start, while the preceding when step
+	 * ran its workload via {@link PinningMonitor#onVirtualThreads(int, Invoker)}
+	 */
+	public ThenStep thenCarrierWaitAtMost(PinningMonitor monitor, long time, TimeUnit unit) {
+		ThenStep step = new ThenStep(scenario, monitor, time, unit);
+		PinningReport report = step.pinningReport(monitor);
+		if (report.getMaxSchedulingNanos() > unit.toNanos(time) || report.getSubmitFailures() > 0) {
+			throw step.pinningFailed("expected virtual threads to wait at most " + time + " " + unit + " for a carrier", report);
+		}
+		step.passed();
+		return step;
+	}
+	
+	private PinningReport pinningReport(PinningMonitor monitor) {
+		try {
+			return monitor.getReport();
+		} catch(Exception e){
+			throw failed(e);
+		}
+	}
+	
+	private TestFirstAssertionFailedException pinningFailed(String msg, PinningReport report) {
+		return assertFailed(scenario.stepsToString(this, "failed") + msg + "\n" + report.describe());
+	}
+	
+	private TestFirstAssertionFailedException contentionFailed(String msg, ContentionReport report) {
+		return assertFailed(scenario.stepsToString(this, "failed") + msg + "\n" + report.describe());
+	}
+	
+	private TestFirstAssertionFailedException callsFailed(String expected, long actual, CallRecorder recorder) {
+		return assertFailed(scenario.stepsToString(this, "failed") + expected + " during the when steps but was " + actual + "\nRecorded calls:\n" + recorder.describe());
+	}
+	
+	private Footprint measureFootprint(Object root) {
+		try {
+			return new FootprintWalker().measure(root);
+		} catch(Exception e){
+			throw failed(e);
+		}
+	}
+	
+	private TestFirstAssertionFailedException footprintFailed(String expected, Footprint footprint, MatchDiagnostics diag) {
+		return assertFailed(scenario.stepsToString(this, "failed") + expected + " but was " + footprint.describe(FOOTPRINT_TOP_CLASSES)
+				+ (diag == null ? "" : "\n==== Diagnostics ====\n" + diag));
+	}
+	
+	/**
+	 * Check the actual file matches the named golden file in the {@link Snapshots#getDefault() default} snapshot dir. See {@link Snapshots}
+	 */
+	public ThenStep thenMatchesSnapshot(String name, Path actual) {
+		return thenMatchesSnapshot(Snapshots.getDefault(), name, actual);
+	}
+	
+	/**
+	 * Check the actual value matches the named golden file in the {@link Snapshots#getDefault() default} snapshot dir. Byte arrays are
+	 * compared as is, anything else by its UTF-8 string
+	 */
+	public ThenStep thenMatchesSnapshot(String name, Object actual) {
+		return thenMatchesSnapshot(Snapshots.getDefault(), name, actual);
+	}
+	
+	/**
+	 * Check the actual file matches the named golden file, or rewrite it in update mode. On failure a bounded line diff is reported
+	 */
+	public ThenStep thenMatchesSnapshot(Snapshots snapshots, String name, Path actual) {
+		ThenStep step = new ThenStep(scenario, name, actual);
+		SnapshotDiff diff;
+		try {
+			diff = snapshots.compare(name, actual);
+		} catch(Exception e){
+			throw step.failed(e);
+		}
+		return step.snapshotChecked(diff);
+	}
+	
+	/**
+	 * Check the actual value matches the named golden file, or rewrite it in update mode. On failure a bounded line diff is reported
+	 */
+	public ThenStep thenMatchesSnapshot(Snapshots snapshots, String name, Object actual) {
+		ThenStep step = new ThenStep(scenario, name);
+		SnapshotDiff diff;
+		try {
+			diff = snapshots.compare(name, actual);
+		} catch(Exception e){
+			throw step.failed(e);
+		}
+		return step.snapshotChecked(diff);
+	}
+	
+	private ThenStep snapshotChecked(SnapshotDiff diff) {
+		if (!diff.isMatched()) {
+			throw assertFailed(scenario.stepsToString(this, "failed") + diff.describe());
+		}
+		passed();
+		return this;
+	}
+	
+	/**
+	 * Check that once the scenario has ended, everything the scenario's {@link TestInjector} created itself, from scoped providers and defaults,
+	 * along with the given nominated objects, is garbage collected. Steps and provided values aren't checked unless nominated. The check runs in {@link Scenario#assertHasRunAndPassed()} after teardown, failing with the classes which
+	 * survived and how they were retained.
+	 * 
+	 * <p>The test must not itself hold references to the nominated objects, such as via local variables, at the time of the check</p>
+	 * 
+	 * @param nominated additional objects expected to be collected. Only weakly referenced
+	 */
+	public ThenStep thenNoLeaks(Object... nominated) {
+		final LeakDetector detector = new LeakDetector();
+		for (Object obj : nominated) {
+			detector.track(obj);
+		}
+		if (scenario.getInjector() instanceof TestInjector) {
+			((TestInjector) scenario.getInjector()).trackCreated(detector);
+		}
+		ThenStep step = new ThenStep(scenario, "noLeaks");
+		scenario.afterEnd(new IRunOnScenarioEnd() {
+			@Override
+			public void onScenarioEnd() {
+				detector.assertNoLeaks(LEAK_CHECK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			}
+		});
+		step.runNothing();
 		return step;
 	}
 	
@@ -1,5 +1,8 @@
 package org.codemucker.testfirst;
 
+import org.codemucker.testfirst.metrics.Counter;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+
 public class WhenStep extends ThenStep {
 	
 	public WhenStep(Scenario scenario, Object... objs) {
@@ -10,4 +13,9 @@ public class WhenStep extends ThenStep {
 	String getShortName() {
 		return "when";
 	}
+	
+	@Override
+	Counter getExecutedCounter() {
+		return FrameworkMetrics.STEPS_WHEN;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package org.codemucker.testfirst.calls;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.IRunOnStepStart;
+import org.codemucker.testfirst.inject.InjectWrapper;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.proxy.CallInterceptor;
+import org.codemucker.testfirst.proxy.ProxyFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Counts calls to the dependencies of the given interfaces, recording per method the number of calls, the size of arguments and the
+ * latency. Register with {@link TestInjector#wrapWith(InjectWrapper)} so injected dependencies are wrapped in a generated counting proxy,
+ * then check with {@link org.codemucker.testfirst.ThenStep#thenCallsAtMost(CallRecorder, Class, String, long)} to catch regressions such
+ * as N+1 queries as functional failures.
+ * 
+ * <p>Calls are recorded in a window covering the when steps. The window is reset when a when step follows any other kind of step, and
+ * stops recording when any other kind of step starts, so calls made by given and then steps aren't counted</p>
+ * 
+ * <p>Register after any {@link org.codemucker.testfirst.fault.FaultInjector} so the injected latency and faults are recorded</p>
+ */
+@ThreadSafe
+public class CallRecorder implements InjectWrapper, IRunOnStepStart {
+
+	private static final long NOT_RECORDED = Long.MIN_VALUE;
+	private static final String WHEN = "when";
+
+	private final Class<?>[] interfaces;
+	private final Map<Method, CallStats> stats = new ConcurrentHashMap<>();
+
+	private final ClassValue<Interceptor> interceptors = new ClassValue<Interceptor>() {
+		@Override
+		protected Interceptor computeValue(Class<?> type) {
+			return new Interceptor(type);
+		}
+	};
+
+	private volatile boolean recording = true;
+	private String lastKind;
+
+	/**
+	 * @param interfaces the dependency interfaces to count calls to
+	 */
+	public CallRecorder(Class<?>... interfaces) {
+		Preconditions.checkArgument(interfaces.length > 0, "expect at least one interface");
+		for (Class<?> iface : interfaces) {
+			Preconditions.checkArgument(iface.isInterface(), "expect an interface but was %s", iface.getName());
+		}
+		this.interfaces = interfaces.clone();
+	}
+
+	@Override
+	public Object wrap(Class<?> requireType, Object dependency) {
+		if (dependency == null || !requireType.isInterface() || !isRecorded(dependency.getClass())) {
+			return dependency;
+		}
+		return ProxyFactory.newProxy(dependency, interceptors.get(dependency.getClass()));
+	}
+
+	private boolean isRecorded(Class<?> type) {
+		for (Class<?> iface : interfaces) {
+			if (iface.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized void onStepStart(String kind) {
+		if (WHEN.equals(kind)) {
+			if (!WHEN.equals(lastKind)) {
+				reset();
+			}
+			recording = true;
+		} else {
+			recording = false;
+		}
+		lastKind = kind;
+	}
+
+	/**
+	 * Clear all counts and start recording
+	 */
+	public synchronized void reset() {
+		for (CallStats s : stats.values()) {
+			s.reset();
+		}
+		recording = true;
+	}
+
+	/**
+	 * @return calls to all overloads of the named method, declared by the given interface or its super interfaces
+	 */
+	public long getCalls(Class<?> iface, String methodName) {
+		long calls = 0;
+		for (CallStats s : getStats(iface, methodName)) {
+			calls += s.getCalls();
+		}
+		return calls;
+	}
+
+	/**
+	 * @return calls to any method of the given interface
+	 */
+	public long getCalls(Class<?> iface) {
+		return getCalls(iface, null);
+	}
+
+	/**
+	 * @return the summed size of collection, map, array and string arguments passed to the named method
+	 */
+	public long getArgumentSize(Class<?> iface, String methodName) {
+		long size = 0;
+		for (CallStats s : getStats(iface, methodName)) {
+			size += s.getArgumentSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the cumulative latency of calls to the named method, or of all methods if null
+	 */
+	public long getTotalNanos(Class<?> iface, String methodName) {
+		long nanos = 0;
+		for (CallStats s : getStats(iface, methodName)) {
+			nanos += s.getTotalNanos();
+		}
+		return nanos;
+	}
+
+	/**
+	 * @param methodName the method, or null for all methods
+	 * @return the stats of every matching method called through a proxy from this recorder
+	 */
+	public List<CallStats> getStats(Class<?> iface, String methodName) {
+		List<CallStats> matching = new ArrayList<>();
+		for (CallStats s : stats.values()) {
+			Method m = s.getMethod();
+			if (m.getDeclaringClass().isAssignableFrom(iface) && (methodName == null || methodName.equals(m.getName()))) {
+				matching.add(s);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * @return a line per method which was called during the current window
+	 */
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		for (CallStats s : stats.values()) {
+			if (s.getCalls() > 0) {
+				sb.append(s).append('\n');
+			}
+		}
+		return sb.length() == 0 ? "no calls recorded\n" : sb.toString();
+	}
+
+	private CallStats getOrCreateStats(Method method) {
+		CallStats s = stats.get(method);
+		if (s == null) {
+			CallStats created = new CallStats(method);
+			s = stats.putIfAbsent(method, created);
+			if (s == null) {
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * The size of collections, maps, arrays and strings, else zero
+	 */
+	static long sizeOf(Object arg) {
+		if (arg instanceof Collection) {
+			return ((Collection<?>) arg).size();
+		}
+		if (arg instanceof Map) {
+			return ((Map<?, ?>) arg).size();
+		}
+		if (arg instanceof CharSequence) {
+			return ((CharSequence) arg).length();
+		}
+		if (arg != null && arg.getClass().isArray()) {
+			return Array.getLength(arg);
+		}
+		return 0;
+	}
+
+	/**
+	 * Maps a proxy class's method ids to stats, with null for methods of interfaces which aren't recorded
+	 */
+	private class Interceptor implements CallInterceptor {
+		private final CallStats[] methodStats;
+
+		Interceptor(Class<?> targetClass) {
+			List<Method> methods = ProxyFactory.getMethods(targetClass);
+			methodStats = new CallStats[methods.size()];
+			for (int i = 0; i < methods.size(); i++) {
+				Method m = methods.get(i);
+				if (isRecordedMethod(m)) {
+					methodStats[i] = getOrCreateStats(m);
+				}
+			}
+		}
+
+		private boolean isRecordedMethod(Method m) {
+			for (Class<?> iface : interfaces) {
+				if (m.getDeclaringClass().isAssignableFrom(iface)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public long enter(int method) {
+			return methodStats[method] == null || !recording ? NOT_RECORDED : System.nanoTime();
+		}
+
+		@Override
+		public void argument(int method, int index, Object arg) {
+			CallStats s = methodStats[method];
+			if (s != null && recording) {
+				s.argument(sizeOf(arg));
+			}
+		}
+
+		@Override
+		public void exit(int method, long token, Throwable failure) {
+			if (token != NOT_RECORDED) {
+				methodStats[method].called(System.nanoTime() - token, failure != null);
+			}
+		}
+	}
+}
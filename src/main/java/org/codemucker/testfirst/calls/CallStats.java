@@ -0,0 +1,82 @@
+package org.codemucker.testfirst.calls;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free counts of calls to a single interface method, since the recording window was last reset. See {@link CallRecorder}
+ */
+public class CallStats {
+
+	private final Method method;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder argumentSize = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	CallStats(Method method) {
+		this.method = method;
+	}
+
+	void argument(long size) {
+		argumentSize.add(size);
+	}
+
+	void called(long nanos, boolean failed) {
+		calls.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		if (failed) {
+			failures.increment();
+		}
+	}
+
+	void reset() {
+		calls.reset();
+		failures.reset();
+		argumentSize.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	/**
+	 * @return calls which threw
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * @return the summed size of all collection, map, array and string arguments
+	 */
+	public long getArgumentSize() {
+		return argumentSize.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return method.getDeclaringClass().getSimpleName() + "." + method.getName() + " calls=" + getCalls() + ", failures=" + getFailures()
+				+ ", argumentSize=" + getArgumentSize() + ", totalMillis=" + TimeUnit.NANOSECONDS.toMillis(getTotalNanos()) + ", maxMillis="
+				+ TimeUnit.NANOSECONDS.toMillis(getMaxNanos());
+	}
+}
@@ -0,0 +1,166 @@
+package org.codemucker.testfirst.contention;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.IRunOnStepStart;
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Measures lock contention while a scenario's when steps run, so then steps can fail when hot locks are introduced. Register via
+ * {@link Scenario#monitorContention(ContentionMonitor)} and check with {@link org.codemucker.testfirst.ThenStep#thenBlockedAtMost(ContentionMonitor, double)}
+ * or {@link org.codemucker.testfirst.ThenStep#thenNoContentionOn(ContentionMonitor, Class)}.
+ * 
+ * <p>A window opens when a when step follows any other kind of step, and closes when the next other kind of step starts. Over the window
+ * {@link ThreadMXBean} contention monitoring captures blocked and waited counts and times per thread, and if enabled and available the flight
+ * recorder's monitor enter events capture the contended monitors by class. Threads which exit during the window are only counted by the flight
+ * recorder</p>
+ * 
+ * <p>Both sources are JVM-wide, not per scenario: the counts and monitor events include every thread in the JVM, so scenarios run in parallel
+ * see each other's contention. Contention monitoring is switched on while any monitor has a window open, and restored to its original setting
+ * when the last window closes</p>
+ */
+public class ContentionMonitor implements IRunOnStepStart, IRunOnScenarioEnd {
+
+	private static final String WHEN = "when";
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean recordMonitors;
+
+	private String lastKind;
+	private boolean open;
+	private long windowStartNanos;
+	private Map<Long, long[]> startCounts;
+	private JfrMonitorRecorder recorder;
+	private ContentionReport report;
+
+	/**
+	 * Monitor thread contention and record contended monitors by class
+	 */
+	public ContentionMonitor() {
+		this(true);
+	}
+
+	/**
+	 * @param recordMonitors whether to record contended monitors by class with the flight recorder, which is slower to start
+	 */
+	public ContentionMonitor(boolean recordMonitors) {
+		this.recordMonitors = recordMonitors;
+	}
+
+	@Override
+	public synchronized void onStepStart(String kind) {
+		if (WHEN.equals(kind)) {
+			if (!WHEN.equals(lastKind)) {
+				closeWindow();
+				openWindow();
+			}
+		} else {
+			closeWindow();
+		}
+		lastKind = kind;
+	}
+
+	@Override
+	public synchronized void onScenarioEnd() {
+		closeWindow();
+	}
+
+	/**
+	 * @return the contention of the last closed window
+	 * @throws TestFirstRuntimeException if no window of when steps has been monitored yet
+	 */
+	public synchronized ContentionReport getReport() {
+		if (report == null) {
+			throw new TestFirstRuntimeException("No when steps have been monitored for contention. Register via Scenario.monitorContention before the when steps");
+		}
+		return report;
+	}
+
+	private void openWindow() {
+		if (!threads.isThreadContentionMonitoringSupported()) {
+			throw new TestFirstRuntimeException("Thread contention monitoring is not supported by this JVM");
+		}
+		MonitoringSwitch.acquire(threads);
+		recorder = recordMonitors ? JfrMonitorRecorder.startOrNull() : null;
+		startCounts = snapshot(new HashMap<Long, String>());
+		windowStartNanos = System.nanoTime();
+		open = true;
+	}
+
+	private void closeWindow() {
+		if (!open) {
+			return;
+		}
+		open = false;
+		long windowNanos = System.nanoTime() - windowStartNanos;
+		Map<Long, String> names = new HashMap<>();
+		Map<Long, long[]> endCounts = snapshot(names);
+		Map<String, MonitorContention> monitors = recorder == null ? Collections.<String, MonitorContention> emptyMap() : recorder.stop();
+		boolean monitorsRecorded = recorder != null;
+		recorder = null;
+		MonitoringSwitch.release(threads);
+		List<ThreadContention> contention = new ArrayList<>();
+		for (Map.Entry<Long, long[]> e : endCounts.entrySet()) {
+			long[] end = e.getValue();
+			long[] start = startCounts.get(e.getKey());
+			long[] delta = new long[end.length];
+			for (int i = 0; i < end.length; i++) {
+				delta[i] = start == null ? end[i] : end[i] - start[i];
+			}
+			if (delta[0] > 0 || delta[2] > 0) {
+				contention.add(new ThreadContention(names.get(e.getKey()), delta[0], delta[1], delta[2], delta[3]));
+			}
+		}
+		startCounts = null;
+		report = new ContentionReport(windowNanos, contention, monitors, monitorsRecorded);
+	}
+
+	/**
+	 * @return blocked count, blocked millis, waited count and waited millis by thread id
+	 */
+	private Map<Long, long[]> snapshot(Map<Long, String> names) {
+		Map<Long, long[]> counts = new HashMap<>();
+		for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+			if (info != null) {
+				counts.put(info.getThreadId(), new long[] { info.getBlockedCount(), Math.max(0, info.getBlockedTime()), info.getWaitedCount(), Math.max(0, info.getWaitedTime()) });
+				names.put(info.getThreadId(), info.getThreadName());
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Contention monitoring is a JVM-wide setting, so it is shared by all open windows rather than toggled by each monitor
+	 */
+	static final class MonitoringSwitch {
+		private static int openWindows;
+		private static boolean wasEnabled;
+
+		private MonitoringSwitch() {
+		}
+
+		static synchronized void acquire(ThreadMXBean threads) {
+			if (openWindows++ == 0) {
+				wasEnabled = threads.isThreadContentionMonitoringEnabled();
+				if (!wasEnabled) {
+					threads.setThreadContentionMonitoringEnabled(true);
+				}
+			}
+		}
+
+		static synchronized void release(ThreadMXBean threads) {
+			if (--openWindows == 0 && !wasEnabled) {
+				threads.setThreadContentionMonitoringEnabled(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.codemucker.testfirst.contention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lock contention seen during a window of when steps. See {@link ContentionMonitor}
+ */
+public class ContentionReport {
+
+	private static final int DESCRIBE_TOP = 10;
+
+	private final long windowNanos;
+	private final List<ThreadContention> threads;
+	private final Map<String, MonitorContention> monitors;
+	private final boolean monitorsRecorded;
+
+	ContentionReport(long windowNanos, List<ThreadContention> threads, Map<String, MonitorContention> monitors, boolean monitorsRecorded) {
+		this.windowNanos = windowNanos;
+		this.threads = Collections.unmodifiableList(threads);
+		this.monitors = Collections.unmodifiableMap(monitors);
+		this.monitorsRecorded = monitorsRecorded;
+	}
+
+	public long getWindowNanos() {
+		return windowNanos;
+	}
+
+	/**
+	 * @return per thread contention, for threads which blocked or waited during the window
+	 */
+	public List<ThreadContention> getThreads() {
+		return threads;
+	}
+
+	public long getTotalBlockedMillis() {
+		long total = 0;
+		for (ThreadContention t : threads) {
+			total += t.getBlockedMillis();
+		}
+		return total;
+	}
+
+	public long getTotalBlockedCount() {
+		long total = 0;
+		for (ThreadContention t : threads) {
+			total += t.getBlockedCount();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the time all threads spent blocked on monitors. Where contended monitors were recorded and their total is larger it is used
+	 *         instead, as it includes threads which exited during the window
+	 */
+	public long getTotalBlockedNanos() {
+		long nanos = TimeUnit.MILLISECONDS.toNanos(getTotalBlockedMillis());
+		long monitorNanos = 0;
+		for (MonitorContention m : monitors.values()) {
+			monitorNanos += m.getTotalNanos();
+		}
+		return Math.max(nanos, monitorNanos);
+	}
+
+	/**
+	 * @return the time all threads spent blocked on monitors as a fraction of the window's wall time. Can exceed 1 when many threads block
+	 */
+	public double getBlockedFraction() {
+		return windowNanos == 0 ? 0 : getTotalBlockedNanos() / (double) windowNanos;
+	}
+
+	/**
+	 * @return whether contended monitors were recorded by class, which requires the flight recorder
+	 */
+	public boolean isMonitorsRecorded() {
+		return monitorsRecorded;
+	}
+
+	/**
+	 * @return contended monitors by class name
+	 */
+	public Map<String, MonitorContention> getMonitors() {
+		return monitors;
+	}
+
+	/**
+	 * @return contention on monitors of the given class, or null if none
+	 */
+	public MonitorContention getMonitor(Class<?> monitorClass) {
+		return monitors.get(monitorClass.getName());
+	}
+
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("window ").append(TimeUnit.NANOSECONDS.toMillis(windowNanos)).append("ms, blocked ").append(TimeUnit.NANOSECONDS.toMillis(getTotalBlockedNanos()))
+				.append("ms\n");
+		List<ThreadContention> sorted = new ArrayList<>(threads);
+		Collections.sort(sorted, new Comparator<ThreadContention>() {
+			@Override
+			public int compare(ThreadContention a, ThreadContention b) {
+				return Long.compare(b.getBlockedMillis(), a.getBlockedMillis());
+			}
+		});
+		for (ThreadContention t : sorted.subList(0, Math.min(DESCRIBE_TOP, sorted.size()))) {
+			sb.append("  ").append(t).append('\n');
+		}
+		if (monitorsRecorded) {
+			List<MonitorContention> byTime = new ArrayList<>(monitors.values());
+			Collections.sort(byTime, new Comparator<MonitorContention>() {
+				@Override
+				public int compare(MonitorContention a, MonitorContention b) {
+					return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+				}
+			});
+			sb.append("contended monitors:\n");
+			for (MonitorContention m : byTime.subList(0, Math.min(DESCRIBE_TOP, byTime.size()))) {
+				sb.append("  ").append(m).append('\n');
+			}
+		} else {
+			sb.append("contended monitors not recorded, flight recorder not available\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,146 @@
+package org.codemucker.testfirst.contention;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Records contended monitor entries with the flight recorder's {@value #EVENT} event, reached reflectively as the flight recorder API isn't
+ * available on all the JVMs the framework supports
+ */
+class JfrMonitorRecorder {
+
+	private static final Logger log = LogManager.getLogger(JfrMonitorRecorder.class);
+
+	static final String EVENT = "jdk.JavaMonitorEnter";
+
+	private static final Api API = Api.loadOrNull();
+
+	private final Object recording;
+
+	private JfrMonitorRecorder(Object recording) {
+		this.recording = recording;
+	}
+
+	static boolean isAvailable() {
+		return API != null;
+	}
+
+	/**
+	 * @return a started recording, or null if the flight recorder isn't available
+	 */
+	static JfrMonitorRecorder startOrNull() {
+		if (API == null) {
+			return null;
+		}
+		try {
+			Object recording = API.recordingCtor.newInstance();
+			Object settings = API.enable.invoke(recording, EVENT);
+			API.withThreshold.invoke(settings, Duration.ZERO);
+			API.withoutStackTrace.invoke(settings);
+			API.start.invoke(recording);
+			return new JfrMonitorRecorder(recording);
+		} catch (Exception e) {
+			log.warn("couldn't start flight recording of contended monitors", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stop recording and summarise contended monitor entries by monitor class
+	 */
+	Map<String, MonitorContention> stop() {
+		Map<String, MonitorContention> byClass = new HashMap<>();
+		Path file = null;
+		try {
+			API.stop.invoke(recording);
+			file = Files.createTempFile("testfirst-contention", ".jfr");
+			API.dump.invoke(recording, file);
+			for (Object event : (List<?>) API.readAllEvents.invoke(null, file)) {
+				Object type = API.getEventType.invoke(event);
+				if (!EVENT.equals(API.getTypeName.invoke(type))) {
+					continue;
+				}
+				Object monitorClass = API.getClass.invoke(event, "monitorClass");
+				String name = monitorClass == null ? "unknown" : (String) API.getClassName.invoke(monitorClass);
+				long nanos = ((Duration) API.getDuration.invoke(event)).toNanos();
+				MonitorContention stats = byClass.get(name);
+				byClass.put(name, stats == null ? new MonitorContention(name, 1, nanos) : stats.plus(nanos));
+			}
+		} catch (Exception e) {
+			log.warn("couldn't read flight recording of contended monitors", e);
+		} finally {
+			try {
+				API.close.invoke(recording);
+			} catch (Exception e) {
+				log.debug("error closing flight recording", e);
+			}
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (Exception e) {
+					log.debug("error deleting " + file, e);
+				}
+			}
+		}
+		return byClass;
+	}
+
+	/**
+	 * The reflectively resolved flight recorder methods
+	 */
+	private static class Api {
+		java.lang.reflect.Constructor<?> recordingCtor;
+		Method enable;
+		Method withThreshold;
+		Method withoutStackTrace;
+		Method start;
+		Method stop;
+		Method dump;
+		Method close;
+		Method readAllEvents;
+		Method getEventType;
+		Method getTypeName;
+		Method getClass;
+		Method getClassName;
+		Method getDuration;
+
+		static Api loadOrNull() {
+			try {
+				Class<?> recording = Class.forName("jdk.jfr.Recording");
+				Class<?> settings = Class.forName("jdk.jfr.EventSettings");
+				Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+				Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+				Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject");
+				Class<?> eventType = Class.forName("jdk.jfr.EventType");
+				Class<?> recordedClass = Class.forName("jdk.jfr.consumer.RecordedClass");
+				Api api = new Api();
+				api.recordingCtor = recording.getConstructor();
+				api.enable = recording.getMethod("enable", String.class);
+				api.withThreshold = settings.getMethod("withThreshold", Duration.class);
+				api.withoutStackTrace = settings.getMethod("withoutStackTrace");
+				api.start = recording.getMethod("start");
+				api.stop = recording.getMethod("stop");
+				api.dump = recording.getMethod("dump", Path.class);
+				api.close = recording.getMethod("close");
+				api.readAllEvents = recordingFile.getMethod("readAllEvents", Path.class);
+				api.getEventType = recordedEvent.getMethod("getEventType");
+				api.getTypeName = eventType.getMethod("getName");
+				api.getClass = recordedObject.getMethod("getClass", String.class);
+				api.getClassName = recordedClass.getMethod("getName");
+				api.getDuration = recordedEvent.getMethod("getDuration");
+				return api;
+			} catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+				log.debug("flight recorder not available, contended monitors won't be recorded", e);
+				return null;
+			}
+		}
+	}
+}
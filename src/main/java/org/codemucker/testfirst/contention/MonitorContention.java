@@ -0,0 +1,46 @@
+package org.codemucker.testfirst.contention;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contended entries into the monitors of one class
+ */
+public class MonitorContention {
+
+	private final String className;
+	private final long count;
+	private final long totalNanos;
+
+	public MonitorContention(String className, long count, long totalNanos) {
+		this.className = className;
+		this.count = count;
+		this.totalNanos = totalNanos;
+	}
+
+	MonitorContention plus(long nanos) {
+		return new MonitorContention(className, count + 1, totalNanos + nanos);
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return how many times a thread had to wait to enter a monitor of this class
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return total time threads waited to enter monitors of this class
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	@Override
+	public String toString() {
+		return className + " contended=" + count + ", waitedMillis=" + TimeUnit.NANOSECONDS.toMillis(totalNanos);
+	}
+}
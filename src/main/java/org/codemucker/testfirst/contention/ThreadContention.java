@@ -0,0 +1,52 @@
+package org.codemucker.testfirst.contention;
+
+/**
+ * How long a thread spent blocked on monitors and waiting during a window
+ */
+public class ThreadContention {
+
+	private final String threadName;
+	private final long blockedCount;
+	private final long blockedMillis;
+	private final long waitedCount;
+	private final long waitedMillis;
+
+	public ThreadContention(String threadName, long blockedCount, long blockedMillis, long waitedCount, long waitedMillis) {
+		this.threadName = threadName;
+		this.blockedCount = blockedCount;
+		this.blockedMillis = blockedMillis;
+		this.waitedCount = waitedCount;
+		this.waitedMillis = waitedMillis;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * @return times the thread blocked to enter a monitor
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	public long getBlockedMillis() {
+		return blockedMillis;
+	}
+
+	/**
+	 * @return times the thread waited via wait, join or park
+	 */
+	public long getWaitedCount() {
+		return waitedCount;
+	}
+
+	public long getWaitedMillis() {
+		return waitedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return threadName + " blocked=" + blockedCount + " (" + blockedMillis + "ms), waited=" + waitedCount + " (" + waitedMillis + "ms)";
+	}
+}
@@ -0,0 +1,179 @@
+package org.codemucker.testfirst.fault;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.inject.InjectWrapper;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.proxy.CallInterceptor;
+import org.codemucker.testfirst.proxy.ProxyFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Injects latency and faults into calls to dependencies of the given interfaces, so scenarios can check latency targets are met and that
+ * code degrades gracefully when a downstream service slows down or fails, all in process. Register with
+ * {@link TestInjector#wrapWith(InjectWrapper)}, then install {@link FaultRule}s from given steps via {@link #on(Class, String)}.
+ * 
+ * <p>Dependencies are wrapped in generated proxies which only look up a rule per call, so calls without a rule are barely slowed. Random
+ * delays and timeouts are derived from the seed, the rule and the call's ordinal under that rule, so runs are repeatable. When calls are
+ * made from several threads, which thread gets which ordinal is up to the scheduler, but the faults injected over the run are the same.
+ * Rules are removed on scenario end</p>
+ * 
+ * <p>Wrappers apply in the order registered, so register this before any {@link org.codemucker.testfirst.calls.CallRecorder} for the
+ * recorder to see the injected latency and faults</p>
+ */
+@ThreadSafe
+public class FaultInjector implements InjectWrapper, IRunOnScenarioEnd {
+
+	private static final long NO_RULE = 0;
+
+	private final Class<?>[] interfaces;
+	private final long seed;
+	/**
+	 * Rules keyed by interface and method name, or interface alone for rules covering all methods
+	 */
+	private final Map<String, FaultRule> rules = new ConcurrentHashMap<>();
+
+	private final ClassValue<Interceptor> interceptors = new ClassValue<Interceptor>() {
+		@Override
+		protected Interceptor computeValue(Class<?> type) {
+			return new Interceptor(type);
+		}
+	};
+
+	/**
+	 * @param interfaces the dependency interfaces to inject faults into
+	 */
+	public FaultInjector(Class<?>... interfaces) {
+		this(0, interfaces);
+	}
+
+	/**
+	 * @param seed for random delays and timeouts
+	 * @param interfaces the dependency interfaces to inject faults into
+	 */
+	public FaultInjector(long seed, Class<?>... interfaces) {
+		Preconditions.checkArgument(interfaces.length > 0, "expect at least one interface");
+		for (Class<?> iface : interfaces) {
+			Preconditions.checkArgument(iface.isInterface(), "expect an interface but was %s", iface.getName());
+		}
+		this.interfaces = interfaces.clone();
+		this.seed = seed;
+	}
+
+	/**
+	 * @return a new rule for all overloads of the named method, installed when run as a given step
+	 */
+	public FaultRule on(Class<?> iface, String methodName) {
+		Preconditions.checkNotNull(methodName, "expect method name");
+		return newRule(iface, methodName);
+	}
+
+	/**
+	 * @return a new rule for all methods of the interface, installed when run as a given step. Method rules take precedence
+	 */
+	public FaultRule on(Class<?> iface) {
+		return newRule(iface, null);
+	}
+
+	private FaultRule newRule(Class<?> iface, String methodName) {
+		Preconditions.checkArgument(isFaulted(iface), "%s is not one of the interfaces faults are injected into", iface.getName());
+		return new FaultRule(this, iface, methodName, seed ^ keyOf(iface, methodName).hashCode());
+	}
+
+	void install(FaultRule rule) {
+		rules.put(keyOf(rule.getInterface(), rule.getMethodName()), rule);
+	}
+
+	/**
+	 * Remove all rules, letting calls through unaltered
+	 */
+	public void clearRules() {
+		rules.clear();
+	}
+
+	@Override
+	public void onScenarioEnd() {
+		clearRules();
+	}
+
+	@Override
+	public Object wrap(Class<?> requireType, Object dependency) {
+		if (dependency == null || !requireType.isInterface() || !isFaulted(dependency.getClass())) {
+			return dependency;
+		}
+		return ProxyFactory.newProxy(dependency, interceptors.get(dependency.getClass()));
+	}
+
+	private boolean isFaulted(Class<?> type) {
+		for (Class<?> iface : interfaces) {
+			if (iface.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String keyOf(Class<?> iface, String methodName) {
+		return methodName == null ? iface.getName() : iface.getName() + "#" + methodName;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E extends Throwable> E sneakyThrow(Throwable t) throws E {
+		throw (E) t;
+	}
+
+	/**
+	 * Applies the rule for each call, with the rule keys to try for each method id precomputed
+	 */
+	private class Interceptor implements CallInterceptor {
+		private final String[][] keys;
+
+		Interceptor(Class<?> targetClass) {
+			List<Method> methods = ProxyFactory.getMethods(targetClass);
+			keys = new String[methods.size()][];
+			for (int i = 0; i < methods.size(); i++) {
+				Method m = methods.get(i);
+				List<String> methodKeys = new ArrayList<>();
+				List<String> ifaceKeys = new ArrayList<>();
+				for (Class<?> iface : interfaces) {
+					if (m.getDeclaringClass().isAssignableFrom(iface)) {
+						methodKeys.add(keyOf(iface, m.getName()));
+						ifaceKeys.add(keyOf(iface, null));
+					}
+				}
+				methodKeys.addAll(ifaceKeys);
+				keys[i] = methodKeys.toArray(new String[methodKeys.size()]);
+			}
+		}
+
+		@Override
+		public long enter(int method) {
+			if (rules.isEmpty()) {
+				return NO_RULE;
+			}
+			for (String key : keys[method]) {
+				FaultRule rule = rules.get(key);
+				if (rule != null) {
+					rule.apply();
+					break;
+				}
+			}
+			return NO_RULE;
+		}
+
+		@Override
+		public void argument(int method, int index, Object arg) {
+		}
+
+		@Override
+		public void exit(int method, long token, Throwable failure) {
+		}
+	}
+}
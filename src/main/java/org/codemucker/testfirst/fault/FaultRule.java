@@ -0,0 +1,240 @@
+package org.codemucker.testfirst.fault;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.codemucker.testfirst.Scenario.Invoker;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The latency and faults to inject into calls to a dependency method, or all methods of a dependency interface. Configure then pass to a
+ * given step, which installs it into its {@link FaultInjector}, replacing any previous rule for the same methods:
+ * 
+ * <pre>
+ * scenario.given(faults.on(Downstream.class, "fetch").delayBetween(20, 80, TimeUnit.MILLISECONDS).failAfter(3));
+ * </pre>
+ * 
+ * <p>Faults are applied in order of throughput cap, failure after N calls, delay, then timeout</p>
+ */
+public class FaultRule implements Invoker {
+
+	private enum Distribution {
+		None, Fixed, Uniform, Exponential
+	}
+
+	private static final int DRAW_DELAY = 0;
+	private static final int DRAW_TIMEOUT = 1;
+
+	private final FaultInjector injector;
+	private final Class<?> iface;
+	private final String methodName;
+	private final long seed;
+
+	private Distribution distribution = Distribution.None;
+	private long delayNanos;
+	private long delayMaxNanos;
+
+	private double timeoutProbability;
+	private long timeoutNanos;
+	private Throwable timeoutError;
+
+	private long failAfterCalls = -1;
+	private Throwable failError;
+
+	private long minIntervalNanos;
+	private final AtomicLong nextSlotNanos = new AtomicLong(Long.MIN_VALUE);
+
+	private final AtomicLong calls = new AtomicLong();
+
+	FaultRule(FaultInjector injector, Class<?> iface, String methodName, long seed) {
+		this.injector = injector;
+		this.iface = iface;
+		this.methodName = methodName;
+		this.seed = seed;
+	}
+
+	/**
+	 * Delay every call by the given time
+	 */
+	public FaultRule delay(long delay, TimeUnit unit) {
+		Preconditions.checkArgument(delay >= 0, "expect delay >= 0");
+		distribution = Distribution.Fixed;
+		delayNanos = unit.toNanos(delay);
+		return this;
+	}
+
+	/**
+	 * Delay every call by a uniformly distributed time between the given bounds
+	 */
+	public FaultRule delayBetween(long min, long max, TimeUnit unit) {
+		Preconditions.checkArgument(min >= 0 && max >= min, "expect 0 <= min <= max");
+		distribution = Distribution.Uniform;
+		delayNanos = unit.toNanos(min);
+		delayMaxNanos = unit.toNanos(max);
+		return this;
+	}
+
+	/**
+	 * Delay every call by an exponentially distributed time with the given mean, giving the long tail typical of a loaded service
+	 */
+	public FaultRule delayExponential(long mean, TimeUnit unit) {
+		Preconditions.checkArgument(mean >= 0, "expect mean >= 0");
+		distribution = Distribution.Exponential;
+		delayNanos = unit.toNanos(mean);
+		return this;
+	}
+
+	/**
+	 * With the given probability, wait the timeout then fail with an {@link InjectedFaultException}
+	 */
+	public FaultRule timeouts(double probability, long timeout, TimeUnit unit) {
+		return timeouts(probability, timeout, unit, null);
+	}
+
+	/**
+	 * With the given probability, wait the timeout then throw the given error, such as the timeout exception the real client throws. The
+	 * error is thrown even if checked and not declared by the method
+	 */
+	public FaultRule timeouts(double probability, long timeout, TimeUnit unit, Throwable error) {
+		Preconditions.checkArgument(probability >= 0 && probability <= 1, "expect probability between 0 and 1");
+		timeoutProbability = probability;
+		timeoutNanos = unit.toNanos(timeout);
+		timeoutError = error;
+		return this;
+	}
+
+	/**
+	 * Let the given number of calls through, then fail every call after with an {@link InjectedFaultException}
+	 */
+	public FaultRule failAfter(long calls) {
+		return failAfter(calls, null);
+	}
+
+	/**
+	 * Let the given number of calls through, then throw the given error on every call after. The error is thrown even if checked and not
+	 * declared by the method
+	 */
+	public FaultRule failAfter(long calls, Throwable error) {
+		Preconditions.checkArgument(calls >= 0, "expect calls >= 0");
+		failAfterCalls = calls;
+		failError = error;
+		return this;
+	}
+
+	/**
+	 * Cap throughput by spacing calls evenly, blocking callers which arrive early as a saturated service would
+	 */
+	public FaultRule maxCallsPerSecond(double callsPerSecond) {
+		Preconditions.checkArgument(callsPerSecond > 0, "expect callsPerSecond > 0");
+		minIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / callsPerSecond);
+		return this;
+	}
+
+	/**
+	 * Install this rule into its injector
+	 */
+	@Override
+	public void invoke() {
+		injector.install(this);
+	}
+
+	Class<?> getInterface() {
+		return iface;
+	}
+
+	/**
+	 * @return the method name, or null if for all methods
+	 */
+	String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * @return calls made through this rule since installed
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	void apply() {
+		long n = calls.incrementAndGet();
+		if (minIntervalNanos > 0) {
+			throttle();
+		}
+		if (failAfterCalls >= 0 && n > failAfterCalls) {
+			throw FaultInjector.<RuntimeException> sneakyThrow(failError != null ? failError : new InjectedFaultException("injected failure on call " + n + " to " + describe()));
+		}
+		if (distribution != Distribution.None) {
+			sleep(nextDelayNanos(random(n, DRAW_DELAY)));
+		}
+		if (timeoutProbability > 0 && random(n, DRAW_TIMEOUT) < timeoutProbability) {
+			sleep(timeoutNanos);
+			throw FaultInjector.<RuntimeException> sneakyThrow(timeoutError != null ? timeoutError : new InjectedFaultException("injected timeout after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms on call " + n + " to " + describe()));
+		}
+	}
+
+	private long nextDelayNanos(double random) {
+		switch (distribution) {
+		case Uniform:
+			return delayNanos + (long) (random * (delayMaxNanos - delayNanos));
+		case Exponential:
+			return (long) (-Math.log(1 - random) * delayNanos);
+		default:
+			return delayNanos;
+		}
+	}
+
+	/**
+	 * A uniform value in [0,1) for the given call and draw, mixed from the seed as in SplittableRandom, so no state is shared between
+	 * calling threads
+	 */
+	private double random(long call, int draw) {
+		long z = seed + (call * 2 + draw) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Reserve the next free slot and wait for it
+	 */
+	private void throttle() {
+		long now = System.nanoTime();
+		long slot;
+		while (true) {
+			long next = nextSlotNanos.get();
+			slot = next == Long.MIN_VALUE || next - now < 0 ? now : next;
+			if (nextSlotNanos.compareAndSet(next, slot + minIntervalNanos)) {
+				break;
+			}
+		}
+		sleep(slot - now);
+	}
+
+	/**
+	 * Sleep for the given time. If interrupted the interrupt is restored and the call proceeds
+	 */
+	private static void sleep(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	String describe() {
+		return iface.getSimpleName() + (methodName == null ? "" : "." + methodName);
+	}
+
+	@Override
+	public String toString() {
+		return "FaultRule[" + describe() + "]";
+	}
+}
@@ -0,0 +1,15 @@
+package org.codemucker.testfirst.fault;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Thrown by a dependency wrapped by a {@link FaultInjector} when a fault is injected and no other error was configured
+ */
+public class InjectedFaultException extends TestFirstRuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InjectedFaultException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,107 @@
+package org.codemucker.testfirst.heap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The measured retained heap size of an object graph, as calculated by a {@link FootprintWalker}
+ */
+public class Footprint {
+
+	private static final int DEFAULT_TOP_CLASSES = 10;
+
+	private final long totalBytes;
+	private final long objectCount;
+	private final List<ClassFootprint> byClass;
+
+	Footprint(Map<Class<?>,long[]> countAndBytesByClass) {
+		long bytes = 0;
+		long count = 0;
+		List<ClassFootprint> classes = new ArrayList<>(countAndBytesByClass.size());
+		for (Map.Entry<Class<?>,long[]> entry : countAndBytesByClass.entrySet()) {
+			long[] countAndBytes = entry.getValue();
+			count += countAndBytes[0];
+			bytes += countAndBytes[1];
+			classes.add(new ClassFootprint(entry.getKey(), countAndBytes[0], countAndBytes[1]));
+		}
+		Collections.sort(classes, new Comparator<ClassFootprint>() {
+			@Override
+			public int compare(ClassFootprint a, ClassFootprint b) {
+				return Long.compare(b.bytes, a.bytes);
+			}
+		});
+		this.totalBytes = bytes;
+		this.objectCount = count;
+		this.byClass = Collections.unmodifiableList(classes);
+	}
+
+	/**
+	 * Measure the footprint of the given object graph with the default options
+	 */
+	public static Footprint of(Object root) {
+		return new FootprintWalker().measure(root);
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getObjectCount() {
+		return objectCount;
+	}
+
+	/**
+	 * @return the contributing classes, largest first
+	 */
+	public List<ClassFootprint> getByClass() {
+		return byClass;
+	}
+
+	/**
+	 * @return a summary including the given number of the largest contributing classes
+	 */
+	public String describe(int topClasses) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(totalBytes).append(" bytes in ").append(objectCount).append(" objects");
+		for (int i = 0; i < byClass.size() && i < topClasses; i++) {
+			ClassFootprint c = byClass.get(i);
+			sb.append("\n  ").append(c.bytes).append(" bytes, ").append(c.count).append(" x ").append(c.type.getName());
+		}
+		if (byClass.size() > topClasses) {
+			sb.append("\n  ... ").append(byClass.size() - topClasses).append(" more classes");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return describe(DEFAULT_TOP_CLASSES);
+	}
+
+	public static class ClassFootprint {
+		private final Class<?> type;
+		private final long count;
+		private final long bytes;
+
+		ClassFootprint(Class<?> type, long count, long bytes) {
+			this.type = type;
+			this.count = count;
+			this.bytes = bytes;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+}
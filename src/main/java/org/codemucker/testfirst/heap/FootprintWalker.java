@@ -0,0 +1,258 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.codemucker.testfirst.heap.ReferenceFields.RefField;
+
+/**
+ * Measures the heap retained by an object graph by walking everything reachable from a root. Shared objects are neither counted nor walked:
+ * classes, classloaders, threads, enum constants, cached boxed values, anything explicitly excluded, and singletons (objects held in static fields
+ * of the classes encountered, or of their enclosing classes). Singletons are found by first walking the whole graph for the classes in it, so
+ * what is excluded doesn't depend on the order the graph is walked in.
+ * 
+ * <p>Objects reachable both from the root and from elsewhere are counted, so the result is an upper bound of what would be freed if the root were
+ * released. Large graphs are walked level by level in parallel</p>
+ */
+public class FootprintWalker {
+
+	/**
+	 * Below this many objects in a level, walk on the calling thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+	private static final int CHUNK_SIZE = 1024;
+
+	private final Set<Object> excluded = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Exclude the given objects, and anything only reachable through them
+	 */
+	public FootprintWalker exclude(Object... objs) {
+		Collections.addAll(excluded, objs);
+		return this;
+	}
+
+	/**
+	 * Use the given pool for walking large graphs in parallel. Default is the common pool
+	 */
+	public FootprintWalker pool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	public Footprint measure(Object root) {
+		Walk discovery = new Walk(excluded);
+		walkAll(discovery, root);
+		Set<Object> shared = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+		shared.addAll(excluded);
+		for (Class<?> type : discovery.classes) {
+			for (Class<?> t = type; t != null; t = t.getEnclosingClass()) {
+				for (RefField f : ReferenceFields.staticFields(t)) {
+					Object singleton = f.get(null);
+					if (singleton != null) {
+						shared.add(singleton);
+					}
+				}
+			}
+		}
+		return new Footprint(walkAll(new Walk(shared), root));
+	}
+
+	private Map<Class<?>,long[]> walkAll(Walk walk, Object root) {
+		List<Object> level = new ArrayList<>();
+		if (root != null) {
+			//always count the root itself, even if it's a singleton
+			walk.claimRoot(root);
+			level.add(root);
+		}
+		Map<Class<?>,long[]> totals = new HashMap<>();
+		while (!level.isEmpty()) {
+			LevelResult result = level.size() < PARALLEL_THRESHOLD ? walk.walk(level, 0, level.size()) : pool.invoke(new WalkTask(walk, level, 0, level.size()));
+			merge(totals, result.countAndBytesByClass);
+			level = result.next;
+		}
+		return totals;
+	}
+
+	private static void merge(Map<Class<?>,long[]> into, Map<Class<?>,long[]> from) {
+		for (Map.Entry<Class<?>,long[]> entry : from.entrySet()) {
+			long[] existing = into.get(entry.getKey());
+			if (existing == null) {
+				into.put(entry.getKey(), entry.getValue());
+			} else {
+				existing[0] += entry.getValue()[0];
+				existing[1] += entry.getValue()[1];
+			}
+		}
+	}
+
+	/**
+	 * The state shared by all threads walking a graph
+	 */
+	private static class Walk {
+		private final Set<IdentityKey> visited = Collections.newSetFromMap(new ConcurrentHashMap<IdentityKey,Boolean>());
+		private final Set<IdentityKey> shared = Collections.newSetFromMap(new ConcurrentHashMap<IdentityKey,Boolean>());
+		/**
+		 * The classes of everything walked
+		 */
+		private final Set<Class<?>> classes = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>,Boolean>());
+
+		/**
+		 * @param excluded objects not to count or walk, fixed before walking so results don't depend on walk order
+		 */
+		Walk(Set<Object> excluded) {
+			for (Object obj : excluded) {
+				shared.add(new IdentityKey(obj));
+			}
+		}
+
+		void claimRoot(Object root) {
+			visited.add(new IdentityKey(root));
+		}
+
+		/**
+		 * @return true if the object should be counted and walked by the caller, false if already claimed or shared
+		 */
+		boolean claim(Object obj) {
+			if (obj == null || isShared(obj)) {
+				return false;
+			}
+			IdentityKey key = new IdentityKey(obj);
+			return !shared.contains(key) && visited.add(key);
+		}
+
+		private boolean isShared(Object obj) {
+			if (obj instanceof Class || obj instanceof ClassLoader || obj instanceof Thread || obj instanceof ThreadGroup || obj instanceof Enum || obj instanceof Boolean) {
+				return true;
+			}
+			return isCachedBoxedValue(obj);
+		}
+
+		private static boolean isCachedBoxedValue(Object obj) {
+			if (obj instanceof Integer) {
+				return Integer.valueOf((Integer) obj) == obj;
+			}
+			if (obj instanceof Long) {
+				return Long.valueOf((Long) obj) == obj;
+			}
+			if (obj instanceof Short) {
+				return Short.valueOf((Short) obj) == obj;
+			}
+			if (obj instanceof Byte) {
+				return true;
+			}
+			if (obj instanceof Character) {
+				return Character.valueOf((Character) obj) == obj;
+			}
+			return false;
+		}
+
+		LevelResult walk(List<Object> level, int from, int to) {
+			LevelResult result = new LevelResult();
+			for (int i = from; i < to; i++) {
+				Object obj = level.get(i);
+				classes.add(obj.getClass());
+				result.count(obj.getClass(), ObjectLayout.sizeOf(obj));
+				if (obj.getClass().isArray()) {
+					if (!obj.getClass().getComponentType().isPrimitive()) {
+						int len = Array.getLength(obj);
+						for (int j = 0; j < len; j++) {
+							Object child = Array.get(obj, j);
+							if (claim(child)) {
+								result.next.add(child);
+							}
+						}
+					}
+				} else {
+					for (RefField f : ReferenceFields.instanceFields(obj.getClass())) {
+						Object child = f.get(obj);
+						if (claim(child)) {
+							result.next.add(child);
+						}
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+	private static class LevelResult {
+		final Map<Class<?>,long[]> countAndBytesByClass = new HashMap<>();
+		List<Object> next = new ArrayList<>();
+
+		void count(Class<?> type, long bytes) {
+			long[] countAndBytes = countAndBytesByClass.get(type);
+			if (countAndBytes == null) {
+				countAndBytes = new long[2];
+				countAndBytesByClass.put(type, countAndBytes);
+			}
+			countAndBytes[0]++;
+			countAndBytes[1] += bytes;
+		}
+
+		LevelResult combine(LevelResult other) {
+			merge(countAndBytesByClass, other.countAndBytesByClass);
+			next.addAll(other.next);
+			return this;
+		}
+	}
+
+	private static class WalkTask extends RecursiveTask<LevelResult> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient Walk walk;
+		private final transient List<Object> level;
+		private final int from;
+		private final int to;
+
+		WalkTask(Walk walk, List<Object> level, int from, int to) {
+			this.walk = walk;
+			this.level = level;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected LevelResult compute() {
+			if (to - from <= CHUNK_SIZE) {
+				return walk.walk(level, from, to);
+			}
+			int mid = (from + to) >>> 1;
+			WalkTask left = new WalkTask(walk, level, from, mid);
+			left.fork();
+			LevelResult right = new WalkTask(walk, level, mid, to).compute();
+			return left.join().combine(right);
+		}
+	}
+
+	/**
+	 * Identity based key, so objects with custom equals are treated as distinct
+	 */
+	private static class IdentityKey {
+		private final Object obj;
+
+		IdentityKey(Object obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(obj);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IdentityKey && ((IdentityKey) other).obj == obj;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+
+/**
+ * Checks objects are garbage collected once they should no longer be in use, such as after scenario teardown. Only weak references are held to
+ * tracked objects.
+ * 
+ * <p>On failure lists the classes which survived, and where possible the path from a root by which they are retained. Static fields of the
+ * surviving classes and their enclosing classes are always searched, add more roots via {@link #searchFrom(String, Object)} and {@link #searchStaticsOf(Class)}</p>
+ * 
+ * <p>Anything still referenced from the test itself, such as a local variable, will be reported as a leak</p>
+ */
+@ThreadSafe
+public class LeakDetector {
+
+	private static final int MAX_REPORTED_PATHS = 5;
+	private static final int MAX_PATH_SEARCH_VISITS = 1000000;
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+	private final Set<TrackedRef> tracked = new LinkedHashSet<>();
+	private final Map<String,WeakReference<Object>> roots = new LinkedHashMap<>();
+	private final Set<Class<?>> staticRoots = new LinkedHashSet<>();
+
+	/**
+	 * Track an object which is expected to be collected
+	 */
+	public synchronized LeakDetector track(Object obj) {
+		if (obj != null) {
+			tracked.add(new TrackedRef(obj, queue));
+		}
+		return this;
+	}
+
+	public synchronized LeakDetector trackAll(Iterable<?> objs) {
+		for (Object obj : objs) {
+			track(obj);
+		}
+		return this;
+	}
+
+	/**
+	 * Add a root to search from when reporting how a leaked object is retained
+	 */
+	public synchronized LeakDetector searchFrom(String label, Object root) {
+		roots.put(label, new WeakReference<Object>(root));
+		return this;
+	}
+
+	/**
+	 * Add a class whose static fields should be searched when reporting how a leaked object is retained
+	 */
+	public synchronized LeakDetector searchStaticsOf(Class<?> type) {
+		staticRoots.add(type);
+		return this;
+	}
+
+	/**
+	 * @return how many tracked objects have not yet been collected
+	 */
+	public synchronized int getLiveCount() {
+		expunge();
+		return tracked.size();
+	}
+
+	/**
+	 * Repeatedly request garbage collection until all tracked objects have been collected, or the timeout expires
+	 * 
+	 * @throws TestFirstAssertionFailedException listing the surviving objects if any were not collected
+	 */
+	public void assertNoLeaks(long timeout, TimeUnit unit) {
+		if (!awaitCollected(unit.toMillis(timeout))) {
+			throw new TestFirstAssertionFailedException(describeSurvivors());
+		}
+	}
+
+	/**
+	 * @return true if all tracked objects were collected within the timeout
+	 */
+	public boolean awaitCollected(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long pause = 10;
+		while (getLiveCount() > 0) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			System.gc();
+			System.runFinalization();
+			try {
+				Thread.sleep(pause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return getLiveCount() == 0;
+			}
+			pause = Math.min(pause * 2, 200);
+		}
+		return true;
+	}
+
+	private void expunge() {
+		Object ref;
+		while ((ref = queue.poll()) != null) {
+			tracked.remove(ref);
+		}
+	}
+
+	private synchronized String describeSurvivors() {
+		List<Object> survivors = new ArrayList<>();
+		Map<String,Integer> countByClass = new LinkedHashMap<>();
+		for (TrackedRef ref : tracked) {
+			Object obj = ref.get();
+			if (obj != null) {
+				survivors.add(obj);
+				Integer count = countByClass.get(ref.className);
+				countByClass.put(ref.className, count == null ? 1 : count + 1);
+			}
+		}
+		StringBuilder sb = new StringBuilder("Expected all tracked objects to be garbage collected, but " + survivors.size() + " survived:\n");
+		for (Map.Entry<String,Integer> entry : countByClass.entrySet()) {
+			sb.append("  ").append(entry.getValue()).append(" x ").append(entry.getKey()).append("\n");
+		}
+		
+		RetainingPathFinder finder = new RetainingPathFinder(MAX_PATH_SEARCH_VISITS);
+		for (Map.Entry<String,WeakReference<Object>> root : roots.entrySet()) {
+			finder.addRoot(root.getKey(), root.getValue().get());
+		}
+		Set<Class<?>> searchStatics = new LinkedHashSet<>(staticRoots);
+		for (Object survivor : survivors) {
+			//registries are commonly held by the class itself or its outer class
+			for (Class<?> type = survivor.getClass(); type != null; type = type.getEnclosingClass()) {
+				searchStatics.add(type);
+			}
+		}
+		for (Class<?> type : searchStatics) {
+			finder.addStaticRoots(type);
+		}
+		int reported = 0;
+		for (Object survivor : survivors) {
+			if (reported == MAX_REPORTED_PATHS) {
+				break;
+			}
+			List<String> path = finder.findPath(survivor);
+			if (path != null) {
+				reported++;
+				sb.append("retained via:\n");
+				for (String step : path) {
+					sb.append("    ").append(step).append("\n");
+				}
+			}
+		}
+		if (reported == 0) {
+			sb.append("no retaining path found from the searched roots");
+		}
+		return sb.toString();
+	}
+
+	private static class TrackedRef extends WeakReference<Object> {
+		final String className;
+
+		TrackedRef(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.className = referent.getClass().getName();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Calculates the shallow size of objects using the layout of the running JVM, as discovered via {@link UnsafeAccess} field offsets. Falls back to
+ * an estimate assuming a 64 bit JVM with compressed references if unavailable
+ */
+class ObjectLayout {
+
+	private static final int REFERENCE_SIZE;
+	private static final int OBJECT_HEADER_SIZE;
+	private static final int ALIGNMENT;
+
+	private static final ClassValue<Long> INSTANCE_SIZES = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(Class<?> type) {
+			return computeInstanceSize(type);
+		}
+	};
+
+	static {
+		int refSize = UnsafeAccess.arrayIndexScale(Object[].class);
+		REFERENCE_SIZE = refSize > 0 ? refSize : 4;
+		int intArrayBase = UnsafeAccess.arrayBaseOffset(int[].class);
+		//array header is the object header plus a 4 byte length
+		OBJECT_HEADER_SIZE = intArrayBase > 0 ? intArrayBase - 4 : 12;
+		ALIGNMENT = readObjectAlignment();
+	}
+
+	private ObjectLayout() {
+	}
+
+	private static int readObjectAlignment() {
+		try {
+			CompositeData option = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(
+					new ObjectName("com.sun.management:type=HotSpotDiagnostic"), "getVMOption",
+					new Object[] { "ObjectAlignmentInBytes" }, new String[] { String.class.getName() });
+			return Integer.parseInt((String) option.get("value"));
+		} catch (Exception e) {
+			//not a HotSpot JVM
+			return 8;
+		}
+	}
+
+	/**
+	 * @return the shallow size in bytes of the given object
+	 */
+	static long sizeOf(Object obj) {
+		Class<?> type = obj.getClass();
+		if (type.isArray()) {
+			Class<?> arrayType = type;
+			int base = UnsafeAccess.arrayBaseOffset(arrayType);
+			int scale = UnsafeAccess.arrayIndexScale(arrayType);
+			if (base < 0 || scale < 0) {
+				base = OBJECT_HEADER_SIZE + 4;
+				scale = sizeOfType(type.getComponentType());
+			}
+			return align(base + (long) java.lang.reflect.Array.getLength(obj) * scale);
+		}
+		return INSTANCE_SIZES.get(type);
+	}
+
+	private static long computeInstanceSize(Class<?> type) {
+		long end = OBJECT_HEADER_SIZE;
+		long sumOfFields = OBJECT_HEADER_SIZE;
+		boolean allOffsetsKnown = true;
+		for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+			for (Field f : t.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers())) {
+					continue;
+				}
+				int size = sizeOfType(f.getType());
+				sumOfFields += size;
+				long offset = UnsafeAccess.objectFieldOffset(f);
+				if (offset < 0) {
+					allOffsetsKnown = false;
+				} else {
+					end = Math.max(end, offset + size);
+				}
+			}
+		}
+		return align(allOffsetsKnown ? end : sumOfFields);
+	}
+
+	private static int sizeOfType(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return REFERENCE_SIZE;
+		}
+		if (type == long.class || type == double.class) {
+			return 8;
+		}
+		if (type == int.class || type == float.class) {
+			return 4;
+		}
+		if (type == short.class || type == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private static long align(long size) {
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+}
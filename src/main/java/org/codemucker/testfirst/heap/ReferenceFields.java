@@ -0,0 +1,116 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches how to read the reference (non primitive) fields of classes, for walking object graphs. Fields are read via reflection where they can be
+ * made accessible, otherwise via {@link UnsafeAccess} (for module protected JDK internals). Fields which can be read by neither are skipped, so
+ * walks may then be incomplete.
+ * 
+ * <p>Cached per class via a {@link ClassValue}, so classes from discarded classloaders can still be unloaded</p>
+ */
+class ReferenceFields {
+
+	private static final RefField[] NONE = new RefField[0];
+
+	private static final ClassValue<RefField[]> INSTANCE_FIELDS = new ClassValue<RefField[]>() {
+		@Override
+		protected RefField[] computeValue(Class<?> type) {
+			List<RefField> fields = new ArrayList<>();
+			for (Class<?> t = type; t != null && t != Object.class; t = t.getSuperclass()) {
+				for (Field f : t.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive()) {
+						RefField field = RefField.forField(f);
+						if (field != null) {
+							fields.add(field);
+						}
+					}
+				}
+			}
+			return fields.isEmpty() ? NONE : fields.toArray(new RefField[fields.size()]);
+		}
+	};
+
+	private static final ClassValue<RefField[]> STATIC_FIELDS = new ClassValue<RefField[]>() {
+		@Override
+		protected RefField[] computeValue(Class<?> type) {
+			List<RefField> fields = new ArrayList<>();
+			for (Field f : type.getDeclaredFields()) {
+				//statics can only be read via reflection
+				if (Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive() && makeAccessible(f)) {
+					fields.add(new RefField(f, -1));
+				}
+			}
+			return fields.isEmpty() ? NONE : fields.toArray(new RefField[fields.size()]);
+		}
+	};
+
+	private ReferenceFields() {
+	}
+
+	private static boolean makeAccessible(Field f) {
+		try {
+			f.setAccessible(true);
+			return true;
+		} catch (RuntimeException e) {
+			//inaccessible on this JVM
+			return false;
+		}
+	}
+
+	/**
+	 * @return the readable reference fields of the given class and its superclasses
+	 */
+	static RefField[] instanceFields(Class<?> type) {
+		return INSTANCE_FIELDS.get(type);
+	}
+
+	/**
+	 * @return the readable static reference fields declared on the given class
+	 */
+	static RefField[] staticFields(Class<?> type) {
+		return STATIC_FIELDS.get(type);
+	}
+
+	/**
+	 * A readable reference field
+	 */
+	static class RefField {
+		private final Field field;
+		private final long unsafeOffset;
+
+		private RefField(Field field, long unsafeOffset) {
+			this.field = field;
+			this.unsafeOffset = unsafeOffset;
+		}
+
+		static RefField forField(Field f) {
+			if (makeAccessible(f)) {
+				return new RefField(f, -1);
+			}
+			long offset = UnsafeAccess.objectFieldOffset(f);
+			return offset < 0 ? null : new RefField(f, offset);
+		}
+
+		String getName() {
+			return field.getName();
+		}
+
+		/**
+		 * @return the field value, or null if it could not be read
+		 */
+		Object get(Object instance) {
+			if (unsafeOffset >= 0) {
+				return UnsafeAccess.getObject(instance, unsafeOffset);
+			}
+			try {
+				return field.get(instance);
+			} catch (IllegalAccessException | RuntimeException e) {
+				return null;
+			}
+		}
+	}
+}
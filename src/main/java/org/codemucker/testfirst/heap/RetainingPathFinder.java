@@ -0,0 +1,104 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codemucker.testfirst.heap.ReferenceFields.RefField;
+
+/**
+ * Finds how an object is being kept alive, by walking the live heap breadth first from a set of roots via reflection, to give the shortest path
+ * from a root. Only what is reachable from the given roots can be found, and a bounded number of objects is visited
+ */
+class RetainingPathFinder {
+
+	private final Map<String,Object> roots = new LinkedHashMap<>();
+	private final int maxVisits;
+
+	RetainingPathFinder(int maxVisits) {
+		this.maxVisits = maxVisits;
+	}
+
+	void addRoot(String label, Object root) {
+		if (root != null) {
+			roots.put(label, root);
+		}
+	}
+
+	/**
+	 * Add the static fields of the given class as roots
+	 */
+	void addStaticRoots(Class<?> type) {
+		for (RefField f : ReferenceFields.staticFields(type)) {
+			addRoot(type.getName() + "." + f.getName() + " (static)", f.get(null));
+		}
+	}
+
+	/**
+	 * @return the path from a root to the target, or null if not found within the visit limit
+	 */
+	List<String> findPath(Object target) {
+		Map<Object,Edge> visited = new IdentityHashMap<>();
+		Deque<Object> queue = new ArrayDeque<>();
+		for (Map.Entry<String,Object> root : roots.entrySet()) {
+			if (!visited.containsKey(root.getValue())) {
+				visited.put(root.getValue(), new Edge(null, root.getKey()));
+				queue.add(root.getValue());
+			}
+		}
+		while (!queue.isEmpty() && visited.size() < maxVisits) {
+			Object current = queue.poll();
+			if (current == target) {
+				return pathTo(target, visited);
+			}
+			if (current.getClass().isArray()) {
+				if (!current.getClass().getComponentType().isPrimitive()) {
+					int len = Array.getLength(current);
+					for (int i = 0; i < len; i++) {
+						visit(Array.get(current, i), current, "[" + i + "]", visited, queue);
+					}
+				}
+			} else {
+				for (RefField f : ReferenceFields.instanceFields(current.getClass())) {
+					visit(f.get(current), current, f.getName(), visited, queue);
+				}
+			}
+		}
+		return visited.containsKey(target) ? pathTo(target, visited) : null;
+	}
+
+	private static void visit(Object child, Object parent, String label, Map<Object,Edge> visited, Deque<Object> queue) {
+		if (child != null && !(child instanceof Class) && !visited.containsKey(child)) {
+			visited.put(child, new Edge(parent, label));
+			queue.add(child);
+		}
+	}
+
+	private static List<String> pathTo(Object target, Map<Object,Edge> visited) {
+		List<String> path = new ArrayList<>();
+		Object current = target;
+		while (current != null) {
+			Edge edge = visited.get(current);
+			path.add(edge.parent == null ? edge.label : edge.label + " -> " + current.getClass().getName());
+			current = edge.parent;
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	private static class Edge {
+		final Object parent;
+		final String label;
+
+		Edge(Object parent, String label) {
+			this.parent = parent;
+			this.label = label;
+		}
+	}
+}
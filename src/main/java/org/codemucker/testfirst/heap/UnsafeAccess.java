@@ -0,0 +1,95 @@
+package org.codemucker.testfirst.heap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Optional access to <code>sun.misc.Unsafe</code>, looked up reflectively so nothing breaks on JVMs without it. Used to read fields which can't be
+ * made accessible via reflection (JDK internals on module based JVMs), and to discover the object layout of the running JVM
+ */
+class UnsafeAccess {
+
+	private static final Object UNSAFE;
+	private static final MethodHandle OBJECT_FIELD_OFFSET;
+	private static final MethodHandle GET_OBJECT;
+	private static final MethodHandle ARRAY_BASE_OFFSET;
+	private static final MethodHandle ARRAY_INDEX_SCALE;
+
+	static {
+		Object unsafe = null;
+		MethodHandle fieldOffset = null, getObject = null, arrayBase = null, arrayScale = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field f = type.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			fieldOffset = lookup.findVirtual(type, "objectFieldOffset", MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+			getObject = lookup.findVirtual(type, "getObject", MethodType.methodType(Object.class, Object.class, long.class)).bindTo(unsafe);
+			arrayBase = lookup.findVirtual(type, "arrayBaseOffset", MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+			arrayScale = lookup.findVirtual(type, "arrayIndexScale", MethodType.methodType(int.class, Class.class)).bindTo(unsafe);
+		} catch (Throwable t) {
+			unsafe = null;
+		}
+		UNSAFE = unsafe;
+		OBJECT_FIELD_OFFSET = fieldOffset;
+		GET_OBJECT = getObject;
+		ARRAY_BASE_OFFSET = arrayBase;
+		ARRAY_INDEX_SCALE = arrayScale;
+	}
+
+	private UnsafeAccess() {
+	}
+
+	/**
+	 * @return the field offset, or -1 if unavailable
+	 */
+	static long objectFieldOffset(Field f) {
+		if (UNSAFE != null) {
+			try {
+				return (long) OBJECT_FIELD_OFFSET.invokeExact(f);
+			} catch (Throwable t) {
+				//not supported for this field, such as for hidden classes
+			}
+		}
+		return -1;
+	}
+
+	static Object getObject(Object instance, long offset) {
+		try {
+			return (Object) GET_OBJECT.invokeExact(instance, offset);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the offset of the first element of arrays of the given type, or -1 if unavailable
+	 */
+	static int arrayBaseOffset(Class<?> arrayType) {
+		if (UNSAFE != null) {
+			try {
+				return (int) ARRAY_BASE_OFFSET.invokeExact(arrayType);
+			} catch (Throwable t) {
+				//fall through
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the size of an element of arrays of the given type, or -1 if unavailable
+	 */
+	static int arrayIndexScale(Class<?> arrayType) {
+		if (UNSAFE != null) {
+			try {
+				return (int) ARRAY_INDEX_SCALE.invokeExact(arrayType);
+			} catch (Throwable t) {
+				//fall through
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,283 @@
+package org.codemucker.testfirst.impact;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.codemucker.testfirst.isolate.ClassLoaderPool;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The application classes each scenario loaded on its last passing run, with a hash of their bytecode, persisted to a local tab separated
+ * file. A scenario is unchanged while every class it loaded still hashes the same, and the jars on the classpath are the same size and age.
+ * 
+ * <p>Current hashes are computed once per class and cached, so the index assumes the classpath doesn't change while it's in use. Call
+ * {@link #save()} after the run. See {@link ImpactTask}</p>
+ */
+@ThreadSafe
+public class ImpactIndex {
+
+	private static final Logger log = LogManager.getLogger(ImpactIndex.class);
+
+	public static final String PROP_FILE = "testfirst.impact.file";
+	public static final String DEFAULT_FILE = "target/testfirst-impact.tsv";
+
+	/**
+	 * Dependency key for the jars on the classpath, which aren't hashed class by class
+	 */
+	static final String CLASSPATH_KEY = "*classpath";
+	private static final String MISSING = "-";
+
+	private final Path path;
+	private final URL[] classpath;
+	private final Map<String,Map<String,String>> entries = new TreeMap<>();
+	private final ConcurrentMap<String,String> currentHashes = new ConcurrentHashMap<>();
+
+	private URLClassLoader resources;
+
+	private ImpactIndex(Path path, URL[] classpath) {
+		this.path = path;
+		this.classpath = classpath.clone();
+	}
+
+	/**
+	 * Load the index from {@value #PROP_FILE}, or {@value #DEFAULT_FILE}, for the application classpath
+	 */
+	public static ImpactIndex load() {
+		return load(Paths.get(System.getProperty(PROP_FILE, DEFAULT_FILE)), ClassLoaderPool.applicationClasspath());
+	}
+
+	/**
+	 * Load the index from the given file. A missing or unreadable file gives an empty index, so every scenario runs
+	 * 
+	 * @param classpath where the scenarios' isolated classes are loaded from
+	 */
+	public static ImpactIndex load(Path path, URL[] classpath) {
+		Preconditions.checkNotNull(path, "expect path");
+		Preconditions.checkNotNull(classpath, "expect classpath");
+		ImpactIndex index = new ImpactIndex(path, classpath);
+		if (Files.exists(path)) {
+			try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.split("\t");
+					if (parts.length % 2 == 1) {
+						Map<String,String> deps = new LinkedHashMap<>();
+						for (int i = 1; i < parts.length; i += 2) {
+							deps.put(parts[i], parts[i + 1]);
+						}
+						index.entries.put(unescape(parts[0]), deps);
+					}
+				}
+			} catch (IOException e) {
+				log.warn("ignoring unreadable impact index " + path, e);
+				index.entries.clear();
+			}
+		}
+		return index;
+	}
+
+	URL[] getClasspath() {
+		return classpath.clone();
+	}
+
+	/**
+	 * @return true if the named scenario passed last time and none of its dependencies have changed since
+	 */
+	public boolean isUnchanged(String name) {
+		Map<String,String> deps;
+		synchronized (this) {
+			deps = entries.get(name);
+		}
+		if (deps == null) {
+			return false;
+		}
+		for (Map.Entry<String,String> dep : deps.entrySet()) {
+			if (!dep.getValue().equals(currentHash(dep.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record the classes the named scenario loaded on a passing run
+	 */
+	public void recordPassed(String name, Collection<String> classNames) {
+		recordPassed(name, classNames, Collections.<String> emptyList());
+	}
+
+	/**
+	 * Record the classes the named scenario loaded on a passing run
+	 * 
+	 * @param sharedClassNames classes the scenario used from outside its isolated loader. Only those on a classpath directory are recorded, as
+	 *            the classpath fingerprint doesn't cover directories
+	 */
+	public void recordPassed(String name, Collection<String> classNames, Collection<String> sharedClassNames) {
+		Map<String,String> deps = new LinkedHashMap<>();
+		deps.put(CLASSPATH_KEY, currentHash(CLASSPATH_KEY));
+		for (String className : classNames) {
+			deps.put(className, currentHash(className));
+		}
+		for (String className : sharedClassNames) {
+			if (!deps.containsKey(className) && isInDirectory(className)) {
+				deps.put(className, currentHash(className));
+			}
+		}
+		synchronized (this) {
+			entries.put(name, deps);
+		}
+	}
+
+	/**
+	 * Forget the named scenario, such as after it failed, so it always runs next time
+	 */
+	public synchronized void remove(String name) {
+		entries.remove(name);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private String currentHash(String key) {
+		String hash = currentHashes.get(key);
+		if (hash == null) {
+			try {
+				hash = CLASSPATH_KEY.equals(key) ? classpathHash() : classHash(key);
+			} catch (IOException | URISyntaxException e) {
+				log.warn("treating " + key + " as changed as couldn't hash it", e);
+				hash = MISSING;
+			}
+			currentHashes.putIfAbsent(key, hash);
+		}
+		return hash;
+	}
+
+	private boolean isInDirectory(String className) {
+		URL resource = resources().findResource(className.replace('.', '/') + ".class");
+		return resource != null && "file".equals(resource.getProtocol());
+	}
+
+	private String classHash(String className) throws IOException {
+		URL resource = resources().findResource(className.replace('.', '/') + ".class");
+		if (resource == null) {
+			return MISSING;
+		}
+		MessageDigest digest = newDigest();
+		byte[] buf = new byte[8192];
+		try (InputStream in = resource.openStream()) {
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				digest.update(buf, 0, read);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Jars are fingerprinted by name, size and modified time rather than content, to keep the check cheap. Classes in directories, isolated or
+	 * shared, are hashed individually as scenarios load them, so aren't part of this
+	 */
+	private String classpathHash() throws URISyntaxException {
+		MessageDigest digest = newDigest();
+		for (URL url : classpath) {
+			File file = "file".equals(url.getProtocol()) ? new File(url.toURI()) : null;
+			if (file == null || file.isFile()) {
+				String fingerprint = url + (file == null ? "" : ":" + file.length() + ":" + file.lastModified()) + "\n";
+				digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private synchronized URLClassLoader resources() {
+		if (resources == null) {
+			//no parent, so resources only come from the application classpath
+			resources = new URLClassLoader(classpath, null);
+		}
+		return resources;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new TestFirstRuntimeException("No SHA-1 digest available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write the index back to its file, replacing it in one step so concurrent readers never see a partial file
+	 */
+	public synchronized void save() {
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String,Map<String,String>> entry : entries.entrySet()) {
+					writer.write(escape(entry.getKey()));
+					for (Map.Entry<String,String> dep : entry.getValue().entrySet()) {
+						writer.write("\t" + dep.getKey() + "\t" + dep.getValue());
+					}
+					writer.newLine();
+				}
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not save impact index " + path, e);
+		}
+	}
+
+	private static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\\' && i + 1 < name.length()) {
+				char next = name.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,72 @@
+package org.codemucker.testfirst.impact;
+
+import org.codemucker.testfirst.isolate.ClassLoaderPool;
+import org.codemucker.testfirst.isolate.IsolatedTask;
+import org.codemucker.testfirst.schedule.CacheableTask;
+import org.codemucker.testfirst.schedule.ScenarioScheduler;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs a {@link ScenarioTask} class in a fresh isolated class loader which records the application classes it loads, so an
+ * {@link ImpactIndex} knows what each scenario depends on. A {@link ScenarioScheduler} skips the task, reporting a cached pass, while none of
+ * those classes have changed since it last passed.
+ * 
+ * <p>Unlike an {@link IsolatedTask} the loader is never pooled, as classes already loaded by an earlier scenario would go unrecorded. Classes
+ * shared with the framework and its libraries are only recorded when loaded from a classpath directory, those coming from jars being covered by
+ * the jars' fingerprint instead. Only
+ * classes are tracked, so scenarios reading changed resource files or external data must not be cached</p>
+ */
+public class ImpactTask implements CacheableTask {
+
+	private final ImpactIndex index;
+	private final String taskClassName;
+	private final String name;
+
+	public ImpactTask(ImpactIndex index, Class<? extends ScenarioTask> taskClass) {
+		this(index, taskClass.getName(), taskClass.getName());
+	}
+
+	/**
+	 * @param taskClassName loaded and created inside the recording loader, so needs a public no arg constructor
+	 */
+	public ImpactTask(ImpactIndex index, String taskClassName, String name) {
+		this.index = Preconditions.checkNotNull(index, "expect index");
+		this.taskClassName = Preconditions.checkNotNull(taskClassName, "expect task class name");
+		this.name = Preconditions.checkNotNull(name, "expect name");
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean isUpToDate() {
+		return index.isUnchanged(name);
+	}
+
+	@Override
+	public void run() throws Exception {
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		boolean passed = false;
+		try (RecordingClassLoader loader = new RecordingClassLoader(name, index.getClasspath(), ImpactTask.class.getClassLoader(),
+				ClassLoaderPool.DEFAULT_SHARED_PREFIXES)) {
+			thread.setContextClassLoader(loader);
+			try {
+				ScenarioTask task = (ScenarioTask) Class.forName(taskClassName, true, loader).newInstance();
+				task.run();
+				passed = true;
+			} finally {
+				thread.setContextClassLoader(previous);
+				if (passed) {
+					index.recordPassed(name, loader.getLoadedClasses(), loader.getSharedClasses());
+				} else {
+					index.remove(name);
+				}
+			}
+		}
+	}
+}
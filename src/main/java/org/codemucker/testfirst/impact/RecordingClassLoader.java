@@ -0,0 +1,57 @@
+package org.codemucker.testfirst.impact;
+
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.codemucker.testfirst.isolate.IsolatingClassLoader;
+
+/**
+ * An {@link IsolatingClassLoader} which records the application classes it loads, being those a scenario run inside it depends on, and the
+ * classes it shares from its parent
+ */
+class RecordingClassLoader extends IsolatingClassLoader {
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private final Set<String> loaded = new ConcurrentSkipListSet<>();
+	private final Set<String> shared = new ConcurrentSkipListSet<>();
+
+	RecordingClassLoader(String group, URL[] classpath, ClassLoader parent, String... sharedPrefixes) {
+		super(group, classpath, parent, sharedPrefixes);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		Class<?> type = super.findClass(name);
+		loaded.add(name);
+		return type;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		Class<?> type = super.loadClass(name, resolve);
+		ClassLoader loader = type.getClassLoader();
+		//the bootstrap loader's classes are the JDK's
+		if (loader != this && loader != null) {
+			shared.add(name);
+		}
+		return type;
+	}
+
+	/**
+	 * @return the names of the classes loaded from the isolated classpath, sorted
+	 */
+	Set<String> getLoadedClasses() {
+		return loaded;
+	}
+
+	/**
+	 * @return the names of the non bootstrap classes loaded from the parent, sorted
+	 */
+	Set<String> getSharedClasses() {
+		return shared;
+	}
+}
@@ -3,8 +3,11 @@ package org.codemucker.testfirst.inject;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -12,6 +15,7 @@ import javax.annotation.Resource;
 
 import org.codemucker.lang.BeanNameUtil;
 import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -22,14 +26,42 @@ class InjectMapper {
 	private static final Class<?>[] EMPTY_CLASS_ARGS = new Class[]{};
 	
 	private final Class<?> forType;
-	private final TestInjector injector;
 	private final Method postInjectMethod;
 	private final Method preDestroyMethod;//TODO:implement me
 	private List<InjectMapper.ValueInjector> valueInjectors = new ArrayList<>();
+	private final AtomicBoolean firstUse = new AtomicBoolean(true);
 
-	InjectMapper(TestInjector injector, Class<?> forType, boolean checkIfDependencySet) {
+	/**
+	 * Per class caches, which don't keep classes or their loaders alive, so isolated class loaders can be collected
+	 */
+	private static final ClassValue<InjectMapper> CHECKING_MAPPERS = newCache(true);
+	private static final ClassValue<InjectMapper> OVERWRITING_MAPPERS = newCache(false);
+
+	private static ClassValue<InjectMapper> newCache(final boolean checkIfDependencySet) {
+		return new ClassValue<InjectMapper>() {
+			@Override
+			protected InjectMapper computeValue(Class<?> type) {
+				return new InjectMapper(type, checkIfDependencySet);
+			}
+		};
+	}
+
+	/**
+	 * @return the cached mapper for the given type
+	 */
+	static InjectMapper forType(Class<?> type, boolean checkIfDependencySet) {
+		InjectMapper mapper = (checkIfDependencySet ? CHECKING_MAPPERS : OVERWRITING_MAPPERS).get(type);
+		//read before the CAS so the steady state doesn't write to the shared mapper
+		if (mapper.firstUse.get() && mapper.firstUse.compareAndSet(true, false)) {
+			FrameworkMetrics.MAPPER_MISSES.inc();
+		} else {
+			FrameworkMetrics.MAPPER_HITS.inc();
+		}
+		return mapper;
+	}
+
+	InjectMapper(Class<?> forType, boolean checkIfDependencySet) {
 		this.forType = forType;
-		this.injector = injector;
 		registerFieldInjectors(forType, checkIfDependencySet);
 		registerMethodInjectors(forType, checkIfDependencySet);
 		this.postInjectMethod = extractPostInjectMethodOrNull(forType);
@@ -142,7 +174,11 @@ class InjectMapper {
 		return null;
 	}
 
-	public void inject(Object instance) {
+	/**
+	 * Inject the given instance resolving dependencies from the given injector. Mappers hold no injector state so can be shared
+	 * between injector scopes
+	 */
+	public void inject(TestInjector injector, Object instance) {
 		for (InjectMapper.ValueInjector vi : valueInjectors) {
 			vi.inject(injector, instance);
 		}
@@ -178,6 +214,13 @@ class InjectMapper {
 	}
 	
 	
+	/**
+	 * @return whether the given scenario end listener is the destructor of the given instance, from {@link #getDestructorOrNull(Object)}
+	 */
+	static boolean isDestructorOf(IRunOnScenarioEnd ender, Object instance){
+		return ender instanceof PreDestroyAdapter && ((PreDestroyAdapter) ender).instance == instance;
+	}
+	
 	private static class PreDestroyAdapter implements IRunOnScenarioEnd {
 		private final Object instance;
 		private final Method noArgDestroyMethod;
@@ -201,6 +244,21 @@ class InjectMapper {
 		
 	}
 
+	/**
+	 * Injection point types which are given a {@link LazyDependency} of their type parameter
+	 */
+	private static final Class<?>[] LAZY_TYPES = new Class<?>[] { com.google.inject.Provider.class, javax.inject.Provider.class,
+			com.google.common.base.Supplier.class, java.util.function.Supplier.class };
+	
+	private enum Resolve {
+		/** obtain the dependency now */
+		Eager,
+		/** inject a provider of the dependency */
+		LazyProvider,
+		/** inject a proxy of the dependency's interface */
+		LazyProxy
+	}
+	
 	private static class ValueInjector {
 		private final Class<?> valueType;
 		private final String valueTypeName;
@@ -210,6 +268,12 @@ class InjectMapper {
 		
 		private final boolean failOnMissingDependency;
 		private final boolean checkIfDependencySet;
+		
+		private final Resolve resolve;
+		/**
+		 * The type to obtain from the injector. For lazy providers this is the provided type
+		 */
+		private final Class<?> dependencyType;
 
 		public ValueInjector(String valueTypeName, Field fieldSetter, boolean optional,boolean checkIfDependencySet) {
 			super();
@@ -220,6 +284,9 @@ class InjectMapper {
 			this.methodGetter = null;
 			this.failOnMissingDependency = !optional;
 			this.checkIfDependencySet = checkIfDependencySet;
+			Class<?> providedType = providedTypeOrNull(valueType, fieldSetter.getGenericType());
+			this.resolve = resolveOf(providedType, fieldSetter.getAnnotation(Lazy.class) != null, fieldSetter.toString());
+			this.dependencyType = providedType == null ? valueType : providedType;
 		}
 
 		public ValueInjector(String valueTypeName, Method methodSetter, Method methodGetter, boolean optional,boolean checkIfDependencySet) {
@@ -231,10 +298,54 @@ class InjectMapper {
 			this.methodGetter = methodGetter;
 			this.failOnMissingDependency = !optional;
 			this.checkIfDependencySet = checkIfDependencySet;
+			Class<?> providedType = providedTypeOrNull(valueType, methodSetter.getGenericParameterTypes()[0]);
+			this.resolve = resolveOf(providedType, methodSetter.getAnnotation(Lazy.class) != null, methodSetter.toString());
+			this.dependencyType = providedType == null ? valueType : providedType;
+		}
+		
+		/**
+		 * @return the type parameter if the given type is a provider or supplier, else null
+		 */
+		private static Class<?> providedTypeOrNull(Class<?> valueType, Type genericType) {
+			for (Class<?> lazyType : LAZY_TYPES) {
+				if (lazyType == valueType && genericType instanceof ParameterizedType) {
+					Type arg = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+					if (arg instanceof Class) {
+						return (Class<?>) arg;
+					}
+					if (arg instanceof ParameterizedType) {
+						return (Class<?>) ((ParameterizedType) arg).getRawType();
+					}
+				}
+			}
+			return null;
+		}
+		
+		private Resolve resolveOf(Class<?> providedType, boolean lazy, String injectionPoint) {
+			if (providedType != null) {
+				return Resolve.LazyProvider;
+			}
+			if (lazy) {
+				if (!valueType.isInterface()) {
+					throw new InjectionException("@Lazy requires an interface type, or use a Provider, on " + injectionPoint);
+				}
+				return Resolve.LazyProxy;
+			}
+			return Resolve.Eager;
 		}
 
 		public void inject(TestInjector injector, Object instance) {
-			Object injectValue = injector.obtain(valueType, valueTypeName,failOnMissingDependency);
+			Object injectValue;
+			switch (resolve) {
+			case LazyProvider:
+				injectValue = newLazy(injector);
+				break;
+			case LazyProxy:
+				injectValue = newLazy(injector).newProxy();
+				break;
+			default:
+				injectValue = injector.obtain(valueType, valueTypeName,failOnMissingDependency);
+			}
 			if (injectValue == null) {
 				return;
 			}
@@ -245,6 +356,11 @@ class InjectMapper {
 			}
 		}
 
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private LazyDependency<?> newLazy(TestInjector injector) {
+			return new LazyDependency(injector, dependencyType, valueTypeName, failOnMissingDependency);
+		}
+
 		private void setMethodValue(Object instance, Object injectValue) {
 			if(checkIfDependencySet && methodGetter != null){
 				try {
@@ -1,5 +1,10 @@
 package org.codemucker.testfirst.inject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+
 import com.google.inject.Provider;
 
 /**
@@ -10,6 +15,19 @@ class InjectProvider {
 	private final String bindName;
 	private final Object value;
 	private final Provider<?> provider;
+	private final ProviderScope scope;
+	/**
+	 * The injector this was bound in, which owns singleton and per thread instances
+	 */
+	private final TestInjector owner;
+	
+	private volatile Object singleton;
+	/**
+	 * Per thread instances. Not a thread local, so they can all be released when the owner is torn down rather than staying reachable from
+	 * long lived worker threads. Instances of threads which have died are torn down when the next thread needs an instance, such as the
+	 * worker a pool replaces a dead one with
+	 */
+	private final Map<Thread,Object> perThread;
 
 	public InjectProvider(Class<?> type, String name, Object value) {
 		super();
@@ -17,26 +35,92 @@ class InjectProvider {
 		this.bindName = name;
 		this.value = value;
 		this.provider = null;
+		this.scope = ProviderScope.Unscoped;
+		this.owner = null;
+		this.perThread = null;
 	}
 
-	public InjectProvider(Class<?> type, String name, Provider<?> provider) {
+	public InjectProvider(TestInjector owner, Class<?> type, String name, ProviderScope scope, Provider<?> provider) {
 		super();
 		this.type = type;
 		this.bindName = name;
 		this.value = null;
 		this.provider = provider;
+		this.scope = scope;
+		this.owner = owner;
+		this.perThread = scope == ProviderScope.PerThread ? new ConcurrentHashMap<Thread,Object>() : null;
 	}
 
-	public Object get() {
-		if (provider != null) {
-			try {
-				return provider.get();
+	/**
+	 * Obtain the value to inject, invoking the provider as dictated by the scope
+	 * 
+	 * @param requester the injector scope requesting the value
+	 */
+	public Object get(TestInjector requester) {
+		if (provider == null) {
+			return value;
+		}
+		switch(scope){
+		case Singleton:
+			Object instance = singleton;
+			return instance != null ? instance : owner.getOrCreateSingleton(this);
+		case PerThread:
+			Thread thread = Thread.currentThread();
+			Object threadInstance = perThread.get(thread);
+			if (threadInstance == null) {
+				releaseDeadThreads();
+				threadInstance = owner.createScoped(this);
+				perThread.put(thread, threadInstance);
 			}
-			catch(Exception e){
-				throw new InjectionException("Error obtaining value from provider for type '" + type.getName() + "', bindName '" + bindName + "', provider " + provider.getClass().getName(), e);
+			return threadInstance;
+		case PerScenario:
+			return requester.getOrCreateScenarioScoped(this);
+		default:
+			return newInstance();
+		}
+	}
+	
+	private void releaseDeadThreads() {
+		for (Map.Entry<Thread,Object> entry : perThread.entrySet()) {
+			if (!entry.getKey().isAlive() && perThread.remove(entry.getKey(), entry.getValue())) {
+				owner.destroyScoped(entry.getValue());
 			}
 		}
-		return value;
+	}
+	
+	/**
+	 * Invoke the underlying provider
+	 */
+	Object newInstance(){
+		FrameworkMetrics.PROVIDER_INVOCATIONS.inc();
+		try {
+			return provider.get();
+		}
+		catch(Exception e){
+			throw new InjectionException("Error obtaining value from provider for type '" + type.getName() + "', bindName '" + bindName + "', provider " + provider.getClass().getName(), e);
+		}
+	}
+	
+	Object getSingleton(){
+		return singleton;
+	}
+	
+	void setSingleton(Object instance){
+		this.singleton = instance;
+	}
+	
+	/**
+	 * Release all the instances created for the owning scope, once they have been torn down
+	 */
+	void clearScoped(){
+		singleton = null;
+		if (perThread != null) {
+			perThread.clear();
+		}
+	}
+	
+	public ProviderScope getScope() {
+		return scope;
 	}
 
 	public Class<?> getBindType() {
@@ -0,0 +1,14 @@
+package org.codemucker.testfirst.inject;
+
+/**
+ * Wraps dependencies as they are obtained for injection, such as to count or intercept calls to them. See {@link TestInjector#wrapWith(InjectWrapper)}
+ */
+public interface InjectWrapper {
+
+	/**
+	 * @param requireType the type of the injection point
+	 * @param dependency the dependency to inject
+	 * @return the dependency, or a wrapper which must be assignable to the required type
+	 */
+	public Object wrap(Class<?> requireType, Object dependency);
+}
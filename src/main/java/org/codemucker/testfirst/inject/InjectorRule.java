@@ -0,0 +1,68 @@
+package org.codemucker.testfirst.inject;
+
+import java.io.IOException;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * A JUnit rule which manages the lifetime of a {@link TestInjector} scope. Use as a <code>@ClassRule</code> for a class (or suite) wide scope holding
+ * expensive dependencies, and as a <code>@Rule</code> with that as its parent for a cheap per test child scope.
+ *
+ * <pre>
+ * &#64;ClassRule public static InjectorRule suite = new InjectorRule();
+ * &#64;Rule public InjectorRule scenario = new InjectorRule(suite);
+ * </pre>
+ * 
+ * <p>The injector is created before and closed after the test (or class), tearing down only what that scope created</p>
+ */
+public class InjectorRule extends ExternalResource {
+
+	private final InjectorRule parent;
+	private TestInjector injector;
+
+	public InjectorRule() {
+		this(null);
+	}
+
+	/**
+	 * @param parent the enclosing scope, or null for a root scope
+	 */
+	public InjectorRule(InjectorRule parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	protected void before() throws Throwable {
+		injector = parent == null ? newRootInjector() : parent.getInjector().newChild();
+	}
+
+	/**
+	 * Override to provide a custom root injector
+	 * 
+	 * @return a new root scope injector
+	 */
+	protected TestInjector newRootInjector() {
+		return new TestInjector();
+	}
+
+	@Override
+	protected void after() {
+		TestInjector closing = injector;
+		injector = null;
+		try {
+			closing.close();
+		} catch (IOException e) {
+			throw new InjectionException("Error closing injector scope", e);
+		}
+	}
+
+	/**
+	 * @return the injector for the currently active scope
+	 */
+	public TestInjector getInjector() {
+		if (injector == null) {
+			throw new InjectionException("Injector scope is not active, ensure this is registered as a junit Rule or ClassRule");
+		}
+		return injector;
+	}
+}
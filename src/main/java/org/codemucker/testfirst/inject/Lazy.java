@@ -0,0 +1,20 @@
+package org.codemucker.testfirst.inject;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark an interface typed injection point to be given a proxy which only obtains the real dependency on its first call. The dependency is
+ * only created, and registered for teardown, if used. A missing dependency is only reported on first use
+ * 
+ * <p>For non interface types inject a {@link com.google.inject.Provider}, {@link javax.inject.Provider} or Supplier of the type instead, which
+ * is always lazy</p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface Lazy {
+}
@@ -0,0 +1,78 @@
+package org.codemucker.testfirst.inject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.google.common.base.Supplier;
+import com.google.inject.Provider;
+
+/**
+ * A dependency obtained from the injector on first use, then cached. Implements each of the provider and supplier types an injection point
+ * can declare
+ */
+class LazyDependency<T> implements Provider<T>, Supplier<T>, java.util.function.Supplier<T> {
+
+	private final TestInjector injector;
+	private final Class<T> type;
+	private final String name;
+	private final boolean failOnMissing;
+
+	private volatile boolean resolved;
+	private T value;
+
+	LazyDependency(TestInjector injector, Class<T> type, String name, boolean failOnMissing) {
+		this.injector = injector;
+		this.type = type;
+		this.name = name;
+		this.failOnMissing = failOnMissing;
+	}
+
+	@Override
+	public T get() {
+		if (!resolved) {
+			synchronized (this) {
+				if (!resolved) {
+					value = type.cast(injector.obtain(type, name, failOnMissing));
+					resolved = true;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return a proxy of the dependency's interface which obtains the dependency on its first call
+	 */
+	Object newProxy() {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				//identity of the proxy itself, so it can be stored in sets without forcing the dependency
+				if (method.getDeclaringClass() == Object.class) {
+					if (method.getName().equals("equals")) {
+						return proxy == args[0];
+					}
+					if (method.getName().equals("hashCode")) {
+						return System.identityHashCode(proxy);
+					}
+				}
+				T target = get();
+				if (target == null) {
+					throw new InjectionException("optional lazy dependency " + type.getName() + ", name " + name + " was not found");
+				}
+				try {
+					return method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "LazyDependency[" + type.getName() + (name == null ? "" : ", name " + name) + (resolved ? ", resolved" : "") + "]";
+	}
+}
@@ -0,0 +1,24 @@
+package org.codemucker.testfirst.inject;
+
+/**
+ * Controls how often a bound {@link com.google.inject.Provider} is invoked. Scoped instances are created lazily on first use, injected, and torn
+ * down along with the injector scope which created them
+ */
+public enum ProviderScope {
+	/**
+	 * Invoke the provider for every injection point. The result is not tracked by the injector
+	 */
+	Unscoped,
+	/**
+	 * Invoke the provider once for the injector the provider was bound in
+	 */
+	Singleton,
+	/**
+	 * Invoke the provider once per thread for the injector the provider was bound in
+	 */
+	PerThread,
+	/**
+	 * Invoke the provider once per requesting injector. When bound in a parent scope, each child scenario scope gets its own instance
+	 */
+	PerScenario;
+}
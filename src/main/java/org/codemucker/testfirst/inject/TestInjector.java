@@ -6,10 +6,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
 
@@ -17,6 +20,13 @@ import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.codemucker.lang.annotation.ThreadSafe;
 import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.IRunOnScenarioStart;
+import org.codemucker.testfirst.IRunOnStepStart;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.codemucker.testfirst.heap.LeakDetector;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+import org.codemucker.testfirst.tx.TransactionalResource;
+import org.codemucker.testfirst.tx.UnitOfWork;
 
 import com.google.inject.ImplementedBy;
 import com.google.inject.Provider;
@@ -26,25 +36,60 @@ import com.google.inject.Provider;
  *
  * <p>If enabled tracks what has been injected and only injects once, what implements {@link Closeable} and {@ link IRunOnScenarioEnd} and runs these when the injector is destroyed</p>
  * 
+ * <p>Injection points of provider or supplier types, or interfaces marked {@link Lazy}, are given a stand in which only obtains the dependency
+ * on first use</p>
+ * 
+ * <p>Dependencies can be wrapped as they are obtained, such as to count calls to them, via {@link #wrapWith(InjectWrapper)}. Wrappers
+ * implementing {@link IRunOnStepStart} are told as each scenario step starts</p>
+ * 
+ * <p>Registered {@link TransactionalResource}s are begun on scenario start and rolled back on scenario end before anything the injector tears
+ * down. A {@link org.codemucker.testfirst.Scenario} using this injector rolls them back before running any of its scenario end listeners</p>
+ * 
  * <p>Sub class this to provide custom behaviour. Extension points are {@link #beforeInject(Object)}, {@link #afterInject(Object)}, {@link #isInjectable(Object)} and {@link #beforeDestroy(Object)}</p>
  * 
+ * <p>Injection, lookup, lock wait and teardown costs are recorded in {@link FrameworkMetrics}</p>
+ * 
+ * <p>Injectors can be nested via {@link #newChild()}. A child resolves dependencies it can't find through its parent, and on scenario end only tears down what it
+ * created itself. This allows expensive dependencies to be bound once in a long lived suite or class scope, with a cheap child per scenario. See {@link InjectorRule}</p>
  * 
  */
 @ThreadSafe(caveats="the threadsafety is rather crude and it is intended any multi threaded code not rely on a fast injector (for say performance testing), instead setting up all objects before the test run")
-public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,IRunOnScenarioEnd,Closeable {
+public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,IRunOnScenarioStart,IRunOnScenarioEnd,IRunOnStepStart,Closeable {
 
 	private final static Logger log = LogManager.getLogger(TestInjector.class);
 	
-	private Map<String,InjectProvider> providers = new HashMap<>();
+	/**
+	 * The enclosing scope, or null if this is a root injector
+	 */
+	private final TestInjector parent;
 	
-	private Map<Class<?>, InjectMapper> mappers = new HashMap<>();
+	private Map<String,InjectProvider> providers = new HashMap<>();
 	
 	private Set<Object> injected = new LinkedHashSet<>();
 	private Set<Closeable> closeables= new LinkedHashSet<>();
+	/**
+	 * Instances this scope created itself, from scoped providers and defaults, as opposed to objects handed to it
+	 */
+	private Set<Object> created = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
 	private Set<IRunOnScenarioEnd> runAtScenarioEnd = new LinkedHashSet<>();
+	/**
+	 * Instances of {@link ProviderScope#PerScenario} providers created for this scope
+	 */
+	private Map<InjectProvider,Object> scenarioScoped = new HashMap<>();
+	/**
+	 * Applied to dependencies obtained through this scope and its children. Read on each lookup so copy on write
+	 */
+	private final List<InjectWrapper> wrappers = new CopyOnWriteArrayList<>();
+	
+	private final UnitOfWork unitOfWork = new UnitOfWork();
 	
 	private final Object lock = new Object();
 	
+	/**
+	 * Identity fast path for repeatedly injecting the same object, such as a step in a loop, which avoids taking the lock
+	 */
+	private volatile Object lastInjected;
+	
 	private boolean closed = false;
 	
 	/**
@@ -52,20 +97,78 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 	 */
 	private boolean checkIfDependencySet = true;
 	
+	public TestInjector(){
+		this(null);
+	}
+	
+	/**
+	 * Create a child injector which resolves any dependencies it doesn't provide itself through the given parent
+	 * 
+	 * @param parent the enclosing scope, or null if this is a root injector
+	 */
+	public TestInjector(TestInjector parent){
+		this.parent = parent;
+	}
+	
+	/**
+	 * Create a new child scope of this injector. Override if a subclass needs its children to share its custom behaviour
+	 * 
+	 * @return a new child injector
+	 */
+	public TestInjector newChild(){
+		return new TestInjector(this);
+	}
+	
+	/**
+	 * @return the enclosing scope, or null if this is a root injector
+	 */
+	public TestInjector getParent(){
+		return parent;
+	}
+	
 	@Override
 	public void close() throws IOException {
 		onScenarioEnd();
 	}
 	
+	@Override
+	public void onScenarioStart() {
+		unitOfWork.onScenarioStart();
+	}
+	
+	@Override
+	public void onStepStart(String kind) {
+		for (InjectWrapper wrapper : wrappers) {
+			if (wrapper instanceof IRunOnStepStart) {
+				((IRunOnStepStart) wrapper).onStepStart(kind);
+			}
+		}
+		if (parent != null) {
+			parent.onStepStart(kind);
+		}
+	}
+	
 	@Override
 	public void onScenarioEnd() {
+		long start = System.nanoTime();
 		synchronized (lock) {
+			FrameworkMetrics.LOCK_WAIT.recordSince(start);
 			closed = true;
+			lastInjected = null;
+			//roll back first, as teardown may close the underlying resources. Failure is only reported once everything else is torn down
+			TestFirstRuntimeException rollbackFailure = null;
+			try {
+				unitOfWork.onScenarioEnd();
+			} catch (TestFirstRuntimeException e) {
+				rollbackFailure = e;
+			}
+			
 			List<Object> reversedInjected = reversedCopy(injected);		
 			for (Object obj : reversedInjected) {
 				try {
 					beforeDestroy(obj);
 				} catch (Exception e) {
+					FrameworkMetrics.TEARDOWN_FAILURES.inc();
 					log.warn("error while destroying" + obj.getClass().getName() + ", ignoring", e);
 				}
 			}
@@ -75,6 +178,7 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 				try {
 					c.close();
 				} catch (Exception e) {
+					FrameworkMetrics.TEARDOWN_FAILURES.inc();
 					log.warn("error while closing " + c.getClass().getName() + ", ignoring", e);
 				}
 			}
@@ -85,16 +189,29 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 				try {
 					ender.onScenarioEnd();
 				} catch (AssertionError e) {
+					FrameworkMetrics.TEARDOWN_FAILURES.inc();
 					throw e;
 				} catch (Exception e) {
+					FrameworkMetrics.TEARDOWN_FAILURES.inc();
 					log.warn("error running on end" + ender.getClass().getName() + ", ignoring", e);
 				}
 			}
 			runAtScenarioEnd.clear();
 			
+			for (InjectProvider provider : providers.values()) {
+				provider.clearScoped();
+			}
 			providers.clear();
-			mappers.clear();
 			injected.clear();
+			created.clear();
+			scenarioScoped.clear();
+			wrappers.clear();
+			
+			FrameworkMetrics.TEARDOWN.recordSince(start);
+			if (rollbackFailure != null) {
+				FrameworkMetrics.TEARDOWN_FAILURES.inc();
+				throw rollbackFailure;
+			}
 		}
 	}
 
@@ -106,28 +223,33 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 	
 	@Override
 	public final <T> T inject(T obj) {
-		if (obj == null || obj.getClass().isPrimitive()) {
+		if (obj == null || obj.getClass().isPrimitive() || obj == lastInjected) {
 			return obj;
 		}
 		if (isInjectable(obj)) {
+			long waitStart = System.nanoTime();
 			synchronized (lock) {
+				FrameworkMetrics.LOCK_WAIT.recordSince(waitStart);
 				if(closed){
 					throw new InjectionException("Injector has been closed");
 				}
-				if (injected.contains(obj)) {
+				if (injected.contains(obj) || (parent != null && parent.hasInjected(obj))) {
+					lastInjected = obj;
 					return obj;
 				}
 				injected.add(obj);
+				lastInjected = obj;
+				FrameworkMetrics.INJECTIONS.inc();
 				
 				obj = beforeInject(obj);
 				
-				InjectMapper mapper = getOrCreateMapper(obj);
+				InjectMapper mapper = getOrCreateMapper(obj.getClass());
 				//register destrcutor as soon as possible to ensure resources are properly cleaned up
 				IRunOnScenarioEnd destructor = mapper.getDestructorOrNull(obj);
 				if(destructor != null){
 					registerLifecycles(destructor);
 				}
-				mapper.inject(obj);
+				mapper.inject(this, obj);
 				obj = afterInject(obj);
 				registerLifecycles(obj);
 			}
@@ -184,13 +306,52 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 		}
 	}
 
-	private <T> InjectMapper getOrCreateMapper(T obj) {
-		InjectMapper mapper = mappers.get(obj.getClass());
-		if(mapper == null){
-			mapper = new InjectMapper(this, obj.getClass(),checkIfDependencySet);
-			mappers.put(obj.getClass(), mapper);
+	private boolean hasInjected(Object obj){
+		synchronized (lock) {
+			if(injected.contains(obj)){
+				return true;
+			}
 		}
-		return mapper;
+		return parent != null && parent.hasInjected(obj);
+	}
+	
+	/**
+	 * Mappers only hold class metadata so are cached against the class itself, which means they survive the end of scenario scopes and are
+	 * kept apart for the same class loaded by different class loaders
+	 */
+	private InjectMapper getOrCreateMapper(Class<?> type) {
+		return InjectMapper.forType(type, checkIfDependencySet);
+	}
+	
+	/**
+	 * Track the instances this scope has created itself so far, from scoped providers and defaults, with the given detector, so it can be
+	 * checked they are collected once the scope has ended. Objects handed to the injector, such as steps and provided values, aren't tracked
+	 * as tests commonly keep them in fields
+	 */
+	public void trackCreated(LeakDetector detector) {
+		synchronized (lock) {
+			detector.trackAll(created);
+		}
+	}
+	
+	/**
+	 * Register a resource to be rolled back in a single operation on scenario end. The resource is injected, and its unit of work is begun on
+	 * scenario start, or immediately if already started
+	 * 
+	 * @param resource
+	 * @return
+	 */
+	public TestInjector transactional(TransactionalResource resource) {
+		unitOfWork.add(inject(resource));
+		return this;
+	}
+	
+	/**
+	 * @return the unit of work of the resources registered via {@link #transactional(TransactionalResource)}. Rolling it back early leaves
+	 *         nothing for scenario end to roll back
+	 */
+	public UnitOfWork getUnitOfWork() {
+		return unitOfWork;
 	}
 	
 	/**
@@ -255,15 +416,48 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 	 * @return
 	 */
 	public <T> TestInjector provide(Class<T> forType, String name, Provider<? extends T> provider) {
+		return provide(forType, name, ProviderScope.Unscoped, provider);
+	}
+	
+	/**
+	 * Register a dependency to be injected
+	 * 
+	 * @param forType
+	 * @param name
+	 * @param scope how often to invoke the provider. Anything other than {@link ProviderScope#Unscoped} is lazily created on first use, injected, and torn down with its owning scope
+	 * @param provider
+	 * @return
+	 */
+	public <T> TestInjector provide(Class<T> forType, String name, ProviderScope scope, Provider<? extends T> provider) {
 		synchronized (lock) {		
 			inject(provider);
-			InjectProvider p = new InjectProvider(forType, name, provider);
+			InjectProvider p = new InjectProvider(this, forType, name, scope, provider);
 			//use a key so we can override previously bound providers
 			providers.put(getProviderKey(p),p);			
 		}
 		return this;
 	}
 	
+	/**
+	 * Wrap dependencies obtained through this scope and its children with the given wrapper, such as a {@link org.codemucker.testfirst.calls.CallRecorder}.
+	 * The wrapper itself is injected, and wrappers are applied innermost scope first, then in the order registered. The first registered
+	 * wraps the dependency directly, so calls pass through every wrapper registered after it first
+	 * 
+	 * @param wrapper
+	 * @return
+	 */
+	public TestInjector wrapWith(InjectWrapper wrapper) {
+		wrappers.add(inject(wrapper));
+		return this;
+	}
+	
+	private Object wrap(Class<?> requireType, Object dependency) {
+		for (InjectWrapper wrapper : wrappers) {
+			dependency = wrapper.wrap(requireType, dependency);
+		}
+		return parent == null ? dependency : parent.wrap(requireType, dependency);
+	}
+	
 	private String getProviderKey(InjectProvider provider){
 		return provider.getBindName() + "." + provider.getBindType().getName();
 	}
@@ -273,17 +467,21 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 	}
 
 	protected Object obtain(Class<?> requireType, String name, boolean failOnMissing){
+		FrameworkMetrics.OBTAIN_LOOKUPS.inc();
+		long waitStart = System.nanoTime();
 		synchronized (lock) {
-			for (InjectProvider holder : providers.values()) {
-				if (holder.supplies(requireType, name)) {
-					return holder.get();
-				}
+			FrameworkMetrics.LOCK_WAIT.recordSince(waitStart);
+			InjectProvider holder = findProviderOrNull(requireType, name);
+			if (holder != null) {
+				return wrap(requireType, holder.get(this));
 			}
-			//use defaults if found
+			//use defaults if found. These are created in this scope so they are torn down with it
 			Object val = getDefaultDependencyOrNull(requireType, name);
 			if (val != null) {
-				return val;
+				created.add(val);
+				return wrap(requireType, val);
 			}
+			FrameworkMetrics.OBTAIN_MISSES.inc();
 			if(failOnMissing){
 				throw new InjectionException("could not find dependency " + requireType.getName() + ", name " + name);
 			}
@@ -291,6 +489,95 @@ public class TestInjector implements org.codemucker.testfirst.Scenario.Injector,
 		return null;
 	}
 
+	Object getOrCreateSingleton(InjectProvider provider){
+		synchronized (lock) {
+			Object instance = provider.getSingleton();
+			if (instance == null) {
+				instance = createScoped(provider);
+				provider.setSingleton(instance);
+			}
+			return instance;
+		}
+	}
+
+	Object getOrCreateScenarioScoped(InjectProvider provider){
+		synchronized (lock) {
+			Object instance = scenarioScoped.get(provider);
+			if (instance == null) {
+				instance = createScoped(provider);
+				scenarioScoped.put(provider, instance);
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Create a new instance from a scoped provider, injecting it and registering it for teardown with this scope
+	 */
+	Object createScoped(InjectProvider provider){
+		Object instance = inject(provider.newInstance());
+		synchronized (lock) {
+			created.add(instance);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Tear down and forget an instance created by a scoped provider before this scope ends, such as one created for a thread which has since
+	 * died
+	 */
+	void destroyScoped(Object obj){
+		synchronized (lock) {
+			created.remove(obj);
+			if (!injected.remove(obj)) {
+				return;
+			}
+			if (lastInjected == obj) {
+				lastInjected = null;
+			}
+			try {
+				beforeDestroy(obj);
+			} catch (Exception e) {
+				FrameworkMetrics.TEARDOWN_FAILURES.inc();
+				log.warn("error while destroying" + obj.getClass().getName() + ", ignoring", e);
+			}
+			if (obj instanceof Closeable && closeables.remove(obj)) {
+				try {
+					((Closeable) obj).close();
+				} catch (Exception e) {
+					FrameworkMetrics.TEARDOWN_FAILURES.inc();
+					log.warn("error while closing " + obj.getClass().getName() + ", ignoring", e);
+				}
+			}
+			for (Iterator<IRunOnScenarioEnd> it = runAtScenarioEnd.iterator(); it.hasNext();) {
+				IRunOnScenarioEnd ender = it.next();
+				if (ender == obj || InjectMapper.isDestructorOf(ender, obj)) {
+					it.remove();
+					try {
+						ender.onScenarioEnd();
+					} catch (Exception e) {
+						FrameworkMetrics.TEARDOWN_FAILURES.inc();
+						log.warn("error running on end" + ender.getClass().getName() + ", ignoring", e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Look for a provider in this scope, and if not found in the enclosing scopes
+	 */
+	private InjectProvider findProviderOrNull(Class<?> requireType, String name){
+		synchronized (lock) {
+			for (InjectProvider holder : providers.values()) {
+				if (holder.supplies(requireType, name)) {
+					return holder;
+				}
+			}
+		}
+		return parent == null ? null : parent.findProviderOrNull(requireType, name);
+	}
+
 	/**
 	 * Called when dependency not found.  By default looks for the {@link ImplementedBy} annotation and attempts to instantiate the no arg constructor
 	 * @param valueType
@@ -0,0 +1,22 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.List;
+
+import org.codemucker.testfirst.Scenario.Invoker;
+
+/**
+ * A fresh instance of the concurrent code under test, created for each schedule explored by an {@link InterleavingExplorer}
+ */
+public interface ConcurrentCase {
+
+	/**
+	 * @return the tasks to run concurrently, each on its own worker thread. Tasks yield to the scheduler at
+	 *         {@link Interleaving#yieldPoint()} and at calls to dependencies wrapped by {@link YieldOnCall}
+	 */
+	public List<Invoker> workers() throws Exception;
+
+	/**
+	 * Called once all workers have finished. Throw to fail the schedule
+	 */
+	public void verify() throws Exception;
+}
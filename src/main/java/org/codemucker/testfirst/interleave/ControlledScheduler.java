@@ -0,0 +1,172 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Runs the workers of one schedule so only one runs at a time, switching only at yield points as the seeded chooser dictates, which makes
+ * the interleaving a function of the seed.
+ * 
+ * <p>A worker which blocks between yield points, such as on a lock held by a waiting worker, would stall the schedule. If the running worker
+ * makes no progress within the stall time it is set aside and another worker chosen, and it rejoins the schedule at its next yield point</p>
+ */
+class ControlledScheduler {
+
+	private static final int MAX_TRACE = 2000;
+
+	private final ScheduleStrategy.Chooser chooser;
+	private final long stallMillis;
+	private final int workers;
+
+	private final Object lock = new Object();
+	private final boolean[] done;
+	private final boolean[] stalled;
+	private final int[] runnable;
+	private int current = -1;
+	private int steps;
+	private long progress;
+	private final StringBuilder trace = new StringBuilder();
+
+	ControlledScheduler(ScheduleStrategy.Chooser chooser, int workers, long stallMillis) {
+		this.chooser = chooser;
+		this.workers = workers;
+		this.stallMillis = stallMillis;
+		this.done = new boolean[workers];
+		this.stalled = new boolean[workers];
+		this.runnable = new int[workers];
+	}
+
+	/**
+	 * Run the workers to completion
+	 * 
+	 * @return the first worker failure, or null
+	 * @throws TestFirstRuntimeException if the workers don't finish in time, such as on deadlock
+	 */
+	Throwable run(List<Invoker> tasks, long timeoutMillis) throws InterruptedException {
+		final Throwable[] failures = new Throwable[workers];
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			final int id = i;
+			final Invoker task = tasks.get(i);
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Interleaving.bind(ControlledScheduler.this, id);
+					try {
+						awaitTurn(id);
+						task.invoke();
+					} catch (Throwable t) {
+						failures[id] = t;
+					} finally {
+						Interleaving.unbind();
+						finished(id);
+					}
+				}
+			}, "testfirst-interleave-worker-" + i);
+			threads[i].setDaemon(true);
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		synchronized (lock) {
+			schedule(-1);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (Thread t : threads) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining > 0) {
+				t.join(remaining);
+			}
+			if (t.isAlive()) {
+				for (Thread other : threads) {
+					other.interrupt();
+				}
+				throw new TestFirstRuntimeException("Schedule didn't finish within " + timeoutMillis + "ms, possible deadlock. Workers run " + getTrace());
+			}
+		}
+		for (Throwable failure : failures) {
+			if (failure != null) {
+				return failure;
+			}
+		}
+		return null;
+	}
+
+	void yieldPoint(int id) {
+		synchronized (lock) {
+			stalled[id] = false;
+			progress++;
+			schedule(id);
+			awaitTurnLocked(id);
+		}
+	}
+
+	private void awaitTurn(int id) {
+		synchronized (lock) {
+			awaitTurnLocked(id);
+		}
+	}
+
+	private void awaitTurnLocked(int id) {
+		while (current != id) {
+			long seen = progress;
+			int waitingOn = current;
+			try {
+				lock.wait(stallMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TestFirstRuntimeException("Interrupted waiting for turn");
+			}
+			if (current == waitingOn && progress == seen && waitingOn >= 0 && !done[waitingOn]) {
+				//the running worker is blocked between yield points, so set it aside
+				stalled[waitingOn] = true;
+				progress++;
+				schedule(waitingOn);
+			}
+		}
+	}
+
+	private void finished(int id) {
+		synchronized (lock) {
+			done[id] = true;
+			stalled[id] = false;
+			progress++;
+			if (current == id || current == -1) {
+				schedule(id);
+			}
+		}
+	}
+
+	/**
+	 * Choose the next worker, among those not done or stalled
+	 */
+	private void schedule(int previous) {
+		int count = 0;
+		for (int i = 0; i < workers; i++) {
+			if (!done[i] && !stalled[i]) {
+				runnable[count++] = i;
+			}
+		}
+		if (count == 0) {
+			current = -1;
+		} else {
+			current = chooser.next(previous, runnable, count, ++steps);
+			if (trace.length() < MAX_TRACE) {
+				if (trace.length() > 0) {
+					trace.append(',');
+				}
+				trace.append(current);
+			}
+		}
+		lock.notifyAll();
+	}
+
+	String getTrace() {
+		synchronized (lock) {
+			return trace.length() >= MAX_TRACE ? trace + "..." : trace.toString();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of exploring many schedules. See {@link InterleavingExplorer}
+ */
+public class ExplorationResult {
+
+	private final int schedules;
+	private final List<ScheduleRun> failures;
+
+	ExplorationResult(int schedules, List<ScheduleRun> failures) {
+		this.schedules = schedules;
+		this.failures = Collections.unmodifiableList(failures);
+	}
+
+	/**
+	 * @return how many schedules were run
+	 */
+	public int getSchedules() {
+		return schedules;
+	}
+
+	/**
+	 * @return the failed schedules, lowest seed first, up to the explorer's limit
+	 */
+	public List<ScheduleRun> getFailures() {
+		return failures;
+	}
+
+	public boolean isPassed() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @return the failing schedule with the lowest seed, or null if all passed
+	 */
+	public ScheduleRun getFirstFailure() {
+		return failures.isEmpty() ? null : failures.get(0);
+	}
+}
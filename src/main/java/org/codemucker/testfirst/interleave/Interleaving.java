@@ -0,0 +1,47 @@
+package org.codemucker.testfirst.interleave;
+
+/**
+ * Hooks for code run under an {@link InterleavingExplorer}. Outside an explored schedule the hooks do nothing, so can be left in place
+ */
+public class Interleaving {
+
+	private static final ThreadLocal<Worker> CURRENT = new ThreadLocal<>();
+
+	private Interleaving() {
+	}
+
+	/**
+	 * Let the scheduler switch to another worker here, such as between a read and a write which should be atomic
+	 */
+	public static void yieldPoint() {
+		Worker worker = CURRENT.get();
+		if (worker != null) {
+			worker.scheduler.yieldPoint(worker.id);
+		}
+	}
+
+	/**
+	 * @return whether the current thread is a worker of an explored schedule
+	 */
+	public static boolean isControlled() {
+		return CURRENT.get() != null;
+	}
+
+	static void bind(ControlledScheduler scheduler, int id) {
+		CURRENT.set(new Worker(scheduler, id));
+	}
+
+	static void unbind() {
+		CURRENT.remove();
+	}
+
+	private static class Worker {
+		final ControlledScheduler scheduler;
+		final int id;
+
+		Worker(ControlledScheduler scheduler, int id) {
+			this.scheduler = scheduler;
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+
+/**
+ * Explores thread interleavings of concurrent code under a seeded scheduler, to turn rare concurrency bugs into reproducible failures.
+ * Each schedule runs a fresh {@link ConcurrentCase}, with its workers only switching at yield points, as chosen by the
+ * {@link ScheduleStrategy} from that schedule's seed. Schedules run in parallel across cores.
+ * 
+ * <p>Use as a when step via {@link #asInvoker()}. On failure the step trace reports the failing seed, which {@link #replay(long)} reruns:</p>
+ * 
+ * <pre>
+ * InterleavingExplorer explorer = new InterleavingExplorer(caseProvider).strategy(ScheduleStrategy.Pct).schedules(10000);
+ * scenario.given(...).when(explorer.asInvoker()).thenNothing();
+ * </pre>
+ */
+public class InterleavingExplorer {
+
+	private static final int MAX_FAILURES = 10;
+
+	private final Provider<? extends ConcurrentCase> cases;
+
+	private ScheduleStrategy strategy = ScheduleStrategy.Pct;
+	private int schedules = 1000;
+	private long seed = 0;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int pctDepth = 3;
+	private int pctMaxSteps = 100;
+	private long stallMillis = 100;
+	private long timeoutMillis = 10000;
+
+	/**
+	 * @param cases creates a fresh case for each schedule
+	 */
+	public InterleavingExplorer(Provider<? extends ConcurrentCase> cases) {
+		Preconditions.checkNotNull(cases, "expect case provider");
+		this.cases = cases;
+	}
+
+	public InterleavingExplorer strategy(ScheduleStrategy strategy) {
+		Preconditions.checkNotNull(strategy, "expect strategy");
+		this.strategy = strategy;
+		return this;
+	}
+
+	/**
+	 * How many schedules to explore. Schedule n uses the base seed plus n
+	 */
+	public InterleavingExplorer schedules(int schedules) {
+		Preconditions.checkArgument(schedules > 0, "expect schedules > 0");
+		this.schedules = schedules;
+		return this;
+	}
+
+	/**
+	 * The base seed, so a run's schedules can be varied between builds while staying reproducible
+	 */
+	public InterleavingExplorer seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * How many schedules to run at once. Defaults to the number of cores
+	 */
+	public InterleavingExplorer parallelism(int parallelism) {
+		Preconditions.checkArgument(parallelism > 0, "expect parallelism > 0");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * For {@link ScheduleStrategy#Pct}, the number of ordering constraints the bugs sought need, and an estimate of how many yield points
+	 * a schedule passes
+	 */
+	public InterleavingExplorer pct(int depth, int maxSteps) {
+		Preconditions.checkArgument(depth > 0 && maxSteps > 0, "expect depth and maxSteps > 0");
+		this.pctDepth = depth;
+		this.pctMaxSteps = maxSteps;
+		return this;
+	}
+
+	/**
+	 * How long a worker may run without reaching a yield point before it is assumed blocked and set aside
+	 */
+	public InterleavingExplorer stallMillis(long stallMillis) {
+		this.stallMillis = stallMillis;
+		return this;
+	}
+
+	/**
+	 * How long a single schedule may take before it fails as a possible deadlock
+	 */
+	public InterleavingExplorer timeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @return a when step invoker which explores all schedules, failing with the seed and trace of the first failing one
+	 */
+	public Invoker asInvoker() {
+		return new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				ExplorationResult result = explore();
+				ScheduleRun failed = result.getFirstFailure();
+				if (failed != null) {
+					throw new TestFirstAssertionFailedException(result.getFailures().size() + (result.getFailures().size() >= MAX_FAILURES ? "+" : "") + " of "
+							+ result.getSchedules() + " schedules failed. Replay with seed " + failed.getSeed() + ": " + failed, failed.getFailure());
+				}
+			}
+
+			@Override
+			public String toString() {
+				return "explore " + schedules + " " + strategy + " schedules from seed " + seed;
+			}
+		};
+	}
+
+	/**
+	 * Run all the schedules
+	 */
+	public ExplorationResult explore() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "testfirst-interleave-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<ScheduleRun>> runs = new ArrayList<>(schedules);
+			for (int i = 0; i < schedules; i++) {
+				final long runSeed = seed + i;
+				runs.add(executor.submit(new Callable<ScheduleRun>() {
+					@Override
+					public ScheduleRun call() throws Exception {
+						return replay(runSeed);
+					}
+				}));
+			}
+			List<ScheduleRun> failures = new ArrayList<>();
+			for (Future<ScheduleRun> f : runs) {
+				ScheduleRun run;
+				try {
+					run = f.get();
+				} catch (ExecutionException e) {
+					throw new TestFirstRuntimeException("Error running schedule", e.getCause());
+				}
+				if (run.isFailed() && failures.size() < MAX_FAILURES) {
+					failures.add(run);
+				}
+			}
+			Collections.sort(failures, new Comparator<ScheduleRun>() {
+				@Override
+				public int compare(ScheduleRun a, ScheduleRun b) {
+					return Long.compare(a.getSeed(), b.getSeed());
+				}
+			});
+			return new ExplorationResult(schedules, failures);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run the single schedule with the given seed, such as to reproduce a failure
+	 */
+	public ScheduleRun replay(long seed) throws Exception {
+		ConcurrentCase c = cases.get();
+		List<Invoker> workers = c.workers();
+		ControlledScheduler scheduler = new ControlledScheduler(strategy.newChooser(seed, workers.size(), pctDepth, pctMaxSteps), workers.size(), stallMillis);
+		Throwable failure;
+		try {
+			failure = scheduler.run(workers, timeoutMillis);
+		} catch (TestFirstRuntimeException e) {
+			failure = e;
+		}
+		if (failure == null) {
+			try {
+				c.verify();
+			} catch (Exception | AssertionError e) {
+				failure = e;
+			}
+		}
+		return new ScheduleRun(seed, strategy, scheduler.getTrace(), failure);
+	}
+}
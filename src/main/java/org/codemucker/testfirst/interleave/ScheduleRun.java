@@ -0,0 +1,53 @@
+package org.codemucker.testfirst.interleave;
+
+/**
+ * The outcome of running one seeded schedule
+ */
+public class ScheduleRun {
+
+	private final long seed;
+	private final ScheduleStrategy strategy;
+	private final String trace;
+	private final Throwable failure;
+
+	ScheduleRun(long seed, ScheduleStrategy strategy, String trace, Throwable failure) {
+		this.seed = seed;
+		this.strategy = strategy;
+		this.trace = trace;
+		this.failure = failure;
+	}
+
+	/**
+	 * @return the seed to replay this schedule with {@link InterleavingExplorer#replay(long)}
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	public ScheduleStrategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * @return the worker chosen at each yield point, in order
+	 */
+	public String getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return what failed, or null if the schedule passed
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	@Override
+	public String toString() {
+		return strategy + " schedule seed " + seed + (failure == null ? " passed" : " failed with " + failure) + ", workers run " + trace;
+	}
+}
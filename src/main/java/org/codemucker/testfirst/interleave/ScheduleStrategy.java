@@ -0,0 +1,97 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * How a seeded schedule picks the next worker to run at each yield point
+ */
+public enum ScheduleStrategy {
+	/**
+	 * Pick uniformly from the runnable workers at every yield point
+	 */
+	Random,
+	/**
+	 * Probabilistic concurrency testing. Workers get random distinct priorities and the highest priority runnable worker always runs, with
+	 * the running worker demoted to the lowest priority at a few randomly chosen steps. Finds bugs needing only a few ordering constraints
+	 * with a known probability, rather than the vanishing odds of random scheduling
+	 */
+	Pct;
+
+	Chooser newChooser(long seed, int workers, int depth, int maxSteps) {
+		Random random = new Random(seed);
+		if (this == Random) {
+			return new RandomChooser(random);
+		}
+		return new PctChooser(random, workers, depth, maxSteps);
+	}
+
+	/**
+	 * Picks the next worker for one schedule
+	 */
+	interface Chooser {
+		/**
+		 * @param previous the worker which reached the yield point, or -1 at the start
+		 * @param runnable ids of the workers which may run, ascending
+		 * @param count how many of the runnable ids are valid
+		 * @param step the number of scheduling decisions made so far
+		 * @return the id of the worker to run
+		 */
+		int next(int previous, int[] runnable, int count, int step);
+	}
+
+	private static class RandomChooser implements Chooser {
+		private final Random random;
+
+		RandomChooser(Random random) {
+			this.random = random;
+		}
+
+		@Override
+		public int next(int previous, int[] runnable, int count, int step) {
+			return runnable[random.nextInt(count)];
+		}
+	}
+
+	private static class PctChooser implements Chooser {
+		private final int[] priorities;
+		private final int[] changePoints;
+
+		PctChooser(Random random, int workers, int depth, int maxSteps) {
+			//initial priorities are a random permutation above the depth, so demoted workers always rank below
+			priorities = new int[workers];
+			for (int i = 0; i < workers; i++) {
+				priorities[i] = depth + i;
+			}
+			for (int i = workers - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = priorities[i];
+				priorities[i] = priorities[j];
+				priorities[j] = tmp;
+			}
+			changePoints = new int[Math.max(0, depth - 1)];
+			for (int i = 0; i < changePoints.length; i++) {
+				changePoints[i] = 1 + random.nextInt(Math.max(1, maxSteps));
+			}
+			Arrays.sort(changePoints);
+		}
+
+		@Override
+		public int next(int previous, int[] runnable, int count, int step) {
+			if (previous >= 0) {
+				for (int i = 0; i < changePoints.length; i++) {
+					if (changePoints[i] == step) {
+						priorities[previous] = changePoints.length - 1 - i;
+					}
+				}
+			}
+			int best = runnable[0];
+			for (int i = 1; i < count; i++) {
+				if (priorities[runnable[i]] > priorities[best]) {
+					best = runnable[i];
+				}
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.codemucker.testfirst.interleave;
+
+import org.codemucker.testfirst.inject.InjectWrapper;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.proxy.CallInterceptor;
+import org.codemucker.testfirst.proxy.ProxyFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Makes every call to dependencies of the given interfaces a yield point of an explored schedule, so the explorer can interleave workers
+ * around their interactions with shared services. Register with {@link TestInjector#wrapWith(InjectWrapper)}. Outside an explored schedule
+ * calls pass straight through
+ */
+public class YieldOnCall implements InjectWrapper {
+
+	private static final CallInterceptor YIELD = new CallInterceptor() {
+		@Override
+		public long enter(int method) {
+			Interleaving.yieldPoint();
+			return 0;
+		}
+
+		@Override
+		public void argument(int method, int index, Object arg) {
+		}
+
+		@Override
+		public void exit(int method, long token, Throwable failure) {
+		}
+	};
+
+	private final Class<?>[] interfaces;
+
+	/**
+	 * @param interfaces the dependency interfaces whose calls are yield points
+	 */
+	public YieldOnCall(Class<?>... interfaces) {
+		Preconditions.checkArgument(interfaces.length > 0, "expect at least one interface");
+		this.interfaces = interfaces.clone();
+	}
+
+	@Override
+	public Object wrap(Class<?> requireType, Object dependency) {
+		if (dependency == null || !requireType.isInterface()) {
+			return dependency;
+		}
+		for (Class<?> iface : interfaces) {
+			if (iface.isAssignableFrom(dependency.getClass())) {
+				return ProxyFactory.newProxy(dependency, YIELD);
+			}
+		}
+		return dependency;
+	}
+}
@@ -0,0 +1,176 @@
+package org.codemucker.testfirst.isolate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Hands out {@link IsolatingClassLoader}s by group. A loader is only ever reused for the same group, so static state never leaks between
+ * groups, while later scenarios of a group skip reloading its classes. Loaders in use are never shared, so scenarios of the same group may
+ * also run concurrently. Idle loaders beyond the limit are closed, least recently used first
+ */
+@ThreadSafe
+public class ClassLoaderPool implements Closeable {
+
+	private static final Logger log = LogManager.getLogger(ClassLoaderPool.class);
+
+	/**
+	 * Libraries in the framework's API, which must be the same classes inside and outside a loader
+	 */
+	public static final String[] DEFAULT_SHARED_PREFIXES = { "com.google.", "org.aopalliance.", "org.apache.log4j.", "org.junit.", "junit.", "org.hamcrest.",
+			"org.codemucker.jmatch.", "org.codemucker.lang." };
+
+	private static final int DEFAULT_MAX_IDLE = 16;
+
+	private final URL[] classpath;
+	private final ClassLoader parent;
+	private final String[] sharedPrefixes;
+	private final int maxIdle;
+
+	/**
+	 * Idle loaders by group, least recently released group first
+	 */
+	private final LinkedHashMap<String,Deque<IsolatingClassLoader>> idle = new LinkedHashMap<>(16, 0.75f, true);
+	private int idleCount;
+	private boolean closed;
+
+	public ClassLoaderPool() {
+		this(applicationClasspath(), ClassLoaderPool.class.getClassLoader(), DEFAULT_MAX_IDLE, DEFAULT_SHARED_PREFIXES);
+	}
+
+	/**
+	 * @param classpath where isolated classes are loaded from
+	 * @param parent where shared classes are loaded from
+	 * @param maxIdle how many idle loaders to keep for reuse
+	 * @param sharedPrefixes class name prefixes always loaded from the parent, in addition to the JDK and framework
+	 */
+	public ClassLoaderPool(URL[] classpath, ClassLoader parent, int maxIdle, String... sharedPrefixes) {
+		Preconditions.checkArgument(maxIdle >= 0, "expect max idle >= 0");
+		this.classpath = classpath.clone();
+		this.parent = Preconditions.checkNotNull(parent, "expect parent");
+		this.maxIdle = maxIdle;
+		this.sharedPrefixes = sharedPrefixes.clone();
+	}
+
+	/**
+	 * @return the entries of the java.class.path system property
+	 */
+	public static URL[] applicationClasspath() {
+		List<URL> urls = new ArrayList<>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			try {
+				urls.add(new File(entry).toURI().toURL());
+			} catch (MalformedURLException e) {
+				throw new TestFirstRuntimeException("Invalid classpath entry " + entry, e);
+			}
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	/**
+	 * Take an idle loader for the given group, or create one. Return it via {@link #release(IsolatingClassLoader)} once finished
+	 */
+	public IsolatingClassLoader acquire(String group) {
+		Preconditions.checkNotNull(group, "expect group");
+		synchronized (idle) {
+			if (closed) {
+				throw new TestFirstRuntimeException("Class loader pool has been closed");
+			}
+			Deque<IsolatingClassLoader> loaders = idle.get(group);
+			if (loaders != null && !loaders.isEmpty()) {
+				idleCount--;
+				FrameworkMetrics.ISOLATION_LOADERS_REUSED.inc();
+				return loaders.pop();
+			}
+		}
+		FrameworkMetrics.ISOLATION_LOADERS_CREATED.inc();
+		return new IsolatingClassLoader(group, classpath, parent, sharedPrefixes);
+	}
+
+	/**
+	 * Return a loader for reuse by later scenarios of its group
+	 */
+	public void release(IsolatingClassLoader loader) {
+		List<IsolatingClassLoader> evicted = new ArrayList<>();
+		synchronized (idle) {
+			if (closed) {
+				evicted.add(loader);
+			} else {
+				Deque<IsolatingClassLoader> loaders = idle.get(loader.getGroup());
+				if (loaders == null) {
+					loaders = new ArrayDeque<>();
+					idle.put(loader.getGroup(), loaders);
+				}
+				loaders.push(loader);
+				idleCount++;
+				evictOverLimit(evicted);
+			}
+		}
+		closeAll(evicted);
+	}
+
+	private void evictOverLimit(List<IsolatingClassLoader> evicted) {
+		Iterator<Map.Entry<String,Deque<IsolatingClassLoader>>> groups = idle.entrySet().iterator();
+		while (idleCount > maxIdle && groups.hasNext()) {
+			Deque<IsolatingClassLoader> loaders = groups.next().getValue();
+			while (idleCount > maxIdle && !loaders.isEmpty()) {
+				evicted.add(loaders.removeLast());
+				idleCount--;
+			}
+			if (loaders.isEmpty()) {
+				groups.remove();
+			}
+		}
+	}
+
+	public int getIdleCount() {
+		synchronized (idle) {
+			return idleCount;
+		}
+	}
+
+	@Override
+	public void close() {
+		List<IsolatingClassLoader> loaders = new ArrayList<>();
+		synchronized (idle) {
+			closed = true;
+			for (Deque<IsolatingClassLoader> group : idle.values()) {
+				loaders.addAll(group);
+			}
+			idle.clear();
+			idleCount = 0;
+		}
+		closeAll(loaders);
+	}
+
+	private static void closeAll(List<IsolatingClassLoader> loaders) {
+		for (IsolatingClassLoader loader : loaders) {
+			try {
+				loader.close();
+			} catch (IOException e) {
+				log.warn("error closing " + loader, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.codemucker.testfirst.isolate;
+
+import org.codemucker.testfirst.schedule.ScenarioScheduler;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs a {@link ScenarioTask} class in its own class loader from a {@link ClassLoaderPool}, so scenarios which mutate static state can run
+ * concurrently in one JVM, such as from a {@link ScenarioScheduler}. The task class is loaded and created inside the loader and needs a public
+ * no arg constructor. The loader is also set as the thread's context class loader while the task runs
+ */
+public class IsolatedTask implements ScenarioTask {
+
+	private final ClassLoaderPool pool;
+	private final String group;
+	private final String taskClassName;
+	private final String name;
+
+	/**
+	 * Isolate the task in a group of its own
+	 */
+	public IsolatedTask(ClassLoaderPool pool, Class<? extends ScenarioTask> taskClass) {
+		this(pool, taskClass.getName(), taskClass);
+	}
+
+	/**
+	 * @param pool
+	 * @param group tasks in the same group may reuse each other's loaders, and so see each other's static state
+	 * @param taskClass only the name is used, the class itself is reloaded in the isolated loader
+	 */
+	public IsolatedTask(ClassLoaderPool pool, String group, Class<? extends ScenarioTask> taskClass) {
+		this(pool, group, taskClass.getName(), taskClass.getName());
+	}
+
+	public IsolatedTask(ClassLoaderPool pool, String group, String taskClassName, String name) {
+		this.pool = Preconditions.checkNotNull(pool, "expect pool");
+		this.group = Preconditions.checkNotNull(group, "expect group");
+		this.taskClassName = Preconditions.checkNotNull(taskClassName, "expect task class name");
+		this.name = Preconditions.checkNotNull(name, "expect name");
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	@Override
+	public void run() throws Exception {
+		IsolatingClassLoader loader = pool.acquire(group);
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		try {
+			ScenarioTask task = (ScenarioTask) Class.forName(taskClassName, true, loader).newInstance();
+			task.run();
+		} finally {
+			thread.setContextClassLoader(previous);
+			pool.release(loader);
+		}
+	}
+}
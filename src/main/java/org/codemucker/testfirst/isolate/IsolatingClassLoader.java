@@ -0,0 +1,103 @@
+package org.codemucker.testfirst.isolate;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+
+import org.codemucker.testfirst.Scenario;
+
+/**
+ * A child first class loader over the application classpath, so each loader gets its own copy of the application's classes and their static
+ * state. The JDK, the framework and the libraries in its API are always loaded by the parent and so shared, which keeps framework types such as
+ * {@link Scenario} the same across loaders
+ */
+public class IsolatingClassLoader extends URLClassLoader {
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private static final String[] JDK_PREFIXES = { "java.", "javax.", "jdk.", "sun.", "com.sun.", "org.w3c.", "org.xml.", "org.ietf." };
+
+	private static final String FRAMEWORK_LOCATION = frameworkLocation();
+
+	private final String group;
+	private final String[] sharedPrefixes;
+
+	/**
+	 * @param group the group of scenarios this loader is for
+	 * @param classpath where to load isolated classes from
+	 * @param parent where to load shared classes from
+	 * @param sharedPrefixes class name prefixes to always load from the parent, in addition to the JDK and framework
+	 */
+	public IsolatingClassLoader(String group, URL[] classpath, ClassLoader parent, String... sharedPrefixes) {
+		super(classpath, parent);
+		this.group = group;
+		this.sharedPrefixes = sharedPrefixes.clone();
+	}
+
+	private static String frameworkLocation() {
+		CodeSource source = Scenario.class.getProtectionDomain().getCodeSource();
+		return source == null || source.getLocation() == null ? null : source.getLocation().toString();
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		synchronized (getClassLoadingLock(name)) {
+			Class<?> type = findLoadedClass(name);
+			if (type == null) {
+				if (isShared(name)) {
+					type = getParent().loadClass(name);
+				} else {
+					try {
+						type = findClass(name);
+					} catch (ClassNotFoundException e) {
+						type = getParent().loadClass(name);
+					}
+				}
+			}
+			if (resolve) {
+				resolveClass(type);
+			}
+			return type;
+		}
+	}
+
+	/**
+	 * @return true if the class should come from the parent rather than being isolated
+	 */
+	protected boolean isShared(String name) {
+		for (String prefix : JDK_PREFIXES) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		for (String prefix : sharedPrefixes) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return isFrameworkClass(name);
+	}
+
+	private boolean isFrameworkClass(String name) {
+		if (FRAMEWORK_LOCATION == null) {
+			return name.startsWith("org.codemucker.testfirst.");
+		}
+		URL resource = getParent().getResource(name.replace('.', '/') + ".class");
+		if (resource == null) {
+			return false;
+		}
+		String url = resource.toString();
+		return url.startsWith(FRAMEWORK_LOCATION) || url.startsWith("jar:" + FRAMEWORK_LOCATION);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + group + "]";
+	}
+}
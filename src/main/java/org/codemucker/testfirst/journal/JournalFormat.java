@@ -0,0 +1,64 @@
+package org.codemucker.testfirst.journal;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of the journal files. The journal is a header followed by fixed width little endian records. Strings referenced by records are held
+ * in a sidecar file of length prefixed utf-8 strings, where a string's id is its sequential ordinal in that file, starting at 0
+ * 
+ * <pre>
+ * offset size field
+ * 0      8    scenario id
+ * 8      4    scenario name string id
+ * 12     4    step index, 1 based
+ * 16     4    step kind string id
+ * 20     4    first argument type string id, or -1
+ * 24     8    step start, {@link System#nanoTime()}
+ * 32     8    step duration nanos
+ * 40     4    state ordinal. 0 (never written) marks the end of the records
+ * 44     4    failure diagnostics string id, or -1
+ * </pre>
+ */
+final class JournalFormat {
+
+	static final int MAGIC = 0x54464A31;
+	static final int VERSION = 1;
+
+	static final int RECORD_SIZE = 48;
+	/**
+	 * The header takes the first record slot so records stay aligned
+	 */
+	static final int HEADER_SIZE = RECORD_SIZE;
+
+	static final int SCENARIO_ID = 0;
+	static final int SCENARIO_NAME = 8;
+	static final int STEP_INDEX = 12;
+	static final int KIND = 16;
+	static final int ARG_TYPE = 20;
+	static final int START_NANOS = 24;
+	static final int DURATION_NANOS = 32;
+	static final int STATE = 40;
+	static final int DIAGNOSTICS = 44;
+
+	static final int NO_STRING = -1;
+
+	/**
+	 * Records per mapped region. Keeps each region well under the 2GB a buffer can address
+	 */
+	static final int REGION_RECORDS = 1 << 20;
+	static final long REGION_SIZE = (long) REGION_RECORDS * RECORD_SIZE;
+
+	private JournalFormat() {
+	}
+
+	static Path stringsPath(Path journal) {
+		return journal.resolveSibling(journal.getFileName() + ".strings");
+	}
+
+	/**
+	 * @return the byte offset of the given record
+	 */
+	static long offsetOf(long record) {
+		return HEADER_SIZE + record * RECORD_SIZE;
+	}
+}
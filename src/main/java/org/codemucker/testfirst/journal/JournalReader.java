@@ -0,0 +1,234 @@
+package org.codemucker.testfirst.journal;
+
+import static org.codemucker.testfirst.journal.JournalFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Scans a journal written by {@link ScenarioJournal}. The journal is memory mapped and records are read in place, so scanning allocates
+ * nothing per record. Aggregations work on string ids and only resolve the strings for their results
+ */
+public class JournalReader implements Closeable {
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer[] regions;
+	private final List<String> strings;
+	private final long recordCount;
+
+	public JournalReader(Path path) {
+		this.path = path;
+		try {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			long size = channel.size();
+			int regionCount = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+			this.regions = new MappedByteBuffer[regionCount];
+			for (int i = 0; i < regionCount; i++) {
+				long start = i * REGION_SIZE;
+				regions[i] = channel.map(MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+				regions[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+			checkHeader(size);
+			this.strings = readStrings(stringsPath(path));
+			this.recordCount = countRecords(size);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not read journal " + path, e);
+		}
+	}
+
+	private void checkHeader(long size) {
+		if (size < HEADER_SIZE || regions[0].getInt(0) != MAGIC) {
+			throw new TestFirstRuntimeException("Not a scenario journal " + path);
+		}
+		if (regions[0].getInt(4) != VERSION || regions[0].getInt(8) != RECORD_SIZE) {
+			throw new TestFirstRuntimeException("Unsupported journal version " + regions[0].getInt(4) + " in " + path);
+		}
+	}
+
+	/**
+	 * The file may be longer than the records if the writer was not closed, so stop at the first unwritten record
+	 */
+	private long countRecords(long size) {
+		long count = (size - HEADER_SIZE) / RECORD_SIZE;
+		while (count > 0) {
+			long offset = offsetOf(count - 1);
+			if (regions[(int) (offset / REGION_SIZE)].getInt((int) (offset % REGION_SIZE) + STATE) != 0) {
+				break;
+			}
+			count--;
+		}
+		return count;
+	}
+
+	private static List<String> readStrings(Path stringsPath) throws IOException {
+		List<String> strings = new ArrayList<>();
+		if (!Files.exists(stringsPath)) {
+			return strings;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(stringsPath)).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.remaining() >= 4) {
+			int len = buf.getInt();
+			if (len > buf.remaining()) {
+				break;
+			}
+			strings.add(new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8));
+			buf.position(buf.position() + len);
+		}
+		return strings;
+	}
+
+	ByteBuffer region(int index) {
+		return regions[index];
+	}
+
+	/**
+	 * @return the string with the given id, or null for {@link JournalFormat#NO_STRING} or an id not in the string table
+	 */
+	public String getString(int id) {
+		return id < 0 || id >= strings.size() ? null : strings.get(id);
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return a view of the record at the given index
+	 */
+	public JournalRecord get(long index) {
+		if (index < 0 || index >= recordCount) {
+			throw new IndexOutOfBoundsException("record " + index + ", count " + recordCount);
+		}
+		JournalRecord record = new JournalRecord(this);
+		record.moveTo(index);
+		return record;
+	}
+
+	/**
+	 * Visit each record in the order written, reusing a single record view
+	 */
+	public void scan(JournalVisitor visitor) {
+		JournalRecord record = new JournalRecord(this);
+		for (long i = 0; i < recordCount; i++) {
+			record.moveTo(i);
+			visitor.visit(record);
+		}
+	}
+
+	/**
+	 * @return the n slowest records, slowest first
+	 */
+	public List<JournalRecord> slowest(final int n) {
+		final PriorityQueue<JournalRecord> fastestFirst = new PriorityQueue<>(Math.max(1, n), BY_DURATION);
+		scan(new JournalVisitor() {
+			@Override
+			public void visit(JournalRecord record) {
+				if (n <= 0) {
+					return;
+				}
+				if (fastestFirst.size() < n) {
+					fastestFirst.add(record.copy());
+				} else if (fastestFirst.peek().getDurationNanos() < record.getDurationNanos()) {
+					fastestFirst.poll();
+					fastestFirst.add(record.copy());
+				}
+			}
+		});
+		List<JournalRecord> slowest = new ArrayList<>(fastestFirst);
+		Collections.sort(slowest, Collections.reverseOrder(BY_DURATION));
+		return slowest;
+	}
+
+	private static final Comparator<JournalRecord> BY_DURATION = new Comparator<JournalRecord>() {
+		@Override
+		public int compare(JournalRecord a, JournalRecord b) {
+			return Long.compare(a.getDurationNanos(), b.getDurationNanos());
+		}
+	};
+
+	/**
+	 * @return timings by step kind
+	 */
+	public Map<String,Timing> timingByKind() {
+		final Map<Integer,Timing> byId = new HashMap<>();
+		scan(new JournalVisitor() {
+			@Override
+			public void visit(JournalRecord record) {
+				Timing timing = byId.get(record.getKindId());
+				if (timing == null) {
+					timing = new Timing();
+					byId.put(record.getKindId(), timing);
+				}
+				timing.add(record);
+			}
+		});
+		return resolve(byId);
+	}
+
+	/**
+	 * Group failed steps by their diagnostics, so the same failure across many scenarios shows as one entry
+	 * 
+	 * @return failure counts by diagnostics, most frequent first
+	 */
+	public Map<String,Long> failureClusters() {
+		final Map<Integer,long[]> byId = new HashMap<>();
+		scan(new JournalVisitor() {
+			@Override
+			public void visit(JournalRecord record) {
+				if (record.isFailed()) {
+					long[] count = byId.get(record.getDiagnosticsId());
+					if (count == null) {
+						count = new long[1];
+						byId.put(record.getDiagnosticsId(), count);
+					}
+					count[0]++;
+				}
+			}
+		});
+		List<Map.Entry<Integer,long[]>> entries = new ArrayList<>(byId.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<Integer,long[]>>() {
+			@Override
+			public int compare(Map.Entry<Integer,long[]> a, Map.Entry<Integer,long[]> b) {
+				return Long.compare(b.getValue()[0], a.getValue()[0]);
+			}
+		});
+		Map<String,Long> clusters = new LinkedHashMap<>();
+		for (Map.Entry<Integer,long[]> entry : entries) {
+			clusters.put(String.valueOf(getString(entry.getKey())), entry.getValue()[0]);
+		}
+		return clusters;
+	}
+
+	private Map<String,Timing> resolve(Map<Integer,Timing> byId) {
+		Map<String,Timing> byName = new LinkedHashMap<>();
+		for (Map.Entry<Integer,Timing> entry : byId.entrySet()) {
+			byName.put(String.valueOf(getString(entry.getKey())), entry.getValue());
+		}
+		return byName;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
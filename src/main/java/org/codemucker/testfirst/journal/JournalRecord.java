@@ -0,0 +1,106 @@
+package org.codemucker.testfirst.journal;
+
+import static org.codemucker.testfirst.journal.JournalFormat.*;
+
+import java.nio.ByteBuffer;
+
+import org.codemucker.testfirst.Scenario;
+
+/**
+ * A view of a single record in a journal, reading straight from the mapped file. When passed to a {@link JournalVisitor} the same instance is
+ * moved along the journal, so use {@link #copy()} to keep hold of one
+ */
+public class JournalRecord {
+
+	private static final Scenario.State[] STATES = Scenario.State.values();
+
+	private final JournalReader reader;
+	private long index;
+	private ByteBuffer region;
+	private int pos;
+
+	JournalRecord(JournalReader reader) {
+		this.reader = reader;
+	}
+
+	void moveTo(long index) {
+		long offset = offsetOf(index);
+		this.index = index;
+		this.region = reader.region((int) (offset / REGION_SIZE));
+		this.pos = (int) (offset % REGION_SIZE);
+	}
+
+	/**
+	 * @return a record fixed at this position
+	 */
+	public JournalRecord copy() {
+		JournalRecord copy = new JournalRecord(reader);
+		copy.moveTo(index);
+		return copy;
+	}
+
+	public long getIndex() {
+		return index;
+	}
+
+	public long getScenarioId() {
+		return region.getLong(pos + SCENARIO_ID);
+	}
+
+	public int getScenarioNameId() {
+		return region.getInt(pos + SCENARIO_NAME);
+	}
+
+	public String getScenarioName() {
+		return reader.getString(getScenarioNameId());
+	}
+
+	public int getStepIndex() {
+		return region.getInt(pos + STEP_INDEX);
+	}
+
+	public int getKindId() {
+		return region.getInt(pos + KIND);
+	}
+
+	public String getKind() {
+		return reader.getString(getKindId());
+	}
+
+	public int getArgTypeId() {
+		return region.getInt(pos + ARG_TYPE);
+	}
+
+	public String getArgType() {
+		return reader.getString(getArgTypeId());
+	}
+
+	public long getStartNanos() {
+		return region.getLong(pos + START_NANOS);
+	}
+
+	public long getDurationNanos() {
+		return region.getLong(pos + DURATION_NANOS);
+	}
+
+	public Scenario.State getState() {
+		return STATES[region.getInt(pos + STATE)];
+	}
+
+	public boolean isFailed() {
+		return getState() == Scenario.State.Failed;
+	}
+
+	public int getDiagnosticsId() {
+		return region.getInt(pos + DIAGNOSTICS);
+	}
+
+	public String getDiagnostics() {
+		return reader.getString(getDiagnosticsId());
+	}
+
+	@Override
+	public String toString() {
+		return getScenarioName() + " " + getStepIndex() + " " + getKind() + "(" + getArgType() + ") " + getState() + " " + getDurationNanos() + "ns";
+	}
+}
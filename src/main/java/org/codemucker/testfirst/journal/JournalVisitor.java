@@ -0,0 +1,12 @@
+package org.codemucker.testfirst.journal;
+
+/**
+ * Called for each record when scanning a journal
+ */
+public interface JournalVisitor {
+
+	/**
+	 * @param record only valid for the duration of the call
+	 */
+	public void visit(JournalRecord record);
+}
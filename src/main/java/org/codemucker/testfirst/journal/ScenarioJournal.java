@@ -0,0 +1,256 @@
+package org.codemucker.testfirst.journal;
+
+import static org.codemucker.testfirst.journal.JournalFormat.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * An append only binary journal of step runs, for post-hoc analysis of long runs with {@link JournalReader}. Records are fixed width and
+ * written straight into a memory mapped file, with strings interned into a sidecar file, so appending a step allocates nothing once its
+ * strings have been seen. See {@link JournalFormat} for the layout
+ * 
+ * <p>Scenarios journal to {@link #getDefault()}, or to the journal given via {@link Scenario#journalTo(ScenarioJournal)}. If the system
+ * property {@value #PROP_JOURNAL_FILE} is set a default journal is opened at that path on first use, and closed on JVM shutdown</p>
+ */
+@ThreadSafe
+public class ScenarioJournal implements Closeable {
+
+	private static final Logger log = LogManager.getLogger(ScenarioJournal.class);
+
+	public static final String PROP_JOURNAL_FILE = "testfirst.journal.file";
+
+	private static volatile ScenarioJournal defaultJournal;
+
+	static {
+		String file = System.getProperty(PROP_JOURNAL_FILE);
+		if (file != null && !file.trim().isEmpty()) {
+			final ScenarioJournal journal = new ScenarioJournal(Paths.get(file));
+			defaultJournal = journal;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						journal.close();
+					} catch (IOException e) {
+						log.warn("error closing scenario journal", e);
+					}
+				}
+			}, "testfirst-journal-close"));
+		}
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final FileChannel stringsChannel;
+
+	private final AtomicLong nextRecord = new AtomicLong();
+	private final AtomicLong nextScenarioId = new AtomicLong();
+
+	private final ConcurrentMap<String,Integer> stringIds = new ConcurrentHashMap<>();
+	private int nextStringId = 0;
+
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+	/**
+	 * Appends share this, close takes it exclusively so the file isn't trimmed under a write
+	 */
+	private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+	private boolean closed;
+
+	/**
+	 * Create a new journal at the given path, replacing any existing one
+	 */
+	public ScenarioJournal(Path path) {
+		this.path = path;
+		try {
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			this.stringsChannel = FileChannel.open(stringsPath(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not open journal " + path, e);
+		}
+		MappedByteBuffer header = region(0);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putInt(8, RECORD_SIZE);
+	}
+
+	/**
+	 * @return the journal scenarios write to unless given another, or null if none
+	 */
+	public static ScenarioJournal getDefault() {
+		return defaultJournal;
+	}
+
+	/**
+	 * Set the journal scenarios created from now on write to. Pass null to stop journaling
+	 */
+	public static void setDefault(ScenarioJournal journal) {
+		defaultJournal = journal;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return a new id to group the steps of a scenario by
+	 */
+	public long newScenarioId() {
+		return nextScenarioId.incrementAndGet();
+	}
+
+	/**
+	 * Return the id of the given string, adding it to the string table if not yet seen
+	 * 
+	 * @param s the string, or null
+	 * @return the id, or {@link JournalFormat#NO_STRING} if null
+	 */
+	public int intern(String s) {
+		if (s == null) {
+			return NO_STRING;
+		}
+		Integer id = stringIds.get(s);
+		if (id != null) {
+			return id;
+		}
+		synchronized (stringIds) {
+			id = stringIds.get(s);
+			if (id == null) {
+				writeString(s);
+				id = nextStringId++;
+				stringIds.put(s, id);
+			}
+			return id;
+		}
+	}
+
+	private void writeString(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buf = ByteBuffer.allocate(4 + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(bytes.length).put(bytes).flip();
+		try {
+			while (buf.hasRemaining()) {
+				stringsChannel.write(buf);
+			}
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Error writing journal strings for " + path, e);
+		}
+	}
+
+	/**
+	 * Append a step record. Ids are from {@link #intern(String)} and {@link #newScenarioId()}
+	 */
+	public void append(long scenarioId, int scenarioNameId, int stepIndex, int kindId, int argTypeId, Scenario.State state, long startNanos, long durationNanos, int diagnosticsId) {
+		appendLock.readLock().lock();
+		try {
+			if (!closed) {
+				write(scenarioId, scenarioNameId, stepIndex, kindId, argTypeId, state, startNanos, durationNanos, diagnosticsId);
+			}
+		} finally {
+			appendLock.readLock().unlock();
+		}
+	}
+
+	private void write(long scenarioId, int scenarioNameId, int stepIndex, int kindId, int argTypeId, Scenario.State state, long startNanos, long durationNanos, int diagnosticsId) {
+		long offset = offsetOf(nextRecord.getAndIncrement());
+		MappedByteBuffer region = region((int) (offset / REGION_SIZE));
+		int pos = (int) (offset % REGION_SIZE);
+		region.putLong(pos + SCENARIO_ID, scenarioId);
+		region.putInt(pos + SCENARIO_NAME, scenarioNameId);
+		region.putInt(pos + STEP_INDEX, stepIndex);
+		region.putInt(pos + KIND, kindId);
+		region.putInt(pos + ARG_TYPE, argTypeId);
+		region.putLong(pos + START_NANOS, startNanos);
+		region.putLong(pos + DURATION_NANOS, durationNanos);
+		region.putInt(pos + DIAGNOSTICS, diagnosticsId);
+		//written last, as a zero state marks the end of the records
+		region.putInt(pos + STATE, state.ordinal());
+	}
+
+	/**
+	 * @return the number of records appended so far
+	 */
+	public long getRecordCount() {
+		return nextRecord.get();
+	}
+
+	private MappedByteBuffer region(int index) {
+		MappedByteBuffer[] current = regions;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		return mapRegion(index);
+	}
+
+	private synchronized MappedByteBuffer mapRegion(int index) {
+		MappedByteBuffer[] current = regions;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		try {
+			MappedByteBuffer region = channel.map(MapMode.READ_WRITE, index * REGION_SIZE, REGION_SIZE);
+			region.order(ByteOrder.LITTLE_ENDIAN);
+			MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+			grown[index] = region;
+			regions = grown;
+			return region;
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not map journal " + path + " region " + index, e);
+		}
+	}
+
+	/**
+	 * Flush all records to disk and trim the file to the records written. Waits for in flight appends, later ones are dropped
+	 */
+	@Override
+	public void close() throws IOException {
+		appendLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flushAndTrim();
+		} finally {
+			appendLock.writeLock().unlock();
+		}
+	}
+
+	private void flushAndTrim() throws IOException {
+		for (MappedByteBuffer region : regions) {
+			if (region != null) {
+				region.force();
+			}
+		}
+		try {
+			channel.truncate(offsetOf(nextRecord.get()));
+		} catch (IOException e) {
+			//some platforms won't truncate a mapped file. The reader stops at the first empty record anyway
+			log.debug("could not trim journal " + path, e);
+		}
+		channel.close();
+		stringsChannel.force(true);
+		stringsChannel.close();
+	}
+}
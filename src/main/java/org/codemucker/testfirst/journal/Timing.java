@@ -0,0 +1,47 @@
+package org.codemucker.testfirst.journal;
+
+/**
+ * Aggregated durations of a group of records
+ */
+public class Timing {
+
+	private long count;
+	private long failures;
+	private long totalNanos;
+	private long maxNanos;
+
+	void add(JournalRecord record) {
+		long duration = record.getDurationNanos();
+		count++;
+		totalNanos += duration;
+		maxNanos = Math.max(maxNanos, duration);
+		if (record.isFailed()) {
+			failures++;
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public long getMeanNanos() {
+		return count == 0 ? 0 : totalNanos / count;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", failures=" + failures + ", meanNanos=" + getMeanNanos() + ", maxNanos=" + maxNanos;
+	}
+}
@@ -0,0 +1,27 @@
+package org.codemucker.testfirst.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free counter, striped so concurrent increments don't contend
+ */
+public class Counter {
+
+	private final LongAdder count = new LongAdder();
+
+	public void inc() {
+		count.increment();
+	}
+
+	public void add(long n) {
+		count.add(n);
+	}
+
+	public long get() {
+		return count.sum();
+	}
+
+	void reset() {
+		count.reset();
+	}
+}
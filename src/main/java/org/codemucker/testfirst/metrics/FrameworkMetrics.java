@@ -0,0 +1,30 @@
+package org.codemucker.testfirst.metrics;
+
+/**
+ * The metrics the framework records about its own cost, in the {@link MetricsRegistry#getDefault()} registry
+ */
+public final class FrameworkMetrics {
+
+	private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+	public static final Counter INJECTIONS = REGISTRY.counter("injector.injections");
+	public static final Counter MAPPER_HITS = REGISTRY.counter("injector.mapper.hits");
+	public static final Counter MAPPER_MISSES = REGISTRY.counter("injector.mapper.misses");
+	public static final Counter OBTAIN_LOOKUPS = REGISTRY.counter("injector.obtain.lookups");
+	public static final Counter OBTAIN_MISSES = REGISTRY.counter("injector.obtain.misses");
+	public static final Timer LOCK_WAIT = REGISTRY.timer("injector.lock.wait");
+	public static final Counter PROVIDER_INVOCATIONS = REGISTRY.counter("injector.provider.invocations");
+	public static final Timer TEARDOWN = REGISTRY.timer("injector.teardown");
+	public static final Counter TEARDOWN_FAILURES = REGISTRY.counter("injector.teardown.failures");
+
+	public static final Counter STEPS_GIVEN = REGISTRY.counter("steps.given");
+	public static final Counter STEPS_WHEN = REGISTRY.counter("steps.when");
+	public static final Counter STEPS_THEN = REGISTRY.counter("steps.then");
+	public static final Counter MATCHER_FAILURES = REGISTRY.counter("steps.matcher.failures");
+
+	public static final Counter ISOLATION_LOADERS_CREATED = REGISTRY.counter("isolation.loaders.created");
+	public static final Counter ISOLATION_LOADERS_REUSED = REGISTRY.counter("isolation.loaders.reused");
+
+	private FrameworkMetrics() {
+	}
+}
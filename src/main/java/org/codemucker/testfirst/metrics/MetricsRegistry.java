@@ -0,0 +1,98 @@
+package org.codemucker.testfirst.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * A small in process registry of named {@link Counter}s and {@link Timer}s. Metrics are looked up once and held by the code recording them, so
+ * recording never touches the registry. Exposed over JMX via {@link #registerMBean()}
+ */
+@ThreadSafe
+public class MetricsRegistry implements MetricsRegistryMXBean {
+
+	public static final String DEFAULT_OBJECT_NAME = "org.codemucker.testfirst:type=Metrics";
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final ConcurrentMap<String,Counter> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String,Timer> timers = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the registry the framework records its own metrics to
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new Counter());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			timers.putIfAbsent(name, new Timer());
+			timer = timers.get(name);
+		}
+		return timer;
+	}
+
+	@Override
+	public Map<String,Long> getValues() {
+		Map<String,Long> values = new TreeMap<>();
+		for (Map.Entry<String,Counter> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String,Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			values.put(entry.getKey() + ".count", timer.getCount());
+			values.put(entry.getKey() + ".totalNanos", timer.getTotalNanos());
+			values.put(entry.getKey() + ".maxNanos", timer.getMaxNanos());
+		}
+		return values;
+	}
+
+	@Override
+	public void reset() {
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+	}
+
+	/**
+	 * Register this registry with the platform MBean server under {@link #DEFAULT_OBJECT_NAME}, if not already registered
+	 */
+	public void registerMBean() {
+		registerMBean(DEFAULT_OBJECT_NAME);
+	}
+
+	public void registerMBean(String objectName) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(objectName);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			throw new TestFirstRuntimeException("Error registering metrics mbean '" + objectName + "'", e);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package org.codemucker.testfirst.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link MetricsRegistry}
+ */
+public interface MetricsRegistryMXBean {
+
+	/**
+	 * @return all current values by name. Timers are reported as name.count, name.totalNanos and name.maxNanos
+	 */
+	public Map<String,Long> getValues();
+
+	public void reset();
+}
@@ -0,0 +1,70 @@
+package org.codemucker.testfirst.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+
+/**
+ * The per row results of executing a {@link ScenarioPlan}, in row order
+ */
+public class PlanResults<R> {
+
+	/**
+	 * Limit how many failures are described in an assertion message
+	 */
+	private static final int MAX_DESCRIBED_FAILURES = 10;
+
+	private final ScenarioPlan<R> plan;
+	private final List<RowResult<R>> results;
+
+	PlanResults(ScenarioPlan<R> plan, List<RowResult<R>> results) {
+		this.plan = plan;
+		this.results = Collections.unmodifiableList(results);
+	}
+
+	public List<RowResult<R>> getResults() {
+		return results;
+	}
+
+	public List<RowResult<R>> getFailures() {
+		List<RowResult<R>> failures = new ArrayList<>();
+		for (RowResult<R> result : results) {
+			if (!result.hasPassed()) {
+				failures.add(result);
+			}
+		}
+		return failures;
+	}
+
+	public boolean hasAllPassed() {
+		for (RowResult<R> result : results) {
+			if (!result.hasPassed()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @throws TestFirstAssertionFailedException describing the failed rows, if any row failed
+	 */
+	public void assertAllPassed() {
+		List<RowResult<R>> failures = getFailures();
+		if (failures.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("Plan '").append(plan.getName()).append("' failed for ").append(failures.size()).append(" of ").append(results.size()).append(" rows\n");
+		for (int i = 0; i < failures.size() && i < MAX_DESCRIBED_FAILURES; i++) {
+			RowResult<R> failure = failures.get(i);
+			sb.append("\nRow ").append(failure.getIndex()).append(" ").append(failure.getRow()).append("\n");
+			sb.append(plan.stepsToString(failure.getFailedStep(), "failed  <-- " + failure.getFailure().getMessage()));
+		}
+		if (failures.size() > MAX_DESCRIBED_FAILURES) {
+			sb.append("\n... ").append(failures.size() - MAX_DESCRIBED_FAILURES).append(" more failed rows");
+		}
+		throw new TestFirstAssertionFailedException(sb.toString(), failures.get(0).getFailure());
+	}
+}
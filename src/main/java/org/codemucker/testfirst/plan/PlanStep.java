@@ -0,0 +1,80 @@
+package org.codemucker.testfirst.plan;
+
+import org.codemucker.jmatch.DefaultMatchContext;
+import org.codemucker.jmatch.MatchDiagnostics;
+import org.codemucker.jmatch.Matcher;
+import org.codemucker.testfirst.Scenario.Injector;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.plan.ScenarioPlan.RowAction;
+import org.codemucker.testfirst.plan.ScenarioPlan.RowFetcher;
+import org.codemucker.testfirst.metrics.FrameworkMetrics;
+
+/**
+ * A compiled step in a {@link ScenarioPlan}. Immutable apart from the injection of the step objects
+ */
+abstract class PlanStep<R> {
+
+	enum Kind {
+		Given, When, Then
+	}
+
+	private final Kind kind;
+	private final String description;
+
+	private PlanStep(Kind kind, Object... args) {
+		this.kind = kind;
+		StringBuilder sb = new StringBuilder(kind.name().toLowerCase()).append("(");
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append(args[i] == null ? "null" : args[i].getClass().getSimpleName());
+		}
+		this.description = sb.append(")").toString();
+	}
+
+	static <R> PlanStep<R> action(Kind kind, final RowAction<? super R> action) {
+		return new PlanStep<R>(kind, action) {
+			@Override
+			void inject(Injector injector) {
+				injector.inject(action);
+			}
+
+			@Override
+			void run(R row) throws Exception {
+				action.run(row);
+			}
+		};
+	}
+
+	static <R,T> PlanStep<R> check(final RowFetcher<? super R, T> fetcher, final Matcher<? super T> matcher) {
+		return new PlanStep<R>(Kind.Then, fetcher, matcher) {
+			@Override
+			void inject(Injector injector) {
+				injector.inject(fetcher);
+			}
+
+			@Override
+			void run(R row) throws Exception {
+				T actual = fetcher.fetch(row);
+				MatchDiagnostics diag = new DefaultMatchContext();
+				if (!matcher.matches(actual, diag)) {
+					FrameworkMetrics.MATCHER_FAILURES.inc();
+					throw new TestFirstAssertionFailedException("expected " + matcher + " but was " + actual + "\n==== Diagnostics ====\n" + diag);
+				}
+			}
+		};
+	}
+
+	abstract void inject(Injector injector);
+
+	abstract void run(R row) throws Exception;
+
+	Kind getKind() {
+		return kind;
+	}
+
+	String getDescription() {
+		return description;
+	}
+}
@@ -0,0 +1,62 @@
+package org.codemucker.testfirst.plan;
+
+/**
+ * The outcome of running a {@link ScenarioPlan} against a single data row
+ */
+public class RowResult<R> {
+
+	private final int index;
+	private final R row;
+	private final int failedStep;
+	private final Throwable failure;
+	private final long durationNanos;
+
+	private RowResult(int index, R row, int failedStep, Throwable failure, long durationNanos) {
+		this.index = index;
+		this.row = row;
+		this.failedStep = failedStep;
+		this.failure = failure;
+		this.durationNanos = durationNanos;
+	}
+
+	static <R> RowResult<R> passed(int index, R row, long durationNanos){
+		return new RowResult<R>(index, row, -1, null, durationNanos);
+	}
+
+	static <R> RowResult<R> failed(int index, R row, int failedStep, Throwable failure, long durationNanos){
+		return new RowResult<R>(index, row, failedStep, failure, durationNanos);
+	}
+
+	/**
+	 * @return the position of the row in the executed rows
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public R getRow() {
+		return row;
+	}
+
+	public boolean hasPassed() {
+		return failure == null;
+	}
+
+	/**
+	 * @return the zero based index of the failed step, or -1 if passed
+	 */
+	public int getFailedStep() {
+		return failedStep;
+	}
+
+	/**
+	 * @return the failure, or null if passed
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+}
@@ -0,0 +1,218 @@
+package org.codemucker.testfirst.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codemucker.jmatch.Matcher;
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Injector;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable, reusable scenario definition, for running the same scenario shape against many rows of data. Unlike a {@link Scenario}, steps
+ * are defined once up front and step objects are injected once per execution rather than once per row, so the per row cost is only the step
+ * bodies themselves.
+ * 
+ * <pre>
+ * ScenarioPlan&lt;Order&gt; plan = ScenarioPlan.&lt;Order&gt;builder("order totals")
+ *     .given(insertOrder)
+ *     .when(calculateTotal)
+ *     .then(fetchTotal, isExpectedTotal)
+ *     .build();
+ * plan.execute(rows, injector).assertAllPassed();
+ * </pre>
+ *
+ * @param <R> the type of data row
+ */
+public class ScenarioPlan<R> {
+
+	private final String name;
+	private final List<PlanStep<R>> steps;
+
+	private ScenarioPlan(String name, List<PlanStep<R>> steps) {
+		this.name = name;
+		this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+	}
+
+	public static <R> Builder<R> builder(String name){
+		return new Builder<R>(name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getStepCount(){
+		return steps.size();
+	}
+
+	/**
+	 * Run every row in order on the calling thread, with no injection
+	 */
+	public PlanResults<R> execute(Iterable<? extends R> rows){
+		return execute(rows, Scenario.NullInjector.Instance);
+	}
+
+	/**
+	 * Run every row in order on the calling thread. Step objects are injected once before any row is run
+	 */
+	public PlanResults<R> execute(Iterable<? extends R> rows, Injector injector){
+		inject(injector);
+		List<RowResult<R>> results = new ArrayList<>();
+		int index = 0;
+		for (R row : rows) {
+			results.add(runRow(index++, row));
+		}
+		return new PlanResults<R>(this, results);
+	}
+
+	/**
+	 * Run the rows across the given number of threads. Step objects are injected once before any row is run, so must be thread safe
+	 */
+	public PlanResults<R> executeParallel(List<? extends R> rows, Injector injector, int threads){
+		Preconditions.checkArgument(threads > 0, "expect at least one thread");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return executeParallel(rows, injector, executor, threads);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run the rows as the given number of batches on the given executor. Step objects are injected once before any row is run, so must be thread safe
+	 */
+	public PlanResults<R> executeParallel(final List<? extends R> rows, Injector injector, ExecutorService executor, int batches){
+		Preconditions.checkArgument(batches > 0, "expect at least one batch");
+		inject(injector);
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final RowResult<R>[] results = new RowResult[rows.size()];
+		int batchSize = (rows.size() + batches - 1) / batches;
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < rows.size(); start += batchSize) {
+			final int from = start;
+			final int to = Math.min(rows.size(), start + batchSize);
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = from; i < to; i++) {
+						results[i] = runRow(i, rows.get(i));
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TestFirstRuntimeException("Interrupted while running plan '" + name + "'", e);
+			} catch (ExecutionException e) {
+				throw new TestFirstRuntimeException("Error running plan '" + name + "'", e.getCause());
+			}
+		}
+		List<RowResult<R>> resultList = new ArrayList<>(results.length);
+		Collections.addAll(resultList, results);
+		return new PlanResults<R>(this, resultList);
+	}
+
+	private void inject(Injector injector){
+		Preconditions.checkNotNull(injector, "expect injector");
+		for (PlanStep<R> step : steps) {
+			step.inject(injector);
+		}
+	}
+
+	private RowResult<R> runRow(int index, R row){
+		long start = System.nanoTime();
+		for (int i = 0; i < steps.size(); i++) {
+			try {
+				steps.get(i).run(row);
+			} catch (Exception | AssertionError e) {
+				return RowResult.failed(index, row, i, e, System.nanoTime() - start);
+			}
+		}
+		return RowResult.passed(index, row, System.nanoTime() - start);
+	}
+
+	/**
+	 * Describe the steps, marking the given step with the given message, in the same form as a failed {@link Scenario}
+	 */
+	String stepsToString(int failedStep, String msg){
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < steps.size(); i++) {
+			sb.append(i + 1).append(" ").append(steps.get(i).getDescription());
+			if (i == failedStep) {
+				sb.append(" <-- ").append(msg);
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Performs an action given a data row
+	 */
+	public interface RowAction<R> {
+		public void run(R row) throws Exception;
+	}
+
+	/**
+	 * Fetches a value to check given a data row
+	 */
+	public interface RowFetcher<R,T> {
+		public T fetch(R row) throws Exception;
+	}
+
+	public static class Builder<R> {
+		private final String name;
+		private final List<PlanStep<R>> steps = new ArrayList<>();
+
+		private Builder(String name) {
+			this.name = name;
+		}
+
+		public Builder<R> given(RowAction<? super R> action){
+			steps.add(PlanStep.<R>action(PlanStep.Kind.Given, action));
+			return this;
+		}
+
+		public Builder<R> when(RowAction<? super R> action){
+			steps.add(PlanStep.<R>action(PlanStep.Kind.When, action));
+			return this;
+		}
+
+		/**
+		 * A custom check, which should throw to fail the row
+		 */
+		public Builder<R> then(RowAction<? super R> check){
+			steps.add(PlanStep.<R>action(PlanStep.Kind.Then, check));
+			return this;
+		}
+
+		public <T> Builder<R> then(RowFetcher<? super R, T> fetcher, Matcher<? super T> matcher){
+			steps.add(PlanStep.<R,T>check(fetcher, matcher));
+			return this;
+		}
+
+		/**
+		 * @throws TestFirstAssertionFailedException if any given or when step is not followed by a then step, as a {@link Scenario} would
+		 */
+		public ScenarioPlan<R> build(){
+			if (!steps.isEmpty() && steps.get(steps.size() - 1).getKind() != PlanStep.Kind.Then) {
+				ScenarioPlan<R> invalid = new ScenarioPlan<R>(name, steps);
+				throw new TestFirstAssertionFailedException("Require atleast one 'then' step after any 'given' or 'when' step\nPlan steps:\n" + invalid.stepsToString(-1, null));
+			}
+			return new ScenarioPlan<R>(name, steps);
+		}
+	}
+}
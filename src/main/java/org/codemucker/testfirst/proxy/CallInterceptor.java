@@ -0,0 +1,29 @@
+package org.codemucker.testfirst.proxy;
+
+/**
+ * Hooks called by a proxy from {@link ProxyFactory} around each call to its target. Methods are identified by their index in
+ * {@link ProxyFactory#getMethods(Class)}. Called on the caller's thread, so implementations must be thread safe
+ */
+public interface CallInterceptor {
+
+	/**
+	 * Called before the target method
+	 * 
+	 * @return a token passed back to {@link #exit(int, long, Throwable)}, such as a start time
+	 */
+	public long enter(int method);
+
+	/**
+	 * Called after {@link #enter(int)} for each reference argument. Primitive arguments are not passed, to avoid boxing
+	 * 
+	 * @param index the position of the argument in the method's parameters
+	 */
+	public void argument(int method, int index, Object arg);
+
+	/**
+	 * Called after the target method returns or throws
+	 * 
+	 * @param failure what the target threw, or null if it returned
+	 */
+	public void exit(int method, long token, Throwable failure);
+}
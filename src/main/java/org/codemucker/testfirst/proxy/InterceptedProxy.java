@@ -0,0 +1,7 @@
+package org.codemucker.testfirst.proxy;
+
+/**
+ * Marks a proxy created by {@link ProxyFactory}. Proxies can themselves be proxied, so wrappers such as call counting and fault injection compose
+ */
+public interface InterceptedProxy {
+}
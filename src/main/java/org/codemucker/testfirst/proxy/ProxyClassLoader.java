@@ -0,0 +1,20 @@
+package org.codemucker.testfirst.proxy;
+
+/**
+ * Defines generated proxies. Resolves the target's types through the target's loader, and the framework's through the framework's loader
+ */
+class ProxyClassLoader extends ClassLoader {
+
+	ProxyClassLoader(ClassLoader targetLoader) {
+		super(targetLoader);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		return ProxyClassLoader.class.getClassLoader().loadClass(name);
+	}
+
+	Class<?> define(String name, byte[] bytes) {
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,476 @@
+package org.codemucker.testfirst.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Writes the class file of an interface proxy which calls a {@link CallInterceptor} around each call to its target. The equivalent java for
+ * each method is
+ * 
+ * <pre>
+ * public R m(A a, B b) {
+ * 	CallInterceptor i = this.interceptor;
+ * 	long token = i.enter(ID);
+ * 	i.argument(ID, 0, a); //reference arguments only
+ * 	R r;
+ * 	try {
+ * 		r = ((Iface) this.target).m(a, b);
+ * 	} catch (Throwable t) {
+ * 		i.exit(ID, token, t);
+ * 		throw t;
+ * 	}
+ * 	i.exit(ID, token, null);
+ * 	return r;
+ * }
+ * </pre>
+ * 
+ * <p>Written as a version 49 class so no stack map frames are needed</p>
+ */
+class ProxyClassWriter {
+
+	private static final int CLASS_VERSION = 49;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private static final int ACONST_NULL = 0x01;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int LLOAD = 0x16;
+	private static final int FLOAD = 0x17;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD = 0x19;
+	private static final int ISTORE = 0x36;
+	private static final int LSTORE = 0x37;
+	private static final int FSTORE = 0x38;
+	private static final int DSTORE = 0x39;
+	private static final int ASTORE = 0x3a;
+	private static final int IRETURN = 0xac;
+	private static final int LRETURN = 0xad;
+	private static final int FRETURN = 0xae;
+	private static final int DRETURN = 0xaf;
+	private static final int ARETURN = 0xb0;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKEINTERFACE = 0xb9;
+	private static final int ATHROW = 0xbf;
+	private static final int CHECKCAST = 0xc0;
+
+	static final String TARGET_FIELD = "target";
+	static final String INTERCEPTOR_FIELD = "interceptor";
+
+	private static final String OBJECT = "java/lang/Object";
+	private static final String INTERCEPTOR = CallInterceptor.class.getName().replace('.', '/');
+	private static final String INTERCEPTOR_DESC = "L" + INTERCEPTOR + ";";
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String,Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final String className;
+
+	ProxyClassWriter(String className) {
+		this.className = className.replace('.', '/');
+	}
+
+	/**
+	 * @param interfaces implemented by the proxy
+	 * @param methods the interface methods to proxy, by id
+	 */
+	byte[] write(List<Class<?>> interfaces, List<Method> methods) {
+		try {
+			int thisClass = classRef(className);
+			int superClass = classRef(OBJECT);
+			List<Integer> interfaceRefs = new ArrayList<>();
+			for (Class<?> iface : interfaces) {
+				interfaceRefs.add(classRef(internalName(iface)));
+			}
+			int targetName = utf8(TARGET_FIELD);
+			int objectDesc = utf8("L" + OBJECT + ";");
+			int interceptorName = utf8(INTERCEPTOR_FIELD);
+			int interceptorDesc = utf8(INTERCEPTOR_DESC);
+			int codeName = utf8("Code");
+
+			List<byte[]> methodBytes = new ArrayList<>();
+			methodBytes.add(writeConstructor(codeName));
+			for (int id = 0; id < methods.size(); id++) {
+				methodBytes.add(writeMethod(codeName, id, methods.get(id)));
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASS_VERSION);
+			out.writeShort(poolCount);
+			pool.flush();
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaceRefs.size());
+			for (int ref : interfaceRefs) {
+				out.writeShort(ref);
+			}
+			out.writeShort(2);
+			writeField(out, targetName, objectDesc);
+			writeField(out, interceptorName, interceptorDesc);
+			out.writeShort(methodBytes.size());
+			for (byte[] method : methodBytes) {
+				out.write(method);
+			}
+			out.writeShort(0);
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Error writing proxy class " + className, e);
+		}
+	}
+
+	private static void writeField(DataOutputStream out, int name, int desc) throws IOException {
+		out.writeShort(ACC_PRIVATE | ACC_FINAL);
+		out.writeShort(name);
+		out.writeShort(desc);
+		out.writeShort(0);
+	}
+
+	private byte[] writeConstructor(int codeName) throws IOException {
+		Code code = new Code();
+		code.op(ALOAD).u1(0);
+		code.op(INVOKESPECIAL).u2(methodRef(CONSTANT_METHODREF, OBJECT, "<init>", "()V"));
+		code.op(ALOAD).u1(0);
+		code.op(ALOAD).u1(1);
+		code.op(PUTFIELD).u2(fieldRef(TARGET_FIELD, "L" + OBJECT + ";"));
+		code.op(ALOAD).u1(0);
+		code.op(ALOAD).u1(2);
+		code.op(PUTFIELD).u2(fieldRef(INTERCEPTOR_FIELD, INTERCEPTOR_DESC));
+		code.op(RETURN);
+		return writeMethodInfo(utf8("<init>"), utf8("(L" + OBJECT + ";" + INTERCEPTOR_DESC + ")V"), codeName, code, 2, 3, null);
+	}
+
+	private byte[] writeMethod(int codeName, int id, Method method) throws IOException {
+		Class<?>[] params = method.getParameterTypes();
+		String desc = descriptorOf(method);
+		int[] paramSlots = new int[params.length];
+		int slot = 1;
+		for (int i = 0; i < params.length; i++) {
+			paramSlots[i] = slot;
+			slot += slotsOf(params[i]);
+		}
+		int interceptorLocal = slot;
+		int tokenLocal = interceptorLocal + 1;
+		int resultLocal = tokenLocal + 2;
+		int failureLocal = resultLocal + 2;
+		if (failureLocal > 255) {
+			throw new TestFirstRuntimeException("Too many parameters to proxy " + method);
+		}
+		int enter = methodRef(CONSTANT_INTERFACE_METHODREF, INTERCEPTOR, "enter", "(I)J");
+		int argument = methodRef(CONSTANT_INTERFACE_METHODREF, INTERCEPTOR, "argument", "(IIL" + OBJECT + ";)V");
+		int exit = methodRef(CONSTANT_INTERFACE_METHODREF, INTERCEPTOR, "exit", "(IJLjava/lang/Throwable;)V");
+		Class<?> returnType = method.getReturnType();
+
+		Code code = new Code();
+		code.op(ALOAD).u1(0);
+		code.op(GETFIELD).u2(fieldRef(INTERCEPTOR_FIELD, INTERCEPTOR_DESC));
+		code.op(ASTORE).u1(interceptorLocal);
+		code.op(ALOAD).u1(interceptorLocal);
+		pushInt(code, id);
+		code.op(INVOKEINTERFACE).u2(enter).u1(2).u1(0);
+		code.op(LSTORE).u1(tokenLocal);
+		for (int i = 0; i < params.length; i++) {
+			if (!params[i].isPrimitive()) {
+				code.op(ALOAD).u1(interceptorLocal);
+				pushInt(code, id);
+				pushInt(code, i);
+				code.op(ALOAD).u1(paramSlots[i]);
+				code.op(INVOKEINTERFACE).u2(argument).u1(4).u1(0);
+			}
+		}
+
+		int tryStart = code.size();
+		code.op(ALOAD).u1(0);
+		code.op(GETFIELD).u2(fieldRef(TARGET_FIELD, "L" + OBJECT + ";"));
+		String owner = internalName(method.getDeclaringClass());
+		code.op(CHECKCAST).u2(classRef(owner));
+		for (int i = 0; i < params.length; i++) {
+			code.op(loadOp(params[i])).u1(paramSlots[i]);
+		}
+		code.op(INVOKEINTERFACE).u2(methodRef(CONSTANT_INTERFACE_METHODREF, owner, method.getName(), desc)).u1(1 + slot - 1).u1(0);
+		int tryEnd = code.size();
+		if (returnType != void.class) {
+			code.op(storeOp(returnType)).u1(resultLocal);
+		}
+		code.op(ALOAD).u1(interceptorLocal);
+		pushInt(code, id);
+		code.op(LLOAD).u1(tokenLocal);
+		code.op(ACONST_NULL);
+		code.op(INVOKEINTERFACE).u2(exit).u1(5).u1(0);
+		if (returnType != void.class) {
+			code.op(loadOp(returnType)).u1(resultLocal);
+		}
+		code.op(returnOp(returnType));
+
+		int handler = code.size();
+		code.op(ASTORE).u1(failureLocal);
+		code.op(ALOAD).u1(interceptorLocal);
+		pushInt(code, id);
+		code.op(LLOAD).u1(tokenLocal);
+		code.op(ALOAD).u1(failureLocal);
+		code.op(INVOKEINTERFACE).u2(exit).u1(5).u1(0);
+		code.op(ALOAD).u1(failureLocal);
+		code.op(ATHROW);
+
+		int maxStack = Math.max(6, 1 + slot);
+		return writeMethodInfo(utf8(method.getName()), utf8(desc), codeName, code, maxStack, failureLocal + 1, new int[] { tryStart, tryEnd, handler });
+	}
+
+	private byte[] writeMethodInfo(int name, int desc, int codeName, Code code, int maxStack, int maxLocals, int[] catchAll) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(desc);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		int exceptionTableSize = catchAll == null ? 0 : 8;
+		out.writeInt(2 + 2 + 4 + code.size() + 2 + exceptionTableSize + 2);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.size());
+		code.writeTo(out);
+		if (catchAll == null) {
+			out.writeShort(0);
+		} else {
+			out.writeShort(1);
+			out.writeShort(catchAll[0]);
+			out.writeShort(catchAll[1]);
+			out.writeShort(catchAll[2]);
+			out.writeShort(0);
+		}
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private void pushInt(Code code, int value) throws IOException {
+		if (value >= -1 && value <= 5) {
+			code.op(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			code.op(BIPUSH).u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			code.op(SIPUSH).u2(value);
+		} else {
+			code.op(LDC_W).u2(intConstant(value));
+		}
+	}
+
+	private static int slotsOf(Class<?> type) {
+		return type == long.class || type == double.class ? 2 : 1;
+	}
+
+	private static int loadOp(Class<?> type) {
+		return typedOp(type, ILOAD, LLOAD, FLOAD, DLOAD, ALOAD);
+	}
+
+	private static int storeOp(Class<?> type) {
+		return typedOp(type, ISTORE, LSTORE, FSTORE, DSTORE, ASTORE);
+	}
+
+	private static int returnOp(Class<?> type) {
+		if (type == void.class) {
+			return RETURN;
+		}
+		return typedOp(type, IRETURN, LRETURN, FRETURN, DRETURN, ARETURN);
+	}
+
+	private static int typedOp(Class<?> type, int intOp, int longOp, int floatOp, int doubleOp, int refOp) {
+		if (!type.isPrimitive()) {
+			return refOp;
+		}
+		if (type == long.class) {
+			return longOp;
+		}
+		if (type == float.class) {
+			return floatOp;
+		}
+		if (type == double.class) {
+			return doubleOp;
+		}
+		return intOp;
+	}
+
+	static String internalName(Class<?> type) {
+		return type.getName().replace('.', '/');
+	}
+
+	static String descriptorOf(Method method) {
+		StringBuilder sb = new StringBuilder("(");
+		for (Class<?> param : method.getParameterTypes()) {
+			sb.append(descriptorOf(param));
+		}
+		return sb.append(')').append(descriptorOf(method.getReturnType())).toString();
+	}
+
+	private static String descriptorOf(Class<?> type) {
+		if (type.isArray()) {
+			return internalName(type);
+		}
+		if (!type.isPrimitive()) {
+			return "L" + internalName(type) + ";";
+		}
+		if (type == void.class) {
+			return "V";
+		}
+		if (type == boolean.class) {
+			return "Z";
+		}
+		if (type == byte.class) {
+			return "B";
+		}
+		if (type == char.class) {
+			return "C";
+		}
+		if (type == short.class) {
+			return "S";
+		}
+		if (type == int.class) {
+			return "I";
+		}
+		if (type == long.class) {
+			return "J";
+		}
+		if (type == float.class) {
+			return "F";
+		}
+		return "D";
+	}
+
+	private int utf8(String s) throws IOException {
+		Integer index = poolIndex.get("U" + s);
+		if (index == null) {
+			pool.writeByte(CONSTANT_UTF8);
+			pool.writeUTF(s);
+			index = addConstant("U" + s, 1);
+		}
+		return index;
+	}
+
+	private int intConstant(int value) throws IOException {
+		Integer index = poolIndex.get("I" + value);
+		if (index == null) {
+			pool.writeByte(CONSTANT_INTEGER);
+			pool.writeInt(value);
+			index = addConstant("I" + value, 1);
+		}
+		return index;
+	}
+
+	private int classRef(String internalName) throws IOException {
+		Integer index = poolIndex.get("C" + internalName);
+		if (index == null) {
+			int name = utf8(internalName);
+			pool.writeByte(CONSTANT_CLASS);
+			pool.writeShort(name);
+			index = addConstant("C" + internalName, 1);
+		}
+		return index;
+	}
+
+	private int nameAndType(String name, String desc) throws IOException {
+		String key = "N" + name + ":" + desc;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			int nameIndex = utf8(name);
+			int descIndex = utf8(desc);
+			pool.writeByte(CONSTANT_NAME_AND_TYPE);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descIndex);
+			index = addConstant(key, 1);
+		}
+		return index;
+	}
+
+	private int fieldRef(String name, String desc) throws IOException {
+		return memberRef(CONSTANT_FIELDREF, className, name, desc);
+	}
+
+	private int methodRef(int tag, String owner, String name, String desc) throws IOException {
+		return memberRef(tag, owner, name, desc);
+	}
+
+	private int memberRef(int tag, String owner, String name, String desc) throws IOException {
+		String key = "M" + tag + owner + "." + name + ":" + desc;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			int ownerIndex = classRef(owner);
+			int nameAndType = nameAndType(name, desc);
+			pool.writeByte(tag);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+			index = addConstant(key, 1);
+		}
+		return index;
+	}
+
+	private int addConstant(String key, int slots) {
+		int index = poolCount;
+		poolCount += slots;
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	/**
+	 * A method's byte code
+	 */
+	private static class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		Code op(int opcode) {
+			bytes.write(opcode);
+			return this;
+		}
+
+		Code u1(int value) {
+			bytes.write(value);
+			return this;
+		}
+
+		Code u2(int value) {
+			bytes.write((value >> 8) & 0xff);
+			bytes.write(value & 0xff);
+			return this;
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			bytes.writeTo(out);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package org.codemucker.testfirst.proxy;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Creates proxies implementing all the interfaces of a target, which call a {@link CallInterceptor} around each interface method.
+ * 
+ * <p>A proxy class is generated once per target class and calls the target directly, so the per call overhead is the interceptor hooks
+ * only. Where a class can't be generated, such as for non public interfaces, a reflective {@link Proxy} is used instead</p>
+ */
+public class ProxyFactory {
+
+	private static final Logger log = LogManager.getLogger(ProxyFactory.class);
+
+	private static final AtomicInteger PROXY_COUNT = new AtomicInteger();
+
+	private static final ClassValue<List<Method>> METHODS = new ClassValue<List<Method>>() {
+		@Override
+		protected List<Method> computeValue(Class<?> type) {
+			return Collections.unmodifiableList(findMethods(type));
+		}
+	};
+
+	/**
+	 * Generated constructors taking (target, interceptor), or null where the reflective fallback is used
+	 */
+	private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+		@Override
+		protected Constructor<?> computeValue(Class<?> type) {
+			return generateOrNull(type);
+		}
+	};
+
+	private ProxyFactory() {
+	}
+
+	/**
+	 * @return the interface methods a proxy of the given class intercepts. A method's id is its index in this list
+	 */
+	public static List<Method> getMethods(Class<?> targetClass) {
+		return METHODS.get(targetClass);
+	}
+
+	/**
+	 * @return all the interfaces implemented by the given class and its super classes
+	 */
+	public static List<Class<?>> getInterfaces(Class<?> targetClass) {
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		for (Class<?> c = targetClass; c != null; c = c.getSuperclass()) {
+			addInterfaces(c, interfaces);
+		}
+		interfaces.remove(InterceptedProxy.class);
+		return new ArrayList<>(interfaces);
+	}
+
+	private static void addInterfaces(Class<?> type, Set<Class<?>> interfaces) {
+		for (Class<?> iface : type.getInterfaces()) {
+			if (interfaces.add(iface)) {
+				addInterfaces(iface, interfaces);
+			}
+		}
+	}
+
+	/**
+	 * Create a proxy implementing all the target's interfaces, which calls the interceptor around each call to the target
+	 * 
+	 * @param target must implement at least one interface
+	 * @param interceptor
+	 * @return the proxy, which also implements {@link InterceptedProxy}
+	 */
+	public static Object newProxy(Object target, CallInterceptor interceptor) {
+		Preconditions.checkNotNull(target, "expect target");
+		Preconditions.checkNotNull(interceptor, "expect interceptor");
+		Class<?> targetClass = target.getClass();
+		if (getInterfaces(targetClass).isEmpty()) {
+			throw new TestFirstRuntimeException("Can't proxy " + targetClass.getName() + " as it implements no interfaces");
+		}
+		Constructor<?> ctor = CONSTRUCTORS.get(targetClass);
+		if (ctor == null) {
+			return newReflectiveProxy(target, interceptor);
+		}
+		try {
+			return ctor.newInstance(target, interceptor);
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+			throw new TestFirstRuntimeException("Error creating proxy for " + targetClass.getName(), e);
+		}
+	}
+
+	private static List<Method> findMethods(Class<?> targetClass) {
+		Map<String, Method> methods = new LinkedHashMap<>();
+		for (Class<?> iface : getInterfaces(targetClass)) {
+			for (Method m : iface.getMethods()) {
+				if (Modifier.isStatic(m.getModifiers()) || isObjectMethod(m)) {
+					continue;
+				}
+				String key = m.getName() + ProxyClassWriter.descriptorOf(m);
+				if (!methods.containsKey(key)) {
+					methods.put(key, m);
+				}
+			}
+		}
+		return new ArrayList<>(methods.values());
+	}
+
+	private static boolean isObjectMethod(Method m) {
+		try {
+			Object.class.getMethod(m.getName(), m.getParameterTypes());
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static Constructor<?> generateOrNull(Class<?> targetClass) {
+		List<Class<?>> interfaces = getInterfaces(targetClass);
+		for (Class<?> iface : interfaces) {
+			if (!Modifier.isPublic(iface.getModifiers())) {
+				return null;
+			}
+		}
+		if (hasConflictingReturnTypes(targetClass)) {
+			return null;
+		}
+		interfaces.add(InterceptedProxy.class);
+		String name = ProxyFactory.class.getPackage().getName() + ".$Proxy" + PROXY_COUNT.incrementAndGet() + "$" + targetClass.getSimpleName();
+		try {
+			byte[] bytes = new ProxyClassWriter(name).write(interfaces, getMethods(targetClass));
+			Class<?> proxyClass = new ProxyClassLoader(targetClass.getClassLoader()).define(name, bytes);
+			return proxyClass.getConstructor(Object.class, CallInterceptor.class);
+		} catch (RuntimeException | LinkageError | NoSuchMethodException e) {
+			log.warn("couldn't generate proxy for " + targetClass.getName() + ", using a reflective proxy", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Methods with the same name and parameters but different return types can't both be implemented by the generated class
+	 */
+	private static boolean hasConflictingReturnTypes(Class<?> targetClass) {
+		Set<String> signatures = new LinkedHashSet<>();
+		for (Method m : getMethods(targetClass)) {
+			String params = ProxyClassWriter.descriptorOf(m);
+			if (!signatures.add(m.getName() + params.substring(0, params.indexOf(')') + 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Object newReflectiveProxy(final Object target, final CallInterceptor interceptor) {
+		Class<?> targetClass = target.getClass();
+		List<Class<?>> interfaces = getInterfaces(targetClass);
+		interfaces.add(InterceptedProxy.class);
+		final Map<Method, Integer> ids = new HashMap<>();
+		List<Method> methods = getMethods(targetClass);
+		for (int i = 0; i < methods.size(); i++) {
+			ids.put(methods.get(i), i);
+		}
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Integer id = ids.get(method);
+				if (id == null) {
+					if (method.getName().equals("equals") && args != null && args.length == 1) {
+						return proxy == args[0];
+					}
+					if (method.getName().equals("hashCode") && args == null) {
+						return System.identityHashCode(proxy);
+					}
+					return method.invoke(target, args);
+				}
+				long token = interceptor.enter(id);
+				Class<?>[] params = method.getParameterTypes();
+				for (int i = 0; i < params.length; i++) {
+					if (!params[i].isPrimitive()) {
+						interceptor.argument(id, i, args[i]);
+					}
+				}
+				try {
+					method.setAccessible(true);
+					Object result = method.invoke(target, args);
+					interceptor.exit(id, token, null);
+					return result;
+				} catch (InvocationTargetException e) {
+					interceptor.exit(id, token, e.getCause());
+					throw e.getCause();
+				}
+			}
+		};
+		return Proxy.newProxyInstance(targetClass.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]), handler);
+	}
+}
@@ -0,0 +1,309 @@
+package org.codemucker.testfirst.replay;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.codemucker.testfirst.inject.InjectWrapper;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.proxy.ProxyFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Records calls to slow dependencies of the given interfaces to a local file, then serves the recorded responses so scenarios run at memory
+ * speed. Register with {@link TestInjector#wrapWith(InjectWrapper)}. Requests are keyed by method and arguments, and responses, including
+ * thrown errors, are served in the order recorded. Arguments, return values and errors must be {@link java.io.Serializable}, and equal
+ * arguments must serialise the same, see {@link ReplayFile}.
+ * 
+ * <p>In replay mode the bound dependency is never called, so can be a cheap stub. The mode is {@link ReplayMode#Replay} if the recording
+ * existed before it was first used in this JVM, else {@link ReplayMode#Record}, unless set via the system property {@value #PROP_MODE},
+ * such as to periodically re-verify recordings against the real dependencies with {@link ReplayMode#Verify}. Scenarios sharing a
+ * recording so all record into it on the first run, and all replay from it on later runs</p>
+ * 
+ * <p>On scenario end the recording is flushed, replay starts again from the first response for each request, and in verify mode any
+ * mismatches fail the scenario</p>
+ */
+@ThreadSafe
+public class RecordReplay implements InjectWrapper, IRunOnScenarioEnd {
+
+	public static final String PROP_MODE = "testfirst.replay.mode";
+
+	private final ReplayFile file;
+	private final ReplayMode mode;
+	private final Class<?>[] interfaces;
+
+	/**
+	 * Next response to serve per request, by key
+	 */
+	private final ConcurrentMap<ByteBuffer, AtomicInteger> cursors = new ConcurrentHashMap<>();
+	private final List<String> mismatches = new ArrayList<>();
+
+	/**
+	 * @param file the recording
+	 * @param interfaces the dependency interfaces to record
+	 */
+	public RecordReplay(Path file, Class<?>... interfaces) {
+		this(file, defaultMode(ReplayFile.of(file)), interfaces);
+	}
+
+	public RecordReplay(Path file, ReplayMode mode, Class<?>... interfaces) {
+		Preconditions.checkNotNull(file, "expect file");
+		Preconditions.checkNotNull(mode, "expect mode");
+		Preconditions.checkArgument(interfaces.length > 0, "expect at least one interface");
+		for (Class<?> iface : interfaces) {
+			Preconditions.checkArgument(iface.isInterface(), "expect an interface but was %s", iface.getName());
+		}
+		this.file = ReplayFile.of(file);
+		this.mode = mode;
+		this.interfaces = interfaces.clone();
+	}
+
+	private static ReplayMode defaultMode(ReplayFile file) {
+		String mode = System.getProperty(PROP_MODE);
+		if (mode != null && !mode.trim().isEmpty()) {
+			for (ReplayMode m : ReplayMode.values()) {
+				if (m.name().equalsIgnoreCase(mode.trim())) {
+					return m;
+				}
+			}
+			throw new TestFirstRuntimeException("Unknown " + PROP_MODE + " '" + mode + "', expected one of " + Arrays.toString(ReplayMode.values()));
+		}
+		return file.existed() ? ReplayMode.Replay : ReplayMode.Record;
+	}
+
+	public ReplayMode getMode() {
+		return mode;
+	}
+
+	@Override
+	public Object wrap(Class<?> requireType, final Object dependency) {
+		if (dependency == null || !requireType.isInterface() || !isRecorded(dependency.getClass())) {
+			return dependency;
+		}
+		List<Class<?>> proxied = ProxyFactory.getInterfaces(dependency.getClass());
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					return invokeObjectMethod(proxy, dependency, method, args);
+				}
+				if (!isRecorded(method)) {
+					return invokeTarget(dependency, method, args);
+				}
+				return call(dependency, method, args);
+			}
+		};
+		return Proxy.newProxyInstance(dependency.getClass().getClassLoader(), proxied.toArray(new Class<?>[proxied.size()]), handler);
+	}
+
+	private Object call(Object target, Method method, Object[] args) throws Throwable {
+		byte[] key;
+		try {
+			key = ReplayFile.keyOf(method, args);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Can't key call to " + describe(method, args) + ", arguments must be serializable", e);
+		}
+		switch (mode) {
+		case Record:
+			return record(target, method, args, key);
+		case Replay:
+			return replay(method, args, key);
+		default:
+			return verify(target, method, args, key);
+		}
+	}
+
+	private Object record(Object target, Method method, Object[] args, byte[] key) throws Throwable {
+		Object result;
+		try {
+			result = invokeTarget(target, method, args);
+		} catch (Throwable t) {
+			append(method, args, key, ReplayFile.THREW, t);
+			throw t;
+		}
+		append(method, args, key, ReplayFile.RETURNED, result);
+		return result;
+	}
+
+	private void append(Method method, Object[] args, byte[] key, byte outcome, Object value) {
+		try {
+			file.append(key, outcome, ReplayFile.serialise(value));
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Error recording call to " + describe(method, args) + " in " + file.getPath(), e);
+		}
+	}
+
+	private Object replay(Method method, Object[] args, byte[] key) throws Throwable {
+		ByteBuffer entry = nextRecorded(key);
+		if (entry == null) {
+			throw new TestFirstRuntimeException("No recording of " + describe(method, args) + " in " + file.getPath() + ", re-record with -D" + PROP_MODE + "=" + ReplayMode.Record);
+		}
+		Object value = recordedValue(entry, method);
+		if (ReplayFile.Index.threw(entry)) {
+			throw (Throwable) value;
+		}
+		return value;
+	}
+
+	private Object verify(Object target, Method method, Object[] args, byte[] key) throws Throwable {
+		ByteBuffer entry = nextRecorded(key);
+		boolean expectedThrew = entry != null && ReplayFile.Index.threw(entry);
+		try {
+			Object result = invokeTarget(target, method, args);
+			if (entry == null) {
+				mismatch(method, args, "not recorded, returned " + result);
+			} else if (expectedThrew || !ReplayFile.Index.sameValue(entry, serialise(method, args, result))) {
+				mismatch(method, args, "recorded " + describeOutcome(recordedValue(entry, method), expectedThrew) + " but returned " + result);
+			}
+			return result;
+		} catch (Throwable t) {
+			if (entry == null) {
+				mismatch(method, args, "not recorded, threw " + t);
+			} else if (!expectedThrew || !sameError((Throwable) recordedValue(entry, method), t)) {
+				mismatch(method, args, "recorded " + describeOutcome(recordedValue(entry, method), expectedThrew) + " but threw " + t);
+			}
+			throw t;
+		}
+	}
+
+	/**
+	 * Responses are compared on their serialised form, as recorded types often don't implement equals
+	 */
+	private byte[] serialise(Method method, Object[] args, Object value) {
+		try {
+			return ReplayFile.serialise(value);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Can't compare response of " + describe(method, args) + ", return values must be serializable", e);
+		}
+	}
+
+	private Object recordedValue(ByteBuffer entry, Method method) {
+		try {
+			return ReplayFile.Index.value(entry, method.getDeclaringClass().getClassLoader());
+		} catch (IOException | ClassNotFoundException e) {
+			throw new TestFirstRuntimeException("Error reading recorded response for " + method + " from " + file.getPath(), e);
+		}
+	}
+
+	private static boolean sameError(Throwable expected, Throwable actual) {
+		return expected.getClass() == actual.getClass() && Objects.equals(expected.getMessage(), actual.getMessage());
+	}
+
+	private static String describeOutcome(Object value, boolean threw) {
+		return (threw ? "thrown " : "returned ") + value;
+	}
+
+	private void mismatch(Method method, Object[] args, String msg) {
+		synchronized (mismatches) {
+			mismatches.add(describe(method, args) + " " + msg);
+		}
+	}
+
+	private ByteBuffer nextRecorded(byte[] key) {
+		List<ByteBuffer> entries = getIndex().get(key);
+		if (entries == null) {
+			return null;
+		}
+		ByteBuffer k = ByteBuffer.wrap(key);
+		AtomicInteger cursor = cursors.get(k);
+		if (cursor == null) {
+			AtomicInteger created = new AtomicInteger();
+			cursor = cursors.putIfAbsent(k, created);
+			if (cursor == null) {
+				cursor = created;
+			}
+		}
+		//once all responses are served keep serving the last
+		return entries.get(Math.min(cursor.getAndIncrement(), entries.size() - 1));
+	}
+
+	private ReplayFile.Index getIndex() {
+		try {
+			return file.index();
+		} catch (NoSuchFileException e) {
+			throw new TestFirstRuntimeException("No recording at " + file.getPath() + ", record with -D" + PROP_MODE + "=" + ReplayMode.Record);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Error loading recording " + file.getPath(), e);
+		}
+	}
+
+	@Override
+	public void onScenarioEnd() {
+		cursors.clear();
+		try {
+			file.closeWriter();
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Error writing recording " + file.getPath(), e);
+		}
+		List<String> failed;
+		synchronized (mismatches) {
+			failed = new ArrayList<>(mismatches);
+			mismatches.clear();
+		}
+		if (!failed.isEmpty()) {
+			StringBuilder sb = new StringBuilder("Recording ").append(file.getPath()).append(" no longer matches ").append(failed.size()).append(" calls:\n");
+			for (String mismatch : failed) {
+				sb.append(mismatch).append('\n');
+			}
+			throw new TestFirstAssertionFailedException(sb.toString());
+		}
+	}
+
+	private boolean isRecorded(Class<?> type) {
+		for (Class<?> iface : interfaces) {
+			if (iface.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isRecorded(Method method) {
+		for (Class<?> iface : interfaces) {
+			if (method.getDeclaringClass().isAssignableFrom(iface)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			method.setAccessible(true);
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static Object invokeObjectMethod(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+		if (method.getName().equals("equals")) {
+			return proxy == args[0];
+		}
+		if (method.getName().equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		}
+		return invokeTarget(target, method, args);
+	}
+
+	private static String describe(Method method, Object[] args) {
+		return method.getDeclaringClass().getSimpleName() + "." + method.getName() + (args == null ? "[]" : Arrays.deepToString(args));
+	}
+}
@@ -0,0 +1,283 @@
+package org.codemucker.testfirst.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Reads and writes recorded request/response pairs. The file is a header followed by records of
+ * 
+ * <pre>
+ * int keyLength, byte[] key, byte outcome, int valueLength, byte[] value
+ * </pre>
+ * 
+ * <p>The key is the method signature followed by the java serialised arguments, and the value the serialised return value or thrown
+ * error. Replay memory maps the file and indexes the keys in place, so values are only copied and deserialised when served. Requests made
+ * more than once keep all their responses, in order. Verify compares responses on their serialised bytes too, so return types need not
+ * implement equals</p>
+ * 
+ * <p>Keys are matched on their serialised bytes, not on equals, so equal arguments only match if they serialise the same. Unordered
+ * collections such as a {@link HashMap} or {@link java.util.HashSet} may serialise equal contents in a different order, and an object
+ * passed more than once in a call serialises as a back reference so won't match equal but distinct objects. Pass sorted or list based
+ * arguments to recorded methods</p>
+ * 
+ * <p>There is one instance per file, so that every recorder of the file in the JVM shares one writer</p>
+ */
+class ReplayFile {
+
+	static final int MAGIC = 0x54465252;
+	static final int VERSION = 1;
+	private static final int HEADER_BYTES = 8;
+
+	static final byte RETURNED = 0;
+	static final byte THREW = 1;
+
+	private static final ConcurrentMap<Path, ReplayFile> files = new ConcurrentHashMap<>();
+
+	private final Path path;
+	private final boolean existed;
+
+	private DataOutputStream out;
+	private boolean truncated = false;
+	private volatile Index index;
+
+	private ReplayFile(Path path) {
+		this.path = path;
+		this.existed = Files.exists(path);
+	}
+
+	/**
+	 * @return the shared instance for the given file
+	 */
+	static ReplayFile of(Path path) {
+		Path key = path.toAbsolutePath().normalize();
+		ReplayFile file = files.get(key);
+		if (file == null) {
+			ReplayFile created = new ReplayFile(path);
+			file = files.putIfAbsent(key, created);
+			if (file == null) {
+				file = created;
+			}
+		}
+		return file;
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return whether the recording existed before it was first used in this JVM, rather than being recorded by it
+	 */
+	boolean existed() {
+		return existed;
+	}
+
+	/**
+	 * Append a record. The file is truncated on the first append in this JVM, and reopened in append mode after {@link #closeWriter()}
+	 */
+	synchronized void append(byte[] key, byte outcome, byte[] value) throws IOException {
+		if (out == null) {
+			openWriter();
+		}
+		out.writeInt(key.length);
+		out.write(key);
+		out.writeByte(outcome);
+		out.writeInt(value.length);
+		out.write(value);
+		index = null;
+	}
+
+	private void openWriter() throws IOException {
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		if (truncated) {
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+		} else {
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			truncated = true;
+		}
+	}
+
+	synchronized void closeWriter() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+		//appends only become visible once flushed
+		index = null;
+	}
+
+	/**
+	 * @return the index of the file, loaded once and shared by every recorder of the file until it is next appended to
+	 */
+	Index index() throws IOException {
+		Index idx = index;
+		if (idx == null) {
+			synchronized (this) {
+				idx = index;
+				if (idx == null) {
+					idx = load();
+					index = idx;
+				}
+			}
+		}
+		return idx;
+	}
+
+	/**
+	 * Map the file and index its records by key
+	 */
+	private Index load() throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new TestFirstRuntimeException("Recording " + path + " is too large to map, " + size + " bytes");
+			}
+			MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, size);
+			if (size < HEADER_BYTES || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+				throw new TestFirstRuntimeException("Not a recording, or unsupported version: " + path);
+			}
+			Map<ByteBuffer, List<ByteBuffer>> entries = new HashMap<>();
+			int pos = HEADER_BYTES;
+			while (pos < size) {
+				int keyLength = buf.getInt(pos);
+				ByteBuffer key = slice(buf, pos + 4, keyLength);
+				pos += 4 + keyLength;
+				//keep the outcome byte at the head of the value
+				int valueLength = buf.getInt(pos + 1);
+				ByteBuffer value = slice(buf, pos, 1 + 4 + valueLength);
+				pos += 1 + 4 + valueLength;
+				List<ByteBuffer> values = entries.get(key);
+				if (values == null) {
+					values = new ArrayList<>(1);
+					entries.put(key, values);
+				}
+				values.add(value);
+			}
+			return new Index(entries);
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+		ByteBuffer dup = buf.duplicate();
+		dup.position(offset);
+		dup.limit(offset + length);
+		return dup.slice();
+	}
+
+	static byte[] keyOf(Method method, Object[] args) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeUTF(method.getDeclaringClass().getName() + "." + method.getName() + Arrays.toString(method.getParameterTypes()));
+			out.writeObject(args == null ? new Object[0] : args);
+		}
+		return bytes.toByteArray();
+	}
+
+	static byte[] serialise(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Recorded keys, mapped to the outcome and serialised value of each response
+	 */
+	static class Index {
+		private final Map<ByteBuffer, List<ByteBuffer>> entries;
+
+		Index(Map<ByteBuffer, List<ByteBuffer>> entries) {
+			this.entries = entries;
+		}
+
+		/**
+		 * @return the responses recorded for the key, in order, or null if none
+		 */
+		List<ByteBuffer> get(byte[] key) {
+			return entries.get(ByteBuffer.wrap(key));
+		}
+
+		int size() {
+			return entries.size();
+		}
+
+		static boolean threw(ByteBuffer entry) {
+			return entry.get(0) == THREW;
+		}
+
+		/**
+		 * @return whether the entry's serialised value is exactly the given bytes
+		 */
+		static boolean sameValue(ByteBuffer entry, byte[] value) {
+			if (entry.getInt(1) != value.length) {
+				return false;
+			}
+			ByteBuffer recorded = entry.duplicate();
+			recorded.position(5);
+			return recorded.slice().equals(ByteBuffer.wrap(value));
+		}
+
+		static Object value(ByteBuffer entry, ClassLoader loader) throws IOException, ClassNotFoundException {
+			byte[] bytes = new byte[entry.getInt(1)];
+			ByteBuffer dup = entry.duplicate();
+			dup.position(5);
+			dup.get(bytes);
+			try (ObjectInputStream in = new LoaderObjectInputStream(new ByteArrayInputStream(bytes), loader)) {
+				return in.readObject();
+			}
+		}
+	}
+
+	/**
+	 * Resolves recorded classes through the dependency's loader, which may not be visible to the framework's
+	 */
+	private static class LoaderObjectInputStream extends ObjectInputStream {
+		private final ClassLoader loader;
+
+		LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+			super(in);
+			this.loader = loader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (loader != null) {
+				try {
+					return Class.forName(desc.getName(), false, loader);
+				} catch (ClassNotFoundException e) {
+					//fall through to the default
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+}
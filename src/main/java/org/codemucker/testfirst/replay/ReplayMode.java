@@ -0,0 +1,19 @@
+package org.codemucker.testfirst.replay;
+
+/**
+ * How a {@link RecordReplay} treats calls to the dependencies it wraps
+ */
+public enum ReplayMode {
+	/**
+	 * Call the real dependency and record each request and response
+	 */
+	Record,
+	/**
+	 * Serve recorded responses without calling the real dependency, failing on requests which weren't recorded
+	 */
+	Replay,
+	/**
+	 * Call the real dependency and fail on scenario end if any response differs from the recording
+	 */
+	Verify
+}
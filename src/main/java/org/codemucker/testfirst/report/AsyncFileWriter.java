@@ -0,0 +1,181 @@
+package org.codemucker.testfirst.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Appends buffers to a file from a single background thread, so callers never block on disk I/O. Queued buffers are drained in batches and
+ * written with a single gathering write. Each buffer is written whole and in the order queued, so records from concurrent callers never interleave
+ */
+@ThreadSafe
+public class AsyncFileWriter implements Closeable {
+
+	private static final Logger log = LogManager.getLogger(AsyncFileWriter.class);
+
+	private static final int MAX_BATCH = 256;
+
+	private static final Object CLOSE = new Object();
+
+	private final Path path;
+	private final FileChannel channel;
+	/**
+	 * Holds {@link ByteBuffer}s to write, {@link CountDownLatch}es to release once everything before them is written, or {@link #CLOSE}
+	 */
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+	private final Thread thread;
+
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	/**
+	 * Open the given file for writing, replacing any existing content
+	 */
+	public AsyncFileWriter(Path path) {
+		this.path = path;
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not open report file " + path, e);
+		}
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainUntilClosed();
+			}
+		}, "testfirst-report-writer-" + path.getFileName());
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Queue the remaining bytes of the given buffer to be written. The buffer must not be modified afterwards
+	 */
+	public void write(ByteBuffer buf) {
+		if (closed) {
+			throw new TestFirstRuntimeException("Writer for " + path + " has been closed");
+		}
+		queue.add(buf);
+	}
+
+	/**
+	 * Wait until everything queued so far has been written
+	 */
+	public void flush() throws IOException {
+		CountDownLatch written = new CountDownLatch(1);
+		queue.add(written);
+		try {
+			written.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + path + " to be written", e);
+		}
+		throwIfFailed();
+	}
+
+	/**
+	 * Write everything queued, then close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.add(CLOSE);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + path + " to be written", e);
+		}
+		throwIfFailed();
+	}
+
+	private void throwIfFailed() throws IOException {
+		if (failure != null) {
+			throw new IOException("Error writing report file " + path, failure);
+		}
+	}
+
+	private void drainUntilClosed() {
+		List<Object> batch = new ArrayList<>(MAX_BATCH);
+		List<ByteBuffer> buffers = new ArrayList<>(MAX_BATCH);
+		boolean done = false;
+		try {
+			while (!done) {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				for (Object item : batch) {
+					if (item instanceof ByteBuffer) {
+						buffers.add((ByteBuffer) item);
+					} else {
+						//write what came before before releasing any waiting flush
+						writeAll(buffers);
+						if (item == CLOSE) {
+							done = true;
+						} else {
+							((CountDownLatch) item).countDown();
+						}
+					}
+				}
+				writeAll(buffers);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.warn("report writer for " + path + " interrupted, unwritten records discarded");
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("error closing report file " + path, e);
+			}
+			//release anyone still waiting on a flush
+			for (Object item : queue) {
+				if (item instanceof CountDownLatch) {
+					((CountDownLatch) item).countDown();
+				}
+			}
+		}
+	}
+
+	private void writeAll(List<ByteBuffer> buffers) {
+		if (buffers.isEmpty()) {
+			return;
+		}
+		if (failure == null) {
+			ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+			try {
+				ByteBuffer last = array[array.length - 1];
+				while (last.hasRemaining()) {
+					channel.write(array);
+				}
+			} catch (IOException e) {
+				log.warn("error writing report file " + path + ", discarding further records", e);
+				failure = e;
+			}
+		}
+		buffers.clear();
+	}
+}
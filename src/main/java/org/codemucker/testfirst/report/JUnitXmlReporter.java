@@ -0,0 +1,104 @@
+package org.codemucker.testfirst.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.Scenario.State;
+
+/**
+ * Writes a JUnit style xml report, one testcase per scenario with the steps as its output. Test cases are streamed as scenarios finish,
+ * so the suite totals are not written. The file is only well formed once closed
+ */
+@ThreadSafe
+public class JUnitXmlReporter implements ScenarioReporter, Closeable {
+
+	private final AsyncFileWriter writer;
+	private final String suiteName;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	public JUnitXmlReporter(Path path, String suiteName) {
+		this.writer = new AsyncFileWriter(path);
+		this.suiteName = suiteName;
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"");
+		Escape.xml(sb, suiteName);
+		sb.append("\">\n");
+		write(sb);
+	}
+
+	public String getSuiteName() {
+		return suiteName;
+	}
+
+	@Override
+	public void report(ScenarioReport report) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("  <testcase classname=\"");
+		Escape.xml(sb, suiteName);
+		sb.append("\" name=\"");
+		Escape.xml(sb, report.getName());
+		sb.append("\" time=\"").append(toSeconds(report.getDurationNanos())).append("\">\n");
+		if (report.getState() == State.Failed) {
+			sb.append("    <failure message=\"");
+			Escape.xml(sb, firstLine(report.getFailure()));
+			sb.append("\">");
+			Escape.xml(sb, report.getFailure());
+			sb.append("</failure>\n");
+		}
+		sb.append("    <system-out>");
+		for (StepReport step : report.getSteps()) {
+			sb.append(step.getIndex()).append(' ').append(step.getKind()).append('(');
+			Escape.xml(sb, step.getArgs());
+			sb.append(") ").append(step.getState()).append(' ').append(toSeconds(step.getDurationNanos())).append("s\n");
+			if (step.getDiagnostics() != null) {
+				Escape.xml(sb, step.getDiagnostics());
+				sb.append('\n');
+			}
+			if (step.getStackSamples() != null) {
+				sb.append("stack samples: ");
+				Escape.xml(sb, step.getStackSamples());
+				sb.append('\n');
+			}
+		}
+		sb.append("</system-out>\n  </testcase>\n");
+		write(sb);
+	}
+
+	private static String toSeconds(long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private static String firstLine(String s) {
+		if (s == null) {
+			return null;
+		}
+		int eol = s.indexOf('\n');
+		return eol < 0 ? s : s.substring(0, eol);
+	}
+
+	private void write(StringBuilder sb) {
+		writer.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	/**
+	 * Close the suite and the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		write(new StringBuilder("</testsuite>\n"));
+		writer.close();
+	}
+}
@@ -0,0 +1,70 @@
+package org.codemucker.testfirst.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+
+/**
+ * Writes one JSON object per scenario per line, including its steps
+ */
+@ThreadSafe
+public class JsonLinesReporter implements ScenarioReporter, Closeable {
+
+	private final AsyncFileWriter writer;
+
+	public JsonLinesReporter(Path path) {
+		this.writer = new AsyncFileWriter(path);
+	}
+
+	@Override
+	public void report(ScenarioReport report) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"scenario\":");
+		Escape.json(sb, report.getName());
+		sb.append(",\"status\":");
+		Escape.json(sb, report.getState().name());
+		sb.append(",\"thread\":");
+		Escape.json(sb, report.getThreadName());
+		sb.append(",\"startMillis\":").append(report.getStartMillis());
+		sb.append(",\"durationNanos\":").append(report.getDurationNanos());
+		sb.append(",\"failure\":");
+		Escape.json(sb, report.getFailure());
+		sb.append(",\"steps\":[");
+		boolean first = true;
+		for (StepReport step : report.getSteps()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append("{\"index\":").append(step.getIndex());
+			sb.append(",\"kind\":");
+			Escape.json(sb, step.getKind());
+			sb.append(",\"args\":");
+			Escape.json(sb, step.getArgs());
+			sb.append(",\"status\":");
+			Escape.json(sb, step.getState().name());
+			sb.append(",\"offsetNanos\":").append(step.getOffsetNanos());
+			sb.append(",\"durationNanos\":").append(step.getDurationNanos());
+			sb.append(",\"diagnostics\":");
+			Escape.json(sb, step.getDiagnostics());
+			sb.append(",\"stackSamples\":");
+			Escape.json(sb, step.getStackSamples());
+			sb.append('}');
+		}
+		sb.append("]}\n");
+		writer.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,67 @@
+package org.codemucker.testfirst.report;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.codemucker.testfirst.Scenario.State;
+
+/**
+ * An immutable record of a finished scenario. Only holds strings and numbers so it never keeps anything the scenario used alive
+ */
+public class ScenarioReport {
+
+	private final String name;
+	private final State state;
+	private final String threadName;
+	private final long startMillis;
+	private final long durationNanos;
+	private final String failure;
+	private final List<StepReport> steps;
+
+	/**
+	 * @param name
+	 * @param state
+	 * @param threadName the thread the scenario ran on
+	 * @param startMillis wall clock time the scenario started
+	 * @param durationNanos
+	 * @param failure why the scenario failed, or null
+	 * @param steps
+	 */
+	public ScenarioReport(String name, State state, String threadName, long startMillis, long durationNanos, String failure, List<StepReport> steps) {
+		this.name = name;
+		this.state = state;
+		this.threadName = threadName;
+		this.startMillis = startMillis;
+		this.durationNanos = durationNanos;
+		this.failure = failure;
+		this.steps = Collections.unmodifiableList(steps);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public List<StepReport> getSteps() {
+		return steps;
+	}
+}
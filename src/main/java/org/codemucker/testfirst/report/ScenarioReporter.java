@@ -0,0 +1,14 @@
+package org.codemucker.testfirst.report;
+
+import org.codemucker.testfirst.Scenario;
+
+/**
+ * Receives a report for each finished scenario. Called on the scenario's own thread, so may be called concurrently. Implementations should
+ * hand off any I/O, such as via an {@link AsyncFileWriter}
+ * 
+ * <p>Register for all scenarios via {@link ScenarioReporters#register(ScenarioReporter)}, or for one via {@link Scenario#reportTo(ScenarioReporter)}</p>
+ */
+public interface ScenarioReporter {
+
+	public void report(ScenarioReport report);
+}
@@ -0,0 +1,77 @@
+package org.codemucker.testfirst.report;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * The reporters every scenario reports to.
+ * 
+ * <p>If the system property {@value #PROP_REPORT_DIR} is set, a {@link JsonLinesReporter} and a {@link JUnitXmlReporter} writing to that
+ * directory are registered on first use, and closed on JVM shutdown</p>
+ */
+public class ScenarioReporters {
+
+	private static final Logger log = LogManager.getLogger(ScenarioReporters.class);
+
+	public static final String PROP_REPORT_DIR = "testfirst.report.dir";
+
+	private static final List<ScenarioReporter> reporters = new CopyOnWriteArrayList<>();
+
+	static {
+		String dir = System.getProperty(PROP_REPORT_DIR);
+		if (dir != null && !dir.trim().isEmpty()) {
+			registerFileReporters(Paths.get(dir));
+		}
+	}
+
+	private ScenarioReporters() {
+	}
+
+	private static void registerFileReporters(Path dir) {
+		//include the process in the name so forked test JVMs don't overwrite each other
+		String id = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+		final JsonLinesReporter json = new JsonLinesReporter(dir.resolve("scenarios-" + id + ".jsonl"));
+		final JUnitXmlReporter xml = new JUnitXmlReporter(dir.resolve("TEST-scenarios-" + id + ".xml"), "scenarios");
+		register(json);
+		register(xml);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				closeQuietly(json);
+				closeQuietly(xml);
+			}
+		}, "testfirst-report-close"));
+	}
+
+	private static void closeQuietly(Closeable c) {
+		try {
+			c.close();
+		} catch (IOException e) {
+			log.warn("error closing scenario report", e);
+		}
+	}
+
+	public static void register(ScenarioReporter reporter) {
+		reporters.add(reporter);
+	}
+
+	public static void unregister(ScenarioReporter reporter) {
+		reporters.remove(reporter);
+	}
+
+	public static boolean hasAny() {
+		return !reporters.isEmpty();
+	}
+
+	public static List<ScenarioReporter> getAll() {
+		return reporters;
+	}
+}
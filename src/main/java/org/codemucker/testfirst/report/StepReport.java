@@ -0,0 +1,80 @@
+package org.codemucker.testfirst.report;
+
+import org.codemucker.testfirst.Scenario.State;
+
+/**
+ * An immutable record of a single step run
+ */
+public class StepReport {
+
+	private final int index;
+	private final String kind;
+	private final String args;
+	private final State state;
+	private final long offsetNanos;
+	private final long durationNanos;
+	private final String diagnostics;
+	private final String stackSamples;
+
+	/**
+	 * @param index 1 based position in the scenario
+	 * @param kind given, when, then...
+	 * @param args summary of the step arguments
+	 * @param state
+	 * @param offsetNanos nanos from scenario start until the step started
+	 * @param durationNanos
+	 * @param diagnostics why the step failed, or null
+	 */
+	public StepReport(int index, String kind, String args, State state, long offsetNanos, long durationNanos, String diagnostics) {
+		this(index, kind, args, state, offsetNanos, durationNanos, diagnostics, null);
+	}
+
+	/**
+	 * @param stackSamples path of the folded stacks sampled while a slow step ran, or null
+	 */
+	public StepReport(int index, String kind, String args, State state, long offsetNanos, long durationNanos, String diagnostics, String stackSamples) {
+		this.index = index;
+		this.kind = kind;
+		this.args = args;
+		this.state = state;
+		this.offsetNanos = offsetNanos;
+		this.durationNanos = durationNanos;
+		this.diagnostics = diagnostics;
+		this.stackSamples = stackSamples;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public String getArgs() {
+		return args;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getOffsetNanos() {
+		return offsetNanos;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public String getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * @return path of the folded stacks sampled while the step ran, or null if it wasn't slow or sampled
+	 */
+	public String getStackSamples() {
+		return stackSamples;
+	}
+}
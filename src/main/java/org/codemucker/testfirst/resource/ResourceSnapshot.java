@@ -0,0 +1,121 @@
+package org.codemucker.testfirst.resource;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * A point in time record of the process resources which commonly leak: live threads, open file descriptors, direct and mapped buffer memory, and
+ * loaded classes.
+ * 
+ * <p>Threads the framework starts itself, all named with the {@value #FRAMEWORK_THREAD_PREFIX} prefix, and the workers of the common fork join
+ * pool are left out, as they outlive scenarios by design</p>
+ */
+public class ResourceSnapshot {
+
+	static final String FRAMEWORK_THREAD_PREFIX = "testfirst-";
+
+	private static final Path PROC_FD = Paths.get("/proc/self/fd");
+
+	private final Map<Long,String> threads;
+	private final Map<String,String> fileDescriptors;
+	private final Map<String,Long> bufferPoolBytes;
+	private final int loadedClassCount;
+
+	private ResourceSnapshot(Map<Long,String> threads, Map<String,String> fileDescriptors, Map<String,Long> bufferPoolBytes, int loadedClassCount) {
+		this.threads = Collections.unmodifiableMap(threads);
+		this.fileDescriptors = fileDescriptors == null ? null : Collections.unmodifiableMap(fileDescriptors);
+		this.bufferPoolBytes = Collections.unmodifiableMap(bufferPoolBytes);
+		this.loadedClassCount = loadedClassCount;
+	}
+
+	public static ResourceSnapshot take() {
+		Map<Long,String> threads = new HashMap<>();
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (!isFrameworkOwned(t)) {
+				threads.put(t.getId(), t.getName());
+			}
+		}
+		Map<String,Long> pools = new LinkedHashMap<>();
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			pools.put(pool.getName(), pool.getMemoryUsed());
+		}
+		return new ResourceSnapshot(threads, readFileDescriptors(), pools, ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+	}
+
+	private static boolean isFrameworkOwned(Thread t) {
+		if (t.getName().startsWith(FRAMEWORK_THREAD_PREFIX)) {
+			return true;
+		}
+		return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * @return open descriptors and what they point to, or null if not supported on this platform
+	 */
+	private static Map<String,String> readFileDescriptors() {
+		if (!Files.isDirectory(PROC_FD)) {
+			return null;
+		}
+		Map<String,String> fds = new HashMap<>();
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(PROC_FD)) {
+			//the directory stream's own descriptor is open while listing, pointing at the real fd directory
+			String listing = PROC_FD.toRealPath().toString();
+			for (Path fd : dir) {
+				String target;
+				try {
+					target = Files.readSymbolicLink(fd).toString();
+				} catch (IOException e) {
+					//closed by another thread while listing
+					continue;
+				}
+				if (!target.equals(listing)) {
+					fds.put(fd.getFileName().toString(), target);
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return fds;
+	}
+
+	/**
+	 * @return live thread names by thread id
+	 */
+	public Map<Long,String> getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return open file descriptor targets by descriptor number, or null if not supported on this platform
+	 */
+	public Map<String,String> getFileDescriptors() {
+		return fileDescriptors;
+	}
+
+	/**
+	 * @return memory used by each buffer pool, normally 'direct' and 'mapped'
+	 */
+	public Map<String,Long> getBufferPoolBytes() {
+		return bufferPoolBytes;
+	}
+
+	public long getBufferPoolBytes(String pool) {
+		Long bytes = bufferPoolBytes.get(pool);
+		return bytes == null ? 0 : bytes;
+	}
+
+	public int getLoadedClassCount() {
+		return loadedClassCount;
+	}
+}
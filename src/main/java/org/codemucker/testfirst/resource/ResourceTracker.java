@@ -0,0 +1,171 @@
+package org.codemucker.testfirst.resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.IRunOnScenarioStart;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+
+/**
+ * Fails a scenario which leaves behind process resources that escaped the injector: threads, file descriptors, direct or mapped buffer memory, or
+ * loaded classes. Register via {@link org.codemucker.testfirst.Scenario#trackResources(ResourceTracker)}, which snapshots on scenario start and
+ * compares once the scenario has been torn down.
+ * 
+ * <p>As threads exit and buffers are freed asynchronously, growth is rechecked (requesting garbage collection) until the settle time expires before
+ * failing. Threads and file descriptors are compared by count, so a worker replaced or a file reopened during the scenario is not a leak; the
+ * ones new since the start are listed only to help find the culprit. By default no growth in threads, file descriptors or buffer memory is allowed, and class loading is not checked. Threads owned by the
+ * framework or the common fork join pool are never counted, see {@link ResourceSnapshot}</p>
+ */
+public class ResourceTracker implements IRunOnScenarioStart, IRunOnScenarioEnd {
+
+	private static final String DIRECT_POOL = "direct";
+	private static final String MAPPED_POOL = "mapped";
+
+	private int allowedNewThreads = 0;
+	private int allowedNewFileDescriptors = 0;
+	private long allowedDirectBytes = 0;
+	private long allowedMappedBytes = 0;
+	private int allowedNewClasses = -1;
+	private long settleMillis = 2000;
+
+	private ResourceSnapshot start;
+
+	public ResourceTracker allowNewThreads(int count) {
+		this.allowedNewThreads = count;
+		return this;
+	}
+
+	public ResourceTracker allowNewFileDescriptors(int count) {
+		this.allowedNewFileDescriptors = count;
+		return this;
+	}
+
+	public ResourceTracker allowDirectMemoryGrowth(long bytes) {
+		this.allowedDirectBytes = bytes;
+		return this;
+	}
+
+	public ResourceTracker allowMappedMemoryGrowth(long bytes) {
+		this.allowedMappedBytes = bytes;
+		return this;
+	}
+
+	/**
+	 * @param count how many more classes may be loaded, or -1 to not check
+	 */
+	public ResourceTracker allowLoadedClassGrowth(int count) {
+		this.allowedNewClasses = count;
+		return this;
+	}
+
+	/**
+	 * How long to wait for resources to be released before failing
+	 */
+	public ResourceTracker settleMillis(long millis) {
+		this.settleMillis = millis;
+		return this;
+	}
+
+	@Override
+	public void onScenarioStart() {
+		start = ResourceSnapshot.take();
+	}
+
+	/**
+	 * Compare against the start snapshot, waiting up to the settle time for resources to be released
+	 * 
+	 * @throws TestFirstAssertionFailedException describing what grew beyond the allowed thresholds
+	 */
+	@Override
+	public void onScenarioEnd() {
+		if (start == null) {
+			return;
+		}
+		long deadline = System.currentTimeMillis() + settleMillis;
+		List<String> problems = findProblems(ResourceSnapshot.take());
+		long pause = 10;
+		while (!problems.isEmpty() && System.currentTimeMillis() < deadline) {
+			System.gc();
+			try {
+				Thread.sleep(pause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			pause = Math.min(pause * 2, 200);
+			problems = findProblems(ResourceSnapshot.take());
+		}
+		start = null;
+		if (!problems.isEmpty()) {
+			StringBuilder sb = new StringBuilder("Scenario leaked resources:");
+			for (String problem : problems) {
+				sb.append("\n").append(problem);
+			}
+			throw new TestFirstAssertionFailedException(sb.toString());
+		}
+	}
+
+	private List<String> findProblems(ResourceSnapshot end) {
+		List<String> problems = new ArrayList<>();
+		
+		//threads come and go under the scenario (pools replacing workers), so only the count is checked and new ones are listed to help diagnose
+		int threadGrowth = end.getThreads().size() - start.getThreads().size();
+		if (threadGrowth > allowedNewThreads) {
+			List<String> newThreads = new ArrayList<>();
+			for (Map.Entry<Long,String> thread : end.getThreads().entrySet()) {
+				if (!start.getThreads().containsKey(thread.getKey())) {
+					newThreads.add(thread.getValue());
+				}
+			}
+			problems.add(threadGrowth + " more threads (allowed " + allowedNewThreads + "), new since start: " + newThreads);
+		}
+		
+		if (start.getFileDescriptors() != null && end.getFileDescriptors() != null) {
+			int fdGrowth = end.getFileDescriptors().size() - start.getFileDescriptors().size();
+			if (fdGrowth > allowedNewFileDescriptors) {
+				problems.add(fdGrowth + " more file descriptors (allowed " + allowedNewFileDescriptors + "), targets opened more often than at start: "
+						+ moreOpen(start.getFileDescriptors(), end.getFileDescriptors()));
+			}
+		}
+		
+		checkGrowth(problems, "direct buffer memory", start.getBufferPoolBytes(DIRECT_POOL), end.getBufferPoolBytes(DIRECT_POOL), allowedDirectBytes);
+		checkGrowth(problems, "mapped buffer memory", start.getBufferPoolBytes(MAPPED_POOL), end.getBufferPoolBytes(MAPPED_POOL), allowedMappedBytes);
+		if (allowedNewClasses >= 0) {
+			checkGrowth(problems, "loaded classes", start.getLoadedClassCount(), end.getLoadedClassCount(), allowedNewClasses);
+		}
+		return problems;
+	}
+
+	/**
+	 * Descriptor numbers are reused, so match by target rather than number
+	 */
+	private static List<String> moreOpen(Map<String,String> before, Map<String,String> after) {
+		Map<String,Integer> counts = new HashMap<>();
+		for (String target : after.values()) {
+			Integer count = counts.get(target);
+			counts.put(target, count == null ? 1 : count + 1);
+		}
+		for (String target : before.values()) {
+			Integer count = counts.get(target);
+			if (count != null) {
+				counts.put(target, count - 1);
+			}
+		}
+		List<String> targets = new ArrayList<>();
+		for (Map.Entry<String,Integer> target : counts.entrySet()) {
+			if (target.getValue() > 0) {
+				targets.add(target.getValue() + " x " + target.getKey());
+			}
+		}
+		return targets;
+	}
+
+	private static void checkGrowth(List<String> problems, String what, long before, long after, long allowed) {
+		if (after - before > allowed) {
+			problems.add(what + " grew by " + (after - before) + " from " + before + " to " + after + " (allowed " + allowed + ")");
+		}
+	}
+}
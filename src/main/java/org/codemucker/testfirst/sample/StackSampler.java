@@ -0,0 +1,264 @@
+package org.codemucker.testfirst.sample;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.Scenario;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Samples the stack of the thread running a step at a fixed interval, keeping the samples as a folded stack file only if the step turned
+ * out slower than the threshold. Files are in the collapsed stack format read by flame graph tools, one line per distinct stack of
+ * semicolon separated frames from the root, followed by the sample count. The file is linked from the step's report and any failure.
+ * 
+ * <p>The first sample is only taken after one interval, so steps faster than the interval cost a schedule and cancel only.</p>
+ * 
+ * <p>Scenarios sample with {@link #getDefault()}, or the sampler given via {@link Scenario#sampleWith(StackSampler)}. If the system
+ * property {@value #PROP_THRESHOLD_MILLIS} is set a default sampler is created writing to {@value #PROP_DIR}, or
+ * {@value #DEFAULT_DIR}</p>
+ */
+@ThreadSafe
+public class StackSampler {
+
+	private static final Logger log = LogManager.getLogger(StackSampler.class);
+
+	public static final String PROP_THRESHOLD_MILLIS = "testfirst.sample.threshold.ms";
+	public static final String PROP_INTERVAL_MILLIS = "testfirst.sample.interval.ms";
+	public static final String PROP_DIR = "testfirst.sample.dir";
+	public static final String DEFAULT_DIR = "target/testfirst-samples";
+
+	private static final long DEFAULT_INTERVAL_MILLIS = 10;
+	private static final int MAX_DEPTH = 256;
+
+	private static volatile StackSampler defaultSampler;
+
+	static {
+		String threshold = System.getProperty(PROP_THRESHOLD_MILLIS);
+		if (threshold != null && !threshold.trim().isEmpty()) {
+			long interval = Long.getLong(PROP_INTERVAL_MILLIS, DEFAULT_INTERVAL_MILLIS);
+			defaultSampler = new StackSampler(Paths.get(System.getProperty(PROP_DIR, DEFAULT_DIR)), Long.parseLong(threshold.trim()), interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private final Path dir;
+	private final long thresholdNanos;
+	private final long intervalNanos;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * @param dir where to write the folded stacks of slow steps
+	 * @param threshold steps taking at least this long keep their samples
+	 * @param interval time between samples
+	 */
+	public StackSampler(Path dir, long threshold, long interval, TimeUnit unit) {
+		Preconditions.checkNotNull(dir, "expect dir");
+		Preconditions.checkArgument(threshold >= 0, "expect threshold >= 0");
+		Preconditions.checkArgument(interval > 0, "expect interval > 0");
+		this.dir = dir;
+		this.thresholdNanos = unit.toNanos(threshold);
+		this.intervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * @return the sampler scenarios use unless given another, or null if none
+	 */
+	public static StackSampler getDefault() {
+		return defaultSampler;
+	}
+
+	/**
+	 * Set the sampler scenarios created from now on use. Pass null to stop sampling
+	 */
+	public static void setDefault(StackSampler sampler) {
+		defaultSampler = sampler;
+	}
+
+	public Path getDir() {
+		return dir;
+	}
+
+	/**
+	 * Start sampling the current thread
+	 */
+	public Session start() {
+		Session session = new Session(Thread.currentThread().getId());
+		session.future = executor().scheduleAtFixedRate(session, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+		return session;
+	}
+
+	private synchronized ScheduledThreadPoolExecutor executor() {
+		if (executor == null) {
+			executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "testfirst-stack-sampler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Stop sampling and release the sampler thread. Sampling restarts on the next {@link #start()}
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the number of sessions still sampling
+	 */
+	synchronized int getOpenSessions() {
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+
+	/**
+	 * The samples of one step run. Samples are only touched by the sampler thread until stopped
+	 */
+	public class Session implements Runnable {
+		private final long threadId;
+		private final Map<String, int[]> stacks = new HashMap<>();
+		private int samples;
+		private volatile ScheduledFuture<?> future;
+
+		Session(long threadId) {
+			this.threadId = threadId;
+		}
+
+		@Override
+		public synchronized void run() {
+			ThreadInfo info = threads.getThreadInfo(threadId, MAX_DEPTH);
+			if (info == null) {
+				return;
+			}
+			StackTraceElement[] frames = info.getStackTrace();
+			if (frames.length == 0) {
+				return;
+			}
+			String stack = fold(frames);
+			int[] count = stacks.get(stack);
+			if (count == null) {
+				stacks.put(stack, new int[] { 1 });
+			} else {
+				count[0]++;
+			}
+			samples++;
+		}
+
+		/**
+		 * Stop sampling, keeping the samples if the step was slow
+		 * 
+		 * @param durationNanos how long the step took
+		 * @param name to name the file by, such as the scenario and step
+		 * @return the path of the folded stacks, or null if the step was fast or nothing was sampled
+		 */
+		public String stop(long durationNanos, String name) {
+			ScheduledFuture<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+			if (durationNanos < thresholdNanos) {
+				return null;
+			}
+			synchronized (this) {
+				if (samples == 0) {
+					return null;
+				}
+				Path file = dir.resolve(fileName(name));
+				try {
+					write(file);
+					return file.toString();
+				} catch (IOException e) {
+					log.warn("error writing stack samples to " + file, e);
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * Stop sampling and discard the samples, for a step that never finished
+		 */
+		public void cancel() {
+			ScheduledFuture<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+			synchronized (this) {
+				stacks.clear();
+				samples = 0;
+			}
+		}
+
+		private void write(Path file) throws IOException {
+			Files.createDirectories(dir);
+			List<Map.Entry<String, int[]>> sorted = new ArrayList<>(stacks.entrySet());
+			Collections.sort(sorted, new Comparator<Map.Entry<String, int[]>>() {
+				@Override
+				public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+					return Integer.compare(b.getValue()[0], a.getValue()[0]);
+				}
+			});
+			try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, int[]> e : sorted) {
+					w.write(e.getKey());
+					w.write(' ');
+					w.write(Integer.toString(e.getValue()[0]));
+					w.write('\n');
+				}
+			}
+		}
+
+		public int getSamples() {
+			synchronized (this) {
+				return samples;
+			}
+		}
+	}
+
+	/**
+	 * Join frames root first, as flame graph tools expect
+	 */
+	static String fold(StackTraceElement[] frames) {
+		StringBuilder sb = new StringBuilder(frames.length * 48);
+		for (int i = frames.length - 1; i >= 0; i--) {
+			if (sb.length() > 0) {
+				sb.append(';');
+			}
+			sb.append(frames[i].getClassName()).append('.').append(frames[i].getMethodName());
+		}
+		return sb.toString();
+	}
+
+	private static String fileName(String name) {
+		return name.replaceAll("[^A-Za-z0-9._-]", "_") + ".folded";
+	}
+}
@@ -0,0 +1,12 @@
+package org.codemucker.testfirst.schedule;
+
+/**
+ * A task which knows whether its last passing run still holds, so the {@link ScenarioScheduler} can skip it and report a cached pass
+ */
+public interface CacheableTask extends ScenarioTask {
+
+	/**
+	 * @return true if the task passed before and nothing it depends on has changed since. Should be cheap relative to running the task
+	 */
+	public boolean isUpToDate();
+}
@@ -0,0 +1,146 @@
+package org.codemucker.testfirst.schedule;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Durations and outcomes of previous scenario runs, keyed by scenario name and persisted to a local tab separated file. Durations are smoothed
+ * across runs so a single slow run doesn't reorder the suite
+ */
+@ThreadSafe
+public class ScenarioHistory {
+
+	private static final Logger log = LogManager.getLogger(ScenarioHistory.class);
+
+	public static final long UNKNOWN = -1;
+
+	private final Path path;
+	private final Map<String,Entry> entries = new TreeMap<>();
+
+	private static class Entry {
+		long durationNanos;
+		boolean failed;
+
+		Entry(long durationNanos, boolean failed) {
+			this.durationNanos = durationNanos;
+			this.failed = failed;
+		}
+	}
+
+	private ScenarioHistory(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Load the history from the given file. A missing or unreadable file gives an empty history
+	 */
+	public static ScenarioHistory load(Path path) {
+		ScenarioHistory history = new ScenarioHistory(path);
+		if (Files.exists(path)) {
+			try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] parts = line.split("\t");
+					if (parts.length == 3) {
+						history.entries.put(unescape(parts[0]), new Entry(Long.parseLong(parts[1]), Boolean.parseBoolean(parts[2])));
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				log.warn("ignoring unreadable scenario history " + path, e);
+				history.entries.clear();
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * @return the expected duration of the named scenario, or {@link #UNKNOWN}
+	 */
+	public synchronized long getDurationNanos(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? UNKNOWN : entry.durationNanos;
+	}
+
+	/**
+	 * @return true if the named scenario failed on its last run
+	 */
+	public synchronized boolean hasFailed(String name) {
+		Entry entry = entries.get(name);
+		return entry != null && entry.failed;
+	}
+
+	/**
+	 * @return the mean expected duration of all known scenarios, or {@link #UNKNOWN} if none
+	 */
+	public synchronized long getMeanDurationNanos() {
+		if (entries.isEmpty()) {
+			return UNKNOWN;
+		}
+		long total = 0;
+		for (Entry entry : entries.values()) {
+			total += entry.durationNanos;
+		}
+		return total / entries.size();
+	}
+
+	public synchronized void record(String name, long durationNanos, boolean failed) {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			entries.put(name, new Entry(durationNanos, failed));
+		} else {
+			entry.durationNanos = (entry.durationNanos + durationNanos) / 2;
+			entry.failed = failed;
+		}
+	}
+
+	/**
+	 * Write the history back to its file, replacing it in one step so concurrent readers never see a partial file
+	 */
+	public synchronized void save() {
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+					writer.write(escape(entry.getKey()) + "\t" + entry.getValue().durationNanos + "\t" + entry.getValue().failed);
+					writer.newLine();
+				}
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not save scenario history " + path, e);
+		}
+	}
+
+	private static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	private static String unescape(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\\' && i + 1 < name.length()) {
+				char next = name.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,171 @@
+package org.codemucker.testfirst.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs a batch of scenarios across workers ordered to cut the tail of the run. Scenarios which failed last time go first for fast feedback,
+ * then the rest longest first using the durations in a {@link ScenarioHistory}. Each worker is dealt its own queue, balanced by expected
+ * duration, and once empty steals the shortest remaining tasks from the others. Durations and outcomes are recorded back to the history
+ * and saved after each run. Up to date {@link CacheableTask}s are skipped and reported as cached passes, leaving their history as is
+ */
+public class ScenarioScheduler {
+
+	private final ScenarioHistory history;
+	private final int workers;
+
+	public ScenarioScheduler(ScenarioHistory history, int workers) {
+		Preconditions.checkNotNull(history, "expect history");
+		Preconditions.checkArgument(workers > 0, "expect at least one worker");
+		this.history = history;
+		this.workers = workers;
+	}
+
+	/**
+	 * @return the tasks in the order they will be started, failed last time first, then longest first
+	 */
+	public List<ScenarioTask> order(List<? extends ScenarioTask> tasks) {
+		final long defaultNanos = Math.max(0, history.getMeanDurationNanos());
+		List<ScenarioTask> ordered = new ArrayList<>(tasks);
+		Collections.sort(ordered, new Comparator<ScenarioTask>() {
+			@Override
+			public int compare(ScenarioTask a, ScenarioTask b) {
+				boolean aFailed = history.hasFailed(a.getName());
+				boolean bFailed = history.hasFailed(b.getName());
+				if (aFailed != bFailed) {
+					return aFailed ? -1 : 1;
+				}
+				return Long.compare(expectedNanos(b, defaultNanos), expectedNanos(a, defaultNanos));
+			}
+		});
+		return ordered;
+	}
+
+	private long expectedNanos(ScenarioTask task, long defaultNanos) {
+		long nanos = history.getDurationNanos(task.getName());
+		return nanos == ScenarioHistory.UNKNOWN ? defaultNanos : nanos;
+	}
+
+	public ScheduleResults run(List<? extends ScenarioTask> tasks) {
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			return run(tasks, executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run the tasks on the given executor, which must be able to run all the workers at once
+	 */
+	public ScheduleResults run(List<? extends ScenarioTask> tasks, ExecutorService executor) {
+		long start = System.nanoTime();
+		final List<ConcurrentLinkedDeque<ScenarioTask>> queues = deal(order(tasks), workers);
+		final Queue<TaskResult> results = new ConcurrentLinkedQueue<>();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			final int worker = i;
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					ScenarioTask task;
+					while ((task = next(queues, worker)) != null) {
+						results.add(runTask(task, worker));
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TestFirstRuntimeException("Interrupted while running scenarios", e);
+			} catch (ExecutionException e) {
+				throw new TestFirstRuntimeException("Error running scenarios", e.getCause());
+			}
+		}
+		history.save();
+		return new ScheduleResults(new ArrayList<>(results), System.nanoTime() - start);
+	}
+
+	/**
+	 * Split the tasks into the given number of parts with roughly equal expected duration, each in start order. Deterministic for the same
+	 * tasks and history, so separate processes can each pick their own part
+	 */
+	public List<List<ScenarioTask>> partition(List<? extends ScenarioTask> tasks, int parts) {
+		Preconditions.checkArgument(parts > 0, "expect at least one part");
+		List<List<ScenarioTask>> partitions = new ArrayList<>(parts);
+		for (ConcurrentLinkedDeque<ScenarioTask> queue : deal(order(tasks), parts)) {
+			partitions.add(new ArrayList<>(queue));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Deal the ordered tasks to the queue with the least expected work so far, so each queue stays in start order
+	 */
+	private List<ConcurrentLinkedDeque<ScenarioTask>> deal(List<ScenarioTask> ordered, int workers) {
+		long defaultNanos = Math.max(0, history.getMeanDurationNanos());
+		List<ConcurrentLinkedDeque<ScenarioTask>> queues = new ArrayList<>(workers);
+		long[] load = new long[workers];
+		for (int i = 0; i < workers; i++) {
+			queues.add(new ConcurrentLinkedDeque<ScenarioTask>());
+		}
+		for (ScenarioTask task : ordered) {
+			int least = 0;
+			for (int i = 1; i < workers; i++) {
+				if (load[i] < load[least]) {
+					least = i;
+				}
+			}
+			queues.get(least).addLast(task);
+			//count each task as at least 1 so unknown durations still spread out
+			load[least] += Math.max(1, expectedNanos(task, defaultNanos));
+		}
+		return queues;
+	}
+
+	private static ScenarioTask next(List<ConcurrentLinkedDeque<ScenarioTask>> queues, int worker) {
+		ScenarioTask task = queues.get(worker).pollFirst();
+		if (task != null) {
+			return task;
+		}
+		for (int i = 1; i < queues.size(); i++) {
+			task = queues.get((worker + i) % queues.size()).pollLast();
+			if (task != null) {
+				return task;
+			}
+		}
+		return null;
+	}
+
+	private TaskResult runTask(ScenarioTask task, int worker) {
+		if (task instanceof CacheableTask && ((CacheableTask) task).isUpToDate()) {
+			return new TaskResult(task.getName(), worker, null, 0, true);
+		}
+		long start = System.nanoTime();
+		Throwable failure = null;
+		try {
+			task.run();
+		} catch (Exception | AssertionError e) {
+			failure = e;
+		}
+		long duration = System.nanoTime() - start;
+		history.record(task.getName(), duration, failure != null);
+		return new TaskResult(task.getName(), worker, failure, duration);
+	}
+}
@@ -0,0 +1,16 @@
+package org.codemucker.testfirst.schedule;
+
+import org.codemucker.testfirst.Scenario;
+
+/**
+ * A unit of work for the {@link ScenarioScheduler}, usually building and running a single {@link Scenario}
+ */
+public interface ScenarioTask {
+
+	/**
+	 * @return the key the task's history is recorded under. Should match the {@link Scenario#getName()} of the scenario run
+	 */
+	public String getName();
+
+	public void run() throws Exception;
+}
@@ -0,0 +1,84 @@
+package org.codemucker.testfirst.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+
+/**
+ * The results of a {@link ScenarioScheduler} run, in the order the tasks finished
+ */
+public class ScheduleResults {
+
+	/**
+	 * Limit how many failures are described in an assertion message
+	 */
+	private static final int MAX_DESCRIBED_FAILURES = 10;
+
+	private final List<TaskResult> results;
+	private final long wallNanos;
+
+	public ScheduleResults(List<TaskResult> results, long wallNanos) {
+		this.results = Collections.unmodifiableList(results);
+		this.wallNanos = wallNanos;
+	}
+
+	public List<TaskResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return the elapsed time of the whole run
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public List<TaskResult> getFailures() {
+		List<TaskResult> failures = new ArrayList<>();
+		for (TaskResult result : results) {
+			if (!result.hasPassed()) {
+				failures.add(result);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * @return how many tasks were skipped and reported as cached passes
+	 */
+	public int getCachedCount() {
+		int cached = 0;
+		for (TaskResult result : results) {
+			if (result.isCached()) {
+				cached++;
+			}
+		}
+		return cached;
+	}
+
+	public boolean hasAllPassed() {
+		return getFailures().isEmpty();
+	}
+
+	/**
+	 * @throws TestFirstAssertionFailedException describing the failed tasks, if any failed
+	 */
+	public void assertAllPassed() {
+		List<TaskResult> failures = getFailures();
+		if (failures.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(failures.size()).append(" of ").append(results.size()).append(" scenarios failed\n");
+		for (int i = 0; i < failures.size() && i < MAX_DESCRIBED_FAILURES; i++) {
+			TaskResult failure = failures.get(i);
+			sb.append("\n").append(failure.getName()).append("  <-- ").append(failure.getFailure().getMessage()).append("\n");
+		}
+		if (failures.size() > MAX_DESCRIBED_FAILURES) {
+			sb.append("\n... ").append(failures.size() - MAX_DESCRIBED_FAILURES).append(" more failed scenarios");
+		}
+		throw new TestFirstAssertionFailedException(sb.toString(), failures.get(0).getFailure());
+	}
+}
@@ -0,0 +1,61 @@
+package org.codemucker.testfirst.schedule;
+
+/**
+ * The outcome of running a single {@link ScenarioTask}
+ */
+public class TaskResult {
+
+	private final String name;
+	private final int worker;
+	private final Throwable failure;
+	private final long durationNanos;
+	private final boolean cached;
+
+	public TaskResult(String name, int worker, Throwable failure, long durationNanos) {
+		this(name, worker, failure, durationNanos, false);
+	}
+
+	/**
+	 * @param cached true if the task was skipped as a {@link CacheableTask} whose last pass still holds
+	 */
+	public TaskResult(String name, int worker, Throwable failure, long durationNanos, boolean cached) {
+		this.name = name;
+		this.worker = worker;
+		this.failure = failure;
+		this.durationNanos = durationNanos;
+		this.cached = cached;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the worker which ran the task
+	 */
+	public int getWorker() {
+		return worker;
+	}
+
+	public boolean hasPassed() {
+		return failure == null;
+	}
+
+	/**
+	 * @return the failure, or null if passed
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * @return true if the task wasn't run, but reported as passed from a previous run
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+}
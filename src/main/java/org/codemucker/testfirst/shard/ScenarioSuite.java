@@ -0,0 +1,14 @@
+package org.codemucker.testfirst.shard;
+
+import java.util.List;
+
+import org.codemucker.testfirst.schedule.ScenarioTask;
+
+/**
+ * The scenarios to shard across JVMs. Implementations need a public no arg constructor, as each worker JVM creates its own instance, and
+ * must return the same tasks in the same order every time
+ */
+public interface ScenarioSuite {
+
+	public List<ScenarioTask> getTasks();
+}
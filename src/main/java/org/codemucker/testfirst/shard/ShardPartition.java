@@ -0,0 +1,15 @@
+package org.codemucker.testfirst.shard;
+
+/**
+ * How a suite's scenarios are split across shards
+ */
+public enum ShardPartition {
+	/**
+	 * By the hash of the scenario name. Stable as scenarios are added and removed
+	 */
+	Hash,
+	/**
+	 * Balanced by the durations in the scenario history, so shards finish at about the same time
+	 */
+	Duration;
+}
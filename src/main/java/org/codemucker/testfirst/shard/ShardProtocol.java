@@ -0,0 +1,70 @@
+package org.codemucker.testfirst.shard;
+
+import org.codemucker.testfirst.schedule.TaskResult;
+
+/**
+ * The line format workers report results to the runner in over stdout. Lines without the prefix are ordinary output from the scenarios
+ */
+final class ShardProtocol {
+
+	static final String RESULT_PREFIX = "##testfirst-result\t";
+
+	private ShardProtocol() {
+	}
+
+	static String format(TaskResult result) {
+		StringBuilder sb = new StringBuilder(RESULT_PREFIX);
+		sb.append(escape(result.getName())).append('\t');
+		sb.append(result.getDurationNanos()).append('\t');
+		sb.append(result.hasPassed()).append('\t');
+		if (!result.hasPassed()) {
+			sb.append(escape(String.valueOf(result.getFailure())));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the result, or null if the line is not a result
+	 */
+	static TaskResult parse(String line, int shard) {
+		if (!line.startsWith(RESULT_PREFIX)) {
+			return null;
+		}
+		String[] parts = line.substring(RESULT_PREFIX.length()).split("\t", -1);
+		if (parts.length != 4) {
+			return null;
+		}
+		boolean passed = Boolean.parseBoolean(parts[2]);
+		Throwable failure = passed ? null : new ShardFailure(unescape(parts[3]));
+		return new TaskResult(unescape(parts[0]), shard, failure, Long.parseLong(parts[1]));
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				char next = s.charAt(++i);
+				sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A failure reported by a worker JVM, carrying the description of the original failure
+	 */
+	static class ShardFailure extends AssertionError {
+		private static final long serialVersionUID = 1L;
+
+		ShardFailure(String description) {
+			super(description);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package org.codemucker.testfirst.shard;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.codemucker.testfirst.report.ScenarioReporters;
+import org.codemucker.testfirst.schedule.ScenarioHistory;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+import org.codemucker.testfirst.schedule.ScheduleResults;
+import org.codemucker.testfirst.schedule.TaskResult;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Runs a {@link ScenarioSuite} across a number of forked worker JVMs on this host, for scenarios which touch static state and so can't share
+ * a JVM. Each worker runs a deterministic shard of the suite (see {@link ShardPartition}) and streams results back over its stdout, which
+ * are merged into a single {@link ScheduleResults}. No coordinator is needed beyond this process
+ * 
+ * <p>If a history is given, shards can be balanced by duration and the history is updated once all workers finish. If a report directory is
+ * given each worker writes its reports to its own sub directory (see {@link ScenarioReporters#PROP_REPORT_DIR}), and the JSON lines reports
+ * are merged into a single scenarios.jsonl. The JUnit xml reports are left per shard, as CI tools collect them by pattern</p>
+ */
+public class ShardRunner {
+
+	private static final Logger log = LogManager.getLogger(ShardRunner.class);
+
+	private final Class<? extends ScenarioSuite> suiteClass;
+	private final int shards;
+	private ShardPartition partition = ShardPartition.Hash;
+	private Path historyPath;
+	private Path reportDir;
+	private final List<String> jvmArgs = new ArrayList<>();
+
+	public ShardRunner(Class<? extends ScenarioSuite> suiteClass, int shards) {
+		Preconditions.checkNotNull(suiteClass, "expect suite class");
+		Preconditions.checkArgument(shards > 0, "expect at least one shard");
+		this.suiteClass = suiteClass;
+		this.shards = shards;
+	}
+
+	public ShardRunner partition(ShardPartition partition) {
+		this.partition = Preconditions.checkNotNull(partition, "expect partition");
+		return this;
+	}
+
+	public ShardRunner history(Path historyPath) {
+		this.historyPath = historyPath;
+		return this;
+	}
+
+	public ShardRunner reportDir(Path reportDir) {
+		this.reportDir = reportDir;
+		return this;
+	}
+
+	/**
+	 * Extra arguments for each worker JVM, such as heap settings
+	 */
+	public ShardRunner jvmArgs(String... args) {
+		jvmArgs.addAll(Arrays.asList(args));
+		return this;
+	}
+
+	public ScheduleResults run() {
+		long start = System.nanoTime();
+		ScenarioHistory history = historyPath == null ? null : ScenarioHistory.load(historyPath);
+		List<ScenarioTask> tasks;
+		try {
+			tasks = ShardWorker.newSuite(suiteClass.getName()).getTasks();
+		} catch (ReflectiveOperationException e) {
+			throw new TestFirstRuntimeException("Could not create suite " + suiteClass.getName() + ", expect a public no arg constructor", e);
+		}
+
+		Queue<TaskResult> results = new ConcurrentLinkedQueue<>();
+		List<Process> processes = new ArrayList<>();
+		List<Thread> readers = new ArrayList<>();
+		try {
+			for (int shard = 0; shard < shards; shard++) {
+				Process process = fork(shard);
+				processes.add(process);
+				readers.add(startReader(process, shard, results));
+			}
+			for (int shard = 0; shard < shards; shard++) {
+				int exitCode = processes.get(shard).waitFor();
+				readers.get(shard).join();
+				addUnreported(results, ShardWorker.tasksFor(tasks, shard, shards, partition, history), shard, exitCode);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestFirstRuntimeException("Interrupted waiting for shards of " + suiteClass.getName(), e);
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+		}
+
+		if (history != null) {
+			for (TaskResult result : results) {
+				history.record(result.getName(), result.getDurationNanos(), !result.hasPassed());
+			}
+			history.save();
+		}
+		if (reportDir != null) {
+			mergeJsonReports();
+		}
+		return new ScheduleResults(new ArrayList<>(results), System.nanoTime() - start);
+	}
+
+	private Process fork(int shard) {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		if (reportDir != null) {
+			command.add("-D" + ScenarioReporters.PROP_REPORT_DIR + "=" + shardReportDir(shard));
+		}
+		command.add(ShardWorker.class.getName());
+		command.add(suiteClass.getName());
+		command.add(Integer.toString(shard));
+		command.add(Integer.toString(shards));
+		command.add(partition.name());
+		command.add(historyPath == null ? ShardWorker.NO_HISTORY : historyPath.toAbsolutePath().toString());
+		try {
+			return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not fork shard " + shard + " with " + command, e);
+		}
+	}
+
+	private Path shardReportDir(int shard) {
+		return reportDir.resolve("shard-" + shard).toAbsolutePath();
+	}
+
+	private static Thread startReader(final Process process, final int shard, final Queue<TaskResult> results) {
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						TaskResult result = ShardProtocol.parse(line, shard);
+						if (result != null) {
+							results.add(result);
+						} else {
+							System.out.println("[shard " + shard + "] " + line);
+						}
+					}
+				} catch (IOException e) {
+					log.warn("error reading results of shard " + shard, e);
+				}
+			}
+		}, "testfirst-shard-reader-" + shard);
+		reader.setDaemon(true);
+		reader.start();
+		return reader;
+	}
+
+	/**
+	 * Fail any task a shard didn't report on, such as when the worker JVM died part way through
+	 */
+	private static void addUnreported(Queue<TaskResult> results, List<ScenarioTask> expected, int shard, int exitCode) {
+		Set<String> reported = new HashSet<>();
+		for (TaskResult result : results) {
+			if (result.getWorker() == shard) {
+				reported.add(result.getName());
+			}
+		}
+		for (ScenarioTask task : expected) {
+			if (!reported.contains(task.getName())) {
+				results.add(new TaskResult(task.getName(), shard, new ShardProtocol.ShardFailure("shard " + shard + " exited with code " + exitCode + " before reporting"), 0));
+			}
+		}
+	}
+
+	private void mergeJsonReports() {
+		Path merged = reportDir.resolve("scenarios.jsonl");
+		try (FileChannel out = FileChannel.open(merged, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int shard = 0; shard < shards; shard++) {
+				Path dir = shardReportDir(shard);
+				if (!Files.isDirectory(dir)) {
+					continue;
+				}
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "scenarios-*.jsonl")) {
+					for (Path file : files) {
+						try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+							long size = in.size();
+							for (long pos = 0; pos < size;) {
+								pos += in.transferTo(pos, size - pos, out);
+							}
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new TestFirstRuntimeException("Could not merge shard reports into " + merged, e);
+		}
+	}
+}
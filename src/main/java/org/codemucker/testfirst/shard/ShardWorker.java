@@ -0,0 +1,75 @@
+package org.codemucker.testfirst.shard;
+
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codemucker.testfirst.schedule.ScenarioHistory;
+import org.codemucker.testfirst.schedule.ScenarioScheduler;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+import org.codemucker.testfirst.schedule.TaskResult;
+
+/**
+ * Entry point of a worker JVM forked by {@link ShardRunner}. Runs its shard of the suite and streams a result line per scenario back over stdout.
+ * Anything the scenarios print to stdout is sent to stderr instead so it can't corrupt the results
+ * 
+ * <p>Arguments are the suite class, shard index, shard count, {@link ShardPartition} and history file, or '-' for none</p>
+ */
+public class ShardWorker {
+
+	static final String NO_HISTORY = "-";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.err.println("usage: " + ShardWorker.class.getName() + " <suiteClass> <shardIndex> <shardCount> <Hash|Duration> <historyFile|->");
+			System.exit(2);
+		}
+		PrintStream results = System.out;
+		System.setOut(System.err);
+
+		ScenarioSuite suite = newSuite(args[0]);
+		int shard = Integer.parseInt(args[1]);
+		int shards = Integer.parseInt(args[2]);
+		ShardPartition partition = ShardPartition.valueOf(args[3]);
+		ScenarioHistory history = NO_HISTORY.equals(args[4]) ? null : ScenarioHistory.load(Paths.get(args[4]));
+
+		for (ScenarioTask task : tasksFor(suite.getTasks(), shard, shards, partition, history)) {
+			results.println(ShardProtocol.format(run(task, shard)));
+			results.flush();
+		}
+		System.exit(0);
+	}
+
+	static ScenarioSuite newSuite(String className) throws ReflectiveOperationException {
+		return (ScenarioSuite) Class.forName(className).newInstance();
+	}
+
+	/**
+	 * @return the tasks the given shard should run, in start order. Every JVM computes the same split from the same tasks and history
+	 */
+	static List<ScenarioTask> tasksFor(List<ScenarioTask> tasks, int shard, int shards, ShardPartition partition, ScenarioHistory history) {
+		if (partition == ShardPartition.Duration && history != null) {
+			return new ScenarioScheduler(history, 1).partition(tasks, shards).get(shard);
+		}
+		List<ScenarioTask> selected = new ArrayList<>();
+		for (ScenarioTask task : tasks) {
+			if (Math.floorMod(task.getName().hashCode(), shards) == shard) {
+				selected.add(task);
+			}
+		}
+		return history == null ? selected : new ScenarioScheduler(history, 1).order(selected);
+	}
+
+	private static TaskResult run(ScenarioTask task, int shard) {
+		long start = System.nanoTime();
+		Throwable failure = null;
+		try {
+			task.run();
+		} catch (Exception | AssertionError e) {
+			failure = e;
+			e.printStackTrace();
+		}
+		return new TaskResult(task.getName(), shard, failure, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,100 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the lines of a {@link MappedFile}. Only a short prefix of each line is kept for display, lines being compared by length and hash
+ */
+class LineCursor {
+
+	private final MappedFile file;
+	private final int keepBytes;
+
+	private ByteBuffer chunk;
+	private long chunkOffset;
+	private int lineNumber;
+
+	LineCursor(MappedFile file, int keepBytes) throws IOException {
+		this.file = file;
+		this.keepBytes = keepBytes;
+		this.chunk = file.chunk(0);
+	}
+
+	/**
+	 * @return the next line, without its terminator, or null at the end of the file
+	 */
+	Line next() throws IOException {
+		if (chunk == null) {
+			return null;
+		}
+		long start = chunkOffset + chunk.position();
+		CRC32 crc = new CRC32();
+		byte[] kept = new byte[keepBytes];
+		int length = 0;
+		boolean cr = false;
+		boolean ended = false;
+		while (chunk != null) {
+			if (!chunk.hasRemaining()) {
+				chunkOffset += chunk.limit();
+				chunk = file.chunk(chunkOffset);
+				continue;
+			}
+			byte b = chunk.get();
+			if (b == '\n') {
+				ended = true;
+				break;
+			}
+			if (cr) {
+				//a lone carriage return is content
+				addByte(crc, kept, length++, (byte) '\r');
+			}
+			cr = b == '\r';
+			if (!cr) {
+				addByte(crc, kept, length++, b);
+			}
+		}
+		if (cr && !ended) {
+			addByte(crc, kept, length++, (byte) '\r');
+		}
+		if (chunk != null && !chunk.hasRemaining()) {
+			chunkOffset += chunk.limit();
+			chunk = file.chunk(chunkOffset);
+		}
+		return new Line(++lineNumber, start, length, crc.getValue(), new String(kept, 0, Math.min(length, keepBytes), StandardCharsets.UTF_8));
+	}
+
+	private static void addByte(CRC32 crc, byte[] kept, int index, byte b) {
+		crc.update(b);
+		if (index < kept.length) {
+			kept[index] = b;
+		}
+	}
+
+	static class Line {
+		final int number;
+		final long offset;
+		final int length;
+		final long crc;
+		final String prefix;
+
+		Line(int number, long offset, int length, long crc, String prefix) {
+			this.number = number;
+			this.offset = offset;
+			this.length = length;
+			this.crc = crc;
+			this.prefix = prefix;
+		}
+
+		boolean sameAs(Line other) {
+			return length == other.length && crc == other.crc;
+		}
+
+		@Override
+		public String toString() {
+			return number + ": " + prefix + (prefix.length() < length ? "... (" + length + " bytes)" : "");
+		}
+	}
+}
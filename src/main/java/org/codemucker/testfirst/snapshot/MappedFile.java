@@ -0,0 +1,84 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Reads a file through memory mapped chunks, so files of any size are compared and hashed without copying them onto the heap
+ */
+class MappedFile implements Closeable {
+
+	static final int DEFAULT_CHUNK_BYTES = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkBytes;
+
+	MappedFile(Path path, int chunkBytes) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.chunkBytes = chunkBytes;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return the chunk starting at the given offset, or null at the end of the file
+	 */
+	ByteBuffer chunk(long offset) throws IOException {
+		if (offset >= size) {
+			return null;
+		}
+		return channel.map(MapMode.READ_ONLY, offset, Math.min(chunkBytes, size - offset));
+	}
+
+	byte[] sha256() throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//every JVM is required to support it
+			throw new TestFirstRuntimeException("No SHA-256 support", e);
+		}
+		for (long offset = 0; offset < size; offset += chunkBytes) {
+			digest.update(chunk(offset));
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * @return the offset of the first differing byte, or -1 if the files are the same
+	 */
+	static long mismatch(MappedFile a, MappedFile b) throws IOException {
+		long common = Math.min(a.size, b.size);
+		int chunkBytes = Math.min(a.chunkBytes, b.chunkBytes);
+		for (long offset = 0; offset < common; offset += chunkBytes) {
+			ByteBuffer ca = a.channel.map(MapMode.READ_ONLY, offset, Math.min(chunkBytes, common - offset));
+			ByteBuffer cb = b.channel.map(MapMode.READ_ONLY, offset, Math.min(chunkBytes, common - offset));
+			if (!ca.equals(cb)) {
+				for (int i = 0; i < ca.limit(); i++) {
+					if (ca.get(i) != cb.get(i)) {
+						return offset + i;
+					}
+				}
+			}
+		}
+		return a.size == b.size ? -1 : common;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
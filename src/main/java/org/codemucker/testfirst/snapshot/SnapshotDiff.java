@@ -0,0 +1,88 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of comparing an actual value against its golden file. See {@link Snapshots}
+ */
+public class SnapshotDiff {
+
+	private final String name;
+	private final Path golden;
+	private final boolean updated;
+	private final long goldenSize;
+	private final long actualSize;
+	private final long firstMismatch;
+	private final List<String> lines;
+
+	SnapshotDiff(String name, Path golden, boolean updated, long goldenSize, long actualSize, long firstMismatch, List<String> lines) {
+		this.name = name;
+		this.golden = golden;
+		this.updated = updated;
+		this.goldenSize = goldenSize;
+		this.actualSize = actualSize;
+		this.firstMismatch = firstMismatch;
+		this.lines = Collections.unmodifiableList(lines);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Path getGolden() {
+		return golden;
+	}
+
+	/**
+	 * @return true if the actual value matched, or the golden file was rewritten in update mode
+	 */
+	public boolean isMatched() {
+		return updated || firstMismatch < 0;
+	}
+
+	public boolean isUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return the offset of the first differing byte, or -1 if matched
+	 */
+	public long getFirstMismatch() {
+		return firstMismatch;
+	}
+
+	/**
+	 * @return the differing lines, prefixed with '-' for golden and '+' for actual along with their line number. Bounded, so ends with
+	 *         "..." if there were more
+	 */
+	public List<String> getLines() {
+		return lines;
+	}
+
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("snapshot '").append(name).append("' ");
+		if (updated) {
+			return sb.append("updated ").append(golden).toString();
+		}
+		if (firstMismatch < 0) {
+			return sb.append("matched ").append(golden).toString();
+		}
+		sb.append("differs from ").append(golden);
+		if (goldenSize < 0) {
+			return sb.append(" which does not exist. Run with -D").append(Snapshots.PROP_UPDATE).append("=true to create it").toString();
+		}
+		sb.append(" from byte ").append(firstMismatch).append(" (golden ").append(goldenSize).append(" bytes, actual ").append(actualSize).append(" bytes)");
+		for (String line : lines) {
+			sb.append("\n").append(line);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return describe();
+	}
+}
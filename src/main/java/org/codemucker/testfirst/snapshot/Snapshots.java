@@ -0,0 +1,172 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Compares actual files or values against stored golden files, for large generated artefacts such as exports, reports and serialised
+ * state. Files are read through memory mapped chunks and never loaded onto the heap.
+ * 
+ * <p>Each golden file has a sidecar holding its size, modification time and SHA-256, so a matching actual is confirmed by hashing it alone. A
+ * collision resistant hash is used as a match is trusted without reading the golden file.
+ * Without a sidecar, or if the golden file has since been edited by hand, the two files are compared chunk by chunk. Only when they differ is a bounded line diff streamed from both.</p>
+ * 
+ * <p>With the system property {@value #PROP_UPDATE} set to true the golden files and their sidecars are rewritten from the actual values
+ * instead. The default snapshots are kept in {@value #PROP_DIR}, or {@value #DEFAULT_DIR}</p>
+ */
+@ThreadSafe
+public class Snapshots {
+
+	public static final String PROP_DIR = "testfirst.snapshot.dir";
+	public static final String PROP_UPDATE = "testfirst.snapshot.update";
+	public static final String DEFAULT_DIR = "src/test/resources/snapshots";
+
+	private static final String SIDECAR_SUFFIX = ".sha256";
+	private static final int DEFAULT_MAX_DIFF_LINES = 40;
+	private static final int DIFF_LOOKAHEAD = 8;
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	private static final Snapshots DEFAULT = new Snapshots(Paths.get(System.getProperty(PROP_DIR, DEFAULT_DIR)), Boolean.getBoolean(PROP_UPDATE));
+
+	private final Path dir;
+	private final boolean update;
+	private final int chunkBytes;
+	private final int maxDiffLines;
+
+	public static Snapshots getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param dir where the golden files are kept
+	 * @param update whether to rewrite the golden files rather than compare against them
+	 */
+	public Snapshots(Path dir, boolean update) {
+		this(dir, update, MappedFile.DEFAULT_CHUNK_BYTES, DEFAULT_MAX_DIFF_LINES);
+	}
+
+	/**
+	 * @param chunkBytes how much of each file to map at a time
+	 * @param maxDiffLines how many differing lines to report
+	 */
+	public Snapshots(Path dir, boolean update, int chunkBytes, int maxDiffLines) {
+		Preconditions.checkNotNull(dir, "expect dir");
+		Preconditions.checkArgument(chunkBytes > 0, "expect chunkBytes > 0");
+		Preconditions.checkArgument(maxDiffLines > 0, "expect maxDiffLines > 0");
+		this.dir = dir;
+		this.update = update;
+		this.chunkBytes = chunkBytes;
+		this.maxDiffLines = maxDiffLines;
+	}
+
+	public boolean isUpdate() {
+		return update;
+	}
+
+	/**
+	 * Compare the actual value against the named golden file. Byte arrays are compared as is, anything else by its UTF-8 string
+	 * 
+	 * @param name the golden file, relative to the snapshot dir
+	 */
+	public SnapshotDiff compare(String name, Object actual) throws IOException {
+		Path tmp = Files.createTempFile("testfirst-snapshot", ".tmp");
+		try {
+			Files.write(tmp, actual instanceof byte[] ? (byte[]) actual : String.valueOf(actual).getBytes(StandardCharsets.UTF_8));
+			return compare(name, tmp);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Compare the actual file against the named golden file
+	 * 
+	 * @param name the golden file, relative to the snapshot dir
+	 */
+	public SnapshotDiff compare(String name, Path actual) throws IOException {
+		Path golden = resolve(name);
+		Path sidecar = sidecar(golden);
+		if (update) {
+			Files.createDirectories(golden.toAbsolutePath().getParent());
+			Files.copy(actual, golden, StandardCopyOption.REPLACE_EXISTING);
+			try (MappedFile g = new MappedFile(golden, chunkBytes)) {
+				writeSidecar(sidecar, g.size(), lastModified(golden), g.sha256());
+				return new SnapshotDiff(name, golden, true, g.size(), g.size(), -1, Collections.<String> emptyList());
+			}
+		}
+		if (!Files.exists(golden)) {
+			return new SnapshotDiff(name, golden, false, -1, Files.size(actual), 0, Collections.<String> emptyList());
+		}
+		try (MappedFile g = new MappedFile(golden, chunkBytes); MappedFile a = new MappedFile(actual, chunkBytes)) {
+			long firstMismatch = g.size() == a.size() ? -1 : Math.min(g.size(), a.size());
+			if (firstMismatch < 0) {
+				byte[] expected = readSidecar(sidecar, g.size(), lastModified(golden));
+				if (expected != null && MessageDigest.isEqual(expected, a.sha256())) {
+					return new SnapshotDiff(name, golden, false, g.size(), a.size(), -1, Collections.<String> emptyList());
+				}
+			}
+			//sizes or hashes differ, or there's no hash to check, so find where
+			firstMismatch = MappedFile.mismatch(g, a);
+			if (firstMismatch < 0) {
+				return new SnapshotDiff(name, golden, false, g.size(), a.size(), -1, Collections.<String> emptyList());
+			}
+			List<String> lines = new StreamingDiff(maxDiffLines, DIFF_LOOKAHEAD).diff(g, a);
+			return new SnapshotDiff(name, golden, false, g.size(), a.size(), firstMismatch, lines);
+		}
+	}
+
+	private Path resolve(String name) {
+		Preconditions.checkNotNull(name, "expect snapshot name");
+		Path base = dir.toAbsolutePath().normalize();
+		Path golden = base.resolve(name).normalize();
+		if (!golden.startsWith(base) || golden.equals(base)) {
+			throw new TestFirstRuntimeException("Snapshot name '" + name + "' is outside the snapshot dir " + dir);
+		}
+		return golden;
+	}
+
+	private static Path sidecar(Path golden) {
+		return golden.resolveSibling(golden.getFileName() + SIDECAR_SUFFIX);
+	}
+
+	private static long lastModified(Path golden) throws IOException {
+		return Files.getLastModifiedTime(golden).toMillis();
+	}
+
+	private static void writeSidecar(Path sidecar, long size, long modified, byte[] hash) throws IOException {
+		Files.write(sidecar, (size + " " + modified + " " + HEX.encode(hash) + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the hash from the sidecar, or null if missing, malformed, or written for a golden file of a different size or modification
+	 *         time, such as after a hand edit
+	 */
+	private static byte[] readSidecar(Path sidecar, long goldenSize, long goldenModified) throws IOException {
+		if (!Files.exists(sidecar)) {
+			return null;
+		}
+		String[] parts = new String(Files.readAllBytes(sidecar), StandardCharsets.UTF_8).trim().split(" ");
+		try {
+			long size = Long.parseLong(parts[0]);
+			long modified = Long.parseLong(parts[1]);
+			byte[] hash = HEX.decode(parts[2].toLowerCase(Locale.ROOT));
+			return size == goldenSize && modified == goldenModified ? hash : null;
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+}
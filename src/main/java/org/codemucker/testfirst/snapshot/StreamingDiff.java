@@ -0,0 +1,123 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.codemucker.testfirst.snapshot.LineCursor.Line;
+
+/**
+ * Line diff of two files which only holds a small window of lines at a time. Where lines differ the diff looks a few lines ahead on both
+ * sides to resynchronise after inserted or removed lines, else reports the pair as changed. Stops after a maximum number of differing lines
+ */
+class StreamingDiff {
+
+	private static final int KEEP_BYTES = 160;
+
+	private final int maxLines;
+	private final int lookahead;
+
+	StreamingDiff(int maxLines, int lookahead) {
+		this.maxLines = maxLines;
+		this.lookahead = lookahead;
+	}
+
+	/**
+	 * @return the differing lines, '-' for golden and '+' for actual, ending with "..." if there were more
+	 */
+	List<String> diff(MappedFile golden, MappedFile actual) throws IOException {
+		Side expected = new Side(new LineCursor(golden, KEEP_BYTES));
+		Side found = new Side(new LineCursor(actual, KEEP_BYTES));
+		List<String> out = new ArrayList<>();
+		while (out.size() < maxLines) {
+			Line e = expected.next();
+			Line f = found.next();
+			if (e == null && f == null) {
+				return out;
+			}
+			if (e != null && f != null && e.sameAs(f)) {
+				continue;
+			}
+			List<Line> es = expected.window(e);
+			List<Line> fs = found.window(f);
+			int[] sync = resync(es, fs);
+			for (int i = 0; i < sync[0]; i++) {
+				out.add("-" + es.get(i));
+			}
+			for (int i = 0; i < sync[1]; i++) {
+				out.add("+" + fs.get(i));
+			}
+			expected.pushBack(es, sync[0]);
+			found.pushBack(fs, sync[1]);
+		}
+		Line e = expected.next();
+		Line f = found.next();
+		while (e != null && f != null && e.sameAs(f)) {
+			e = expected.next();
+			f = found.next();
+		}
+		if (e != null || f != null) {
+			out.add("...");
+		}
+		return out;
+	}
+
+	/**
+	 * @return how many lines to skip on each side to reach the nearest common line, or one each if there's none in the window
+	 */
+	private static int[] resync(List<Line> es, List<Line> fs) {
+		int best = Integer.MAX_VALUE;
+		//nothing in common ahead reports as a change
+		int[] sync = { Math.min(1, es.size()), Math.min(1, fs.size()) };
+		for (int i = 0; i < es.size(); i++) {
+			for (int j = 0; j < fs.size() && i + j < best; j++) {
+				if (es.get(i).sameAs(fs.get(j))) {
+					best = i + j;
+					sync[0] = i;
+					sync[1] = j;
+				}
+			}
+		}
+		return sync;
+	}
+
+	private class Side {
+		private final LineCursor cursor;
+		private final Deque<Line> pending = new ArrayDeque<>();
+
+		Side(LineCursor cursor) {
+			this.cursor = cursor;
+		}
+
+		Line next() throws IOException {
+			return pending.isEmpty() ? cursor.next() : pending.poll();
+		}
+
+		/**
+		 * @return the given line followed by up to lookahead more
+		 */
+		List<Line> window(Line first) throws IOException {
+			List<Line> lines = new ArrayList<>(lookahead + 1);
+			if (first == null) {
+				return lines;
+			}
+			lines.add(first);
+			for (int i = 0; i < lookahead; i++) {
+				Line line = next();
+				if (line == null) {
+					break;
+				}
+				lines.add(line);
+			}
+			return lines;
+		}
+
+		void pushBack(List<Line> lines, int from) {
+			for (int i = lines.size() - 1; i >= from; i--) {
+				pending.push(lines.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package org.codemucker.testfirst.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.google.common.base.Function;
+
+/**
+ * An index supporting equality lookups
+ */
+class HashIndex<K,V> extends Index<K,V> {
+
+	private final Map<Object,NavigableMap<Long,K>> entries = new HashMap<>();
+
+	HashIndex(Function<? super V, ?> valueOf) {
+		super(valueOf);
+	}
+
+	@Override
+	Map<Object,NavigableMap<Long,K>> entries() {
+		return entries;
+	}
+}
@@ -0,0 +1,147 @@
+package org.codemucker.testfirst.store;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread safe in memory stand in for a datastore, for scenarios which only need datastore semantics. Holds named typed {@link Table}s with
+ * optional secondary indexes.
+ * 
+ * <p>A {@link #snapshot()} costs the same regardless of the number of rows. Tables log the previous row on the first write to each key after a
+ * snapshot, so a {@link #restore(StoreSnapshot)} costs in proportion to the rows written since, not the size of the table. Typical use is to
+ * snapshot once the shared fixtures are loaded and restore between scenarios. Restoring a snapshot discards any taken after it</p>
+ * 
+ * <p>Rows are stored by reference, so stored values should be immutable or treated as such. Use {@link Table#update(Object, Function)} to replace
+ * a row</p>
+ */
+@ThreadSafe
+public class InMemoryStore {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final Map<String,Table<?,?>> tables = new LinkedHashMap<>();
+
+	/**
+	 * Get or create the table with the given name
+	 * 
+	 * @param name unique name of the table
+	 * @param valueType the type of row stored
+	 * @param keyOf extracts the primary key from a row
+	 * @return the table
+	 */
+	public <K,V> Table<K,V> table(String name, Class<V> valueType, Function<? super V, ? extends K> keyOf){
+		Preconditions.checkNotNull(name, "expect table name");
+		Preconditions.checkNotNull(valueType, "expect value type");
+		Preconditions.checkNotNull(keyOf, "expect key function");
+		lock.writeLock().lock();
+		try {
+			Table<?,?> table = tables.get(name);
+			if (table == null) {
+				Table<K,V> newTable = new Table<K,V>(name, valueType, keyOf, lock);
+				tables.put(name, newTable);
+				return newTable;
+			}
+			if (table.getValueType() != valueType) {
+				throw new TestFirstRuntimeException("Table '" + name + "' holds " + table.getValueType().getName() + ", not " + valueType.getName());
+			}
+			@SuppressWarnings("unchecked")
+			Table<K,V> existing = (Table<K,V>) table;
+			return existing;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get an existing table
+	 * 
+	 * @throws TestFirstRuntimeException if no such table exists
+	 */
+	public <K,V> Table<K,V> table(String name, Class<V> valueType){
+		lock.readLock().lock();
+		try {
+			Table<?,?> table = tables.get(name);
+			if (table == null || table.getValueType() != valueType) {
+				throw new TestFirstRuntimeException("No table '" + name + "' holding " + valueType.getName());
+			}
+			@SuppressWarnings("unchecked")
+			Table<K,V> existing = (Table<K,V>) table;
+			return existing;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Mark the current contents of all tables to restore to. Cost is proportional to the number of tables, not rows
+	 */
+	public StoreSnapshot snapshot(){
+		lock.writeLock().lock();
+		try {
+			Map<Table<?,?>,Table.Mark<?,?>> marks = new LinkedHashMap<>();
+			for (Table<?,?> table : tables.values()) {
+				marks.put(table, table.share());
+			}
+			return new StoreSnapshot(this, marks);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Reset all tables to the given snapshot. Tables created after the snapshot are emptied. The snapshot can be restored any number of times,
+	 * until an earlier snapshot is restored
+	 */
+	public void restore(StoreSnapshot snapshot){
+		Preconditions.checkNotNull(snapshot, "expect snapshot");
+		if (snapshot.getStore() != this) {
+			throw new TestFirstRuntimeException("Snapshot was taken from a different store");
+		}
+		lock.writeLock().lock();
+		try {
+			for (Table<?,?> table : tables.values()) {
+				restore(table, snapshot.getMark(table));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <K,V> void restore(Table<K,V> table, Table.Mark<?,?> mark){
+		table.restore((Table.Mark<K,V>)mark);
+	}
+
+	/**
+	 * Empty all tables, keeping their index definitions
+	 */
+	public void clear(){
+		lock.writeLock().lock();
+		try {
+			for (Table<?,?> table : tables.values()) {
+				table.restore(null);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public List<String> getTableNames(){
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(tables.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.codemucker.testfirst.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Function;
+
+/**
+ * A secondary index over a {@link Table}, mapping an indexed value to the primary keys of the rows with that value. Keys are held by the
+ * row's insertion sequence so lookups return rows in insertion order. Not thread safe, the owning table handles locking
+ */
+abstract class Index<K,V> {
+
+	private final Function<? super V, ?> valueOf;
+
+	Index(Function<? super V, ?> valueOf) {
+		this.valueOf = valueOf;
+	}
+
+	abstract Map<Object,NavigableMap<Long,K>> entries();
+
+	void add(K key, long seq, V row){
+		Object value = valueOf.apply(row);
+		if (value != null) {
+			NavigableMap<Long,K> keys = entries().get(value);
+			if (keys == null) {
+				keys = new TreeMap<>();
+				entries().put(value, keys);
+			}
+			keys.put(seq, key);
+		}
+	}
+
+	void remove(long seq, V row){
+		Object value = valueOf.apply(row);
+		if (value != null) {
+			NavigableMap<Long,K> keys = entries().get(value);
+			if (keys != null) {
+				keys.remove(seq);
+				if (keys.isEmpty()) {
+					entries().remove(value);
+				}
+			}
+		}
+	}
+
+	Collection<K> find(Object value){
+		NavigableMap<Long,K> keys = entries().get(value);
+		return keys == null ? Collections.<K>emptySet() : keys.values();
+	}
+}
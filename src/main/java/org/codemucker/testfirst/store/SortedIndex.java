@@ -0,0 +1,56 @@
+package org.codemucker.testfirst.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Function;
+
+/**
+ * An index supporting both equality and range lookups. Indexed values must be mutually comparable
+ */
+class SortedIndex<K,V> extends Index<K,V> {
+
+	private final TreeMap<Object,NavigableMap<Long,K>> entries = new TreeMap<>();
+
+	SortedIndex(Function<? super V, ?> valueOf) {
+		super(valueOf);
+	}
+
+	@Override
+	Map<Object,NavigableMap<Long,K>> entries() {
+		return entries;
+	}
+
+	/**
+	 * @param from inclusive lower bound, or null for none
+	 * @param to inclusive upper bound, or null for none
+	 * @return the keys of the matching rows ordered by indexed value, empty if from is after to
+	 */
+	Collection<K> findRange(Object from, Object to){
+		if (from != null && to != null && compare(from, to) > 0) {
+			return Collections.emptyList();
+		}
+		NavigableMap<Object,NavigableMap<Long,K>> range = entries;
+		if (from != null) {
+			range = range.tailMap(from, true);
+		}
+		if (to != null) {
+			range = range.headMap(to, true);
+		}
+		List<K> keys = new ArrayList<>();
+		for (NavigableMap<Long,K> matching : range.values()) {
+			keys.addAll(matching.values());
+		}
+		return keys;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(Object a, Object b){
+		return ((Comparable<Object>) a).compareTo(b);
+	}
+}
@@ -0,0 +1,28 @@
+package org.codemucker.testfirst.store;
+
+import java.util.Map;
+
+/**
+ * A point in time an {@link InMemoryStore}'s tables can be restored to, as returned by {@link InMemoryStore#snapshot()}
+ */
+public class StoreSnapshot {
+
+	private final InMemoryStore store;
+	private final Map<Table<?,?>,Table.Mark<?,?>> marks;
+
+	StoreSnapshot(InMemoryStore store, Map<Table<?,?>,Table.Mark<?,?>> marks) {
+		this.store = store;
+		this.marks = marks;
+	}
+
+	InMemoryStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the table's mark, or null if the table did not exist at the time of the snapshot
+	 */
+	Table.Mark<?,?> getMark(Table<?,?> table) {
+		return marks.get(table);
+	}
+}
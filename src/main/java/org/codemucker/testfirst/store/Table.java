@@ -0,0 +1,465 @@
+package org.codemucker.testfirst.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.codemucker.testfirst.Scenario.Deleter;
+import org.codemucker.testfirst.Scenario.Fetcher;
+import org.codemucker.testfirst.Scenario.Inserter;
+import org.codemucker.testfirst.Scenario.Updater;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+/**
+ * A typed table in an {@link InMemoryStore}. Rows are keyed by a primary key extracted from the row, and can be looked up via named secondary
+ * hash or sorted indexes.
+ * 
+ * <p>Writes are made in place. While a snapshot is open each write first logs the row it replaces, once per key, so restoring undoes only
+ * the rows written since rather than copying the table</p>
+ * 
+ * <p>Also provides ready made {@link Inserter}, {@link Deleter}, {@link Updater} and {@link Fetcher} steps against the table</p>
+ *
+ * @param <K> the primary key type
+ * @param <V> the row type
+ */
+public class Table<K,V> {
+
+	private final String name;
+	private final Class<V> valueType;
+	private final Function<? super V, ? extends K> keyOf;
+	private final Lock readLock;
+	private final Lock writeLock;
+	
+	private final Map<String,IndexDef<V>> indexDefs = new LinkedHashMap<>();
+	
+	private final Map<K,Row<V>> rows = new HashMap<>();
+	/**
+	 * Row keys by insertion sequence, for insertion ordered iteration which survives a removed row being restored
+	 */
+	private final TreeMap<Long,K> order = new TreeMap<>();
+	private final Map<String,Index<K,V>> indexes = new LinkedHashMap<>();
+	private long nextSeq;
+	/**
+	 * The snapshots this table can be restored to, oldest first. Each holds the rows overwritten between it and the next
+	 */
+	private final List<Mark<K,V>> marks = new ArrayList<>();
+
+	Table(String name, Class<V> valueType, Function<? super V, ? extends K> keyOf, ReadWriteLock lock) {
+		this.name = name;
+		this.valueType = valueType;
+		this.keyOf = keyOf;
+		this.readLock = lock.readLock();
+		this.writeLock = lock.writeLock();
+	}
+
+	/**
+	 * Add a hash index for equality lookups via {@link #findBy(String, Object)}. Rows where the indexed value is null are not indexed
+	 */
+	public Table<K,V> addHashIndex(String indexName, Function<? super V, ?> valueOf){
+		return addIndex(new IndexDef<V>(indexName, valueOf, false));
+	}
+
+	/**
+	 * Add a sorted index for both equality lookups and range lookups via {@link #findRange(String, Comparable, Comparable)}. Rows where the indexed
+	 * value is null are not indexed
+	 */
+	public Table<K,V> addSortedIndex(String indexName, Function<? super V, ? extends Comparable<?>> valueOf){
+		return addIndex(new IndexDef<V>(indexName, valueOf, true));
+	}
+
+	private Table<K,V> addIndex(IndexDef<V> def){
+		writeLock.lock();
+		try {
+			if (indexDefs.containsKey(def.name)) {
+				throw new TestFirstRuntimeException("Table '" + name + "' already has an index named '" + def.name + "'");
+			}
+			indexDefs.put(def.name, def);
+			Index<K,V> index = def.newIndex();
+			//index any existing rows
+			for (Map.Entry<Long,K> entry : order.entrySet()) {
+				index.add(entry.getValue(), entry.getKey(), rows.get(entry.getValue()).value);
+			}
+			indexes.put(def.name, index);
+		} finally {
+			writeLock.unlock();
+		}
+		return this;
+	}
+
+	/**
+	 * Insert or replace a row
+	 * 
+	 * @return the previous row with the same key, or null if none
+	 */
+	public V put(V value){
+		Preconditions.checkNotNull(value, "expect value");
+		writeLock.lock();
+		try {
+			return write(keyOf.apply(value), value);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public void putAll(Collection<? extends V> values){
+		writeLock.lock();
+		try {
+			for (V value : values) {
+				Preconditions.checkNotNull(value, "expect value");
+				write(keyOf.apply(value), value);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the removed row, or null if there was no row with the given key
+	 */
+	public V remove(K key){
+		writeLock.lock();
+		try {
+			return delete(key);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Replace the row with the given key with the result of applying the given function to it
+	 * 
+	 * @return the new row
+	 * @throws TestFirstRuntimeException if there is no such row, or the update changes the key
+	 */
+	public V update(K key, Function<? super V, ? extends V> update){
+		writeLock.lock();
+		try {
+			Row<V> row = rows.get(key);
+			if (row == null) {
+				throw new TestFirstRuntimeException("No row with key '" + key + "' in table '" + name + "' to update");
+			}
+			V updated = update.apply(row.value);
+			Preconditions.checkNotNull(updated, "expect update to return a value");
+			K updatedKey = keyOf.apply(updated);
+			if (updatedKey == null ? key != null : !updatedKey.equals(key)) {
+				throw new TestFirstRuntimeException("Update of row '" + key + "' in table '" + name + "' changed the key to '" + updatedKey + "'");
+			}
+			write(key, updated);
+			return updated;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public V get(K key){
+		readLock.lock();
+		try {
+			Row<V> row = rows.get(key);
+			return row == null ? null : row.value;
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	public boolean contains(K key){
+		readLock.lock();
+		try {
+			return rows.containsKey(key);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	public int size(){
+		readLock.lock();
+		try {
+			return rows.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return a copy of all rows in insertion order
+	 */
+	public List<V> all(){
+		readLock.lock();
+		try {
+			return rowsFor(order.values());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return all rows whose indexed value equals the given value, in insertion order
+	 */
+	public List<V> findBy(String indexName, Object indexValue){
+		readLock.lock();
+		try {
+			return rowsFor(index(indexName).find(indexValue));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * @return all rows whose indexed value is between the given bounds inclusive, ordered by the indexed value. Either bound may be null to
+	 *         leave the range open. Empty if from is after to
+	 */
+	public List<V> findRange(String indexName, Comparable<?> from, Comparable<?> to){
+		readLock.lock();
+		try {
+			Index<K,V> index = index(indexName);
+			if (!(index instanceof SortedIndex)) {
+				throw new TestFirstRuntimeException("Index '" + indexName + "' on table '" + name + "' is not sorted, so can't be used for range lookups");
+			}
+			return rowsFor(((SortedIndex<K,V>)index).findRange(from, to));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	private Index<K,V> index(String indexName){
+		Index<K,V> index = indexes.get(indexName);
+		if (index == null) {
+			throw new TestFirstRuntimeException("No index '" + indexName + "' on table '" + name + "'");
+		}
+		return index;
+	}
+
+	/**
+	 * @return a step which inserts the given rows into this table
+	 */
+	@SafeVarargs
+	public final Inserter inserter(final V... values){
+		//copied rather than wrapped, so the varargs array isn't exposed
+		final List<V> rows = new ArrayList<>(values.length);
+		for (V value : values) {
+			rows.add(value);
+		}
+		return new Inserter() {
+			@Override
+			public void insert() {
+				putAll(rows);
+			}
+		};
+	}
+
+	/**
+	 * @return a step which deletes the rows with the given keys from this table
+	 */
+	@SafeVarargs
+	public final Deleter deleter(final K... keys){
+		return new Deleter() {
+			@Override
+			public void delete() {
+				for (K key : keys) {
+					remove(key);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return a step which replaces the row with the given key with the result of the given function
+	 */
+	public Updater updater(final K key, final Function<? super V, ? extends V> update){
+		return new Updater() {
+			@Override
+			public void update() {
+				Table.this.update(key, update);
+			}
+		};
+	}
+
+	/**
+	 * @return a step which fetches the row with the given key, or null if no such row
+	 */
+	public Fetcher<V> fetcher(final K key){
+		return new Fetcher<V>() {
+			@Override
+			public V fetch() {
+				return get(key);
+			}
+		};
+	}
+
+	/**
+	 * @return a step which fetches all rows whose indexed value equals the given value
+	 */
+	public Fetcher<List<V>> fetcherBy(final String indexName, final Object indexValue){
+		return new Fetcher<List<V>>() {
+			@Override
+			public List<V> fetch() {
+				return findBy(indexName, indexValue);
+			}
+		};
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<V> getValueType() {
+		return valueType;
+	}
+
+	private List<V> rowsFor(Collection<K> keys){
+		if (keys.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<V> found = new ArrayList<>(keys.size());
+		for (K key : keys) {
+			found.add(rows.get(key).value);
+		}
+		return found;
+	}
+
+	/**
+	 * Insert or replace a row, keeping the position of a replaced row. Must be called with the write lock held
+	 */
+	private V write(K key, V value){
+		Row<V> previous = rows.get(key);
+		logUndo(key, previous);
+		setRow(key, previous, new Row<V>(previous == null ? nextSeq++ : previous.seq, value));
+		return previous == null ? null : previous.value;
+	}
+
+	/**
+	 * Must be called with the write lock held
+	 */
+	private V delete(K key){
+		Row<V> previous = rows.get(key);
+		if (previous == null) {
+			return null;
+		}
+		logUndo(key, previous);
+		setRow(key, previous, null);
+		return previous.value;
+	}
+
+	/**
+	 * Record the row before its first write since the latest snapshot
+	 */
+	private void logUndo(K key, Row<V> previous){
+		if (!marks.isEmpty()) {
+			Map<K,Row<V>> undo = marks.get(marks.size() - 1).undo;
+			if (!undo.containsKey(key)) {
+				undo.put(key, previous);
+			}
+		}
+	}
+
+	/**
+	 * Replace the previous row with the given one, or remove it if null, updating the indexes
+	 */
+	private void setRow(K key, Row<V> previous, Row<V> row){
+		if (previous != null) {
+			order.remove(previous.seq);
+			for (Index<K,V> index : indexes.values()) {
+				index.remove(previous.seq, previous.value);
+			}
+		}
+		if (row == null) {
+			rows.remove(key);
+		} else {
+			rows.put(key, row);
+			order.put(row.seq, key);
+			for (Index<K,V> index : indexes.values()) {
+				index.add(key, row.seq, row.value);
+			}
+		}
+	}
+
+	/**
+	 * Mark the current rows as a point to restore to. Must be called with the write lock held
+	 */
+	Mark<K,V> share(){
+		if (!marks.isEmpty() && marks.get(marks.size() - 1).undo.isEmpty()) {
+			//nothing written since the latest snapshot, so it's the same point
+			return marks.get(marks.size() - 1);
+		}
+		Mark<K,V> mark = new Mark<K,V>();
+		marks.add(mark);
+		return mark;
+	}
+
+	/**
+	 * Undo the writes made since the given snapshot, or remove all rows if null. Restoring a snapshot discards any taken after it. Must be
+	 * called with the write lock held
+	 * 
+	 * @throws TestFirstRuntimeException if the snapshot was discarded by an earlier one being restored
+	 */
+	void restore(Mark<K,V> mark){
+		if (mark == null) {
+			for (K key : new ArrayList<>(rows.keySet())) {
+				delete(key);
+			}
+			return;
+		}
+		int at = marks.lastIndexOf(mark);
+		if (at < 0) {
+			throw new TestFirstRuntimeException("Snapshot of table '" + name + "' can no longer be restored, as an earlier snapshot has been restored since");
+		}
+		//undo the latest writes first, so each row ends up as it was at the snapshot
+		for (int i = marks.size() - 1; i >= at; i--) {
+			Map<K,Row<V>> undo = marks.get(i).undo;
+			for (Map.Entry<K,Row<V>> entry : undo.entrySet()) {
+				setRow(entry.getKey(), rows.get(entry.getKey()), entry.getValue());
+			}
+			undo.clear();
+			if (i > at) {
+				marks.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * A point a table can be restored to, holding the rows as they were before their first write since
+	 */
+	static class Mark<K,V> {
+		final Map<K,Row<V>> undo = new HashMap<>();
+	}
+
+	/**
+	 * A row, with its insertion sequence to order by
+	 */
+	private static class Row<V> {
+		final long seq;
+		final V value;
+
+		Row(long seq, V value) {
+			this.seq = seq;
+			this.value = value;
+		}
+	}
+
+	static class IndexDef<V> {
+		final String name;
+		final Function<? super V, ?> valueOf;
+		final boolean sorted;
+
+		IndexDef(String name, Function<? super V, ?> valueOf, boolean sorted) {
+			Preconditions.checkNotNull(name, "expect index name");
+			Preconditions.checkNotNull(valueOf, "expect index value function");
+			this.name = name;
+			this.valueOf = valueOf;
+			this.sorted = sorted;
+		}
+
+		<K> Index<K,V> newIndex(){
+			return sorted ? new SortedIndex<K,V>(valueOf) : new HashIndex<K,V>(valueOf);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.codemucker.testfirst.tx;
+
+import org.codemucker.testfirst.store.InMemoryStore;
+import org.codemucker.testfirst.store.StoreSnapshot;
+
+/**
+ * Rolls an {@link InMemoryStore} back by restoring a snapshot taken at the start of the scenario. Taking the snapshot is constant time, and
+ * restoring it costs in proportion to the rows the scenario wrote, regardless of the number of rows
+ */
+public class InMemoryStoreResource implements TransactionalResource {
+
+	private final InMemoryStore store;
+	private StoreSnapshot snapshot;
+
+	public InMemoryStoreResource(InMemoryStore store) {
+		this.store = store;
+	}
+
+	@Override
+	public void begin() {
+		snapshot = store.snapshot();
+	}
+
+	@Override
+	public void rollback() {
+		if (snapshot != null) {
+			store.restore(snapshot);
+			snapshot = null;
+		}
+	}
+}
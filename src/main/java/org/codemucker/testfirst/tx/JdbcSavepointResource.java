@@ -0,0 +1,49 @@
+package org.codemucker.testfirst.tx;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Rolls a JDBC connection back to a savepoint set at the start of the scenario. Any transaction already open on the connection (say fixtures loaded
+ * in a class wide scope) is left intact, and the savepoint is released after the rollback. If the connection was in auto commit mode, it is
+ * switched off for the scenario, the whole transaction rolled back, and only then auto commit restored. If that rollback fails auto commit is
+ * left off, as restoring it would commit the scenario's changes.
+ * 
+ * <p>The code under test must use the same connection for its changes to be rolled back</p>
+ */
+public class JdbcSavepointResource implements TransactionalResource {
+
+	private final Connection connection;
+	private Savepoint savepoint;
+	private boolean restoreAutoCommit;
+
+	public JdbcSavepointResource(Connection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public void begin() throws SQLException {
+		restoreAutoCommit = connection.getAutoCommit();
+		if (restoreAutoCommit) {
+			connection.setAutoCommit(false);
+		} else {
+			savepoint = connection.setSavepoint();
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		if (restoreAutoCommit) {
+			restoreAutoCommit = false;
+			//the transaction was started by begin, so nothing outside the scenario is lost
+			connection.rollback();
+			connection.setAutoCommit(true);
+		} else if (savepoint != null) {
+			Savepoint rollbackTo = savepoint;
+			savepoint = null;
+			connection.rollback(rollbackTo);
+			connection.releaseSavepoint(rollbackTo);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.codemucker.testfirst.tx;
+
+/**
+ * A resource which can undo all the changes made to it during a scenario in a single operation, instead of each given step needing a matching
+ * delete. Register with {@link org.codemucker.testfirst.Scenario#transactional(TransactionalResource)} or
+ * {@link org.codemucker.testfirst.inject.TestInjector#transactional(TransactionalResource)}
+ */
+public interface TransactionalResource {
+	/**
+	 * Open a unit of work. Called before the first step of the scenario
+	 */
+	public void begin() throws Exception;
+	
+	/**
+	 * Undo everything since {@link #begin()}. Called on scenario end, before any other teardown
+	 */
+	public void rollback() throws Exception;
+}
@@ -0,0 +1,95 @@
+package org.codemucker.testfirst.tx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codemucker.lang.annotation.ThreadSafe;
+import org.codemucker.testfirst.IRunOnScenarioEnd;
+import org.codemucker.testfirst.IRunOnScenarioStart;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Coordinates a number of {@link TransactionalResource}s over the life of a scenario. All are begun on scenario start, and rolled back in
+ * reverse order on scenario end. Resources added once started are begun immediately
+ */
+@ThreadSafe
+public class UnitOfWork implements IRunOnScenarioStart, IRunOnScenarioEnd {
+
+	private final List<TransactionalResource> resources = new ArrayList<>();
+	private final List<TransactionalResource> begun = new ArrayList<>();
+	private boolean started = false;
+
+	public synchronized UnitOfWork add(TransactionalResource resource) {
+		if (!resources.contains(resource)) {
+			resources.add(resource);
+			if (started) {
+				begin(resource);
+			}
+		}
+		return this;
+	}
+
+	public synchronized boolean isEmpty() {
+		return resources.isEmpty();
+	}
+
+	@Override
+	public synchronized void onScenarioStart() {
+		if (started) {
+			return;
+		}
+		started = true;
+		for (TransactionalResource resource : resources) {
+			try {
+				begin(resource);
+			} catch (TestFirstRuntimeException e) {
+				try {
+					rollback();
+				} catch (TestFirstRuntimeException rollbackFailure) {
+					e.addSuppressed(rollbackFailure);
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void begin(TransactionalResource resource) {
+		try {
+			resource.begin();
+			begun.add(resource);
+		} catch (Exception e) {
+			throw new TestFirstRuntimeException("Error beginning unit of work on " + resource.getClass().getName(), e);
+		}
+	}
+
+	@Override
+	public synchronized void onScenarioEnd() {
+		rollback();
+	}
+
+	/**
+	 * Roll back everything begun so far, in reverse order. All resources are rolled back even if some fail
+	 * 
+	 * @throws TestFirstRuntimeException if any resource failed to roll back
+	 */
+	private void rollback() {
+		TestFirstRuntimeException failure = null;
+		for (int i = begun.size() - 1; i >= 0; i--) {
+			TransactionalResource resource = begun.get(i);
+			try {
+				resource.rollback();
+			} catch (Exception e) {
+				if (failure == null) {
+					failure = new TestFirstRuntimeException("Error rolling back unit of work on " + resource.getClass().getName(), e);
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		begun.clear();
+		started = false;
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
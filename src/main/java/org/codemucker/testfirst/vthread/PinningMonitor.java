@@ -0,0 +1,319 @@
+package org.codemucker.testfirst.vthread;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Consumer;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+
+/**
+ * Runs a when step's workload on virtual threads while recording the flight recorder's {@value #PINNED_EVENT} and
+ * {@value #SUBMIT_FAILED_EVENT} events in process through a recording stream, so then steps can fail on pinning, such as blocking inside
+ * <code>synchronized</code>. Pinning is aggregated by stack. Carrier starvation is measured by a probe virtual thread started at a fixed
+ * interval, recording how long it waits to run.
+ * 
+ * <pre>
+ * scenario.given(...).when(pinning.onVirtualThreads(1000, workload)).thenNoPinningLongerThan(pinning, 20, TimeUnit.MILLISECONDS);
+ * </pre>
+ * 
+ * <p>Virtual threads and the recording stream are reached reflectively, so this requires a JVM with virtual threads, see {@link #isSupported()}</p>
+ */
+public class PinningMonitor {
+
+	private static final Logger log = LogManager.getLogger(PinningMonitor.class);
+
+	static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+	static final String SUBMIT_FAILED_EVENT = "jdk.VirtualThreadSubmitFailed";
+
+	private static final int MAX_FRAMES = 32;
+	private static final long PROBE_INTERVAL_MILLIS = 10;
+
+	private static final Api API = Api.loadOrNull();
+
+	private final Map<String, PinningSite> sites = new LinkedHashMap<>();
+	private long submitFailures;
+	private final LongAccumulator maxSchedulingNanos = new LongAccumulator(Math::max, 0);
+	private volatile long probeSubmittedNanos;
+
+	private volatile PinningReport report;
+
+	/**
+	 * @return whether this JVM has virtual threads and recording streams
+	 */
+	public static boolean isSupported() {
+		return API != null;
+	}
+
+	/**
+	 * @param tasks how many virtual threads to run the task on concurrently
+	 * @param task the workload
+	 * @return an invoker for a when step which runs the task on the virtual threads while monitoring pinning, failing with the first task
+	 *         failure once all have finished
+	 */
+	public Invoker onVirtualThreads(final int tasks, final Invoker task) {
+		return new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				run(tasks, task);
+			}
+
+			@Override
+			public String toString() {
+				return tasks + " virtual threads running " + task;
+			}
+		};
+	}
+
+	/**
+	 * @return what was seen during the last run
+	 * @throws TestFirstRuntimeException if nothing has been run yet
+	 */
+	public PinningReport getReport() {
+		PinningReport r = report;
+		if (r == null) {
+			throw new TestFirstRuntimeException("No workload has been run on virtual threads. Use onVirtualThreads in a when step");
+		}
+		return r;
+	}
+
+	private void run(int tasks, final Invoker task) throws Exception {
+		if (API == null) {
+			throw new TestFirstRuntimeException("Virtual threads or flight recorder streaming are not supported by this JVM, running " + System.getProperty("java.version"));
+		}
+		synchronized (sites) {
+			sites.clear();
+			submitFailures = 0;
+		}
+		maxSchedulingNanos.reset();
+		Object stream = API.startStream(new Consumer<Object>() {
+			@Override
+			public void accept(Object event) {
+				onEvent(event);
+			}
+		});
+		ExecutorService executor = API.newVirtualThreadPerTaskExecutor();
+		Thread probe = startProbe(executor);
+		Exception failure = null;
+		try {
+			List<Future<Void>> futures = new ArrayList<>(tasks);
+			for (int i = 0; i < tasks; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						task.invoke();
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		} finally {
+			probe.interrupt();
+			probe.join();
+			long outstanding = probeSubmittedNanos;
+			if (outstanding != 0) {
+				maxSchedulingNanos.accumulate(System.nanoTime() - outstanding);
+			}
+			executor.shutdownNow();
+			API.stopStream(stream);
+			synchronized (sites) {
+				report = new PinningReport(new ArrayList<>(sites.values()), submitFailures, maxSchedulingNanos.get());
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Start a probe virtual thread at a fixed interval and record how long each waits for a carrier
+	 */
+	private Thread startProbe(final ExecutorService executor) {
+		Thread probe = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						final long submitted = System.nanoTime();
+						probeSubmittedNanos = submitted;
+						executor.submit(new Runnable() {
+							@Override
+							public void run() {
+								maxSchedulingNanos.accumulate(System.nanoTime() - submitted);
+							}
+						}).get();
+						probeSubmittedNanos = 0;
+						Thread.sleep(PROBE_INTERVAL_MILLIS);
+					}
+				} catch (InterruptedException e) {
+					//stopped
+				} catch (Exception e) {
+					log.debug("carrier probe stopped", e);
+				}
+			}
+		}, "testfirst-carrier-probe");
+		probe.setDaemon(true);
+		probe.start();
+		return probe;
+	}
+
+	private void onEvent(Object event) {
+		try {
+			String name = API.eventName(event);
+			synchronized (sites) {
+				if (SUBMIT_FAILED_EVENT.equals(name)) {
+					submitFailures++;
+				} else if (PINNED_EVENT.equals(name)) {
+					String stack = API.stackOf(event, MAX_FRAMES);
+					PinningSite site = sites.get(stack);
+					if (site == null) {
+						site = new PinningSite(stack);
+						sites.put(stack, site);
+					}
+					site.add(API.durationNanos(event));
+				}
+			}
+		} catch (Exception e) {
+			log.warn("error reading " + PINNED_EVENT + " event", e);
+		}
+	}
+
+	/**
+	 * The reflectively resolved virtual thread and recording stream methods
+	 */
+	private static class Api {
+		Method newVirtualThreadPerTaskExecutor;
+		Constructor<?> streamCtor;
+		Method enable;
+		Method withThreshold;
+		Method withStackTrace;
+		Method onEvent;
+		Method startAsync;
+		Method stop;
+		Method close;
+		Method getEventType;
+		Method getTypeName;
+		Method getDuration;
+		Method getStackTrace;
+		Method getFrames;
+		Method getMethod;
+		Method getLineNumber;
+		Method getMethodType;
+		Method getMethodName;
+		Method getClassName;
+
+		static Api loadOrNull() {
+			try {
+				Class<?> stream = Class.forName("jdk.jfr.consumer.RecordingStream");
+				Class<?> settings = Class.forName("jdk.jfr.EventSettings");
+				Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+				Class<?> eventType = Class.forName("jdk.jfr.EventType");
+				Class<?> stackTrace = Class.forName("jdk.jfr.consumer.RecordedStackTrace");
+				Class<?> frame = Class.forName("jdk.jfr.consumer.RecordedFrame");
+				Class<?> method = Class.forName("jdk.jfr.consumer.RecordedMethod");
+				Class<?> recordedClass = Class.forName("jdk.jfr.consumer.RecordedClass");
+				Api api = new Api();
+				api.newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				api.streamCtor = stream.getConstructor();
+				api.enable = stream.getMethod("enable", String.class);
+				api.withThreshold = settings.getMethod("withThreshold", Duration.class);
+				api.withStackTrace = settings.getMethod("withStackTrace");
+				api.onEvent = stream.getMethod("onEvent", String.class, Consumer.class);
+				api.startAsync = stream.getMethod("startAsync");
+				api.stop = stream.getMethod("stop");
+				api.close = stream.getMethod("close");
+				api.getEventType = recordedEvent.getMethod("getEventType");
+				api.getTypeName = eventType.getMethod("getName");
+				api.getDuration = recordedEvent.getMethod("getDuration");
+				api.getStackTrace = recordedEvent.getMethod("getStackTrace");
+				api.getFrames = stackTrace.getMethod("getFrames");
+				api.getMethod = frame.getMethod("getMethod");
+				api.getLineNumber = frame.getMethod("getLineNumber");
+				api.getMethodType = method.getMethod("getType");
+				api.getMethodName = method.getMethod("getName");
+				api.getClassName = recordedClass.getMethod("getName");
+				return api;
+			} catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+				log.debug("virtual threads or recording streams not available", e);
+				return null;
+			}
+		}
+
+		ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		}
+
+		Object startStream(Consumer<Object> consumer) throws ReflectiveOperationException {
+			Object stream = streamCtor.newInstance();
+			withStackTrace.invoke(withThreshold.invoke(enable.invoke(stream, PINNED_EVENT), Duration.ZERO));
+			enable.invoke(stream, SUBMIT_FAILED_EVENT);
+			onEvent.invoke(stream, PINNED_EVENT, consumer);
+			onEvent.invoke(stream, SUBMIT_FAILED_EVENT, consumer);
+			startAsync.invoke(stream);
+			return stream;
+		}
+
+		/**
+		 * Stop, which delivers all recorded events before returning, then close
+		 */
+		void stopStream(Object stream) {
+			try {
+				stop.invoke(stream);
+			} catch (InvocationTargetException | IllegalAccessException e) {
+				log.warn("error stopping recording stream", e);
+			} finally {
+				try {
+					close.invoke(stream);
+				} catch (InvocationTargetException | IllegalAccessException e) {
+					log.debug("error closing recording stream", e);
+				}
+			}
+		}
+
+		String eventName(Object event) throws ReflectiveOperationException {
+			return (String) getTypeName.invoke(getEventType.invoke(event));
+		}
+
+		long durationNanos(Object event) throws ReflectiveOperationException {
+			return ((Duration) getDuration.invoke(event)).toNanos();
+		}
+
+		String stackOf(Object event, int maxFrames) throws ReflectiveOperationException {
+			Object trace = getStackTrace.invoke(event);
+			if (trace == null) {
+				return "no stack trace";
+			}
+			StringBuilder sb = new StringBuilder();
+			List<?> frames = (List<?>) getFrames.invoke(trace);
+			for (Object frame : frames.subList(0, Math.min(maxFrames, frames.size()))) {
+				Object method = getMethod.invoke(frame);
+				sb.append("  at ").append(getClassName.invoke(getMethodType.invoke(method))).append('.').append(getMethodName.invoke(method));
+				sb.append(':').append(getLineNumber.invoke(frame)).append('\n');
+			}
+			return sb.toString();
+		}
+	}
+}
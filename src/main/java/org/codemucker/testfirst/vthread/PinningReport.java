@@ -0,0 +1,77 @@
+package org.codemucker.testfirst.vthread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Virtual thread pinning and carrier starvation seen while a workload ran. See {@link PinningMonitor}
+ */
+public class PinningReport {
+
+	private static final int DESCRIBE_TOP = 5;
+
+	private final List<PinningSite> sites;
+	private final long submitFailures;
+	private final long maxSchedulingNanos;
+
+	PinningReport(List<PinningSite> sites, long submitFailures, long maxSchedulingNanos) {
+		List<PinningSite> sorted = new ArrayList<>(sites);
+		Collections.sort(sorted, new Comparator<PinningSite>() {
+			@Override
+			public int compare(PinningSite a, PinningSite b) {
+				return Long.compare(b.getMaxNanos(), a.getMaxNanos());
+			}
+		});
+		this.sites = Collections.unmodifiableList(sorted);
+		this.submitFailures = submitFailures;
+		this.maxSchedulingNanos = maxSchedulingNanos;
+	}
+
+	/**
+	 * @return pinning sites, longest pinned first
+	 */
+	public List<PinningSite> getSites() {
+		return sites;
+	}
+
+	/**
+	 * @return the sites where a virtual thread was pinned for longer than the given time
+	 */
+	public List<PinningSite> getSitesPinnedLongerThan(long time, TimeUnit unit) {
+		long nanos = unit.toNanos(time);
+		List<PinningSite> longer = new ArrayList<>();
+		for (PinningSite site : sites) {
+			if (site.getMaxNanos() > nanos) {
+				longer.add(site);
+			}
+		}
+		return longer;
+	}
+
+	/**
+	 * @return how many times starting or unparking a virtual thread failed
+	 */
+	public long getSubmitFailures() {
+		return submitFailures;
+	}
+
+	/**
+	 * @return the longest a probe virtual thread waited for a carrier, showing carrier starvation
+	 */
+	public long getMaxSchedulingNanos() {
+		return maxSchedulingNanos;
+	}
+
+	public String describe() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(sites.size()).append(" pinning sites, ").append(submitFailures).append(" submit failures, max carrier wait ")
+				.append(TimeUnit.NANOSECONDS.toMillis(maxSchedulingNanos)).append("ms\n");
+		for (PinningSite site : sites.subList(0, Math.min(DESCRIBE_TOP, sites.size()))) {
+			sb.append(site).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,48 @@
+package org.codemucker.testfirst.vthread;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where virtual threads were pinned to their carrier, aggregated by stack
+ */
+public class PinningSite {
+
+	private final String stack;
+	private long count;
+	private long totalNanos;
+	private long maxNanos;
+
+	PinningSite(String stack) {
+		this.stack = stack;
+	}
+
+	void add(long nanos) {
+		count++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	/**
+	 * @return the pinned stack, innermost frame first, one frame per line
+	 */
+	public String getStack() {
+		return stack;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "pinned " + count + " times, max " + TimeUnit.NANOSECONDS.toMillis(maxNanos) + "ms, total " + TimeUnit.NANOSECONDS.toMillis(totalNanos) + "ms at\n" + stack;
+	}
+}
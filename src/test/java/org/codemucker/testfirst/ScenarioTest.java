@@ -1,21 +1,44 @@
 package org.codemucker.testfirst;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 
+import javax.inject.Inject;
+
+import org.codemucker.jmatch.AString;
 import org.codemucker.testfirst.Scenario.Deleter;
 import org.codemucker.testfirst.Scenario.Inserter;
 import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.journal.ScenarioJournal;
+import org.codemucker.testfirst.store.InMemoryStore;
+import org.codemucker.testfirst.store.Table;
+import org.codemucker.testfirst.tx.InMemoryStoreResource;
+import org.codemucker.testfirst.tx.TransactionalResource;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 
+import com.google.common.base.Functions;
+import com.google.inject.ImplementedBy;
+
 public class ScenarioTest {
 	
+	private static final List<Object> LEAKED = new ArrayList<>();
+	
 	private Mockery mocks = new Mockery();
 	
+	private HeldStep heldStep;
+	
 	@Rule public TestName name = new TestName();
 	
 	@Test
@@ -80,6 +103,197 @@ public class ScenarioTest {
 		mocks.assertIsSatisfied();
 	}
 	
+	@Test
+	public void thenFailsWhenActualDoesNotMatch() {
+		Scenario s = scenario();
+		try {
+			s.given(new Object()).whenNothing().then("bob", AString.equalTo("alice"));
+			Assert.fail("expected mismatch to fail the step");
+		} catch (TestFirstAssertionFailedException expected) {
+			//the failure used to be described but never thrown
+		}
+	}
+	
+	@Test
+	public void transactionalResourcesRolledBackOnEnd() {
+		InMemoryStore store = new InMemoryStore();
+		Table<String,String> table = store.table("names", String.class, Functions.<String>identity());
+		table.put("existing");
+		
+		Scenario s = scenario();
+		s.transactional(new InMemoryStoreResource(store));
+		s.given(table.inserter("alice", "bob"))
+			.whenNothing()
+			.thenNothing();
+		
+		Assert.assertEquals(3, table.size());
+		s.assertHasRunAndPassed();
+		Assert.assertEquals(1, table.size());
+		Assert.assertTrue(table.contains("existing"));
+	}
+	
+	@Test
+	public void injectorResourcesRolledBackBeforeOtherListenersTearDown() {
+		final List<String> events = new ArrayList<String>();
+		TestInjector injector = new TestInjector().transactional(new TransactionalResource() {
+			@Override
+			public void begin() {
+				events.add("begin");
+			}
+
+			@Override
+			public void rollback() {
+				events.add("rollback");
+			}
+		});
+		Scenario s = new Scenario(name.getMethodName(), injector);
+		s.inject(new IRunOnScenarioEnd() {
+			@Override
+			public void onScenarioEnd() {
+				events.add("teardown");
+			}
+		});
+		s.given(new Object()).whenNothing().thenNothing();
+		s.assertHasRunAndPassed();
+		
+		Assert.assertEquals(Arrays.asList("begin", "rollback", "teardown"), events.subList(0, 3));
+	}
+	
+	@Test
+	public void steadyStateReusesStepRecords() {
+		final int[] runs = new int[2];
+		Runnable first = new Runnable() {
+			@Override
+			public void run() {
+				runs[0]++;
+			}
+		};
+		Runnable second = new Runnable() {
+			@Override
+			public void run() {
+				runs[1]++;
+			}
+		};
+		
+		Scenario s = scenario();
+		SteadyState loop = s.steadyState();
+		for (int i = 0; i < 1000; i++) {
+			loop.when(first).when(second);
+		}
+		
+		Assert.assertEquals(1000, runs[0]);
+		Assert.assertEquals(1000, runs[1]);
+		Assert.assertEquals("1 when x1000\n2 when x1000\n", s.stepsToString().replaceAll("\\(.*\\)", ""));
+	}
+	
+	@Test
+	public void steadyStateRunsWithoutAllocating() throws Exception {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+		
+		final int[] runs = new int[1];
+		Runnable step = new Runnable() {
+			@Override
+			public void run() {
+				runs[0]++;
+			}
+		};
+		Path file = Files.createTempDirectory("journal").resolve("journal");
+		try (ScenarioJournal journal = new ScenarioJournal(file)) {
+			Scenario s = scenario().journalTo(journal);
+			s.inject(new IRunOnStepStart() {
+				@Override
+				public void onStepStart(String kind) {
+					runs[0]++;
+				}
+			});
+			SteadyState loop = s.steadyState();
+			//warm up so the loop is compiled
+			for (int i = 0; i < 50000; i++) {
+				loop.when(step);
+			}
+			long threadId = Thread.currentThread().getId();
+			long before = allocations.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < 100000; i++) {
+				loop.when(step);
+			}
+			long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+			
+			//allow for the odd journal region being mapped, but nothing per iteration
+			Assert.assertTrue("allocated " + allocated + " bytes", allocated < 100000);
+		}
+	}
+	
+	@Test
+	public void noLeaksPassesWhenInjectedObjectsCollected() {
+		Scenario s = new Scenario(name.getMethodName(), new TestInjector());
+		s.given(new Leaker(false))
+			.whenNothing()
+			.thenNoLeaks();
+		s.assertHasRunAndPassed();
+	}
+	
+	@Test
+	public void noLeaksIgnoresStepsHeldInFields() {
+		heldStep = new HeldStep();
+		Scenario s = new Scenario(name.getMethodName(), new TestInjector());
+		s.given(heldStep)
+			.whenNothing()
+			.thenNoLeaks();
+		s.assertHasRunAndPassed();
+	}
+	
+	@Test
+	public void noLeaksFailsWhenInjectedObjectRetained() {
+		Scenario s = new Scenario(name.getMethodName(), new TestInjector());
+		s.given(new Leaker(true))
+			.whenNothing()
+			.thenNoLeaks();
+		
+		TestFirstAssertionFailedException thrown = null;
+		try {
+			s.assertHasRunAndPassed();
+		} catch (TestFirstAssertionFailedException e) {
+			thrown = e;
+		} finally {
+			LEAKED.clear();
+		}
+		Assert.assertNotNull("expected leak to be detected", thrown);
+		Assert.assertTrue(thrown.getMessage(), thrown.getMessage().contains(ScenarioTest.class.getName() + ".LEAKED (static)"));
+	}
+	
+	private static class Leaker implements Runnable {
+		private final boolean leak;
+		@Inject
+		IRetained retained;
+		
+		Leaker(boolean leak) {
+			this.leak = leak;
+		}
+		
+		@Override
+		public void run() {
+			if (leak) {
+				LEAKED.add(retained);
+			}
+		}
+	}
+	
+	private static class HeldStep implements Runnable {
+		@Override
+		public void run() {
+		}
+	}
+	
+	@ImplementedBy(Retained.class)
+	public interface IRetained {
+	}
+	
+	public static class Retained implements IRetained {
+	}
+	
 	private Scenario scenario(){
 		return new Scenario(name.getMethodName());
 	}
@@ -0,0 +1,120 @@
+package org.codemucker.testfirst.calls;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.proxy.InterceptedProxy;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CallRecorderTest {
+
+	@Test
+	public void countsCallsThroughGeneratedProxy(){
+		CallRecorder recorder = new CallRecorder(Datastore.class);
+		TestInjector injector = new TestInjector().provide(Datastore.class, new InMemoryDatastore()).wrapWith(recorder);
+		
+		Repository repo = injector.inject(new Repository());
+		Assert.assertTrue(repo.store instanceof InterceptedProxy);
+		Assert.assertFalse(Proxy.isProxyClass(repo.store.getClass()));
+		
+		Assert.assertEquals(Arrays.asList("a!", "b!"), repo.store.query(Arrays.asList("a", "b")));
+		Assert.assertEquals(7L, repo.store.add(3, 4L, 0.5d));
+		try {
+			repo.store.fail();
+			Assert.fail("expected the target's exception");
+		} catch(IllegalStateException e){
+			//expected
+		}
+		
+		Assert.assertEquals(1, recorder.getCalls(Datastore.class, "query"));
+		Assert.assertEquals(2, recorder.getArgumentSize(Datastore.class, "query"));
+		Assert.assertEquals(3, recorder.getCalls(Datastore.class));
+		Assert.assertEquals(1, recorder.getStats(Datastore.class, "fail").get(0).getFailures());
+	}
+	
+	@Test
+	public void failsWhenStepCallsOverBudget(){
+		CallRecorder recorder = new CallRecorder(Datastore.class);
+		TestInjector injector = new TestInjector().provide(Datastore.class, new InMemoryDatastore()).wrapWith(recorder);
+		Scenario s = new Scenario("nPlusOne", injector);
+		final Repository repo = s.inject(new Repository());
+		
+		//calls made setting up aren't counted
+		s.given(repo).given(new Runnable() {
+			@Override
+			public void run() {
+				repo.loadOneByOne(10);
+			}
+		})
+		.when(new Runnable() {
+			@Override
+			public void run() {
+				repo.loadOneByOne(2);
+			}
+		})
+		.thenCallsAtMost(recorder, Datastore.class, "query", 2);
+		
+		s.given(repo).when(new Runnable() {
+			@Override
+			public void run() {
+				repo.loadOneByOne(4);
+			}
+		});
+		TestFirstAssertionFailedException thrown = null;
+		try {
+			s.given(repo).thenCallsAtMost(recorder, Datastore.class, "query", 3);
+		} catch(TestFirstAssertionFailedException e){
+			thrown = e;
+		}
+		Assert.assertNotNull("expected the call budget to fail", thrown);
+		Assert.assertTrue(thrown.getMessage(), thrown.getMessage().contains("Datastore.query calls=4"));
+	}
+	
+	public static class Repository {
+		@Inject
+		Datastore store;
+		
+		void loadOneByOne(int n){
+			for(int i = 0; i < n; i++){
+				store.query(Arrays.asList("id" + i));
+			}
+		}
+	}
+	
+	public interface Datastore {
+		List<String> query(List<String> ids);
+		
+		long add(int a, long b, double c);
+		
+		void fail();
+	}
+	
+	public static class InMemoryDatastore implements Datastore {
+		@Override
+		public List<String> query(List<String> ids) {
+			List<String> found = new ArrayList<>();
+			for(String id : ids){
+				found.add(id + "!");
+			}
+			return found;
+		}
+		
+		@Override
+		public long add(int a, long b, double c) {
+			return a + b + (long)c;
+		}
+		
+		@Override
+		public void fail() {
+			throw new IllegalStateException("failed");
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.codemucker.testfirst.contention;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ContentionMonitorTest {
+
+	@Test
+	public void failsOnHotLock() throws Exception {
+		ContentionMonitor monitor = new ContentionMonitor();
+		Scenario s = new Scenario("hotLock").monitorContention(monitor);
+		
+		s.given(new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				contend(new HotLock());
+			}
+		})
+		.when(new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				contend(new HotLock());
+			}
+		});
+		
+		TestFirstAssertionFailedException thrown = null;
+		try {
+			s.given(monitor).thenNoContentionOn(monitor, HotLock.class);
+		} catch(TestFirstAssertionFailedException e){
+			thrown = e;
+		}
+		ContentionReport report = monitor.getReport();
+		Assert.assertNotNull("expected contention on " + HotLock.class.getName() + "\n" + report.describe(), thrown);
+		Assert.assertTrue(report.describe(), report.getBlockedFraction() > 0.05);
+	}
+	
+	@Test
+	public void passesWithoutContention() {
+		ContentionMonitor monitor = new ContentionMonitor(false);
+		Scenario s = new Scenario("noLock").monitorContention(monitor);
+		
+		s.given(monitor).when(new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				Thread.sleep(20);
+			}
+		})
+		.thenBlockedAtMost(monitor, 0.05);
+		s.assertHasRunAndPassed();
+	}
+	
+	@Test
+	public void overlappingWindowsKeepMonitoringUntilLastCloses() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadContentionMonitoringSupported());
+		boolean original = threads.isThreadContentionMonitoringEnabled();
+		ContentionMonitor first = new ContentionMonitor(false);
+		ContentionMonitor second = new ContentionMonitor(false);
+		
+		first.onStepStart("when");
+		second.onStepStart("when");
+		first.onScenarioEnd();
+		Assert.assertTrue("expected monitoring kept on for the open window", threads.isThreadContentionMonitoringEnabled());
+		second.onScenarioEnd();
+		Assert.assertEquals(original, threads.isThreadContentionMonitoringEnabled());
+	}
+	
+	/**
+	 * Block a second thread on the lock while this thread holds it
+	 */
+	private static void contend(final HotLock lock) throws InterruptedException {
+		final CountDownLatch held = new CountDownLatch(1);
+		Thread blocked = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					held.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				synchronized (lock) {
+					lock.entered++;
+				}
+			}
+		});
+		blocked.start();
+		synchronized (lock) {
+			held.countDown();
+			Thread.sleep(100);
+		}
+		blocked.join();
+	}
+	
+	static class HotLock {
+		int entered;
+	}
+}
@@ -0,0 +1,137 @@
+package org.codemucker.testfirst.fault;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.calls.CallRecorder;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FaultInjectorTest {
+
+	@Test
+	public void failsAfterGivenCalls() throws Exception {
+		FaultInjector faults = new FaultInjector(Downstream.class);
+		TestInjector injector = new TestInjector().provide(Downstream.class, new EchoDownstream()).wrapWith(faults);
+		Scenario s = new Scenario("failAfter", injector);
+		Client client = s.inject(new Client());
+		
+		s.given(faults.on(Downstream.class, "fetch").failAfter(2, new IOException("connection reset")));
+		
+		Assert.assertEquals("a", client.downstream.fetch("a"));
+		Assert.assertEquals("b", client.downstream.fetch("b"));
+		try {
+			client.downstream.fetch("c");
+			Assert.fail("expected injected failure");
+		} catch(IOException e){
+			Assert.assertEquals("connection reset", e.getMessage());
+		}
+		//failed calls never reach the target, and other methods are unaffected
+		Assert.assertEquals(2, client.downstream.size());
+	}
+	
+	@Test
+	public void delaysCallsAndIsSeenByCallRecorder() throws Exception {
+		FaultInjector faults = new FaultInjector(Downstream.class);
+		CallRecorder recorder = new CallRecorder(Downstream.class);
+		TestInjector injector = new TestInjector().provide(Downstream.class, new EchoDownstream()).wrapWith(faults).wrapWith(recorder);
+		Client client = injector.inject(new Client());
+		
+		faults.on(Downstream.class).delay(20, TimeUnit.MILLISECONDS).invoke();
+		client.downstream.fetch("a");
+		
+		Assert.assertTrue(recorder.getTotalNanos(Downstream.class, "fetch") >= TimeUnit.MILLISECONDS.toNanos(20));
+		
+		injector.onScenarioEnd();
+		long start = System.nanoTime();
+		client.downstream.fetch("b");
+		Assert.assertTrue("expect rules removed on scenario end", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(20));
+	}
+	
+	@Test
+	public void timeoutsAreSeeded() throws Exception {
+		Assert.assertEquals(countTimeouts(42), countTimeouts(42));
+	}
+	
+	@Test
+	public void timeoutsAreSeededAcrossThreads() throws Exception {
+		Assert.assertEquals(countTimeoutsOnThreads(42), countTimeoutsOnThreads(42));
+	}
+	
+	private static int countTimeoutsOnThreads(long seed) throws Exception {
+		FaultInjector faults = new FaultInjector(seed, Downstream.class);
+		final Downstream downstream = (Downstream)faults.wrap(Downstream.class, new EchoDownstream());
+		faults.on(Downstream.class, "fetch").timeouts(0.5, 0, TimeUnit.MILLISECONDS).invoke();
+		final AtomicInteger timeouts = new AtomicInteger();
+		Thread[] callers = new Thread[4];
+		for(int t = 0; t < callers.length; t++){
+			callers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = 0; i < 250; i++){
+						try {
+							downstream.fetch("x");
+						} catch(InjectedFaultException e){
+							timeouts.incrementAndGet();
+						} catch(IOException e){
+							throw new AssertionError(e);
+						}
+					}
+				}
+			});
+			callers[t].start();
+		}
+		for(Thread caller : callers){
+			caller.join();
+		}
+		Assert.assertTrue(timeouts.get() > 0 && timeouts.get() < 1000);
+		return timeouts.get();
+	}
+	
+	private static int countTimeouts(long seed) throws Exception {
+		FaultInjector faults = new FaultInjector(seed, Downstream.class);
+		Downstream downstream = (Downstream)faults.wrap(Downstream.class, new EchoDownstream());
+		faults.on(Downstream.class, "fetch").timeouts(0.5, 0, TimeUnit.MILLISECONDS).invoke();
+		int timeouts = 0;
+		for(int i = 0; i < 100; i++){
+			try {
+				downstream.fetch("x");
+			} catch(InjectedFaultException e){
+				timeouts++;
+			}
+		}
+		Assert.assertTrue(timeouts > 0 && timeouts < 100);
+		return timeouts;
+	}
+	
+	public static class Client {
+		@Inject
+		Downstream downstream;
+	}
+	
+	public interface Downstream {
+		String fetch(String key) throws IOException;
+		
+		int size();
+	}
+	
+	public static class EchoDownstream implements Downstream {
+		private int calls;
+		
+		@Override
+		public String fetch(String key) {
+			calls++;
+			return key;
+		}
+		
+		@Override
+		public int size() {
+			return calls;
+		}
+	}
+}
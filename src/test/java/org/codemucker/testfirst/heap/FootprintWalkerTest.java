@@ -0,0 +1,68 @@
+package org.codemucker.testfirst.heap;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.heap.Footprint.ClassFootprint;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FootprintWalkerTest {
+
+	@Test
+	public void singletonsExcludedWhateverTheWalkOrder() {
+		Footprint sharedFirst = new FootprintWalker().measure(new Object[] { Holder.SHARED, new Holder() });
+		Footprint sharedLast = new FootprintWalker().measure(new Object[] { new Holder(), Holder.SHARED });
+		
+		Assert.assertTrue(sharedFirst.describe(5), sharedFirst.getTotalBytes() < Holder.SHARED.length);
+		Assert.assertEquals(sharedFirst.getTotalBytes(), sharedLast.getTotalBytes());
+	}
+
+	@Test
+	public void countsEveryObjectOfLargeParallelLevels() {
+		long[][] arrays = new long[10000][];
+		for (int i = 0; i < arrays.length; i++) {
+			arrays[i] = new long[4];
+		}
+		
+		Footprint footprint = new FootprintWalker().measure(arrays);
+		
+		Assert.assertEquals(arrays.length + 1, footprint.getObjectCount());
+		Assert.assertEquals(arrays.length, countOf(footprint, long[].class));
+		Assert.assertTrue(footprint.getTotalBytes() >= arrays.length * 4L * 8);
+	}
+
+	@Test
+	public void explicitExclusionsNotWalked() {
+		Holder holder = new Holder();
+		
+		Footprint footprint = new FootprintWalker().exclude(holder.own).measure(holder);
+		
+		Assert.assertEquals(1, footprint.getObjectCount());
+	}
+
+	@Test
+	public void retainedSizeFailureReportsLargestClasses() {
+		Scenario s = new Scenario("retainedSize");
+		try {
+			s.given(new Object()).whenNothing().thenRetainedSizeAtMost(new Holder(), 8);
+			Assert.fail("expected retained size check to fail");
+		} catch (TestFirstAssertionFailedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(Holder.class.getName()));
+		}
+	}
+
+	private static long countOf(Footprint footprint, Class<?> type) {
+		for (ClassFootprint c : footprint.getByClass()) {
+			if (c.getType() == type) {
+				return c.getCount();
+			}
+		}
+		return 0;
+	}
+
+	static class Holder {
+		static final byte[] SHARED = new byte[10000];
+		
+		final byte[] own = new byte[16];
+	}
+}
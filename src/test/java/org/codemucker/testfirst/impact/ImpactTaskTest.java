@@ -0,0 +1,86 @@
+package org.codemucker.testfirst.impact;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.isolate.ClassLoaderPool;
+import org.codemucker.testfirst.schedule.ScenarioHistory;
+import org.codemucker.testfirst.schedule.ScenarioScheduler;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+import org.codemucker.testfirst.schedule.ScheduleResults;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImpactTaskTest {
+
+	@Test
+	public void skipsUnchangedPassedScenarios() throws Exception {
+		Path dir = Files.createTempDirectory("impact");
+		Path file = dir.resolve("impact.tsv");
+		ScenarioScheduler scheduler = new ScenarioScheduler(ScenarioHistory.load(dir.resolve("history")), 2);
+		
+		ImpactIndex index = ImpactIndex.load(file, ClassLoaderPool.applicationClasspath());
+		ScheduleResults first = scheduler.run(tasks(index));
+		index.save();
+		
+		Assert.assertEquals(0, first.getCachedCount());
+		Assert.assertEquals(1, first.getFailures().size());
+		String saved = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		Assert.assertTrue(saved, saved.contains(Helper.class.getName()));
+		//shared framework classes are only recorded when not covered by a jar fingerprint
+		boolean frameworkInDirectory = Files.isDirectory(Paths.get(Scenario.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+		Assert.assertEquals(saved, frameworkInDirectory, saved.contains(Scenario.class.getName() + "\t"));
+		Assert.assertFalse("JDK classes are never recorded", saved.contains(String.class.getName() + "\t"));
+		
+		ScheduleResults second = scheduler.run(tasks(ImpactIndex.load(file, ClassLoaderPool.applicationClasspath())));
+		
+		//the failed scenario always runs again
+		Assert.assertEquals(1, second.getCachedCount());
+		Assert.assertEquals(1, second.getFailures().size());
+		
+		//as if the helper's bytecode changed since
+		Files.write(file, saved.replaceAll(Helper.class.getName().replace("$", "\\$") + "\t[0-9a-f]+", Helper.class.getName().replace("$", "\\$") + "\t0").getBytes(StandardCharsets.UTF_8));
+		
+		Assert.assertFalse(ImpactIndex.load(file, ClassLoaderPool.applicationClasspath()).isUnchanged(UsesHelper.class.getName()));
+	}
+
+	private static List<ScenarioTask> tasks(ImpactIndex index) {
+		return Arrays.<ScenarioTask> asList(new ImpactTask(index, UsesHelper.class), new ImpactTask(index, Fails.class));
+	}
+
+	public static class UsesHelper implements ScenarioTask {
+		@Override
+		public String getName() {
+			return UsesHelper.class.getName();
+		}
+
+		@Override
+		public void run() {
+			Assert.assertEquals(2, new Helper().twice(1));
+			new Scenario("usesHelper");
+		}
+	}
+
+	public static class Fails implements ScenarioTask {
+		@Override
+		public String getName() {
+			return Fails.class.getName();
+		}
+
+		@Override
+		public void run() {
+			Assert.fail("always fails");
+		}
+	}
+
+	public static class Helper {
+		int twice(int n) {
+			return n * 2;
+		}
+	}
+}
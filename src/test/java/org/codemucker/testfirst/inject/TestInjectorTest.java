@@ -0,0 +1,240 @@
+package org.codemucker.testfirst.inject;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.codemucker.testfirst.heap.LeakDetector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.inject.ImplementedBy;
+import com.google.inject.Provider;
+
+public class TestInjectorTest {
+
+	@Test
+	public void childResolvesThroughParent(){
+		Pool pool = new Pool();
+		TestInjector parent = new TestInjector().provide(Pool.class, pool);
+		TestInjector child = parent.newChild();
+		
+		NeedsPool needs = child.inject(new NeedsPool());
+		
+		Assert.assertSame(pool, needs.pool);
+	}
+	
+	@Test
+	public void childOverridesParent(){
+		Pool parentPool = new Pool();
+		Pool childPool = new Pool();
+		TestInjector parent = new TestInjector().provide(Pool.class, parentPool);
+		TestInjector child = parent.newChild().provide(Pool.class, childPool);
+		
+		NeedsPool needs = child.inject(new NeedsPool());
+		
+		Assert.assertSame(childPool, needs.pool);
+	}
+	
+	@Test
+	public void childOnlyTearsDownWhatItCreated(){
+		Pool parentPool = new Pool();
+		Pool childPool = new Pool();
+		TestInjector parent = new TestInjector().provide(Pool.class, parentPool);
+		TestInjector child = parent.newChild().provide("child", childPool);
+		
+		child.inject(new NeedsPool());
+		child.onScenarioEnd();
+		
+		Assert.assertTrue(childPool.closed);
+		Assert.assertFalse(parentPool.closed);
+		
+		//parent still usable by the next scenario
+		NeedsPool needs = parent.newChild().inject(new NeedsPool());
+		Assert.assertSame(parentPool, needs.pool);
+		
+		parent.onScenarioEnd();
+		Assert.assertTrue(parentPool.closed);
+	}
+	
+	@Test
+	public void singletonProviderInvokedOnce(){
+		CountingPoolProvider provider = new CountingPoolProvider();
+		TestInjector injector = new TestInjector().provide(Pool.class, null, ProviderScope.Singleton, provider);
+		
+		NeedsPool first = injector.inject(new NeedsPool());
+		NeedsPool second = injector.inject(new NeedsPool());
+		
+		Assert.assertSame(first.pool, second.pool);
+		Assert.assertEquals(1, provider.count.get());
+		
+		injector.onScenarioEnd();
+		Assert.assertTrue(first.pool.closed);
+	}
+	
+	@Test
+	public void unscopedProviderInvokedPerInjection(){
+		CountingPoolProvider provider = new CountingPoolProvider();
+		TestInjector injector = new TestInjector().provide(Pool.class, null, provider);
+		
+		injector.inject(new NeedsPool());
+		injector.inject(new NeedsPool());
+		
+		Assert.assertEquals(2, provider.count.get());
+	}
+	
+	@Test
+	public void perScenarioProviderCreatedAndTornDownPerChild(){
+		CountingPoolProvider provider = new CountingPoolProvider();
+		TestInjector parent = new TestInjector().provide(Pool.class, null, ProviderScope.PerScenario, provider);
+		
+		TestInjector child1 = parent.newChild();
+		Pool pool1 = child1.inject(new NeedsPool()).pool;
+		Assert.assertSame(pool1, child1.inject(new NeedsPool()).pool);
+		
+		TestInjector child2 = parent.newChild();
+		Pool pool2 = child2.inject(new NeedsPool()).pool;
+		
+		Assert.assertNotSame(pool1, pool2);
+		Assert.assertEquals(2, provider.count.get());
+		
+		child1.onScenarioEnd();
+		Assert.assertTrue(pool1.closed);
+		Assert.assertFalse(pool2.closed);
+	}
+	
+	@Test
+	public void perThreadProviderCreatedPerThread() throws Exception {
+		CountingPoolProvider provider = new CountingPoolProvider();
+		final TestInjector injector = new TestInjector().provide(Pool.class, null, ProviderScope.PerThread, provider);
+		
+		final Pool mainPool = injector.inject(new NeedsPool()).pool;
+		final Pool[] otherPool = new Pool[1];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				otherPool[0] = injector.inject(new NeedsPool()).pool;
+			}
+		});
+		t.start();
+		t.join();
+		
+		Assert.assertNotSame(mainPool, otherPool[0]);
+		Assert.assertSame(mainPool, injector.inject(new NeedsPool()).pool);
+		Assert.assertEquals(2, provider.count.get());
+	}
+	
+	@Test
+	public void perThreadInstancesReleasedOnScenarioEnd() throws Exception {
+		TestInjector injector = new TestInjector().provide(Pool.class, null, ProviderScope.PerThread, new CountingPoolProvider());
+		LeakDetector detector = new LeakDetector();
+		detector.track(injector.inject(new NeedsPool()).pool);
+		
+		injector.onScenarioEnd();
+		
+		detector.assertNoLeaks(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void deadThreadInstancesReleasedWhenAnotherThreadNeedsOne() throws Exception {
+		final TestInjector injector = new TestInjector().provide(Pool.class, null, ProviderScope.PerThread, new CountingPoolProvider());
+		final LeakDetector detector = new LeakDetector();
+		final Pool[] deadThreadPool = new Pool[1];
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				NeedsPool needs = injector.inject(new NeedsPool());
+				Pool pool = needs.pool;
+				//the injected holder is tracked until teardown, so only the provider's own reference is left
+				needs.pool = null;
+				deadThreadPool[0] = pool;
+				detector.track(pool);
+			}
+		});
+		t.start();
+		t.join();
+		Pool pool = deadThreadPool[0];
+		deadThreadPool[0] = null;
+		
+		injector.inject(new NeedsPool());
+		
+		Assert.assertTrue(pool.closed);
+		pool = null;
+		detector.assertNoLeaks(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void lazyDependenciesObtainedOnFirstUse(){
+		CountingPoolProvider provider = new CountingPoolProvider();
+		TestInjector injector = new TestInjector().provide(Pool.class, null, ProviderScope.PerScenario, provider);
+		
+		NeedsLazyPool needs = injector.inject(new NeedsLazyPool());
+		Assert.assertEquals(0, provider.count.get());
+		Assert.assertEquals(0, Service.created.get());
+		
+		Pool pool = needs.pool.get();
+		Assert.assertSame(pool, needs.poolSupplier.get());
+		Assert.assertEquals(1, provider.count.get());
+		
+		Assert.assertEquals("called", needs.service.call());
+		Assert.assertEquals(1, Service.created.get());
+		
+		injector.onScenarioEnd();
+		Assert.assertTrue(pool.closed);
+	}
+	
+	public static class NeedsLazyPool {
+		@Inject
+		Provider<Pool> pool;
+		@Inject
+		Supplier<Pool> poolSupplier;
+		@Inject
+		@Lazy
+		IService service;
+	}
+	
+	@ImplementedBy(Service.class)
+	public interface IService {
+		String call();
+	}
+	
+	public static class Service implements IService {
+		static final AtomicInteger created = new AtomicInteger();
+		
+		public Service(){
+			created.incrementAndGet();
+		}
+		
+		@Override
+		public String call(){
+			return "called";
+		}
+	}
+	
+	public static class CountingPoolProvider implements Provider<Pool> {
+		final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Pool get() {
+			count.incrementAndGet();
+			return new Pool();
+		}
+	}
+	
+	public static class Pool implements Closeable {
+		boolean closed;
+		
+		@Override
+		public void close(){
+			closed = true;
+		}
+	}
+	
+	public static class NeedsPool {
+		@Inject
+		Pool pool;
+	}
+}
@@ -0,0 +1,144 @@
+package org.codemucker.testfirst.interleave;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.inject.Provider;
+
+public class InterleavingExplorerTest {
+
+	@Test
+	public void findsLostUpdateAndReplaysIt() throws Exception {
+		for (ScheduleStrategy strategy : ScheduleStrategy.values()) {
+			InterleavingExplorer explorer = new InterleavingExplorer(new CounterCase(false)).strategy(strategy).schedules(200).seed(42);
+			ExplorationResult result = explorer.explore();
+			
+			Assert.assertFalse(strategy + " should find the lost update", result.isPassed());
+			ScheduleRun failed = result.getFirstFailure();
+			ScheduleRun replayed = explorer.replay(failed.getSeed());
+			Assert.assertTrue(replayed.isFailed());
+			Assert.assertEquals(failed.getTrace(), replayed.getTrace());
+		}
+	}
+
+	@Test
+	public void passesWhenUpdatesAreAtomic() throws Exception {
+		ExplorationResult result = new InterleavingExplorer(new CounterCase(true)).schedules(200).explore();
+		
+		Assert.assertTrue(result.isPassed());
+		Assert.assertEquals(200, result.getSchedules());
+	}
+
+	@Test
+	public void yieldsOnInjectedCallsAndReportsSeedInStep() throws Exception {
+		final YieldOnCall yields = new YieldOnCall(Store.class);
+		InterleavingExplorer explorer = new InterleavingExplorer(new Provider<ConcurrentCase>() {
+			@Override
+			public ConcurrentCase get() {
+				final Client client = new TestInjector().provide(Store.class, new MapStore()).wrapWith(yields).inject(new Client());
+				return new ConcurrentCase() {
+					@Override
+					public List<Invoker> workers() {
+						return Arrays.asList(client.incrementer(), client.incrementer());
+					}
+
+					@Override
+					public void verify() {
+						Assert.assertEquals(2, client.store.get());
+					}
+				};
+			}
+		}).schedules(100);
+		
+		Scenario s = new Scenario("explore");
+		try {
+			s.given(new Object()).when(explorer.asInvoker());
+			Assert.fail("expected a failing schedule");
+		} catch (TestFirstAssertionFailedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("Replay with seed"));
+		}
+	}
+
+	private static class CounterCase implements Provider<ConcurrentCase> {
+		private final boolean atomic;
+
+		CounterCase(boolean atomic) {
+			this.atomic = atomic;
+		}
+
+		@Override
+		public ConcurrentCase get() {
+			final int[] counter = new int[1];
+			final Object lock = new Object();
+			final Invoker increment = new Invoker() {
+				@Override
+				public void invoke() {
+					if (atomic) {
+						Interleaving.yieldPoint();
+						synchronized (lock) {
+							counter[0]++;
+						}
+					} else {
+						int read = counter[0];
+						Interleaving.yieldPoint();
+						counter[0] = read + 1;
+					}
+				}
+			};
+			return new ConcurrentCase() {
+				@Override
+				public List<Invoker> workers() {
+					return Arrays.asList(increment, increment);
+				}
+
+				@Override
+				public void verify() {
+					Assert.assertEquals(2, counter[0]);
+				}
+			};
+		}
+	}
+
+	public interface Store {
+		int get();
+
+		void set(int value);
+	}
+
+	public static class MapStore implements Store {
+		private volatile int value;
+
+		@Override
+		public int get() {
+			return value;
+		}
+
+		@Override
+		public void set(int value) {
+			this.value = value;
+		}
+	}
+
+	public static class Client {
+		@Inject
+		Store store;
+
+		Invoker incrementer() {
+			return new Invoker() {
+				@Override
+				public void invoke() {
+					store.set(store.get() + 1);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.codemucker.testfirst.isolate;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.inject.TestInjector;
+import org.codemucker.testfirst.schedule.ScenarioHistory;
+import org.codemucker.testfirst.schedule.ScenarioScheduler;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+import org.codemucker.testfirst.schedule.ScheduleResults;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IsolatedTaskTest {
+
+	@Test
+	public void staticStateIsPerLoader() throws Exception {
+		try (ClassLoaderPool pool = new ClassLoaderPool()) {
+			List<ScenarioTask> tasks = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				tasks.add(new IsolatedTask(pool, "group" + i, ClaimsStatic.class));
+			}
+			ScenarioScheduler scheduler = new ScenarioScheduler(ScenarioHistory.load(Files.createTempDirectory("history").resolve("history")), 4);
+			ScheduleResults results = scheduler.run(tasks);
+			
+			results.assertAllPassed();
+			Assert.assertEquals(8, pool.getIdleCount());
+		}
+	}
+	
+	@Test
+	public void applicationClassesIsolatedFrameworkShared() throws Exception {
+		try (ClassLoaderPool pool = new ClassLoaderPool()) {
+			IsolatingClassLoader a = pool.acquire("a");
+			IsolatingClassLoader b = pool.acquire("a");
+			
+			Assert.assertNotSame(a, b);
+			Assert.assertNotSame(a.loadClass(ClaimsStatic.class.getName()), b.loadClass(ClaimsStatic.class.getName()));
+			Assert.assertSame(Scenario.class, a.loadClass(Scenario.class.getName()));
+			Assert.assertSame(Inject.class, a.loadClass(Inject.class.getName()));
+			
+			pool.release(a);
+			Assert.assertSame(a, pool.acquire("a"));
+			Assert.assertNotSame(a, pool.acquire("b"));
+		}
+	}
+	
+	/**
+	 * Fails if another thread is running it in the same loader
+	 */
+	public static class ClaimsStatic implements ScenarioTask {
+		static Thread owner;
+		
+		@Inject
+		private Dependency dependency;
+		
+		@Override
+		public String getName() {
+			return getClass().getName();
+		}
+		
+		@Override
+		public void run() throws Exception {
+			if (owner != null) {
+				throw new IllegalStateException("static already claimed by " + owner);
+			}
+			owner = Thread.currentThread();
+			Thread.sleep(50);
+			TestInjector injector = new TestInjector();
+			injector.provide(new Dependency());
+			injector.inject(this);
+			injector.close();
+			Assert.assertNotNull(dependency);
+			owner = null;
+		}
+	}
+	
+	public static class Dependency {
+	}
+}
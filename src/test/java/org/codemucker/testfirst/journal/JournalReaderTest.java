@@ -0,0 +1,158 @@
+package org.codemucker.testfirst.journal;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.codemucker.jmatch.AString;
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Fetcher;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.SteadyState;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JournalReaderTest {
+
+	@Test
+	public void stepsAreJournaledAndAggregated() throws Exception {
+		Path file = Files.createTempDirectory("journal").resolve("steps.journal");
+		ScenarioJournal journal = new ScenarioJournal(file);
+		
+		Scenario looping = new Scenario("looping").journalTo(journal);
+		SteadyState loop = looping.steadyState();
+		for (int i = 0; i < 1000; i++) {
+			loop.when(NOOP);
+		}
+		looping.given(SLOW);
+		
+		for (int i = 0; i < 3; i++) {
+			Scenario failing = new Scenario("failing" + i).journalTo(journal);
+			try {
+				failing.given(new Invoker() {
+					@Override
+					public void invoke() throws Exception {
+						throw new IllegalStateException("boom");
+					}
+				});
+				Assert.fail("expected failure");
+			} catch (RuntimeException expected) {
+			}
+		}
+		journal.close();
+		
+		try (JournalReader reader = new JournalReader(file)) {
+			Assert.assertEquals(1004, reader.getRecordCount());
+			
+			JournalRecord first = reader.get(0);
+			Assert.assertEquals("looping", first.getScenarioName());
+			Assert.assertEquals("when", first.getKind());
+			Assert.assertEquals(1, first.getStepIndex());
+			Assert.assertEquals(Scenario.State.Passed, first.getState());
+			
+			Map<String,Timing> byKind = reader.timingByKind();
+			Assert.assertEquals(1000, byKind.get("when").getCount());
+			Assert.assertEquals(0, byKind.get("when").getFailures());
+			Assert.assertEquals(4, byKind.get("given").getCount());
+			Assert.assertEquals(3, byKind.get("given").getFailures());
+			
+			List<JournalRecord> slowest = reader.slowest(2);
+			Assert.assertEquals(2, slowest.size());
+			Assert.assertEquals("given", slowest.get(0).getKind());
+			Assert.assertTrue(slowest.get(0).getDurationNanos() >= slowest.get(1).getDurationNanos());
+			
+			Map<String,Long> clusters = reader.failureClusters();
+			Assert.assertEquals(1, clusters.size());
+			Assert.assertEquals(Long.valueOf(3), clusters.get("java.lang.IllegalStateException: boom"));
+		}
+	}
+	
+	@Test
+	public void eachStepJournaledOnceWithItsOutcome() throws Exception {
+		Path file = Files.createTempDirectory("journal").resolve("outcomes.journal");
+		ScenarioJournal journal = new ScenarioJournal(file);
+		
+		Scenario s = new Scenario("outcomes").journalTo(journal);
+		try {
+			s.given(new Object())
+				.whenNothing()
+				.then("alice", AString.equalTo("alice"))
+				.then(new Fetcher<String>() {
+					@Override
+					public String fetch() throws Exception {
+						return "bob";
+					}
+				}, AString.equalTo("alice"));
+			Assert.fail("expected mismatch to fail the step");
+		} catch (TestFirstAssertionFailedException expected) {
+		}
+		journal.close();
+		
+		try (JournalReader reader = new JournalReader(file)) {
+			Assert.assertEquals(4, reader.getRecordCount());
+			Assert.assertEquals("given", reader.get(0).getKind());
+			Assert.assertEquals(Scenario.State.Passed, reader.get(0).getState());
+			Assert.assertEquals(Scenario.State.Passed, reader.get(2).getState());
+			
+			JournalRecord fetched = reader.get(3);
+			Assert.assertEquals(4, fetched.getStepIndex());
+			Assert.assertEquals(Scenario.State.Failed, fetched.getState());
+		}
+	}
+	
+	@Test
+	public void appendsRacingCloseAreDroppedNotFaulted() throws Exception {
+		Path file = Files.createTempDirectory("journal").resolve("racing.journal");
+		final ScenarioJournal journal = new ScenarioJournal(file);
+		final int kindId = journal.intern("when");
+		final CountDownLatch started = new CountDownLatch(4);
+		final List<Throwable> errors = new CopyOnWriteArrayList<>();
+		
+		Thread[] appenders = new Thread[4];
+		for (int i = 0; i < appenders.length; i++) {
+			appenders[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						for (int n = 0; n < 200000; n++) {
+							journal.append(1, kindId, n, kindId, -1, Scenario.State.Passed, 0, 1, -1);
+						}
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			});
+			appenders[i].start();
+		}
+		started.await();
+		journal.close();
+		long written = journal.getRecordCount();
+		for (Thread appender : appenders) {
+			appender.join();
+		}
+		
+		Assert.assertEquals(errors.toString(), 0, errors.size());
+		Assert.assertEquals(written, journal.getRecordCount());
+		try (JournalReader reader = new JournalReader(file)) {
+			Assert.assertEquals(written, reader.getRecordCount());
+		}
+	}
+	
+	private static final Invoker NOOP = new Invoker() {
+		@Override
+		public void invoke() throws Exception {
+		}
+	};
+	
+	private static final Invoker SLOW = new Invoker() {
+		@Override
+		public void invoke() throws Exception {
+			Thread.sleep(20);
+		}
+	};
+}
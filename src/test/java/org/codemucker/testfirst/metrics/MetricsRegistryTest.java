@@ -0,0 +1,54 @@
+package org.codemucker.testfirst.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.codemucker.testfirst.inject.TestInjector;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void countersAndTimersAreReported(){
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("a").inc();
+		registry.counter("a").add(2);
+		registry.timer("t").record(5);
+		registry.timer("t").record(3);
+		
+		Map<String,Long> values = registry.getValues();
+		Assert.assertEquals(Long.valueOf(3), values.get("a"));
+		Assert.assertEquals(Long.valueOf(2), values.get("t.count"));
+		Assert.assertEquals(Long.valueOf(8), values.get("t.totalNanos"));
+		Assert.assertEquals(Long.valueOf(5), values.get("t.maxNanos"));
+		
+		registry.reset();
+		Assert.assertEquals(Long.valueOf(0), registry.getValues().get("a"));
+		Assert.assertEquals(Long.valueOf(0), registry.getValues().get("t.maxNanos"));
+	}
+	
+	@Test
+	public void injectorRecordsToDefaultRegistry() throws Exception {
+		long injections = FrameworkMetrics.INJECTIONS.get();
+		long teardowns = FrameworkMetrics.TEARDOWN.getCount();
+		
+		TestInjector injector = new TestInjector();
+		injector.inject(new Object());
+		injector.close();
+		
+		Assert.assertTrue(FrameworkMetrics.INJECTIONS.get() > injections);
+		Assert.assertTrue(FrameworkMetrics.TEARDOWN.getCount() > teardowns);
+	}
+	
+	@Test
+	public void exposedAsMBean() throws Exception {
+		MetricsRegistry.getDefault().registerMBean();
+		MetricsRegistry.getDefault().registerMBean();
+		
+		Object values = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(MetricsRegistry.DEFAULT_OBJECT_NAME), "Values");
+		Assert.assertNotNull(values);
+	}
+}
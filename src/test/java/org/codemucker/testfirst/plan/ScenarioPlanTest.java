@@ -0,0 +1,90 @@
+package org.codemucker.testfirst.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.plan.ScenarioPlan.RowAction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScenarioPlanTest {
+
+	@Test
+	public void rowsRunSequentially(){
+		CountingInjector injector = new CountingInjector();
+		PlanResults<Integer> results = evenPlan().execute(rows(100), injector);
+		
+		Assert.assertEquals(100, results.getResults().size());
+		Assert.assertEquals(50, results.getFailures().size());
+		Assert.assertEquals(1, results.getFailures().get(0).getIndex());
+		Assert.assertEquals(2, results.getFailures().get(0).getFailedStep());
+		//step objects injected once per execution, not per row
+		Assert.assertEquals(3, injector.count.get());
+	}
+	
+	@Test
+	public void rowsRunInParallel(){
+		PlanResults<Integer> results = evenPlan().executeParallel(rows(1000), Scenario.NullInjector.Instance, 4);
+		
+		Assert.assertEquals(1000, results.getResults().size());
+		Assert.assertEquals(500, results.getFailures().size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(Integer.valueOf(i), results.getResults().get(i).getRow());
+			Assert.assertEquals(i % 2 == 0, results.getResults().get(i).hasPassed());
+		}
+	}
+	
+	@Test(expected = TestFirstAssertionFailedException.class)
+	public void assertAllPassedThrowsOnFailedRow(){
+		evenPlan().execute(rows(2)).assertAllPassed();
+	}
+	
+	@Test(expected = TestFirstAssertionFailedException.class)
+	public void planMustEndInThen(){
+		ScenarioPlan.<Integer>builder("no then").given(noop()).build();
+	}
+	
+	private static ScenarioPlan<Integer> evenPlan(){
+		return ScenarioPlan.<Integer>builder("even")
+			.given(noop())
+			.when(noop())
+			.then(new RowAction<Integer>() {
+				@Override
+				public void run(Integer row) {
+					if (row % 2 != 0) {
+						throw new AssertionError("odd " + row);
+					}
+				}
+			})
+			.build();
+	}
+	
+	private static RowAction<Integer> noop(){
+		return new RowAction<Integer>() {
+			@Override
+			public void run(Integer row) {
+			}
+		};
+	}
+	
+	private static List<Integer> rows(int count){
+		List<Integer> rows = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			rows.add(i);
+		}
+		return rows;
+	}
+	
+	private static class CountingInjector implements Scenario.Injector {
+		final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public <T> T inject(T obj) {
+			count.incrementAndGet();
+			return obj;
+		}
+	}
+}
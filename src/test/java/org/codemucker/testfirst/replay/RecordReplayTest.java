@@ -0,0 +1,182 @@
+package org.codemucker.testfirst.replay;
+
+import java.io.FileNotFoundException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordReplayTest {
+
+	@Test
+	public void replaysRecordedResponsesWithoutCallingDependency() throws Exception {
+		Path file = Files.createTempDirectory("replay").resolve("pricing.recording");
+		
+		RecordReplay recorder = new RecordReplay(file, Pricing.class);
+		Assert.assertEquals(ReplayMode.Record, recorder.getMode());
+		Pricing recording = (Pricing)recorder.wrap(Pricing.class, new SlowPricing(1));
+		Assert.assertEquals(Arrays.asList(10, 20), recording.prices(Arrays.asList("a", "bb")));
+		Assert.assertEquals(Arrays.asList(11, 21), recording.prices(Arrays.asList("a", "bb")));
+		try {
+			recording.prices(null);
+			Assert.fail("expected error");
+		} catch(FileNotFoundException e){
+			//expected
+		}
+		recorder.onScenarioEnd();
+		
+		//as if a later run, where the recording already exists
+		Path recorded = Files.copy(file, file.resolveSibling("recorded.recording"));
+		RecordReplay replayer = new RecordReplay(recorded, Pricing.class);
+		Assert.assertEquals(ReplayMode.Replay, replayer.getMode());
+		SlowPricing stub = new SlowPricing(100);
+		Pricing replaying = (Pricing)replayer.wrap(Pricing.class, stub);
+		Assert.assertEquals(Arrays.asList(10, 20), replaying.prices(Arrays.asList("a", "bb")));
+		Assert.assertEquals(Arrays.asList(11, 21), replaying.prices(Arrays.asList("a", "bb")));
+		try {
+			replaying.prices(null);
+			Assert.fail("expected recorded error");
+		} catch(FileNotFoundException e){
+			Assert.assertEquals("no prices", e.getMessage());
+		}
+		Assert.assertEquals(0, stub.calls);
+		
+		//replay restarts each scenario
+		replayer.onScenarioEnd();
+		Assert.assertEquals(Arrays.asList(10, 20), replaying.prices(Arrays.asList("a", "bb")));
+	}
+	
+	@Test
+	public void scenariosSharingARecordingAllRecordIntoIt() throws Exception {
+		Path file = Files.createTempDirectory("replay").resolve("pricing.recording");
+		
+		RecordReplay first = new RecordReplay(file, Pricing.class);
+		((Pricing)first.wrap(Pricing.class, new SlowPricing(1))).prices(Arrays.asList("a"));
+		first.onScenarioEnd();
+		
+		RecordReplay second = new RecordReplay(file, Pricing.class);
+		Assert.assertEquals(ReplayMode.Record, second.getMode());
+		((Pricing)second.wrap(Pricing.class, new SlowPricing(1))).prices(Arrays.asList("bb"));
+		second.onScenarioEnd();
+		
+		RecordReplay replayer = new RecordReplay(file, ReplayMode.Replay, Pricing.class);
+		Pricing replaying = (Pricing)replayer.wrap(Pricing.class, new SlowPricing(100));
+		Assert.assertEquals(Arrays.asList(10), replaying.prices(Arrays.asList("a")));
+		Assert.assertEquals(Arrays.asList(20), replaying.prices(Arrays.asList("bb")));
+	}
+	
+	@Test
+	public void verifyFailsOnChangedResponses() throws Exception {
+		Path file = Files.createTempDirectory("replay").resolve("pricing.recording");
+		RecordReplay recorder = new RecordReplay(file, ReplayMode.Record, Pricing.class);
+		((Pricing)recorder.wrap(Pricing.class, new SlowPricing(1))).prices(Arrays.asList("a"));
+		recorder.onScenarioEnd();
+		
+		RecordReplay verifier = new RecordReplay(file, ReplayMode.Verify, Pricing.class);
+		((Pricing)verifier.wrap(Pricing.class, new SlowPricing(2))).prices(Arrays.asList("a"));
+		TestFirstAssertionFailedException thrown = null;
+		try {
+			verifier.onScenarioEnd();
+		} catch(TestFirstAssertionFailedException e){
+			thrown = e;
+		}
+		Assert.assertNotNull("expected mismatch", thrown);
+		Assert.assertTrue(thrown.getMessage(), thrown.getMessage().contains("recorded returned [10] but returned [20]"));
+	}
+	
+	@Test
+	public void verifyComparesResponsesWithoutEquals() throws Exception {
+		Path file = Files.createTempDirectory("replay").resolve("quotes.recording");
+		RecordReplay recorder = new RecordReplay(file, ReplayMode.Record, Quotes.class);
+		((Quotes)recorder.wrap(Quotes.class, new FixedQuotes(5))).quote("a");
+		recorder.onScenarioEnd();
+		
+		RecordReplay verifier = new RecordReplay(file, ReplayMode.Verify, Quotes.class);
+		((Quotes)verifier.wrap(Quotes.class, new FixedQuotes(5))).quote("a");
+		verifier.onScenarioEnd();
+		
+		((Quotes)verifier.wrap(Quotes.class, new FixedQuotes(6))).quote("a");
+		try {
+			verifier.onScenarioEnd();
+			Assert.fail("expected mismatch");
+		} catch(TestFirstAssertionFailedException e){
+			//expected
+		}
+	}
+	
+	@Test
+	public void recordersOfAFileShareOneIndex() throws Exception {
+		Path file = Files.createTempDirectory("replay").resolve("pricing.recording");
+		RecordReplay recorder = new RecordReplay(file, ReplayMode.Record, Pricing.class);
+		((Pricing)recorder.wrap(Pricing.class, new SlowPricing(1))).prices(Arrays.asList("a"));
+		recorder.onScenarioEnd();
+		
+		ReplayFile.Index index = ReplayFile.of(file).index();
+		Assert.assertSame(index, ReplayFile.of(file).index());
+		
+		RecordReplay replayer = new RecordReplay(file, ReplayMode.Replay, Pricing.class);
+		((Pricing)replayer.wrap(Pricing.class, new SlowPricing(100))).prices(Arrays.asList("a"));
+		Assert.assertSame(index, ReplayFile.of(file).index());
+	}
+	
+	public interface Quotes {
+		Quote quote(String sku);
+	}
+	
+	/**
+	 * Deliberately without equals
+	 */
+	public static class Quote implements Serializable {
+		private static final long serialVersionUID = 1L;
+		
+		final int price;
+		
+		Quote(int price){
+			this.price = price;
+		}
+	}
+	
+	public static class FixedQuotes implements Quotes {
+		private final int price;
+		
+		FixedQuotes(int price){
+			this.price = price;
+		}
+		
+		@Override
+		public Quote quote(String sku) {
+			return new Quote(price);
+		}
+	}
+	
+	public interface Pricing {
+		List<Integer> prices(List<String> skus) throws FileNotFoundException;
+	}
+	
+	public static class SlowPricing implements Pricing {
+		private final int multiplier;
+		int calls;
+		
+		SlowPricing(int multiplier){
+			this.multiplier = multiplier;
+		}
+		
+		@Override
+		public List<Integer> prices(List<String> skus) throws FileNotFoundException {
+			if(skus == null){
+				throw new FileNotFoundException("no prices");
+			}
+			Integer[] prices = new Integer[skus.size()];
+			for(int i = 0; i < prices.length; i++){
+				prices[i] = skus.get(i).length() * 10 * multiplier + calls;
+			}
+			calls++;
+			return Arrays.asList(prices);
+		}
+	}
+}
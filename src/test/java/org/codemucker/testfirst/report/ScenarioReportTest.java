@@ -0,0 +1,104 @@
+package org.codemucker.testfirst.report;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScenarioReportTest {
+
+	@Test
+	public void parallelScenariosAreStreamedWhole() throws Exception {
+		Path dir = Files.createTempDirectory("reports");
+		final JsonLinesReporter json = new JsonLinesReporter(dir.resolve("scenarios.jsonl"));
+		final JUnitXmlReporter xml = new JUnitXmlReporter(dir.resolve("TEST-scenarios.xml"), "scenarios");
+		
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 50; i++) {
+						Scenario scenario = new Scenario("s" + thread + "-" + i).reportTo(json).reportTo(xml);
+						scenario.given(NOOP).when(NOOP).thenNothing();
+						scenario.assertHasRunAndPassed();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Scenario failing = new Scenario("failing \"quoted\"").reportTo(json).reportTo(xml);
+		try {
+			failing.given(new Invoker() {
+				@Override
+				public void invoke() throws Exception {
+					throw new IllegalStateException("boom");
+				}
+			});
+			Assert.fail("expected failure");
+		} catch (RuntimeException expected) {
+		}
+		json.close();
+		xml.close();
+		
+		List<String> lines = Files.readAllLines(dir.resolve("scenarios.jsonl"), StandardCharsets.UTF_8);
+		Assert.assertEquals(201, lines.size());
+		for (String line : lines.subList(0, 200)) {
+			Assert.assertTrue(line, line.startsWith("{\"scenario\":\"s") && line.endsWith("]}"));
+			Assert.assertTrue(line, line.contains("\"status\":\"Passed\""));
+			Assert.assertTrue(line, line.contains("\"kind\":\"when\""));
+		}
+		String last = lines.get(200);
+		Assert.assertTrue(last, last.contains("\"scenario\":\"failing \\\"quoted\\\"\""));
+		Assert.assertTrue(last, last.contains("\"status\":\"Failed\"") && last.contains("boom"));
+		
+		String report = new String(Files.readAllBytes(dir.resolve("TEST-scenarios.xml")), StandardCharsets.UTF_8);
+		Assert.assertTrue(report.endsWith("</testsuite>\n"));
+		Assert.assertEquals(201, report.split("<testcase ").length - 1);
+		Assert.assertEquals(1, report.split("<failure ").length - 1);
+		Assert.assertTrue(report.contains("name=\"failing &quot;quoted&quot;\""));
+	}
+	
+	@Test
+	public void largeArgsSummarisedWithoutRendering() {
+		final List<ScenarioReport> reports = new ArrayList<>();
+		List<String> large = new ArrayList<String>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public String toString() {
+				throw new AssertionError("large args should not be rendered");
+			}
+		};
+		large.add("a");
+		Scenario scenario = new Scenario("largeArgs").reportTo(new ScenarioReporter() {
+			@Override
+			public void report(ScenarioReport report) {
+				reports.add(report);
+			}
+		});
+		scenario.given(large).when(NOOP).thenNothing();
+		scenario.assertHasRunAndPassed();
+		
+		String args = reports.get(0).getSteps().get(0).getArgs();
+		Assert.assertTrue(args, args.endsWith("[size=1]"));
+	}
+	
+	private static final Invoker NOOP = new Invoker() {
+		@Override
+		public void invoke() throws Exception {
+		}
+	};
+}
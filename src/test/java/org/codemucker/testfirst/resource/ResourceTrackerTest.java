@@ -0,0 +1,142 @@
+package org.codemucker.testfirst.resource;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.codemucker.testfirst.heap.FootprintWalker;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ResourceTrackerTest {
+
+	@Test
+	public void failsOnLeakedThread() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		ResourceTracker tracker = new ResourceTracker().settleMillis(100);
+		tracker.onScenarioStart();
+		Thread leaked = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "leaky-worker");
+		leaked.start();
+		try {
+			tracker.onScenarioEnd();
+			Assert.fail("expected leaked thread to fail");
+		} catch (TestFirstAssertionFailedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("leaky-worker"));
+		} finally {
+			release.countDown();
+			leaked.join();
+		}
+	}
+
+	@Test
+	public void ignoresFrameworkAndCommonPoolThreads() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread framework = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "testfirst-test-owned");
+		Scenario s = new Scenario("frameworkThreads").trackResources(new ResourceTracker().settleMillis(100));
+		try {
+			final long[][] arrays = new long[10000][1];
+			s.given(new Object()).when(new Invoker() {
+				@Override
+				public void invoke() {
+					//large enough to be walked on the common pool
+					new FootprintWalker().measure(arrays);
+				}
+			}).thenNothing();
+			framework.start();
+			s.assertHasRunAndPassed();
+		} finally {
+			release.countDown();
+			framework.join();
+		}
+	}
+
+	@Test
+	public void failsOnLeakedFileDescriptor() throws Exception {
+		Assume.assumeTrue(ResourceSnapshot.take().getFileDescriptors() != null);
+		Path file = Files.createTempFile("tracker", ".tmp");
+		ResourceTracker tracker = new ResourceTracker().settleMillis(100);
+		tracker.onScenarioStart();
+		FileChannel leaked = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			tracker.onScenarioEnd();
+			Assert.fail("expected leaked descriptor to fail");
+		} catch (TestFirstAssertionFailedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(file.getFileName().toString()));
+		} finally {
+			leaked.close();
+		}
+	}
+
+	@Test
+	public void passesWhenThreadReplaced() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable waiter = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		Thread before = new Thread(waiter, "replaced-worker");
+		before.start();
+		ResourceTracker tracker = new ResourceTracker().settleMillis(100);
+		tracker.onScenarioStart();
+		before.interrupt();
+		before.join();
+		Thread after = new Thread(waiter, "replacement-worker");
+		after.start();
+		try {
+			tracker.onScenarioEnd();
+		} finally {
+			release.countDown();
+			after.join();
+		}
+	}
+
+	@Test
+	public void passesWhenFileReopened() throws Exception {
+		Assume.assumeTrue(ResourceSnapshot.take().getFileDescriptors() != null);
+		Path file = Files.createTempFile("tracker", ".tmp");
+		FileChannel before = FileChannel.open(file, StandardOpenOption.READ);
+		ResourceTracker tracker = new ResourceTracker().settleMillis(100);
+		tracker.onScenarioStart();
+		before.close();
+		try (FileChannel after = FileChannel.open(Files.createTempFile("tracker", ".tmp"), StandardOpenOption.READ)) {
+			tracker.onScenarioEnd();
+		}
+	}
+
+	@Test
+	public void passesWhenNothingLeaked() {
+		ResourceTracker tracker = new ResourceTracker().settleMillis(100);
+		tracker.onScenarioStart();
+		tracker.onScenarioEnd();
+	}
+}
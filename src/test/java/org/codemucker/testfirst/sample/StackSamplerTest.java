@@ -0,0 +1,90 @@
+package org.codemucker.testfirst.sample;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.jmatch.AString;
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.report.ScenarioReport;
+import org.codemucker.testfirst.report.ScenarioReporter;
+import org.codemucker.testfirst.report.StepReport;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StackSamplerTest {
+
+	@Test
+	public void keepsSamplesOfSlowStepsOnly() throws Exception {
+		Path dir = Files.createTempDirectory("samples");
+		StackSampler sampler = new StackSampler(dir, 100, 2, TimeUnit.MILLISECONDS);
+		final ScenarioReport[] reported = new ScenarioReport[1];
+		
+		Scenario s = new Scenario("slow").sampleWith(sampler).reportTo(new ScenarioReporter() {
+			@Override
+			public void report(ScenarioReport report) {
+				reported[0] = report;
+			}
+		});
+		s.given(new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				//fast
+			}
+		})
+		.when(new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				slowCall();
+			}
+		})
+		.thenNothing();
+		s.assertHasRunAndPassed();
+		sampler.shutdown();
+		
+		List<StepReport> steps = reported[0].getSteps();
+		Assert.assertNull(steps.get(0).getStackSamples());
+		Assert.assertNull(steps.get(2).getStackSamples());
+		String samples = steps.get(1).getStackSamples();
+		Assert.assertNotNull(samples);
+		
+		List<String> lines = Files.readAllLines(Paths.get(samples), StandardCharsets.UTF_8);
+		Assert.assertFalse(lines.isEmpty());
+		boolean found = false;
+		for (String line : lines) {
+			Assert.assertTrue(line, line.matches(".+ \\d+"));
+			found |= line.contains(StackSamplerTest.class.getName() + ".slowCall;");
+		}
+		Assert.assertTrue("expected slowCall in samples " + lines, found);
+	}
+	
+	@Test
+	public void noSessionLeftOpenOnScenarioEnd() throws Exception {
+		StackSampler sampler = new StackSampler(Files.createTempDirectory("samples"), 100, 50, TimeUnit.MILLISECONDS);
+		
+		Scenario s = new Scenario("unfinished").sampleWith(sampler);
+		s.given(new Object())
+			.whenNothing()
+			.then("alice", AString.equalTo("alice"));
+		Assert.assertEquals(0, sampler.getOpenSessions());
+		try {
+			s.given(new Object()).whenNothing().then("alice", null);
+			Assert.fail("expected the null matcher to fail");
+		} catch (NullPointerException expected) {
+			//thrown outside the step's own failure handling so it never stopped sampling
+		}
+		Assert.assertEquals(1, sampler.getOpenSessions());
+		
+		s.assertHasRunAndPassed();
+		Assert.assertEquals(0, sampler.getOpenSessions());
+		sampler.shutdown();
+	}
+	
+	private static void slowCall() throws InterruptedException {
+		Thread.sleep(200);
+	}
+}
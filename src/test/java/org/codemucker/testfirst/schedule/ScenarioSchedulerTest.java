@@ -0,0 +1,66 @@
+package org.codemucker.testfirst.schedule;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScenarioSchedulerTest {
+
+	@Test
+	public void failedThenLongestRunFirstNextTime() throws Exception {
+		Path file = Files.createTempDirectory("history").resolve("scenarios.history");
+		List<ScenarioTask> tasks = new ArrayList<>();
+		tasks.add(task("quick", 1, false));
+		tasks.add(task("slow", 60, false));
+		tasks.add(task("medium", 30, false));
+		tasks.add(task("broken", 1, true));
+		for (int i = 0; i < 20; i++) {
+			tasks.add(task("tiny" + i, 0, false));
+		}
+		
+		ScheduleResults results = new ScenarioScheduler(ScenarioHistory.load(file), 3).run(tasks);
+		Assert.assertEquals(24, results.getResults().size());
+		Assert.assertEquals(1, results.getFailures().size());
+		Set<String> names = new HashSet<>();
+		for (TaskResult result : results.getResults()) {
+			names.add(result.getName());
+		}
+		Assert.assertEquals(24, names.size());
+		
+		List<ScenarioTask> order = new ScenarioScheduler(ScenarioHistory.load(file), 3).order(tasks);
+		Assert.assertEquals("broken", order.get(0).getName());
+		Assert.assertEquals("slow", order.get(1).getName());
+		Assert.assertEquals("medium", order.get(2).getName());
+	}
+	
+	@Test(expected = AssertionError.class)
+	public void assertAllPassedThrowsOnFailure() throws Exception {
+		Path file = Files.createTempDirectory("history").resolve("scenarios.history");
+		List<ScenarioTask> tasks = new ArrayList<>();
+		tasks.add(task("broken", 0, true));
+		new ScenarioScheduler(ScenarioHistory.load(file), 1).run(tasks).assertAllPassed();
+	}
+	
+	private static ScenarioTask task(final String name, final long sleepMillis, final boolean fail) {
+		return new ScenarioTask() {
+			@Override
+			public String getName() {
+				return name;
+			}
+			
+			@Override
+			public void run() throws Exception {
+				Thread.sleep(sleepMillis);
+				if (fail) {
+					throw new IllegalStateException(name + " failed");
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,92 @@
+package org.codemucker.testfirst.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.schedule.ScenarioTask;
+import org.codemucker.testfirst.schedule.ScheduleResults;
+import org.codemucker.testfirst.schedule.TaskResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardRunnerTest {
+
+	@Test
+	public void shardsRunInSeparateJvmsAndMerge() throws Exception {
+		Path dir = Files.createTempDirectory("shards");
+		ScheduleResults results = new ShardRunner(StaticSuite.class, 2)
+			.history(dir.resolve("history"))
+			.reportDir(dir.resolve("reports"))
+			.run();
+		
+		Assert.assertEquals(6, results.getResults().size());
+		Set<String> names = new HashSet<>();
+		for (TaskResult result : results.getResults()) {
+			names.add(result.getName());
+		}
+		Assert.assertEquals(6, names.size());
+		Assert.assertEquals(1, results.getFailures().size());
+		Assert.assertEquals("broken", results.getFailures().get(0).getName());
+		Assert.assertTrue(results.getFailures().get(0).getFailure().getMessage().contains("boom"));
+		
+		Assert.assertTrue(Files.exists(dir.resolve("history")));
+		List<String> merged = Files.readAllLines(dir.resolve("reports").resolve("scenarios.jsonl"), StandardCharsets.UTF_8);
+		Assert.assertEquals(5, merged.size());
+	}
+	
+	/**
+	 * A suite whose scenarios set static state
+	 */
+	public static class StaticSuite implements ScenarioSuite {
+		static String owner;
+		
+		@Override
+		public List<ScenarioTask> getTasks() {
+			List<ScenarioTask> tasks = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				tasks.add(task("scenario" + i));
+			}
+			tasks.add(new ScenarioTask() {
+				@Override
+				public String getName() {
+					return "broken";
+				}
+				
+				@Override
+				public void run() throws Exception {
+					throw new IllegalStateException("boom");
+				}
+			});
+			return tasks;
+		}
+		
+		private static ScenarioTask task(final String name) {
+			return new ScenarioTask() {
+				@Override
+				public String getName() {
+					return name;
+				}
+				
+				@Override
+				public void run() throws Exception {
+					Scenario scenario = new Scenario(name);
+					scenario.given(new Invoker() {
+						@Override
+						public void invoke() throws Exception {
+							owner = name;
+						}
+					}).thenNothing();
+					scenario.assertHasRunAndPassed();
+					owner = null;
+				}
+			};
+		}
+	}
+}
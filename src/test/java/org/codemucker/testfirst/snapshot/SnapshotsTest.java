@@ -0,0 +1,84 @@
+package org.codemucker.testfirst.snapshot;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnapshotsTest {
+
+	private static final String REPORT = "id,name\n1,alice\n2,bob\n3,carol\n4,dave\n";
+
+	@Test
+	public void updatesThenMatches() throws Exception {
+		Path dir = Files.createTempDirectory("snapshots");
+		//small chunks to cross chunk boundaries
+		SnapshotDiff updated = new Snapshots(dir, true, 7, 10).compare("reports/people.csv", REPORT);
+		
+		Assert.assertTrue(updated.isUpdated());
+		Assert.assertTrue(Files.exists(dir.resolve("reports/people.csv.sha256")));
+		
+		SnapshotDiff diff = new Snapshots(dir, false, 7, 10).compare("reports/people.csv", REPORT);
+		Assert.assertTrue(diff.describe(), diff.isMatched());
+		
+		//no sidecar falls back to comparing chunks
+		Files.delete(dir.resolve("reports/people.csv.sha256"));
+		Assert.assertTrue(new Snapshots(dir, false, 7, 10).compare("reports/people.csv", REPORT).isMatched());
+	}
+
+	@Test
+	public void handEditedGoldenOfSameSizeIsComparedNotTrusted() throws Exception {
+		Path dir = Files.createTempDirectory("snapshots");
+		new Snapshots(dir, true).compare("people.csv", REPORT);
+		
+		Path golden = dir.resolve("people.csv");
+		long modified = Files.getLastModifiedTime(golden).toMillis();
+		Files.write(golden, REPORT.replace("alice", "alicf").getBytes(StandardCharsets.UTF_8));
+		//filesystem timestamps can be coarse, so make sure the edit shows
+		Files.setLastModifiedTime(golden, FileTime.fromMillis(modified + 2000));
+		
+		SnapshotDiff diff = new Snapshots(dir, false).compare("people.csv", REPORT);
+		Assert.assertFalse("stale sidecar trusted", diff.isMatched());
+		Assert.assertEquals(Arrays.asList("-2: 1,alicf", "+2: 1,alice"), diff.getLines());
+	}
+
+	@Test
+	public void sameSizeContentWithSameCrcDoesNotMatch() throws Exception {
+		Path dir = Files.createTempDirectory("snapshots");
+		//a known CRC32 collision
+		new Snapshots(dir, true).compare("word.txt", "plumless");
+		
+		Assert.assertFalse(new Snapshots(dir, false).compare("word.txt", "buckeroo").isMatched());
+		Assert.assertTrue(new Snapshots(dir, false).compare("word.txt", "plumless").isMatched());
+	}
+
+	@Test
+	public void reportsBoundedDiffResyncingAfterInsertedLines() throws Exception {
+		Path dir = Files.createTempDirectory("snapshots");
+		new Snapshots(dir, true).compare("people.csv", REPORT);
+		
+		SnapshotDiff diff = new Snapshots(dir, false, 7, 10).compare("people.csv", "id,name\n1,alice\n1b,eve\n2,bob\n3,CAROL\n4,dave\n");
+		
+		Assert.assertFalse(diff.isMatched());
+		Assert.assertEquals(16, diff.getFirstMismatch());
+		Assert.assertEquals(Arrays.asList("+3: 1b,eve", "-4: 3,carol", "+5: 3,CAROL"), diff.getLines());
+	}
+
+	@Test
+	public void failsStepWhenGoldenMissing() throws Exception {
+		Snapshots snapshots = new Snapshots(Files.createTempDirectory("snapshots"), false);
+		Scenario s = new Scenario("snapshot");
+		try {
+			s.given(new Object()).thenMatchesSnapshot(snapshots, "missing.txt", REPORT);
+			Assert.fail("expected missing snapshot to fail");
+		} catch (TestFirstAssertionFailedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains(Snapshots.PROP_UPDATE));
+		}
+	}
+}
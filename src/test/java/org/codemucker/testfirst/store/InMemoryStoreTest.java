@@ -0,0 +1,218 @@
+package org.codemucker.testfirst.store;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.TestFirstRuntimeException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+public class InMemoryStoreTest {
+
+	private static final Function<Person,Long> ID = new Function<Person, Long>() {
+		@Override
+		public Long apply(Person p) {
+			return p.id;
+		}
+	};
+	
+	private static final Function<Person,String> NAME = new Function<Person, String>() {
+		@Override
+		public String apply(Person p) {
+			return p.name;
+		}
+	};
+	
+	private static final Function<Person,Integer> AGE = new Function<Person, Integer>() {
+		@Override
+		public Integer apply(Person p) {
+			return p.age;
+		}
+	};
+	
+	@Test
+	public void indexesFollowWrites(){
+		Table<Long,Person> people = people(new InMemoryStore());
+		people.put(new Person(1, "bob", 30));
+		people.put(new Person(2, "alice", 20));
+		people.put(new Person(3, "bob", 40));
+		
+		Assert.assertEquals(ids(1,3), ids(people.findBy("byName", "bob")));
+		Assert.assertEquals(ids(2,1), ids(people.findRange("byAge", 10, 35)));
+		
+		people.update(1L, new Function<Person, Person>() {
+			@Override
+			public Person apply(Person p) {
+				return new Person(p.id, "robert", p.age);
+			}
+		});
+		people.remove(3L);
+		
+		Assert.assertTrue(people.findBy("byName", "bob").isEmpty());
+		Assert.assertEquals(ids(1), ids(people.findBy("byName", "robert")));
+		Assert.assertEquals(ids(2,1), ids(people.findRange("byAge", null, null)));
+	}
+	
+	@Test
+	public void emptyRangeFindsNothing(){
+		Table<Long,Person> people = people(new InMemoryStore());
+		people.put(new Person(1, "bob", 30));
+		
+		Assert.assertTrue(people.findRange("byAge", 40, 10).isEmpty());
+		Assert.assertEquals(ids(1), ids(people.findRange("byAge", 30, 30)));
+	}
+	
+	@Test
+	public void restoreResetsToSnapshot(){
+		InMemoryStore store = new InMemoryStore();
+		Table<Long,Person> people = people(store);
+		people.put(new Person(1, "bob", 30));
+		
+		StoreSnapshot snapshot = store.snapshot();
+		
+		people.put(new Person(2, "alice", 20));
+		people.remove(1L);
+		Table<Long,Person> later = store.table("later", Person.class, ID);
+		later.put(new Person(9, "zed", 99));
+		
+		store.restore(snapshot);
+		
+		Assert.assertEquals(ids(1), ids(people.all()));
+		Assert.assertEquals(ids(1), ids(people.findBy("byName", "bob")));
+		Assert.assertTrue(people.findBy("byName", "alice").isEmpty());
+		Assert.assertEquals(0, later.size());
+		
+		//snapshot unaffected by writes after restore, so can be reused
+		people.put(new Person(3, "carl", 50));
+		store.restore(snapshot);
+		Assert.assertEquals(ids(1), ids(people.all()));
+	}
+	
+	@Test
+	public void restoreKeepsInsertionOrderOfRemovedAndUpdatedRows(){
+		InMemoryStore store = new InMemoryStore();
+		Table<Long,Person> people = people(store);
+		people.put(new Person(1, "bob", 30));
+		people.put(new Person(2, "alice", 20));
+		people.put(new Person(3, "bob", 40));
+		StoreSnapshot snapshot = store.snapshot();
+		
+		people.remove(1L);
+		people.put(new Person(3, "carl", 40));
+		people.put(new Person(1, "bob", 35));
+		store.restore(snapshot);
+		
+		Assert.assertEquals(ids(1,2,3), ids(people.all()));
+		Assert.assertEquals(ids(1,3), ids(people.findBy("byName", "bob")));
+		Assert.assertTrue(people.findBy("byName", "carl").isEmpty());
+		Assert.assertEquals(ids(1,3), ids(people.findRange("byAge", 30, 40)));
+	}
+	
+	@Test
+	public void restoringAnEarlierSnapshotDiscardsLaterOnes(){
+		InMemoryStore store = new InMemoryStore();
+		Table<Long,Person> people = people(store);
+		people.put(new Person(1, "bob", 30));
+		StoreSnapshot first = store.snapshot();
+		people.put(new Person(2, "alice", 20));
+		StoreSnapshot second = store.snapshot();
+		people.put(new Person(3, "carl", 50));
+		
+		store.restore(second);
+		Assert.assertEquals(ids(1,2), ids(people.all()));
+		people.remove(1L);
+		store.restore(first);
+		Assert.assertEquals(ids(1), ids(people.all()));
+		try {
+			store.restore(second);
+			Assert.fail("expected discarded snapshot to fail");
+		} catch (TestFirstRuntimeException expected) {
+		}
+		//clearing is undone like any other write
+		store.clear();
+		store.restore(first);
+		Assert.assertEquals(ids(1), ids(people.findBy("byName", "bob")));
+	}
+	
+	@Test
+	public void writeAndRestoreCostIndependentOfTableSize(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+		
+		InMemoryStore store = new InMemoryStore();
+		Table<Long,Person> people = people(store);
+		for (int i = 0; i < 100000; i++) {
+			people.put(new Person(i, "name" + (i % 100), i % 90));
+		}
+		StoreSnapshot snapshot = store.snapshot();
+		
+		long threadId = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < 100; i++) {
+			people.put(new Person(-1, "new", 1));
+			people.remove(5L);
+			store.restore(snapshot);
+		}
+		long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+		
+		//copying the table on each first write would allocate megabytes per iteration
+		Assert.assertTrue("allocated " + allocated + " bytes", allocated < 2000000);
+		Assert.assertEquals(100000, people.size());
+		Assert.assertEquals(ids(5), ids(people.findBy("byName", "name5").subList(0, 1)));
+	}
+	
+	@Test
+	public void scenarioSteps(){
+		Table<Long,Person> people = people(new InMemoryStore());
+		
+		Scenario s = new Scenario("scenarioSteps");
+		s.given(people.inserter(new Person(1, "bob", 30), new Person(2, "alice", 20)))
+			.given(people.deleter(2L))
+			.whenNothing()
+			.thenNothing();
+		s.assertHasRunAndPassed();
+		
+		Assert.assertEquals(ids(1), ids(people.all()));
+	}
+	
+	private static Table<Long,Person> people(InMemoryStore store){
+		return store.table("people", Person.class, ID)
+			.addHashIndex("byName", NAME)
+			.addSortedIndex("byAge", AGE);
+	}
+	
+	private static List<Long> ids(long... ids){
+		Long[] boxed = new Long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			boxed[i] = ids[i];
+		}
+		return Arrays.asList(boxed);
+	}
+	
+	private static List<Long> ids(List<Person> people){
+		Long[] ids = new Long[people.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = people.get(i).id;
+		}
+		return Arrays.asList(ids);
+	}
+	
+	static class Person {
+		final long id;
+		final String name;
+		final int age;
+		
+		Person(long id, String name, int age) {
+			this.id = id;
+			this.name = name;
+			this.age = age;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.codemucker.testfirst.tx;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JdbcSavepointResourceTest {
+
+	private Mockery mocks = new Mockery();
+
+	@Test
+	public void rollsBackToAndReleasesSavepointInOpenTransaction() throws Exception {
+		final Connection connection = mocks.mock(Connection.class);
+		final Savepoint savepoint = mocks.mock(Savepoint.class);
+		final Sequence order = mocks.sequence("order");
+		mocks.checking(new Expectations(){{
+			oneOf(connection).getAutoCommit(); will(returnValue(false));
+			oneOf(connection).setSavepoint(); will(returnValue(savepoint)); inSequence(order);
+			oneOf(connection).rollback(savepoint); inSequence(order);
+			oneOf(connection).releaseSavepoint(savepoint); inSequence(order);
+		}});
+
+		JdbcSavepointResource resource = new JdbcSavepointResource(connection);
+		resource.begin();
+		resource.rollback();
+
+		mocks.assertIsSatisfied();
+	}
+
+	@Test
+	public void autoCommitOnlyRestoredAfterFullRollback() throws Exception {
+		final Connection connection = mocks.mock(Connection.class);
+		final Sequence order = mocks.sequence("order");
+		mocks.checking(new Expectations(){{
+			oneOf(connection).getAutoCommit(); will(returnValue(true));
+			oneOf(connection).setAutoCommit(false); inSequence(order);
+			oneOf(connection).rollback(); inSequence(order);
+			oneOf(connection).setAutoCommit(true); inSequence(order);
+		}});
+
+		JdbcSavepointResource resource = new JdbcSavepointResource(connection);
+		resource.begin();
+		resource.rollback();
+
+		mocks.assertIsSatisfied();
+	}
+
+	@Test
+	public void autoCommitNotRestoredWhenRollbackFails() throws Exception {
+		final Connection connection = mocks.mock(Connection.class);
+		mocks.checking(new Expectations(){{
+			oneOf(connection).getAutoCommit(); will(returnValue(true));
+			oneOf(connection).setAutoCommit(false);
+			oneOf(connection).rollback(); will(throwException(new SQLException("connection lost")));
+			never(connection).setAutoCommit(true);
+		}});
+
+		JdbcSavepointResource resource = new JdbcSavepointResource(connection);
+		resource.begin();
+		try {
+			resource.rollback();
+			Assert.fail("expected rollback failure");
+		} catch (SQLException expected) {
+		}
+
+		mocks.assertIsSatisfied();
+	}
+}
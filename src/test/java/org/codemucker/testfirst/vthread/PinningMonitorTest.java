@@ -0,0 +1,59 @@
+package org.codemucker.testfirst.vthread;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codemucker.testfirst.Scenario;
+import org.codemucker.testfirst.Scenario.Invoker;
+import org.codemucker.testfirst.TestFirstAssertionFailedException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PinningMonitorTest {
+
+	@Test
+	public void failsOnPinningInsideSynchronized() {
+		Assume.assumeTrue("requires virtual threads", PinningMonitor.isSupported());
+		PinningMonitor pinning = new PinningMonitor();
+		final Object lock = new Object();
+		
+		Scenario s = new Scenario("pinned");
+		s.given(pinning).when(pinning.onVirtualThreads(4, new Invoker() {
+			@Override
+			public void invoke() throws Exception {
+				synchronized (lock) {
+					Thread.sleep(30);
+				}
+			}
+		}));
+		TestFirstAssertionFailedException thrown = null;
+		try {
+			s.given(pinning).thenNoPinningLongerThan(pinning, 10, TimeUnit.MILLISECONDS);
+		} catch (TestFirstAssertionFailedException e) {
+			thrown = e;
+		}
+		//from JDK 24 waiting in synchronized no longer pins
+		if (pinning.getReport().getSites().isEmpty()) {
+			Assert.assertNull(thrown);
+		} else {
+			Assert.assertNotNull(thrown);
+			Assert.assertTrue(thrown.getMessage(), thrown.getMessage().contains(PinningMonitorTest.class.getName()));
+		}
+	}
+	
+	@Test
+	public void unsupportedJvmFailsWhenStep() {
+		Assume.assumeFalse(PinningMonitor.isSupported());
+		PinningMonitor pinning = new PinningMonitor();
+		try {
+			new Scenario("unsupported").given(pinning).when(pinning.onVirtualThreads(1, new Invoker() {
+				@Override
+				public void invoke() throws Exception {
+				}
+			}));
+			Assert.fail("expected failure");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("not supported by this JVM"));
+		}
+	}
+}